@@ -34,8 +34,11 @@ import com.clevercloud.bianca.annotation.ClassImplementation;
 import com.clevercloud.bianca.env.*;
 import com.clevercloud.bianca.expr.ExprFactory;
 import com.clevercloud.bianca.function.AbstractFunction;
+import com.clevercloud.bianca.lib.UnserializeCache;
 import com.clevercloud.bianca.lib.db.JavaSqlDriverWrapper;
+import com.clevercloud.bianca.lib.db.JdbcConnectionPool;
 import com.clevercloud.bianca.lib.file.FileModule;
+import com.clevercloud.bianca.lib.regexp.RegexpCache;
 import com.clevercloud.bianca.lib.regexp.RegexpModule;
 import com.clevercloud.bianca.lib.session.BiancaSessionManager;
 import com.clevercloud.bianca.module.*;
@@ -78,7 +81,7 @@ public class BiancaContext {
    private final BiancaSessionManager _sessionManager;
    private final ClassLoader _loader;
    private ModuleContext _moduleContext;
-   private static LruCache<String, StringValue> _stringMap = new LruCache<String, StringValue>(8 * 1024);
+   private static ConcurrentLruCache<String, StringValue> _stringMap = new ConcurrentLruCache<String, StringValue>(8 * 1024);
    private HashMap<String, ModuleInfo> _modules = new HashMap<String, ModuleInfo>();
    private HashSet<ModuleStartupListener> _moduleStartupListeners = new HashSet<ModuleStartupListener>();
    private HashSet<String> _extensionSet = new HashSet<String>();
@@ -91,7 +94,7 @@ public class BiancaContext {
    private BiancaClass _stdClass;
     */
    private ConcurrentHashMap<String, JavaClassDef> _javaClassWrappers = new ConcurrentHashMap<String, JavaClassDef>();
-   private LruCache<String, String> _classNotFoundCache = new LruCache<String, String>(64);
+   private ConcurrentLruCache<String, String> _classNotFoundCache = new ConcurrentLruCache<String, String>(64);
    private HashMap<String, JavaClassDef> _lowerJavaClassWrappers = new HashMap<String, JavaClassDef>();
    private final IniDefinitions _iniDefinitions = new IniDefinitions();
    private Path _iniFile;
@@ -108,10 +111,11 @@ public class BiancaContext {
    // protected to allow locking from pro
    protected IntMap _functionNameMap = new IntMap(8192);
    private AbstractFunction[] _functionMap = new AbstractFunction[256];
-   private LruCache<String, BiancaProgram> _evalCache = new LruCache<String, BiancaProgram>(4096);
+   private ConcurrentLruCache<String, BiancaProgram> _evalCache = new ConcurrentLruCache<String, BiancaProgram>(4096);
    private int _includeCacheMax = 8192;
    private long _includeCacheTimeout = 10000L;
    private TimedCache<IncludeKey, Path> _includeCache;
+   private long _dependencyCheckInterval;
    //private LruCache<DefinitionKey,SoftReference<DefinitionState>> _defCache
    //    = new LruCache<DefinitionKey,SoftReference<DefinitionState>>(4096);
    private long _defCacheHitCount;
@@ -128,7 +132,13 @@ public class BiancaContext {
    private boolean _isStrict;
    private boolean _isLooseParse;
    private boolean _isRequireSource;
+   private double _profileProbability;
    private boolean _isConnectionPool = true;
+   private int _connectionPoolMax = 32;
+   private long _connectionPoolIdleTimeout = 60000L;
+   private long _connectionPoolMaxWait = 10000L;
+   private int _preparedStatementCacheSize = 64;
+   private volatile UnserializeCache _unserializeCache;
    private DataSource _database;
    private ConcurrentHashMap<String, DataSource> _databaseMap = new ConcurrentHashMap<String, DataSource>();
    protected ConcurrentHashMap<Env, Env> _activeEnvSet = new ConcurrentHashMap<Env, Env>();
@@ -214,8 +224,35 @@ public class BiancaContext {
       return "JSESSIONID";
    }
 
+   /**
+    * Returns how long, in milliseconds, a page's sources are trusted
+    * before they are checked again, 0 to check them on every request.
+    */
    public long getDependencyCheckInterval() {
-      return 2000L;
+      return _dependencyCheckInterval;
+   }
+
+   /*
+    * Sets the interval between checks of a page's sources, 0 to check
+    * them on every request.
+    */
+   public void setDependencyCheckInterval(long interval) {
+      _dependencyCheckInterval = interval;
+   }
+
+   /**
+    * Returns true if a background thread checks the page sources.
+    */
+   public boolean isDependencyWatch() {
+      return _pageManager.isDependencyWatch();
+   }
+
+   /*
+    * If true, a background thread checks the sources of the cached pages
+    * every dependency-check-interval, so requests never check them.
+    */
+   public void setDependencyWatch(boolean isWatch) {
+      _pageManager.setDependencyWatch(isWatch);
    }
 
    public int getIncludeCacheMax() {
@@ -249,15 +286,30 @@ public class BiancaContext {
       return "apache";
    }
 
+   /**
+    * Returns true if requests are profiled by sampling.
+    */
    public boolean isProfile() {
-      return false;
+      return _profileProbability > 0;
    }
 
    public int getProfileIndex(String name) {
       return -1;
    }
 
+   /**
+    * Returns the probability that a request is profiled.
+    */
+   public double getProfileProbability() {
+      return _profileProbability;
+   }
+
+   /**
+    * Sets the probability that a request is profiled, 0 to only profile
+    * on request.
+    */
    public void setProfileProbability(double probability) {
+      _profileProbability = probability;
    }
 
    private PageManager createPageManager() {
@@ -358,6 +410,53 @@ public class BiancaContext {
       _pageManager.setCompileFailover(isCompileFailover);
    }
 
+   /**
+    * Set true if parsed pages should be cached on disk.
+    */
+   public void setParseCache(boolean isParseCache) {
+      _pageManager.setParseCache(isParseCache);
+   }
+
+   /**
+    * Sets the directory of the on-disk parse cache.
+    */
+   public void setParseCacheDir(Path dir) {
+      _pageManager.setParseCacheDir(dir);
+   }
+
+   /**
+    * Adds a directory whose pages are parsed by preload().
+    */
+   public void addPreloadDir(Path dir) {
+      _pageManager.addPreloadDir(dir);
+   }
+
+   /**
+    * Sets the list file of pages to preload, rewritten on close.
+    */
+   public void setPreloadList(Path path) {
+      _pageManager.setPreloadList(path);
+   }
+
+   /**
+    * Sets the number of preload threads.
+    */
+   public void setPreloadThreadMax(int threadMax) {
+      _pageManager.setPreloadThreadMax(threadMax);
+   }
+
+   /**
+    * Parses the configured preload pages into the page cache, returning
+    * the number of pages.
+    */
+   public int preload() {
+      if (!_pageManager.isPreload()) {
+         return 0;
+      }
+
+      return _pageManager.preload();
+   }
+
    /*
     * Returns the expected encoding of php scripts.
     */
@@ -478,6 +577,13 @@ public class BiancaContext {
                database = (DataSource) ds;
             } else {
                database = new JavaSqlDriverWrapper((java.sql.Driver) ds, url);
+
+               if (_isConnectionPool) {
+                  database = new JdbcConnectionPool(database, key,
+                     _connectionPoolMax,
+                     _connectionPoolIdleTimeout,
+                     _connectionPoolMaxWait);
+               }
             }
 
             _databaseMap.put(key, database);
@@ -497,13 +603,36 @@ public class BiancaContext {
     * Marks the connection for removal from the connection pool.
     */
    public void markForPoolRemoval(Connection conn) {
+      JdbcConnectionPool.markForRemoval(conn);
+   }
+
+   /*
+    * Marks the connection as holding an SQL-started transaction.
+    */
+   public void markPoolTransaction(Connection conn) {
+      JdbcConnectionPool.markTransaction(conn);
    }
 
    /**
     * Unwrap connection if necessary.
     */
    public Connection getConnection(Connection conn) {
-      return conn;
+      return JdbcConnectionPool.unwrap(conn);
+   }
+
+   /**
+    * Returns the built-in connection pools, one per driver and url.
+    */
+   public ArrayList<JdbcConnectionPool> getConnectionPools() {
+      ArrayList<JdbcConnectionPool> poolList = new ArrayList<JdbcConnectionPool>();
+
+      for (DataSource database : _databaseMap.values()) {
+         if (database instanceof JdbcConnectionPool) {
+            poolList.add((JdbcConnectionPool) database);
+         }
+      }
+
+      return poolList;
    }
 
    /**
@@ -569,6 +698,40 @@ public class BiancaContext {
       RegexpModule.setRegexpCacheSize(size);
    }
 
+   /*
+    * Returns the shared regexp cache, for its hit, miss and compile counters.
+    */
+   public RegexpCache getRegexpCache() {
+      return RegexpModule.getRegexpCache();
+   }
+
+   /*
+    * Gets the memory budget of the shared unserialize cache, 0 if disabled.
+    */
+   public long getUnserializeCacheSize() {
+      UnserializeCache cache = _unserializeCache;
+
+      return cache != null ? cache.getCapacity() : 0;
+   }
+
+   /*
+    * Sets the memory budget of the shared unserialize cache, 0 to disable.
+    */
+   public void setUnserializeCacheSize(long size) {
+      if (size < 0 || size == getUnserializeCacheSize()) {
+         return;
+      }
+
+      _unserializeCache = size > 0 ? new UnserializeCache(size) : null;
+   }
+
+   /*
+    * Returns the shared unserialize cache, or null if it's disabled.
+    */
+   public UnserializeCache getUnserializeCache() {
+      return _unserializeCache;
+   }
+
    /*
     * Set to true if compiled pages need to be backed by php source files.
     */
@@ -597,6 +760,43 @@ public class BiancaContext {
       return _isConnectionPool;
    }
 
+   /*
+    * Sets the maximum number of pooled connections per database and user.
+    */
+   public void setConnectionPoolMax(int max) {
+      _connectionPoolMax = max;
+   }
+
+   /*
+    * Sets the time in milliseconds before an idle pooled connection is
+    * closed, 0 to keep idle connections.
+    */
+   public void setConnectionPoolIdleTimeout(long timeout) {
+      _connectionPoolIdleTimeout = timeout;
+   }
+
+   /*
+    * Sets the time in milliseconds to wait for a free pooled connection.
+    */
+   public void setConnectionPoolMaxWait(long maxWait) {
+      _connectionPoolMaxWait = maxWait;
+   }
+
+   /*
+    * Sets the number of prepared statements cached per connection,
+    * 0 to disable.
+    */
+   public void setPreparedStatementCacheSize(int size) {
+      _preparedStatementCacheSize = size;
+   }
+
+   /*
+    * Returns the number of prepared statements cached per connection.
+    */
+   public int getPreparedStatementCacheSize() {
+      return _preparedStatementCacheSize;
+   }
+
    /**
     * Adds a module
     */
@@ -955,6 +1155,17 @@ public class BiancaContext {
       _includeCache.put(key, path);
    }
 
+   /**
+    * Clears the include paths, e.g. after a source file changes.
+    */
+   public void clearIncludeCache() {
+      TimedCache<IncludeKey, Path> includeCache = _includeCache;
+
+      if (includeCache != null) {
+         includeCache.clear();
+      }
+   }
+
    /**
     * Returns the definition cache hit count.
     */
@@ -1743,10 +1954,19 @@ public class BiancaContext {
       return MethodIntern.intern("s" + _staticId++);
    }
 
-   public Map getSessionCache() {
+   public Map<String, Object> getSessionCache() {
       return null;
    }
 
+   /**
+    * Sets the persistent session store, see
+    * BiancaSessionManager.setSessionStore(String, Path, long).
+    */
+   public void setSessionStore(String type, Path dir, long flushInterval)
+      throws ConfigException {
+      _sessionManager.setSessionStore(type, dir, flushInterval);
+   }
+
    /**
     * Loads the session from the backing.
     */
@@ -1860,6 +2080,10 @@ public class BiancaContext {
 
       _sessionManager.close();
       _pageManager.close();
+
+      for (JdbcConnectionPool pool : getConnectionPools()) {
+         pool.close();
+      }
    }
 
    static class IncludeKey {
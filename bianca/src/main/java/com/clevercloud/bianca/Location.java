@@ -28,10 +28,12 @@
  */
 package com.clevercloud.bianca;
 
+import java.io.Serializable;
+
 /**
  * Records the source file location of a statement or expression.
  */
-public class Location {
+public class Location implements Serializable {
 
    public static final Location UNKNOWN = new Location();
    private final String _fileName;
@@ -90,4 +92,16 @@ public class Location {
    public String toString() {
       return "Location[" + _fileName + ":" + _lineNumber + "]";
    }
+
+   /**
+    * Keeps UNKNOWN a singleton when a location is deserialized.
+    */
+   private Object readResolve() {
+      if (_fileName == null && _lineNumber == 0
+         && _className == null && _functionName == null) {
+         return UNKNOWN;
+      } else {
+         return this;
+      }
+   }
 }
@@ -0,0 +1,76 @@
+/*
+ * Copyright (c) 2012 Clever Cloud SAS -- all rights reserved
+ *
+ * This file is part of Bianca(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Bianca Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Bianca Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Bianca Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ * @author Marc-Antoine Perennou <Marc-Antoine@Perennou.com>
+ */
+package com.clevercloud.bianca.compiler;
+
+import com.clevercloud.bianca.Location;
+import com.clevercloud.bianca.env.Value;
+import com.clevercloud.bianca.statement.Statement;
+
+/**
+ * Parent of the statement classes generated by the compiler.
+ *
+ * A compiled statement replaces the body of a function or of a page.
+ * Nodes the generator does not translate are kept in the <code>nodes</code>
+ * array and are executed by the interpreter.
+ */
+abstract public class CompiledStatement extends Statement {
+
+   protected static final Value[] NULL_ARGS = new Value[0];
+   private final Statement _source;
+
+   protected CompiledStatement(Statement source) {
+      super(source.getLocation());
+
+      _source = source;
+   }
+
+   /**
+    * Returns the interpreted statement this class was generated from.
+    */
+   public Statement getSource() {
+      return _source;
+   }
+
+   /**
+    * Rethrows the exception with the location of the failing loop.
+    */
+   protected final void rethrow(RuntimeException e, Location location) {
+      rethrow(e, RuntimeException.class, location);
+   }
+
+   @Override
+   public int fallThrough() {
+      return _source.fallThrough();
+   }
+
+   @Override
+   public String toString() {
+      return getClass().getSimpleName() + "[" + _source + "]";
+   }
+}
@@ -0,0 +1,263 @@
+/*
+ * Copyright (c) 2012 Clever Cloud SAS -- all rights reserved
+ *
+ * This file is part of Bianca(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Bianca Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Bianca Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Bianca Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ * @author Marc-Antoine Perennou <Marc-Antoine@Perennou.com>
+ */
+package com.clevercloud.bianca.compiler;
+
+import com.clevercloud.bianca.BiancaContext;
+import com.clevercloud.bianca.BiancaException;
+import com.clevercloud.util.L10N;
+
+import javax.tools.*;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URI;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.*;
+
+/**
+ * Compiles generated java sources in memory with the platform compiler.
+ */
+public class JavaClassCompiler {
+
+   private static final L10N L = new L10N(JavaClassCompiler.class);
+   private final JavaCompiler _compiler;
+   private final String _classPath;
+   private final ClassLoader _parentLoader;
+
+   public JavaClassCompiler() {
+      _compiler = ToolProvider.getSystemJavaCompiler();
+
+      if (_compiler == null) {
+         throw new BiancaException(L.l("compiling pages requires a JDK: no system java compiler is available"));
+      }
+
+      _parentLoader = BiancaContext.class.getClassLoader();
+      _classPath = buildClassPath(_parentLoader);
+   }
+
+   /**
+    * Compiles a class and loads it in its own class loader.
+    *
+    * @param className the fully qualified class name
+    * @param source    the java source
+    */
+   public Class<?> compile(String className, String source) {
+      return compile(className, source, _parentLoader);
+   }
+
+   /**
+    * Compiles a class and loads it in a child of the given class loader.
+    *
+    * @param className the fully qualified class name
+    * @param source    the java source
+    * @param parent    the loader of the classes used by the source
+    */
+   public Class<?> compile(String className, String source, ClassLoader parent) {
+      String classPath = _classPath;
+
+      if (parent != _parentLoader) {
+         classPath = buildClassPath(parent) + File.pathSeparator + _classPath;
+      }
+
+      MemoryFileManager fileManager
+         = new MemoryFileManager(_compiler.getStandardFileManager(null, null, null));
+
+      DiagnosticCollector<JavaFileObject> diagnostics
+         = new DiagnosticCollector<JavaFileObject>();
+
+      List<String> options = new ArrayList<String>();
+      options.add("-classpath");
+      options.add(classPath);
+      options.add("-g:none");
+      options.add("-nowarn");
+
+      List<JavaFileObject> sources = new ArrayList<JavaFileObject>();
+      sources.add(new SourceFile(className, source));
+
+      try {
+         Boolean isSuccess = _compiler.getTask(null, fileManager, diagnostics,
+            options, null, sources).call();
+
+         if (!Boolean.TRUE.equals(isSuccess)) {
+            StringBuilder sb = new StringBuilder();
+
+            for (Diagnostic<? extends JavaFileObject> diagnostic : diagnostics.getDiagnostics()) {
+               if (diagnostic.getKind() == Diagnostic.Kind.ERROR) {
+                  sb.append("\n").append(diagnostic.getMessage(null));
+               }
+            }
+
+            throw new BiancaException(L.l("can't compile {0}:{1}", className, sb));
+         }
+
+         MemoryClassLoader loader
+            = new MemoryClassLoader(parent, fileManager.getClasses());
+
+         return loader.loadClass(className);
+      } catch (ClassNotFoundException e) {
+         throw new BiancaException(e);
+      } finally {
+         try {
+            fileManager.close();
+         } catch (IOException e) {
+         }
+      }
+   }
+
+   private static String buildClassPath(ClassLoader loader) {
+      LinkedHashSet<String> entries = new LinkedHashSet<String>();
+
+      String classPath = System.getProperty("java.class.path");
+
+      if (classPath != null && classPath.length() > 0) {
+         entries.addAll(Arrays.asList(classPath.split(File.pathSeparator)));
+      }
+
+      for (; loader != null; loader = loader.getParent()) {
+         if (!(loader instanceof URLClassLoader)) {
+            continue;
+         }
+
+         for (URL url : ((URLClassLoader) loader).getURLs()) {
+            if ("file".equals(url.getProtocol())) {
+               try {
+                  entries.add(new File(url.toURI()).getPath());
+               } catch (Exception e) {
+                  entries.add(url.getPath());
+               }
+            }
+         }
+      }
+
+      StringBuilder sb = new StringBuilder();
+
+      for (String entry : entries) {
+         if (sb.length() > 0) {
+            sb.append(File.pathSeparatorChar);
+         }
+
+         sb.append(entry);
+      }
+
+      return sb.toString();
+   }
+
+   static class SourceFile extends SimpleJavaFileObject {
+
+      private final String _source;
+
+      SourceFile(String className, String source) {
+         super(URI.create("string:///" + className.replace('.', '/')
+            + Kind.SOURCE.extension), Kind.SOURCE);
+
+         _source = source;
+      }
+
+      @Override
+      public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+         return _source;
+      }
+   }
+
+   static class ClassFile extends SimpleJavaFileObject {
+
+      private final ByteArrayOutputStream _bytes = new ByteArrayOutputStream();
+
+      ClassFile(String className) {
+         super(URI.create("mem:///" + className.replace('.', '/')
+            + Kind.CLASS.extension), Kind.CLASS);
+      }
+
+      @Override
+      public OutputStream openOutputStream() {
+         return _bytes;
+      }
+
+      byte[] getBytes() {
+         return _bytes.toByteArray();
+      }
+   }
+
+   static class MemoryFileManager
+      extends ForwardingJavaFileManager<StandardJavaFileManager> {
+
+      private final HashMap<String, ClassFile> _classes = new HashMap<String, ClassFile>();
+
+      MemoryFileManager(StandardJavaFileManager fileManager) {
+         super(fileManager);
+      }
+
+      @Override
+      public JavaFileObject getJavaFileForOutput(Location location,
+                                                 String className,
+                                                 JavaFileObject.Kind kind,
+                                                 FileObject sibling) {
+         ClassFile file = new ClassFile(className);
+
+         _classes.put(className, file);
+
+         return file;
+      }
+
+      Map<String, byte[]> getClasses() {
+         HashMap<String, byte[]> classes = new HashMap<String, byte[]>();
+
+         for (Map.Entry<String, ClassFile> entry : _classes.entrySet()) {
+            classes.put(entry.getKey(), entry.getValue().getBytes());
+         }
+
+         return classes;
+      }
+   }
+
+   static class MemoryClassLoader extends ClassLoader {
+
+      private final Map<String, byte[]> _classes;
+
+      MemoryClassLoader(ClassLoader parent, Map<String, byte[]> classes) {
+         super(parent);
+
+         _classes = classes;
+      }
+
+      @Override
+      protected Class<?> findClass(String name)
+         throws ClassNotFoundException {
+         byte[] bytes = _classes.get(name);
+
+         if (bytes == null) {
+            throw new ClassNotFoundException(name);
+         }
+
+         return defineClass(name, bytes, 0, bytes.length);
+      }
+   }
+}
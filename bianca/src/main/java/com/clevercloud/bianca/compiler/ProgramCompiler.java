@@ -0,0 +1,245 @@
+/*
+ * Copyright (c) 2012 Clever Cloud SAS -- all rights reserved
+ *
+ * This file is part of Bianca(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Bianca Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Bianca Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Bianca Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ * @author Marc-Antoine Perennou <Marc-Antoine@Perennou.com>
+ */
+package com.clevercloud.bianca.compiler;
+
+import com.clevercloud.bianca.BiancaException;
+import com.clevercloud.bianca.function.AbstractFunction;
+import com.clevercloud.bianca.program.BiancaProgram;
+import com.clevercloud.bianca.program.Function;
+import com.clevercloud.bianca.program.InterpretedClassDef;
+import com.clevercloud.bianca.program.MethodDeclaration;
+import com.clevercloud.bianca.statement.Statement;
+import com.clevercloud.util.DaemonThreadFactory;
+import com.clevercloud.util.L10N;
+import com.clevercloud.vfs.Path;
+
+import java.lang.reflect.Constructor;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Compiles the statements of a parsed program to java classes.
+ *
+ * The page's main statement and the bodies of its functions and methods
+ * are compiled, then swapped in place of the interpreted statements.
+ * Programs which fail to compile are marked as not compilable and keep
+ * running interpreted.
+ */
+public class ProgramCompiler {
+
+   private static final Logger log = Logger.getLogger(ProgramCompiler.class.getName());
+   private static final L10N L = new L10N(ProgramCompiler.class);
+   private static final AtomicInteger _classCount = new AtomicInteger();
+   private JavaClassCompiler _javaCompiler;
+   private ExecutorService _executor;
+   private boolean _isClosed;
+
+   /**
+    * Compiles the program, returning true on success.
+    */
+   public boolean compile(BiancaProgram program) {
+      if (program.isCompiled() || !program.isCompilable()) {
+         return program.isCompiled();
+      }
+
+      if (!program.startCompiling()) {
+         return false;
+      }
+
+      try {
+         String prefix = getClassPrefix(program);
+
+         IdentityHashMap<Function, Statement> compiled = new IdentityHashMap<Function, Statement>();
+
+         for (Function fun : program.getFunctions()) {
+            compileFunction(compiled, prefix, fun);
+         }
+
+         for (InterpretedClassDef cl : program.getClasses()) {
+            for (Map.Entry<String, AbstractFunction> entry : cl.functionSet()) {
+               AbstractFunction fun = entry.getValue();
+
+               if (fun instanceof Function) {
+                  compileFunction(compiled, prefix + "_" + cl.getName(), (Function) fun);
+               }
+            }
+         }
+
+         Statement main = compileStatement(prefix, program.getStatement());
+
+         // swap only once everything has compiled
+         for (Map.Entry<Function, Statement> entry : compiled.entrySet()) {
+            entry.getKey().setCompiledStatement(entry.getValue());
+         }
+
+         program.setCompiledStatement(main);
+         program.setCompileException(null);
+
+         if (log.isLoggable(Level.FINE)) {
+            log.fine(L.l("Bianca[{0}] compiled page ({1} functions)",
+               program.getSourcePath(), compiled.size()));
+         }
+
+         return true;
+      } catch (Exception e) {
+         log.log(Level.FINE, e.toString(), e);
+
+         program.setCompilable(false);
+         program.setCompileException(e);
+
+         return false;
+      } catch (LinkageError e) {
+         log.log(Level.FINE, e.toString(), e);
+
+         program.setCompilable(false);
+         program.setCompileException(new BiancaException(e));
+
+         return false;
+      } finally {
+         program.finishCompiling();
+      }
+   }
+
+   /**
+    * Compiles the program in the background.
+    */
+   public void compileLater(final BiancaProgram program) {
+      ExecutorService executor = getExecutor();
+
+      if (executor == null) {
+         return;
+      }
+
+      try {
+         executor.execute(new Runnable() {
+            @Override
+            public void run() {
+               compile(program);
+            }
+         });
+      } catch (RejectedExecutionException e) {
+         log.log(Level.FINEST, e.toString(), e);
+      }
+   }
+
+   private void compileFunction(IdentityHashMap<Function, Statement> compiled,
+                                String prefix,
+                                Function fun) {
+      if (fun instanceof MethodDeclaration
+         || fun.getStatement() == null
+         || compiled.containsKey(fun)) {
+         return;
+      }
+
+      compiled.put(fun, compileStatement(prefix + "_" + fun.getName(),
+         fun.getStatement()));
+   }
+
+   /**
+    * Generates, compiles and instantiates a statement's class.
+    */
+   private Statement compileStatement(String name, Statement statement)
+      throws BiancaException {
+      String className = (StatementGenerator.mangleName(name)
+         + "_" + _classCount.incrementAndGet());
+
+      StatementGenerator generator = new StatementGenerator(className);
+
+      String source = generator.generate(statement);
+
+      if (log.isLoggable(Level.FINEST)) {
+         log.finest(source);
+      }
+
+      Class<?> cl = getJavaCompiler().compile(generator.getFullClassName(), source);
+
+      try {
+         Constructor<?> ctor = cl.getConstructor(Statement.class, Object[].class);
+
+         return (Statement) ctor.newInstance(statement, generator.getNodes());
+      } catch (Exception e) {
+         throw new BiancaException(e);
+      }
+   }
+
+   private String getClassPrefix(BiancaProgram program) {
+      Path path = program.getSourcePath();
+
+      if (path == null) {
+         return "eval";
+      }
+
+      String tail = path.getTail();
+
+      int p = tail.lastIndexOf('.');
+
+      if (p > 0) {
+         tail = tail.substring(0, p);
+      }
+
+      return tail;
+   }
+
+   private synchronized JavaClassCompiler getJavaCompiler() {
+      if (_javaCompiler == null) {
+         _javaCompiler = new JavaClassCompiler();
+      }
+
+      return _javaCompiler;
+   }
+
+   private synchronized ExecutorService getExecutor() {
+      if (_isClosed) {
+         return null;
+      } else if (_executor == null) {
+         _executor = Executors.newSingleThreadExecutor(
+            new DaemonThreadFactory("bianca-compiler"));
+      }
+
+      return _executor;
+   }
+
+   /**
+    * Stops the background compilation.
+    */
+   public synchronized void close() {
+      _isClosed = true;
+
+      if (_executor != null) {
+         _executor.shutdownNow();
+         _executor = null;
+      }
+   }
+}
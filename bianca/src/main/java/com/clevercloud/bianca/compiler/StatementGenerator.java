@@ -0,0 +1,562 @@
+/*
+ * Copyright (c) 2012 Clever Cloud SAS -- all rights reserved
+ *
+ * This file is part of Bianca(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Bianca Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Bianca Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Bianca Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ * @author Marc-Antoine Perennou <Marc-Antoine@Perennou.com>
+ */
+package com.clevercloud.bianca.compiler;
+
+import com.clevercloud.bianca.expr.*;
+import com.clevercloud.bianca.statement.*;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+
+/**
+ * Generates the java source of a compiled statement.
+ *
+ * Control flow and the common arithmetic, comparison, variable and
+ * assignment expressions are translated to java. Every other node is kept
+ * as a field of the generated class and executed by the interpreter, so
+ * any statement can be compiled.
+ */
+public class StatementGenerator {
+
+   public static final String PACKAGE = "_bianca";
+   private final String _className;
+   private final ArrayList<Object> _nodes = new ArrayList<Object>();
+   private final ArrayList<String> _nodeTypes = new ArrayList<String>();
+   private final IdentityHashMap<Object, Integer> _nodeMap = new IdentityHashMap<Object, Integer>();
+   private final ArrayList<StringBuilder> _methods = new ArrayList<StringBuilder>();
+
+   public StatementGenerator(String className) {
+      _className = className;
+   }
+
+   /**
+    * Returns the simple name of the generated class.
+    */
+   public String getClassName() {
+      return _className;
+   }
+
+   /**
+    * Returns the fully qualified name of the generated class.
+    */
+   public String getFullClassName() {
+      return PACKAGE + "." + _className;
+   }
+
+   /**
+    * Returns the nodes to pass to the generated constructor.
+    */
+   public Object[] getNodes() {
+      return _nodes.toArray();
+   }
+
+   /**
+    * Returns a java class name for a function or page name.
+    */
+   public static String mangleName(String name) {
+      StringBuilder sb = new StringBuilder();
+
+      sb.append('_');
+
+      for (int i = 0; i < name.length(); i++) {
+         char ch = name.charAt(i);
+
+         if ('a' <= ch && ch <= 'z'
+            || 'A' <= ch && ch <= 'Z'
+            || '0' <= ch && ch <= '9') {
+            sb.append(ch);
+         } else {
+            sb.append('_');
+         }
+      }
+
+      return sb.toString();
+   }
+
+   /**
+    * Generates the java source for the statement.
+    */
+   public String generate(Statement statement) {
+      generateMethod(statement);
+
+      StringBuilder out = new StringBuilder();
+
+      out.append("package ").append(PACKAGE).append(";\n\n");
+      out.append("import com.clevercloud.bianca.env.*;\n\n");
+      out.append("public final class ").append(_className);
+      out.append(" extends com.clevercloud.bianca.compiler.CompiledStatement {\n");
+
+      for (int i = 0; i < _nodes.size(); i++) {
+         out.append("  private final ").append(_nodeTypes.get(i));
+         out.append(" _n").append(i).append(";\n");
+      }
+
+      out.append("\n  public ").append(_className);
+      out.append("(com.clevercloud.bianca.statement.Statement source, Object[] nodes) {\n");
+      out.append("    super(source);\n");
+
+      for (int i = 0; i < _nodes.size(); i++) {
+         out.append("    _n").append(i).append(" = (");
+         out.append(_nodeTypes.get(i)).append(") nodes[").append(i).append("];\n");
+      }
+
+      out.append("  }\n\n");
+      out.append("  public Value execute(Env env) {\n");
+      out.append("    return m0(env);\n");
+      out.append("  }\n");
+
+      for (StringBuilder method : _methods) {
+         out.append(method);
+      }
+
+      out.append("}\n");
+
+      return out.toString();
+   }
+
+   /**
+    * Generates a method executing the statement, returning its index.
+    */
+   private int generateMethod(Statement statement) {
+      int index = _methods.size();
+      StringBuilder out = new StringBuilder();
+
+      _methods.add(out);
+
+      out.append("\n  private Value m").append(index).append("(Env env) {\n");
+      out.append("    Value v;\n");
+
+      if (generateStatement(out, statement, "    ")) {
+         out.append("    return null;\n");
+      }
+
+      out.append("  }\n");
+
+      return index;
+   }
+
+   /**
+    * Generates a statement, returning true if it can complete normally.
+    */
+   private boolean generateStatement(StringBuilder out,
+                                     Statement statement,
+                                     String indent) {
+      Class<?> cl = statement.getClass();
+
+      if (cl == BlockStatement.class) {
+         for (Statement child : ((BlockStatement) statement).getStatements()) {
+            if (!generateStatement(out, child, indent)) {
+               return false;
+            }
+         }
+
+         return true;
+      } else if (cl == ExprStatement.class) {
+         Expr expr = ((ExprStatement) statement).getExpr();
+
+         out.append(indent).append("env.pushCall(");
+         out.append(addNode(expr, "com.clevercloud.bianca.expr.Expr"));
+         out.append(", env.getThis(), NULL_ARGS);\n");
+         out.append(indent).append("v = ").append(generateTop(expr)).append(";\n");
+         out.append(indent).append("env.popCall();\n");
+
+         return true;
+      } else if (cl == EchoStatement.class) {
+         Expr expr = ((EchoStatement) statement).getExpr();
+
+         out.append(indent).append("(").append(generateEval(expr));
+         out.append(").print(env);\n");
+
+         return true;
+      } else if (cl == ReturnStatement.class) {
+         Expr expr = ((ReturnStatement) statement).getExpr();
+
+         if (expr == null) {
+            out.append(indent).append("return NullValue.NULL;\n");
+         } else if (isTranslated(expr)) {
+            out.append(indent).append("return ").append(generateEval(expr)).append(";\n");
+         } else {
+            out.append(indent).append("return ").append(addExpr(expr));
+            out.append(".evalValue(env);\n");
+         }
+
+         return false;
+      } else if (cl == IfStatement.class) {
+         IfStatement ifStmt = (IfStatement) statement;
+         String subIndent = indent + "  ";
+
+         out.append(indent).append("if (");
+         out.append(generateBoolean(ifStmt.getTest())).append(") {\n");
+
+         boolean isNormal = generateStatement(out, ifStmt.getTrueBlock(), subIndent);
+
+         if (ifStmt.getFalseBlock() != null) {
+            out.append(indent).append("} else {\n");
+
+            if (generateStatement(out, ifStmt.getFalseBlock(), subIndent)) {
+               isNormal = true;
+            }
+         } else {
+            isNormal = true;
+         }
+
+         out.append(indent).append("}\n");
+
+         return isNormal;
+      } else if (cl == WhileStatement.class) {
+         int index = generateWhile((WhileStatement) statement);
+
+         out.append(indent).append("v = m").append(index).append("(env);\n");
+         out.append(indent).append("if (v != null) return v;\n");
+
+         return true;
+      } else if (cl == ForStatement.class) {
+         int index = generateFor((ForStatement) statement);
+
+         out.append(indent).append("v = m").append(index).append("(env);\n");
+         out.append(indent).append("if (v != null) return v;\n");
+
+         return true;
+      } else {
+         out.append(indent).append("v = ");
+         out.append(addNode(statement, "com.clevercloud.bianca.statement.Statement"));
+         out.append(".execute(env);\n");
+         out.append(indent).append("if (v != null) return v;\n");
+
+         return true;
+      }
+   }
+
+   /**
+    * Generates a while loop as its own method, matching WhileStatement.
+    */
+   private int generateWhile(WhileStatement statement) {
+      int index = _methods.size();
+      StringBuilder out = new StringBuilder();
+
+      _methods.add(out);
+
+      int body = generateMethod(statement.getBlock());
+      String location = addNode(statement.getLocation(), "com.clevercloud.bianca.Location");
+
+      out.append("\n  private Value m").append(index).append("(Env env) {\n");
+      out.append("    com.clevercloud.bianca.Location oldLocation = env.setLocation(");
+      out.append(location).append(");\n");
+      out.append("    try {\n");
+      out.append("      while (").append(generateBoolean(statement.getTest())).append(") {\n");
+      generateLoopBody(out, body, "        ");
+      out.append("        env.setLocation(").append(location).append(");\n");
+      out.append("      }\n");
+      out.append("    } catch (RuntimeException e) {\n");
+      out.append("      rethrow(e, ").append(location).append(");\n");
+      out.append("    } finally {\n");
+      out.append("      env.setLocation(oldLocation);\n");
+      out.append("    }\n\n");
+      out.append("    return null;\n");
+      out.append("  }\n");
+
+      return index;
+   }
+
+   /**
+    * Generates a for loop as its own method, matching ForStatement.
+    */
+   private int generateFor(ForStatement statement) {
+      int index = _methods.size();
+      StringBuilder out = new StringBuilder();
+
+      _methods.add(out);
+
+      int body = generateMethod(statement.getBlock());
+      String location = addNode(statement.getLocation(), "com.clevercloud.bianca.Location");
+
+      out.append("\n  private Value m").append(index).append("(Env env) {\n");
+      out.append("    Value v;\n");
+      out.append("    try {\n");
+
+      if (statement.getInit() != null) {
+         out.append("      v = ").append(generateEval(statement.getInit())).append(";\n");
+      }
+
+      out.append("      while (");
+
+      if (statement.getTest() != null) {
+         out.append(generateBoolean(statement.getTest()));
+      } else {
+         out.append("true");
+      }
+
+      out.append(") {\n");
+      generateLoopBody(out, body, "        ");
+
+      if (statement.getIncr() != null) {
+         out.append("        v = ").append(generateEval(statement.getIncr())).append(";\n");
+      }
+
+      out.append("      }\n");
+      out.append("    } catch (RuntimeException e) {\n");
+      out.append("      rethrow(e, ").append(location).append(");\n");
+      out.append("    }\n\n");
+      out.append("    return null;\n");
+      out.append("  }\n");
+
+      return index;
+   }
+
+   /**
+    * Generates the break/continue handling of a loop iteration.
+    */
+   private void generateLoopBody(StringBuilder out, int body, String indent) {
+      out.append(indent).append("Value value = m").append(body).append("(env);\n");
+      out.append(indent).append("if (value == null) {\n");
+      out.append(indent).append("} else if (value instanceof BreakValue) {\n");
+      out.append(indent).append("  int target = ((BreakValue) value).getTarget();\n");
+      out.append(indent).append("  if (target > 1) return new BreakValue(target - 1);\n");
+      out.append(indent).append("  else break;\n");
+      out.append(indent).append("} else if (value instanceof ContinueValue) {\n");
+      out.append(indent).append("  int target = ((ContinueValue) value).getTarget();\n");
+      out.append(indent).append("  if (target > 1) return new ContinueValue(target - 1);\n");
+      out.append(indent).append("} else {\n");
+      out.append(indent).append("  return value;\n");
+      out.append(indent).append("}\n");
+   }
+
+   /**
+    * Returns true if the expression's eval is translated to java.
+    */
+   private boolean isTranslated(Expr expr) {
+      Class<?> cl = expr.getClass();
+
+      if (cl == LiteralExpr.class
+         || cl == LiteralLongExpr.class
+         || cl == LiteralStringExpr.class
+         || cl == LiteralNullExpr.class
+         || cl == VarExpr.class
+         || cl == BinaryAddExpr.class
+         || cl == BinarySubExpr.class
+         || cl == BinaryMulExpr.class
+         || cl == BinaryModExpr.class
+         || isBoolean(expr)) {
+         return true;
+      } else if (cl == BinaryAssignExpr.class) {
+         return ((BinaryAssignExpr) expr).getVar().getClass() == VarExpr.class;
+      } else if (cl == UnaryPostIncrementExpr.class
+         || cl == UnaryPreIncrementExpr.class) {
+         return ((AbstractUnaryExpr) expr).getExpr().getClass() == VarExpr.class;
+      } else {
+         return false;
+      }
+   }
+
+   /**
+    * Returns true for the expressions translated as java booleans.
+    */
+   private boolean isBoolean(Expr expr) {
+      Class<?> cl = expr.getClass();
+
+      return (cl == BinaryLtExpr.class
+         || cl == BinaryGtExpr.class
+         || cl == BinaryLeqExpr.class
+         || cl == BinaryGeqExpr.class
+         || cl == BinaryEqExpr.class
+         || cl == BinaryNeqExpr.class
+         || cl == BinaryEqualsExpr.class
+         || cl == BinaryAndExpr.class
+         || cl == BinaryOrExpr.class
+         || cl == UnaryNotExpr.class);
+   }
+
+   /**
+    * Generates the java expression for Expr.eval().
+    */
+   private String generateEval(Expr expr) {
+      Class<?> cl = expr.getClass();
+
+      if (cl == LiteralExpr.class
+         || cl == LiteralLongExpr.class
+         || cl == LiteralStringExpr.class) {
+         return addNode(expr.eval(null), "Value");
+      } else if (cl == LiteralNullExpr.class) {
+         return "NullValue.NULL";
+      } else if (cl == VarExpr.class) {
+         return generateVar((VarExpr) expr, true);
+      } else if (cl == BinaryAddExpr.class) {
+         return generateBinary((AbstractBinaryExpr) expr, "add");
+      } else if (cl == BinarySubExpr.class) {
+         return generateBinary((AbstractBinaryExpr) expr, "sub");
+      } else if (cl == BinaryMulExpr.class) {
+         return generateBinary((AbstractBinaryExpr) expr, "mul");
+      } else if (cl == BinaryModExpr.class) {
+         return generateBinary((AbstractBinaryExpr) expr, "mod");
+      } else if (isBoolean(expr)) {
+         return "(" + generateBoolean(expr) + " ? BooleanValue.TRUE : BooleanValue.FALSE)";
+      } else if (!isTranslated(expr)) {
+         return addExpr(expr) + ".eval(env)";
+      } else if (cl == BinaryAssignExpr.class) {
+         BinaryAssignExpr assign = (BinaryAssignExpr) expr;
+         VarExpr var = (VarExpr) assign.getVar();
+         int index = var.getVarInfo().getIndex();
+         String value = generateCopy(assign.getValue());
+
+         if (index >= 0) {
+            return "env.setLocalValue(" + index + ", " + value + ")";
+         } else {
+            return "env.setValue(" + addName(var) + ", " + value + ")";
+         }
+      } else {
+         AbstractUnaryExpr unary = (AbstractUnaryExpr) expr;
+         VarExpr var = (VarExpr) unary.getExpr();
+         int index = var.getVarInfo().getIndex();
+         String method;
+         int incr;
+
+         if (cl == UnaryPostIncrementExpr.class) {
+            method = "postincr";
+            incr = ((UnaryPostIncrementExpr) expr).getIncrement();
+         } else {
+            method = "preincr";
+            incr = ((UnaryPreIncrementExpr) expr).getIncrement();
+         }
+
+         if (index >= 0) {
+            return "env.getLocalVar(" + index + ")." + method + "(" + incr + ")";
+         } else {
+            return "env.getVar(" + addName(var) + ")." + method + "(" + incr + ")";
+         }
+      }
+   }
+
+   /**
+    * Generates the java expression for Expr.evalBoolean().
+    */
+   private String generateBoolean(Expr expr) {
+      Class<?> cl = expr.getClass();
+
+      if (cl == BinaryLtExpr.class) {
+         return generateBinary((AbstractBinaryExpr) expr, "lt");
+      } else if (cl == BinaryGtExpr.class) {
+         return generateBinary((AbstractBinaryExpr) expr, "gt");
+      } else if (cl == BinaryLeqExpr.class) {
+         return generateBinary((AbstractBinaryExpr) expr, "leq");
+      } else if (cl == BinaryGeqExpr.class) {
+         return generateBinary((AbstractBinaryExpr) expr, "geq");
+      } else if (cl == BinaryEqExpr.class) {
+         return generateBinary((AbstractBinaryExpr) expr, "eq");
+      } else if (cl == BinaryNeqExpr.class) {
+         return "!" + generateBinary((AbstractBinaryExpr) expr, "eq");
+      } else if (cl == BinaryEqualsExpr.class) {
+         return generateBinary((AbstractBinaryExpr) expr, "eql");
+      } else if (cl == BinaryAndExpr.class) {
+         AbstractBinaryExpr binary = (AbstractBinaryExpr) expr;
+
+         return ("(" + generateBoolean(binary.getLeft())
+            + " && " + generateBoolean(binary.getRight()) + ")");
+      } else if (cl == BinaryOrExpr.class) {
+         AbstractBinaryExpr binary = (AbstractBinaryExpr) expr;
+
+         return ("(" + generateBoolean(binary.getLeft())
+            + " || " + generateBoolean(binary.getRight()) + ")");
+      } else if (cl == UnaryNotExpr.class) {
+         return "!" + generateBoolean(((AbstractUnaryExpr) expr).getExpr());
+      } else if (isTranslated(expr)) {
+         return generateEval(expr) + ".toBoolean()";
+      } else {
+         return addExpr(expr) + ".evalBoolean(env)";
+      }
+   }
+
+   /**
+    * Generates the java expression for Expr.evalCopy().
+    */
+   private String generateCopy(Expr expr) {
+      Class<?> cl = expr.getClass();
+
+      if (!isTranslated(expr)) {
+         return addExpr(expr) + ".evalCopy(env)";
+      } else if (cl == VarExpr.class || cl == BinaryAssignExpr.class) {
+         return generateEval(expr) + ".copy()";
+      } else {
+         return generateEval(expr);
+      }
+   }
+
+   /**
+    * Generates the java expression for Expr.evalTop().
+    */
+   private String generateTop(Expr expr) {
+      if (expr.getClass() == VarExpr.class) {
+         return generateVar((VarExpr) expr, false);
+      } else if (isTranslated(expr)) {
+         return generateEval(expr);
+      } else {
+         return addExpr(expr) + ".evalTop(env)";
+      }
+   }
+
+   private String generateVar(VarExpr var, boolean isNotice) {
+      int index = var.getVarInfo().getIndex();
+
+      if (index >= 0) {
+         return ("env.getLocalValue(" + index + ", " + addName(var)
+            + ", " + isNotice + ")");
+      } else {
+         return ("env.getValue(" + addName(var) + ", false, " + isNotice + ")");
+      }
+   }
+
+   private String generateBinary(AbstractBinaryExpr expr, String method) {
+      return ("(" + generateEval(expr.getLeft()) + ")." + method
+         + "(" + generateEval(expr.getRight()) + ")");
+   }
+
+   private String addExpr(Expr expr) {
+      return addNode(expr, "com.clevercloud.bianca.expr.Expr");
+   }
+
+   private String addName(VarExpr var) {
+      return addNode(var.getName(), "StringValue");
+   }
+
+   /**
+    * Adds a node to the generated class, returning its field name.
+    */
+   private String addNode(Object node, String type) {
+      Integer index = _nodeMap.get(node);
+
+      if (index == null) {
+         index = _nodes.size();
+
+         _nodes.add(node);
+         _nodeTypes.add(type);
+         _nodeMap.put(node, index);
+      }
+
+      return "_n" + index;
+   }
+}
@@ -661,7 +661,7 @@ public class ArgRef extends Value
    /**
     * Serializes the value.
     */
-   public void serialize(Env env, StringBuilder sb) {
+   public void serialize(Env env, StringValue sb) {
       _var.serialize(env, sb);
    }
 
@@ -671,7 +671,7 @@ public class ArgRef extends Value
     * @param sb holds result of serialization
     * @param serializeMap holds reference indexes
     */
-   public void serialize(Env env, StringBuilder sb, SerializeMap serializeMap) {
+   public void serialize(Env env, StringValue sb, SerializeMap serializeMap) {
       _var.serialize(env, sb, serializeMap);
    }
 
@@ -196,7 +196,7 @@ abstract public class ArrayValue extends Value {
    public Value toObject(Env env) {
       Value obj = env.createObject();
 
-      for (Entry entry = getHead(); entry != null; entry = entry._next) {
+      for (Map.Entry<Value, Value> entry : entrySet()) {
          Value key = entry.getKey();
 
          // php/03oe
@@ -228,8 +228,8 @@ abstract public class ArrayValue extends Value {
          }
       }
 
-      for (Entry entry = getHead(); entry != null; entry = entry._next) {
-         coll.add(entry.getValue().toJavaObject());
+      for (Value value : values()) {
+         coll.add(value.toJavaObject());
       }
 
       return coll;
@@ -257,8 +257,8 @@ abstract public class ArrayValue extends Value {
          }
       }
 
-      for (Entry entry = getHead(); entry != null; entry = entry._next) {
-         list.add(entry.getValue().toJavaObject());
+      for (Value value : values()) {
+         list.add(value.toJavaObject());
       }
 
       return list;
@@ -288,7 +288,7 @@ abstract public class ArrayValue extends Value {
          }
       }
 
-      for (Entry entry = getHead(); entry != null; entry = entry._next) {
+      for (Map.Entry<Value, Value> entry : entrySet()) {
          map.put(entry.getKey().toJavaObject(),
             entry.getValue().toJavaObject());
       }
@@ -751,7 +751,7 @@ abstract public class ArrayValue extends Value {
 
    @Override
    public Iterator<Map.Entry<Value, Value>> getBaseIterator(Env env) {
-      return new EntryIterator(getHead());
+      return getIterator();
    }
 
    public Iterator<Map.Entry<Value, Value>> getIterator() {
@@ -1175,14 +1175,18 @@ abstract public class ArrayValue extends Value {
     * @param serializeMap holds reference indexes
     */
    @Override
-   public void serialize(Env env, StringBuilder sb, SerializeMap serializeMap) {
+   public void serialize(Env env, StringValue sb, SerializeMap serializeMap) {
       sb.append("a:");
       sb.append(getSize());
       sb.append(":{");
 
       serializeMap.incrementIndex();
 
-      for (Entry entry = getHead(); entry != null; entry = entry._next) {
+      Iterator<Map.Entry<Value, Value>> iter = getIterator();
+
+      while (iter.hasNext()) {
+         Entry entry = (Entry) iter.next();
+
          entry.getKey().serialize(env, sb);
          entry.getRawValue().serialize(env, sb, serializeMap);
       }
@@ -1199,7 +1203,7 @@ abstract public class ArrayValue extends Value {
       sb.append("\n");
 
       //boolean isFirst = true;
-      for (Entry entry = getHead(); entry != null; entry = entry._next) {
+      for (Map.Entry<Value, Value> entry : entrySet()) {
          sb.append("  ");
          entry.getKey().varExport(sb);
          sb.append(" => ");
@@ -1257,7 +1261,16 @@ abstract public class ArrayValue extends Value {
             sb.append(',');
          }
 
-         entry.getKey().toStringValue().jsonEncode(env, sb);
+         Value key = entry.getKey();
+
+         if (key instanceof LongValue) {
+            sb.append('"');
+            sb.append(key.toLong());
+            sb.append('"');
+         } else {
+            key.toStringValue().jsonEncode(env, sb);
+         }
+
          sb.append(':');
          entry.getValue().jsonEncode(env, sb);
          length++;
@@ -1739,8 +1752,8 @@ abstract public class ArrayValue extends Value {
       Value[] values = new Value[getSize()];
 
       int i = 0;
-      for (Entry ptr = getHead(); ptr != null; ptr = ptr.getNext()) {
-         values[i++] = ptr.getKey();
+      for (Value key : keySet()) {
+         values[i++] = key;
       }
 
       return values;
@@ -1753,8 +1766,8 @@ abstract public class ArrayValue extends Value {
       Value[] values = new Value[getSize()];
 
       int i = 0;
-      for (Entry ptr = getHead(); ptr != null; ptr = ptr.getNext()) {
-         values[i++] = ptr.getValue();
+      for (Value value : values()) {
+         values[i++] = value;
       }
 
       return values;
@@ -1789,9 +1802,9 @@ abstract public class ArrayValue extends Value {
 
       int i = 0;
 
-      for (Entry ptr = getHead(); ptr != null; ptr = ptr.getNext()) {
+      for (Value value : values()) {
          Array.set(array, i++, elementMarshal.marshal(env,
-            ptr.getValue(),
+            value,
             elementType));
       }
 
@@ -1810,7 +1823,7 @@ abstract public class ArrayValue extends Value {
 
       @Override
       public Iterator<Map.Entry<Value, Value>> iterator() {
-         return new EntryIterator(getHead());
+         return getIterator();
       }
    }
 
@@ -1826,7 +1839,7 @@ abstract public class ArrayValue extends Value {
 
       @Override
       public Iterator<Value> iterator() {
-         return new KeyIterator(getHead());
+         return getKeyIterator(null);
       }
    }
 
@@ -1842,7 +1855,7 @@ abstract public class ArrayValue extends Value {
 
       @Override
       public Iterator<Value> iterator() {
-         return new ValueIterator(getHead());
+         return getValueIterator(null);
       }
    }
 
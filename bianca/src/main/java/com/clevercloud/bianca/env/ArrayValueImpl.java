@@ -34,12 +34,19 @@ import com.clevercloud.util.RandomUtil;
 
 import java.io.*;
 import java.io.Serializable;
+import java.util.Arrays;
+import java.util.Comparator;
 import java.util.IdentityHashMap;
+import java.util.Iterator;
 import java.util.Map;
 import java.util.logging.Logger;
 
 /**
  * Represents a PHP array value.
+ * <p/>
+ * Arrays whose keys are exactly 0..n-1 in order are stored packed, as a
+ * plain value array without entries.  The first non-sequential or string
+ * key converts the array to the hashed form.
  */
 public class ArrayValueImpl extends ArrayValue
    implements Serializable {
@@ -60,6 +67,10 @@ public class ArrayValueImpl extends ArrayValue
    private Entry _head;
    private Entry _tail;
    private ConstArrayValue _constSource;
+   // values of a packed array, null for a hashed array
+   private Value[] _packed;
+   // index of the current element of a packed array, -1 if none
+   private int _packedCurrent;
 
    public ArrayValueImpl() {
       /*
@@ -83,7 +94,29 @@ public class ArrayValueImpl extends ArrayValue
    public ArrayValueImpl(ArrayValue source) {
       // this(copy.getSize());
 
-      for (Entry ptr = source.getHead(); ptr != null; ptr = ptr.getNext()) {
+      if (source instanceof ArrayValueImpl
+         && ((ArrayValueImpl) source)._packed != null) {
+         ArrayValueImpl array = (ArrayValueImpl) source;
+
+         int size = array._size;
+         Value[] packed = new Value[Math.max(size, MIN_HASH)];
+
+         for (int i = 0; i < size; i++) {
+            packed[i] = array._packed[i].toValue().copyArrayItem();
+         }
+
+         _packed = packed;
+         _size = size;
+         _nextAvailableIndex = size;
+
+         return;
+      }
+
+      Iterator<Map.Entry<Value, Value>> iter = source.getIterator();
+
+      while (iter.hasNext()) {
+         Map.Entry<Value, Value> ptr = iter.next();
+
          // php/0662 for copy
          Entry entry = createNewEntry(ptr.getKey());
 
@@ -117,6 +150,9 @@ public class ArrayValueImpl extends ArrayValue
 
       _tail = source._tail;
       _nextAvailableIndex = source._nextAvailableIndex;
+
+      _packed = source._packed;
+      _packedCurrent = source._packedCurrent;
    }
 
    public ArrayValueImpl(ConstArrayValue source) {
@@ -141,9 +177,9 @@ public class ArrayValueImpl extends ArrayValue
 
       map.put(copy, this);
 
-      for (Entry ptr = copy.getHead(); ptr != null; ptr = ptr.getNext()) {
+      for (Map.Entry<Value, Value> ptr : copy.entrySet()) {
          // Value value = ptr._var != null ? ptr._var.toValue() : ptr._value;
-         Value value = ptr.toValue();
+         Value value = ptr.getValue();
 
          append(ptr.getKey(), value.copy(env, map));
       }
@@ -159,9 +195,9 @@ public class ArrayValueImpl extends ArrayValue
 
       root.putCopy(copy, this);
 
-      for (Entry ptr = copy.getHead(); ptr != null; ptr = ptr.getNext()) {
+      for (Map.Entry<Value, Value> ptr : copy.entrySet()) {
          // Value value = ptr._var != null ? ptr._var.toValue() : ptr._value;
-         Value value = ptr.toValue();
+         Value value = ptr.getValue();
 
          append(ptr.getKey(), value.copyTree(env, root));
       }
@@ -187,6 +223,24 @@ public class ArrayValueImpl extends ArrayValue
       }
    }
 
+   /**
+    * Creates a packed list of values[offset] .. values[offset + length - 1].
+    */
+   public ArrayValueImpl(Value[] values, int offset, int length) {
+      if (length <= 0) {
+         return;
+      }
+
+      Value[] packed = new Value[Math.max(length, MIN_HASH)];
+
+      System.arraycopy(values, offset, packed, 0, length);
+
+      _packed = packed;
+      _size = length;
+      _nextAvailableIndex = length;
+      _packedCurrent = 0;
+   }
+
    public ArrayValueImpl(Env env, ArrayValueComponent[] components) {
       for (int i = 0; i < components.length; i++) {
          components[i].init(env);
@@ -222,6 +276,18 @@ public class ArrayValueImpl extends ArrayValue
 
       _isDirty = false;
 
+      if (_packed != null) {
+         Value[] packed = new Value[_packed.length];
+
+         for (int i = 0; i < _size; i++) {
+            packed[i] = _packed[i].copyArrayItem();
+         }
+
+         _packed = packed;
+
+         return;
+      }
+
       Entry[] entries = _entries;
 
       if (entries != null) {
@@ -230,11 +296,19 @@ public class ArrayValueImpl extends ArrayValue
          entries = null;
       }
 
+      // the copy keeps the internal pointer on the same entry
+      Entry current = getCurrent();
+      setCurrent(null);
+
       Entry prev = null;
       for (Entry ptr = _head; ptr != null; ptr = ptr.getNext()) {
          // Entry ptrCopy = new Entry(ptr._key, ptr._value.copyArrayItem());
          Entry ptrCopy = new Entry(ptr);
 
+         if (ptr == current) {
+            setCurrent(ptrCopy);
+         }
+
          if (entries != null) {
             int hash = ptr.getKey().hashCode() & _hashMask;
 
@@ -250,8 +324,6 @@ public class ArrayValueImpl extends ArrayValue
          }
 
          if (prev == null) {
-            setCurrent(ptrCopy);
-
             _head = ptrCopy;
          } else {
             prev.setNext(ptrCopy);
@@ -266,6 +338,147 @@ public class ArrayValueImpl extends ArrayValue
       _entries = entries;
    }
 
+   /**
+    * Returns true for an empty hashed array which can become packed.
+    */
+   private boolean isPackable() {
+      return (_size == 0 && _head == null && _entries == null
+         && _nextAvailableIndex <= 0);
+   }
+
+   /**
+    * Returns the packed index for a key: the key's index if it's an
+    * existing index or the next one, and -1 otherwise.
+    */
+   private int getPackedIndex(Value key) {
+      key = key.toKey();
+
+      if (key instanceof LongValue) {
+         long index = key.toLong();
+
+         if (0 <= index && index <= _size) {
+            return (int) index;
+         }
+      }
+
+      return -1;
+   }
+
+   /**
+    * Returns the packed slot for a key, adding a new slot for the next
+    * index.  If the key doesn't fit the packed form, the array is
+    * converted to the hashed form and -1 is returned.
+    */
+   private int createPackedSlot(Value key) {
+      if (_packed == null && !isPackable()) {
+         return -1;
+      }
+
+      int index = getPackedIndex(key);
+
+      if (index < 0) {
+         unpack();
+
+         return -1;
+      }
+
+      if (index == _size) {
+         addPackedSlot();
+      }
+
+      return index;
+   }
+
+   /**
+    * Adds a null slot at the end of a packed array.
+    */
+   private void addPackedSlot() {
+      Value[] packed = _packed;
+      int size = _size;
+
+      if (packed == null) {
+         packed = _packed = new Value[MIN_HASH];
+      } else if (packed.length == size) {
+         packed = _packed = Arrays.copyOf(packed, 2 * size);
+      }
+
+      packed[size] = NullValue.NULL;
+
+      _size = size + 1;
+      _nextAvailableIndex = size + 1;
+
+      if (size == 0) {
+         _packedCurrent = 0;
+      }
+   }
+
+   /**
+    * Sets a packed slot like Entry.set().
+    */
+   private void setPacked(int index, Value value) {
+      if (value instanceof Var) {
+         _packed[index] = value;
+      } else {
+         _packed[index] = _packed[index].set(value);
+      }
+   }
+
+   /**
+    * Converts a packed array to the hashed form.
+    */
+   protected final void unpack() {
+      Value[] packed = _packed;
+
+      if (packed == null) {
+         return;
+      }
+
+      // a shared value array is copied like copyOnWrite()
+      boolean isCopy = _isDirty;
+      int size = _size;
+      int current = _packedCurrent;
+
+      _packed = null;
+      _packedCurrent = 0;
+      _isDirty = false;
+
+      if (isCopy) {
+         _constSource = null;
+      }
+
+      _size = 0;
+      _nextAvailableIndex = 0;
+      _head = _tail = null;
+      _entries = null;
+
+      if (size >= MIN_HASH) {
+         int capacity = 8;
+
+         while (capacity <= 2 * size) {
+            capacity *= 2;
+         }
+
+         _entries = new Entry[capacity];
+         _hashMask = capacity - 1;
+      }
+
+      Entry currentEntry = null;
+
+      for (int i = 0; i < size; i++) {
+         Entry entry = createNewEntry(LongValue.create(i));
+
+         Value value = packed[i];
+
+         entry.setValue(isCopy ? value.copyArrayItem() : value);
+
+         if (i == current) {
+            currentEntry = entry;
+         }
+      }
+
+      setCurrent(currentEntry);
+   }
+
    /**
     * Returns the type.
     */
@@ -419,6 +632,8 @@ public class ArrayValueImpl extends ArrayValue
       }
 
       _entries = null;
+      _packed = null;
+      _packedCurrent = 0;
 
       _size = 0;
       _head = _tail = null;
@@ -449,6 +664,14 @@ public class ArrayValueImpl extends ArrayValue
          key = createTailKey();
       }
 
+      int index = createPackedSlot(key);
+
+      if (index >= 0) {
+         setPacked(index, value);
+
+         return this;
+      }
+
       Entry entry = createEntry(key);
 
       // php/0434
@@ -464,6 +687,8 @@ public class ArrayValueImpl extends ArrayValue
     */
    @Override
    public ArrayValue unshift(Value value) {
+      unpack();
+
       if (_isDirty) {
          copyOnWrite();
       }
@@ -498,6 +723,8 @@ public class ArrayValueImpl extends ArrayValue
     */
    @Override
    public ArrayValue splice(int start, int end, ArrayValue replace) {
+      unpack();
+
       if (_isDirty) {
          copyOnWrite();
       }
@@ -540,9 +767,7 @@ public class ArrayValueImpl extends ArrayValue
          } else if (replace == null) {
             return result;
          } else {
-            for (Entry replaceEntry = replace.getHead();
-                 replaceEntry != null;
-                 replaceEntry = replaceEntry.getNext()) {
+            for (Value replaceValue : replace.values()) {
                _size++;
 
                Entry[] entries = _entries;
@@ -551,7 +776,7 @@ public class ArrayValueImpl extends ArrayValue
                   expand();
                }
 
-               Entry entry = new Entry(createTailKey(), replaceEntry.getValue());
+               Entry entry = new Entry(createTailKey(), replaceValue);
 
                addEntry(entry);
 
@@ -576,10 +801,8 @@ public class ArrayValueImpl extends ArrayValue
       }
 
       if (replace != null) {
-         for (Entry replaceEntry = replace.getHead();
-              replaceEntry != null;
-              replaceEntry = replaceEntry.getNext()) {
-            put(replaceEntry.getValue());
+         for (Value replaceValue : replace.values()) {
+            put(replaceValue);
          }
       }
 
@@ -593,6 +816,23 @@ public class ArrayValueImpl extends ArrayValue
    public ArrayValue slice(Env env, int start, int end, boolean isPreserveKeys) {
       ArrayValueImpl array = new ArrayValueImpl();
 
+      if (_packed != null) {
+         Value[] packed = _packed;
+         int tail = Math.min(end, _size);
+
+         for (int i = Math.max(start, 0); i < tail; i++) {
+            Value value = packed[i].toValue();
+
+            if (isPreserveKeys) {
+               array.put(LongValue.create(i), value);
+            } else {
+               array.put(value);
+            }
+         }
+
+         return array;
+      }
+
       int i = 0;
       for (Entry ptr = _head; i < end && ptr != null; ptr = ptr.getNext()) {
          if (start > i++) {
@@ -626,6 +866,26 @@ public class ArrayValueImpl extends ArrayValue
       //if (isTop)
       //return new ArgGetValue(this, index);
 
+      if (_packed != null) {
+         int i = getPackedIndex(index);
+
+         if (0 <= i && i < _size) {
+            Value value = _packed[i].toValue();
+
+            if (!isTop && value.isset()) {
+               return value;
+            } else {
+               Var var = _packed[i].toVar();
+
+               _packed[i] = var;
+
+               return var;
+            }
+         } else {
+            return new ArgGetValue(this, index);
+         }
+      }
+
       Entry entry = getEntry(index);
 
       if (entry != null) {
@@ -671,6 +931,19 @@ public class ArrayValueImpl extends ArrayValue
          copyOnWrite();
       }
 
+      int i = createPackedSlot(index);
+
+      if (i >= 0) {
+         Value value = _packed[i].toValue();
+         Value array = value.toAutoArray();
+
+         if (value != array) {
+            setPacked(i, array);
+         }
+
+         return array;
+      }
+
       Entry entry = createEntry(index);
 
       Value value = entry.toValue();
@@ -706,6 +979,13 @@ public class ArrayValueImpl extends ArrayValue
          copyOnWrite();
       }
 
+      if (_packed != null) {
+         addPackedSlot();
+         setPacked(_size - 1, value);
+
+         return value;
+      }
+
       Value key = createTailKey();
 
       append(key, value);
@@ -745,6 +1025,16 @@ public class ArrayValueImpl extends ArrayValue
     */
    @Override
    public Value get(Value key) {
+      if (_packed != null) {
+         int index = getPackedIndex(key);
+
+         if (0 <= index && index < _size) {
+            return _packed[index].toValue();
+         } else {
+            return UnsetValue.UNSET;
+         }
+      }
+
       key = key.toKey();
 
       Entry[] entries = _entries;
@@ -782,6 +1072,16 @@ public class ArrayValueImpl extends ArrayValue
     */
    @Override
    public Value getRaw(Value key) {
+      if (_packed != null) {
+         int index = getPackedIndex(key);
+
+         if (0 <= index && index < _size) {
+            return _packed[index];
+         } else {
+            return UnsetValue.UNSET;
+         }
+      }
+
       key = key.toKey();
 
       Entry[] entries = _entries;
@@ -820,6 +1120,18 @@ public class ArrayValueImpl extends ArrayValue
     */
    @Override
    public Value contains(Value value) {
+      if (_packed != null) {
+         Value[] packed = _packed;
+
+         for (int i = 0; i < _size; i++) {
+            if (packed[i].toValue().eq(value)) {
+               return LongValue.create(i);
+            }
+         }
+
+         return NullValue.NULL;
+      }
+
       for (Entry entry = getHead(); entry != null; entry = entry.getNext()) {
          if (entry.getValue().eq(value)) {
             return entry.getKey();
@@ -837,6 +1149,18 @@ public class ArrayValueImpl extends ArrayValue
     */
    @Override
    public Value containsStrict(Value value) {
+      if (_packed != null) {
+         Value[] packed = _packed;
+
+         for (int i = 0; i < _size; i++) {
+            if (packed[i].toValue().eql(value)) {
+               return LongValue.create(i);
+            }
+         }
+
+         return NullValue.NULL;
+      }
+
       for (Entry entry = getHead(); entry != null; entry = entry.getNext()) {
          if (entry.getValue().eql(value)) {
             return entry.getKey();
@@ -854,6 +1178,16 @@ public class ArrayValueImpl extends ArrayValue
     */
    @Override
    public Value containsKey(Value key) {
+      if (_packed != null) {
+         int index = getPackedIndex(key);
+
+         if (0 <= index && index < _size) {
+            return _packed[index].toValue();
+         } else {
+            return null;
+         }
+      }
+
       Entry entry = getEntry(key);
 
       if (entry != null) {
@@ -900,6 +1234,26 @@ public class ArrayValueImpl extends ArrayValue
          copyOnWrite();
       }
 
+      if (_packed != null) {
+         int index = getPackedIndex(key);
+
+         if (index < 0 || _size <= index) {
+            return UnsetValue.UNSET;
+         } else if (index == _size - 1) {
+            // removing the tail keeps the array packed
+            Value value = _packed[index].toValue();
+
+            _packed[index] = null;
+            _size = index;
+            _nextAvailableIndex = index;
+            _packedCurrent = 0;
+
+            return value;
+         }
+
+         unpack();
+      }
+
       key = key.toKey();
 
       Entry[] entries = _entries;
@@ -977,6 +1331,16 @@ public class ArrayValueImpl extends ArrayValue
          copyOnWrite();
       }
 
+      int i = createPackedSlot(index);
+
+      if (i >= 0) {
+         Var var = _packed[i].toVar();
+
+         _packed[i] = var;
+
+         return var;
+      }
+
       Entry entry = createEntry(index);
       // bianca/0431
 
@@ -992,6 +1356,16 @@ public class ArrayValueImpl extends ArrayValue
          copyOnWrite();
       }
 
+      int i = createPackedSlot(index);
+
+      if (i >= 0) {
+         Var var = _packed[i].toVar();
+
+         _packed[i] = var;
+
+         return var;
+      }
+
       Entry entry = createEntry(index);
       // bianca/0431
 
@@ -1182,6 +1556,14 @@ public class ArrayValueImpl extends ArrayValue
          copyOnWrite();
       }
 
+      if (_packed != null) {
+         if (_size > 0) {
+            return remove(LongValue.create(_size - 1));
+         } else {
+            return NullValue.NULL;
+         }
+      }
+
       if (_tail != null) {
          return remove(_tail.getKey());
       } else {
@@ -1191,19 +1573,286 @@ public class ArrayValueImpl extends ArrayValue
 
    @Override
    public final Entry getHead() {
+      unpack();
+
       return _head;
    }
 
    @Override
    protected final Entry getTail() {
+      unpack();
+
       return _tail;
    }
 
+   /**
+    * Returns the current value.
+    */
+   @Override
+   public Value current() {
+      if (_packed != null) {
+         int i = _packedCurrent;
+
+         if (0 <= i && i < _size) {
+            return _packed[i].toValue();
+         } else {
+            return BooleanValue.FALSE;
+         }
+      }
+
+      return super.current();
+   }
+
+   /**
+    * Returns the current key
+    */
+   @Override
+   public Value key() {
+      if (_packed != null) {
+         int i = _packedCurrent;
+
+         if (0 <= i && i < _size) {
+            return LongValue.create(i);
+         } else {
+            return NullValue.NULL;
+         }
+      }
+
+      return super.key();
+   }
+
+   /**
+    * Returns true if there are more elements.
+    */
+   @Override
+   public boolean hasCurrent() {
+      if (_packed != null) {
+         return 0 <= _packedCurrent && _packedCurrent < _size;
+      }
+
+      return super.hasCurrent();
+   }
+
+   /**
+    * Returns the next value.
+    */
+   @Override
+   public Value next() {
+      if (_packed != null) {
+         if (hasCurrent()) {
+            _packedCurrent = _packedCurrent + 1 < _size ? _packedCurrent + 1 : -1;
+         }
+
+         return current();
+      }
+
+      return super.next();
+   }
+
+   /**
+    * Returns the previous value.
+    */
+   @Override
+   public Value prev() {
+      if (_packed != null) {
+         if (hasCurrent()) {
+            _packedCurrent--;
+         }
+
+         return current();
+      }
+
+      return super.prev();
+   }
+
+   /**
+    * The each iterator
+    */
+   @Override
+   public Value each() {
+      if (_packed != null) {
+         if (!hasCurrent()) {
+            return BooleanValue.FALSE;
+         }
+
+         Value key = LongValue.create(_packedCurrent);
+         Value value = _packed[_packedCurrent].toValue();
+
+         ArrayValue result = new ArrayValueImpl();
+
+         result.put(LongValue.ZERO, key);
+         result.put(KEY, key);
+
+         result.put(LongValue.ONE, value);
+         result.put(VALUE, value);
+
+         next();
+
+         return result;
+      }
+
+      return super.each();
+   }
+
+   /**
+    * Returns the first value.
+    */
+   @Override
+   public Value reset() {
+      if (_packed != null) {
+         _packedCurrent = 0;
+
+         return current();
+      }
+
+      return super.reset();
+   }
+
+   /**
+    * Returns the last value.
+    */
+   @Override
+   public Value end() {
+      if (_packed != null) {
+         _packedCurrent = _size - 1;
+
+         return current();
+      }
+
+      return super.end();
+   }
+
+   @Override
+   public Iterator<Map.Entry<Value, Value>> getBaseIterator(Env env) {
+      return getIterator();
+   }
+
+   @Override
+   public Iterator<Map.Entry<Value, Value>> getIterator() {
+      if (_packed != null) {
+         return new PackedEntryIterator(_packed, _size);
+      }
+
+      return super.getIterator();
+   }
+
+   @Override
+   public Iterator<Value> getKeyIterator(Env env) {
+      if (_packed != null) {
+         return new PackedKeyIterator(_size);
+      }
+
+      return super.getKeyIterator(env);
+   }
+
+   @Override
+   public Iterator<Value> getValueIterator(Env env) {
+      if (_packed != null) {
+         return new PackedValueIterator(_packed, _size);
+      }
+
+      return super.getValueIterator(env);
+   }
+
+   /**
+    * Takes the keys of this array and puts them in a java array
+    */
+   @Override
+   public Value[] keysToArray() {
+      if (_packed != null) {
+         Value[] keys = new Value[_size];
+
+         for (int i = 0; i < keys.length; i++) {
+            keys[i] = LongValue.create(i);
+         }
+
+         return keys;
+      }
+
+      return super.keysToArray();
+   }
+
+   /**
+    * Takes the values of this array and puts them in a java array
+    */
+   @Override
+   public Value[] valuesToArray() {
+      if (_packed != null) {
+         Value[] values = new Value[_size];
+
+         for (int i = 0; i < values.length; i++) {
+            values[i] = _packed[i].toValue();
+         }
+
+         return values;
+      }
+
+      return super.valuesToArray();
+   }
+
+   /**
+    * Encodes the value in JSON.  A packed array is always a JSON list.
+    */
+   @Override
+   public void jsonEncode(Env env, StringValue sb) {
+      if (_packed == null) {
+         super.jsonEncode(env, sb);
+
+         return;
+      }
+
+      sb.append('[');
+
+      for (int i = 0; i < _size; i++) {
+         if (i > 0) {
+            sb.append(',');
+         }
+
+         _packed[i].toValue().jsonEncode(env, sb);
+      }
+
+      sb.append(']');
+   }
+
+   /**
+    * Sorts the array.  A packed array sorted with new keys stays packed.
+    */
+   @Override
+   public void sort(Comparator<Map.Entry<Value, Value>> comparator,
+                    boolean resetKeys, boolean strict) {
+      if (_packed == null || !resetKeys) {
+         super.sort(comparator, resetKeys, strict);
+
+         return;
+      }
+
+      if (_isDirty) {
+         copyOnWrite();
+      }
+
+      Value[] packed = _packed;
+      Entry[] entries = new Entry[_size];
+
+      for (int i = 0; i < entries.length; i++) {
+         entries[i] = new Entry(LongValue.create(i), packed[i]);
+      }
+
+      Arrays.sort(entries, comparator);
+
+      for (int i = 0; i < entries.length; i++) {
+         packed[i] = entries[i].getValue();
+      }
+
+      _packedCurrent = 0;
+   }
+
    /**
     * Shuffles the array
     */
    @Override
    public Value shuffle() {
+      unpack();
+
       if (_isDirty) {
          copyOnWrite();
       }
@@ -1273,6 +1922,102 @@ public class ArrayValueImpl extends ArrayValue
       }
    }
 
+   static class PackedEntryIterator
+      implements Iterator<Map.Entry<Value, Value>> {
+
+      private final Value[] _values;
+      private final int _size;
+      private int _index;
+
+      PackedEntryIterator(Value[] values, int size) {
+         _values = values;
+         _size = size;
+      }
+
+      @Override
+      public boolean hasNext() {
+         return _index < _size;
+      }
+
+      @Override
+      public Map.Entry<Value, Value> next() {
+         if (_size <= _index) {
+            return null;
+         }
+
+         int index = _index++;
+
+         return new Entry(LongValue.create(index), _values[index]);
+      }
+
+      @Override
+      public void remove() {
+         throw new UnsupportedOperationException();
+      }
+   }
+
+   static class PackedKeyIterator
+      implements Iterator<Value> {
+
+      private final int _size;
+      private int _index;
+
+      PackedKeyIterator(int size) {
+         _size = size;
+      }
+
+      @Override
+      public boolean hasNext() {
+         return _index < _size;
+      }
+
+      @Override
+      public Value next() {
+         if (_size <= _index) {
+            return null;
+         }
+
+         return LongValue.create(_index++);
+      }
+
+      @Override
+      public void remove() {
+         throw new UnsupportedOperationException();
+      }
+   }
+
+   static class PackedValueIterator
+      implements Iterator<Value> {
+
+      private final Value[] _values;
+      private final int _size;
+      private int _index;
+
+      PackedValueIterator(Value[] values, int size) {
+         _values = values;
+         _size = size;
+      }
+
+      @Override
+      public boolean hasNext() {
+         return _index < _size;
+      }
+
+      @Override
+      public Value next() {
+         if (_size <= _index) {
+            return null;
+         }
+
+         return _values[_index++].toValue();
+      }
+
+      @Override
+      public void remove() {
+         throw new UnsupportedOperationException();
+      }
+   }
+
    //
    // Java serialization code
    //
@@ -322,6 +322,11 @@ public class ArrayValueWrapper extends ArrayValue {
       return _array.add(rValue);
    }
 
+   @Override
+   public Iterator<Map.Entry<Value, Value>> getIterator() {
+      return _array.getIterator();
+   }
+
    @Override
    public Iterator<Map.Entry<Value, Value>> getIterator(Env env) {
       return _array.getIterator(env);
@@ -134,11 +134,7 @@ public class BinaryValue
             return -1;
          }
 
-         int index = _index;
-
-         for (int i = 0; i < sublen; i++) {
-            buffer[offset + i] = (byte) charAt(index + i);
-         }
+         _s.getBytes(_index, buffer, offset, sublen);
 
          _index += sublen;
 
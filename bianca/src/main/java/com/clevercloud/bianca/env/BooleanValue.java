@@ -310,7 +310,7 @@ public class BooleanValue extends Value
     * Serializes the value.
     */
    @Override
-   public void serialize(Env env, StringBuilder sb) {
+   public void serialize(Env env, StringValue sb) {
       sb.append("b:");
       sb.append(_value ? 1 : 0);
       sb.append(';');
@@ -78,7 +78,7 @@ public class CallbackFunction extends Callback {
     * Serializes the value.
     */
    @Override
-   public void serialize(Env env, StringBuilder sb) {
+   public void serialize(Env env, StringValue sb) {
       String name;
 
       if (_fun != null) {
@@ -490,7 +490,7 @@ public class CompiledObjectValue extends ObjectValue
     */
    /*
    @Override
-   public void serialize(Env env, StringBuilder sb, SerializeMap map)
+   public void serialize(Env env, StringValue sb, SerializeMap map)
    {
    sb.append("O:");
    sb.append(_biancaClass.getName().length());
@@ -30,6 +30,9 @@
  */
 package com.clevercloud.bianca.env;
 
+import com.clevercloud.bianca.lib.db.JdbcConnectionPool;
+import com.clevercloud.bianca.lib.db.PreparedStatementCache;
+
 import javax.sql.DataSource;
 import java.sql.Connection;
 import java.sql.SQLException;
@@ -45,6 +48,9 @@ public class ConnectionEntry implements EnvCleanup {
    private String _password;
    private Connection _conn;
    private boolean _isReuse;
+   private int _refCount;
+   private PreparedStatementCache _statementCache;
+   private boolean _isStatementCacheOwner;
 
    public ConnectionEntry(Env env) {
       _env = env;
@@ -63,6 +69,7 @@ public class ConnectionEntry implements EnvCleanup {
       }
 
       _isReuse = isReuse;
+      _refCount = 1;
 
       if (_user != null) {
          _conn = _ds.getConnection(_user, _password);
@@ -77,10 +84,37 @@ public class ConnectionEntry implements EnvCleanup {
       return _isReuse && _conn != null;
    }
 
+   /**
+    * Adds a php link sharing this connection, e.g. a second mysql_connect
+    * with the same arguments.
+    */
+   public void addReference() {
+      _refCount++;
+   }
+
    public Connection getConnection() {
       return _conn;
    }
 
+   /**
+    * Returns the prepared statement cache, shared with the connection
+    * pool when the connection is pooled.
+    */
+   public PreparedStatementCache getStatementCache() {
+      if (_statementCache == null && _conn != null) {
+         int capacity = _env.getBianca().getPreparedStatementCacheSize();
+
+         _statementCache = JdbcConnectionPool.getStatementCache(_conn, capacity);
+
+         if (_statementCache == null) {
+            _statementCache = new PreparedStatementCache(_conn, capacity);
+            _isStatementCacheOwner = true;
+         }
+      }
+
+      return _statementCache;
+   }
+
    public void setCatalog(String catalog)
       throws SQLException {
       _isReuse = false;
@@ -128,13 +162,24 @@ public class ConnectionEntry implements EnvCleanup {
       }
    }
 
+   /**
+    * Notify that php code started a transaction with SQL, so the
+    * connection is rolled back before it is reused.
+    */
+   public void markPoolTransaction() {
+      if (_conn != null) {
+         _env.getBianca().markPoolTransaction(_conn);
+      }
+   }
+
    /**
     * Called from php code to close the connection.  Reusable entries
-    * are not actually closed until the cleanup phase.
+    * and entries still shared by another link are not actually closed
+    * until the cleanup phase.
     */
    public void phpClose() {
       try {
-         if (!_isReuse) {
+         if (--_refCount <= 0 && !_isReuse) {
             cleanup();
          }
       } catch (SQLException e) {
@@ -146,7 +191,13 @@ public class ConnectionEntry implements EnvCleanup {
    public void cleanup()
       throws SQLException {
       Connection conn = _conn;
+      PreparedStatementCache statementCache = _statementCache;
       _conn = null;
+      _statementCache = null;
+
+      if (statementCache != null && _isStatementCacheOwner) {
+         statementCache.close();
+      }
 
       if (conn != null) {
          conn.close();
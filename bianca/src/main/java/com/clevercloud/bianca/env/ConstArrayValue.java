@@ -42,14 +42,21 @@ public class ConstArrayValue
 
    public ConstArrayValue(ArrayValueImpl source) {
       super.copyFrom(source);
+
+      // constants are shared, so they're never converted later
+      unpack();
    }
 
    public ConstArrayValue(ArrayValueComponent[] components) {
       super(components);
+
+      unpack();
    }
 
    public ConstArrayValue(Value[] keys, Value[] values) {
       super(keys, values);
+
+      unpack();
    }
 
    /**
@@ -30,6 +30,8 @@
 package com.clevercloud.bianca.env;
 
 import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.Map;
 import java.util.logging.Logger;
 
 
@@ -325,6 +327,33 @@ public class CopyArrayValue extends ArrayValue {
       }
    }
 
+   @Override
+   public Iterator<Map.Entry<Value, Value>> getIterator() {
+      if (_copyArray != null) {
+         return _copyArray.getIterator();
+      } else {
+         return _constArray.getIterator();
+      }
+   }
+
+   @Override
+   public Iterator<Value> getKeyIterator(Env env) {
+      if (_copyArray != null) {
+         return _copyArray.getKeyIterator(env);
+      } else {
+         return _constArray.getKeyIterator(env);
+      }
+   }
+
+   @Override
+   public Iterator<Value> getValueIterator(Env env) {
+      if (_copyArray != null) {
+         return _copyArray.getValueIterator(env);
+      } else {
+         return _constArray.getValueIterator(env);
+      }
+   }
+
    private ArrayValue getCopyArray() {
       if (_copyArray == null) {
          _copyArray = new ArrayValueImpl(_constArray);
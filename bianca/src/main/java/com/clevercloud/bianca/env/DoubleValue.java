@@ -455,7 +455,7 @@ public class DoubleValue extends NumberValue
     * Serializes the value.
     */
    @Override
-   public void serialize(Env env, StringBuilder sb) {
+   public void serialize(Env env, StringValue sb) {
       sb.append("d:");
       sb.append(_value);
       sb.append(";");
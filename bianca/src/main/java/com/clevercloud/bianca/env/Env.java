@@ -47,6 +47,9 @@ import com.clevercloud.bianca.module.IniDefinition;
 import com.clevercloud.bianca.module.ModuleContext;
 import com.clevercloud.bianca.module.ModuleStartupListener;
 import com.clevercloud.bianca.page.BiancaPage;
+import com.clevercloud.bianca.profile.ProfileReport;
+import com.clevercloud.bianca.profile.ProfileStore;
+import com.clevercloud.bianca.profile.Profiler;
 import com.clevercloud.bianca.program.BiancaProgram;
 import com.clevercloud.bianca.program.ClassDef;
 import com.clevercloud.bianca.program.JavaClassDef;
@@ -138,6 +141,7 @@ public class Env {
    private static final StringValue S_SERVER = new StringValue("_SERVER");
    private static final StringValue S_COOKIE = new StringValue("_COOKIE");
    private static final StringValue S_FILES = new StringValue("_FILES");
+   private static final String PROFILE_HEADER = "X-Bianca-Profile";
    public static final Value[] EMPTY_VALUE = new Value[0];
    private static ThreadLocal<Env> _threadEnv = new ThreadLocal<Env>();
    private static final FreeList<AbstractFunction[]> _freeFunList = new FreeList<AbstractFunction[]>(256);
@@ -146,7 +150,7 @@ public class Env {
    private static final FreeList<Value[]> _freeConstList = new FreeList<Value[]>(256);
    private static final FreeList<QDate> _freeGmtDateList = new FreeList<QDate>(256);
    private static final FreeList<QDate> _freeLocalDateList = new FreeList<QDate>(256);
-   private static final LruCache<String, StringValue> _internStringMap = new LruCache<String, StringValue>(4096);
+   private static final ConcurrentLruCache<String, StringValue> _internStringMap = new ConcurrentLruCache<String, StringValue>(4096);
    protected final BiancaContext _bianca;
    private BiancaPage _page;
    private HashMap<String, Value> _scriptGlobalMap = new HashMap<String, Value>(16);
@@ -166,6 +170,9 @@ public class Env {
    private Map<StringValue, Var> _staticMap = new HashMap<StringValue, Var>();
    // Current env
    private Map<StringValue, EnvVar> _map = _globalMap;
+   // Slot-indexed locals of the current function, null for a map env
+   private Var[] _frame;
+   private StringValue[] _frameNames;
    private HashMap<String, Value> _iniMap;
    // specialMap is used for implicit resources like the mysql link
    private HashMap<String, Object> _specialMap = new HashMap<String, Object>();
@@ -193,6 +200,7 @@ public class Env {
    private InternalAutoloadCallback _internalAutoload;
    private Location _location;
    private long _startTime;
+   private Profiler _profiler;
    private long _timeLimit = 600000L;
    private long _endTime;
    private Expr[] _callStack;
@@ -248,7 +256,10 @@ public class Env {
    private Env _oldThreadEnv;
    private long _firstMicroTime;
    private long _firstNanoTime;
-   private RegexpState _freeRegexpState;
+   private static final int REGEXP_STATE_POOL_SIZE = 8;
+   private final RegexpState[] _freeRegexpStates
+      = new RegexpState[REGEXP_STATE_POOL_SIZE];
+   private int _freeRegexpStateTop;
    private Object _duplex;
    private StringValue _variablesOrder;
    private int[] _querySeparatorMap;
@@ -785,6 +796,10 @@ public class Env {
       }
 
       _bianca.startEnv(this);
+
+      if (isProfileRequest()) {
+         startProfile();
+      }
    }
 
    /**
@@ -882,11 +897,6 @@ public class Env {
                                         String userName, String password,
                                         boolean isReuse)
       throws Exception {
-      // TODO: connections might not be reusable (see gallery2), because
-      // of case with two reuses and one closes because of CREATE or
-      // catalog
-      isReuse = false;
-
       DataSource database = _bianca.getDatabase();
 
       if (database != null) {
@@ -910,6 +920,8 @@ public class Env {
       }
 
       if (oldEntry != null && oldEntry.isReusable()) {
+         oldEntry.addReference();
+
          return oldEntry;
       }
 
@@ -1730,6 +1742,30 @@ public class Env {
    public final EnvVar getEnvVar(StringValue name,
                                  boolean isAutoCreate,
                                  boolean isOutputNotice) {
+      if (_frameNames != null) {
+         int index = findFrameSlot(name);
+
+         if (index >= 0) {
+            if (_frame[index] == null) {
+               if (!isAutoCreate) {
+                  if (isOutputNotice) {
+                     notice(L.l("${0} is an undefined variable", name));
+                  }
+
+                  return null;
+               }
+
+               _frame[index] = new Var();
+            }
+
+            return new SlotEnvVar(_frame, index);
+         }
+
+         if (_map == null) {
+            _map = new HashMap<StringValue, EnvVar>();
+         }
+      }
+
       EnvVar envVar = _map.get(name);
 
       if (envVar != null) {
@@ -1832,6 +1868,8 @@ public class Env {
       Map<StringValue, EnvVar> oldEnv = _map;
 
       _map = map;
+      _frame = null;
+      _frameNames = null;
 
       return oldEnv;
    }
@@ -1844,10 +1882,156 @@ public class Env {
    }
 
    /**
-    * Returns the current environment.
+    * Pushes a slot-indexed local frame.
+    *
+    * @param frame the locals, indexed by VarInfo slot
+    * @param names the local names, indexed by slot
+    * @param map   locals without a slot, or null
+    */
+   public final Map<StringValue, EnvVar> pushFrame(Var[] frame,
+                                                   StringValue[] names,
+                                                   Map<StringValue, EnvVar> map) {
+      Map<StringValue, EnvVar> oldEnv = _map;
+
+      _map = map;
+      _frame = frame;
+      _frameNames = names;
+
+      return oldEnv;
+   }
+
+   /**
+    * Restores the environment saved before a pushEnv or pushFrame.
+    */
+   public final void popFrame(Map<StringValue, EnvVar> oldEnv,
+                              Var[] oldFrame,
+                              StringValue[] oldFrameNames) {
+      _map = oldEnv;
+      _frame = oldFrame;
+      _frameNames = oldFrameNames;
+   }
+
+   /**
+    * Returns the current slot frame.
+    */
+   public final Var[] getFrame() {
+      return _frame;
+   }
+
+   /**
+    * Returns the names of the current slot frame.
+    */
+   public final StringValue[] getFrameNames() {
+      return _frameNames;
+   }
+
+   /**
+    * Returns the current environment.  For a slot frame, returns a
+    * snapshot whose entries write through to the frame.
     */
    public Map<StringValue, EnvVar> getEnv() {
-      return _map;
+      if (_frameNames == null) {
+         return _map;
+      }
+
+      HashMap<StringValue, EnvVar> map = new HashMap<StringValue, EnvVar>();
+
+      for (int i = 0; i < _frameNames.length; i++) {
+         if (_frame[i] != null) {
+            map.put(_frameNames[i], new SlotEnvVar(_frame, i));
+         }
+      }
+
+      if (_map != null) {
+         map.putAll(_map);
+      }
+
+      return map;
+   }
+
+   /**
+    * Returns the slot of a local in the current frame, or -1.
+    */
+   private int findFrameSlot(StringValue name) {
+      StringValue[] names = _frameNames;
+
+      for (int i = 0; i < names.length; i++) {
+         if (names[i].equals(name)) {
+            return i;
+         }
+      }
+
+      return -1;
+   }
+
+   /**
+    * Returns the value of a slot-indexed local.
+    */
+   public final Value getLocalValue(int index,
+                                    StringValue name,
+                                    boolean isOutputNotice) {
+      Var var = _frame[index];
+
+      if (var != null) {
+         return var.toValue();
+      }
+
+      if (isOutputNotice) {
+         notice(L.l("${0} is an undefined variable", name));
+      }
+
+      return NullValue.NULL;
+   }
+
+   /**
+    * Returns the Var of a slot-indexed local, creating it if necessary.
+    */
+   public final Var getLocalVar(int index) {
+      Var var = _frame[index];
+
+      if (var == null) {
+         var = new Var();
+         _frame[index] = var;
+      }
+
+      return var;
+   }
+
+   /**
+    * Sets a slot-indexed local. value must not be a Var.
+    */
+   public final Value setLocalValue(int index, Value value) {
+      getLocalVar(index).set(value);
+
+      return value;
+   }
+
+   /**
+    * Sets a slot-indexed local as a reference.
+    */
+   public final Var setLocalRef(int index, Value value) {
+      if (value.isVar()) {
+         Var var = (Var) value;
+
+         _frame[index] = var;
+
+         return var;
+      }
+
+      Var var = getLocalVar(index);
+
+      var.set(value);
+
+      return var;
+   }
+
+   /**
+    * Unsets a slot-indexed local.
+    */
+   public final void unsetLocal(int index) {
+      if (_frame[index] != null) {
+         _frame[index] = new Var();
+      }
    }
 
    /**
@@ -1955,6 +2139,18 @@ public class Env {
     * @param name the variable name
     */
    public final Var unsetVar(StringValue name) {
+      if (_frameNames != null) {
+         int index = findFrameSlot(name);
+
+         if (index >= 0) {
+            unsetLocal(index);
+
+            return null;
+         } else if (_map == null) {
+            return null;
+         }
+      }
+
       EnvVar envVar = _map.get(name);
 
       if (envVar != null) {
@@ -1997,6 +2193,18 @@ public class Env {
     * @param name the variable name
     */
    public final Var unsetLocalVar(StringValue name) {
+      if (_frameNames != null) {
+         int index = findFrameSlot(name);
+
+         if (index >= 0) {
+            unsetLocal(index);
+
+            return null;
+         } else if (_map == null) {
+            return null;
+         }
+      }
+
       EnvVar envVar = _map.get(name);
 
       if (envVar != null) {
@@ -2724,26 +2932,107 @@ public class Env {
     * Allocate the free regexp
     */
    public RegexpState allocateRegexpState() {
-      RegexpState state = _freeRegexpState;
-      _freeRegexpState = null;
+      if (_freeRegexpStateTop == 0) {
+         return null;
+      }
+
+      RegexpState state = _freeRegexpStates[--_freeRegexpStateTop];
+      _freeRegexpStates[_freeRegexpStateTop] = null;
 
       return state;
    }
 
    /**
-    * Free the free regexp
+    * Free the free regexp. The states are pooled per request so nested
+    * matches, e.g. from a preg_replace_callback callback, reuse them too.
     */
    public void freeRegexpState(RegexpState state) {
-      _freeRegexpState = state;
+      if (state == null || _freeRegexpStateTop == REGEXP_STATE_POOL_SIZE) {
+         return;
+      }
+
+      for (int i = 0; i < _freeRegexpStateTop; i++) {
+         if (_freeRegexpStates[i] == state) {
+            return;
+         }
+      }
+
+      _freeRegexpStates[_freeRegexpStateTop++] = state;
    }
 
    //
    // profiling
    //
-   public void pushProfile(int id) {
+   /**
+    * Returns the profiler, or null if this request isn't profiled.
+    */
+   public Profiler getProfiler() {
+      return _profiler;
    }
 
-   public void popProfile(long nanos) {
+   /**
+    * Starts profiling the rest of the request.
+    */
+   public void startProfile() {
+      if (_profiler == null) {
+         _profiler = new Profiler();
+      }
+   }
+
+   /**
+    * Returns true if the request should be profiled, either from the
+    * bianca.profile ini, from the X-Bianca-Profile header when
+    * bianca.profile_header allows it, or by sampling.
+    */
+   private boolean isProfileRequest() {
+      if (getIniBoolean("bianca.profile")) {
+         return true;
+      }
+
+      if (_request != null && getIniBoolean("bianca.profile_header")) {
+         String header = _request.getHeader(PROFILE_HEADER);
+
+         if (header != null && !"0".equals(header)) {
+            return true;
+         }
+      }
+
+      double probability = _bianca.getProfileProbability();
+
+      return probability > 0 && RandomUtil.nextDouble() < probability;
+   }
+
+   /**
+    * Saves the profile of the request to the ProfileStore.
+    */
+   private void completeProfile() {
+      Profiler profiler = _profiler;
+      _profiler = null;
+
+      if (profiler == null) {
+         return;
+      }
+
+      String url;
+
+      if (_request != null) {
+         url = _request.getRequestURI();
+      } else if (_selfPath != null) {
+         url = _selfPath.getURL();
+      } else {
+         url = "";
+      }
+
+      ProfileReport report = profiler.createReport(ProfileStore.generateId(),
+         url,
+         _startTime);
+
+      ProfileStore.addReport(report);
+
+      if (log.isLoggable(Level.FINE)) {
+         log.fine(this + " profile " + report.getId() + " for " + url
+            + " (" + report.getTotalMicros() + "us)");
+      }
    }
 
    /*
@@ -3986,6 +4275,8 @@ public class Env {
 
       _globalMap = new LazySymbolMap(globalNameMap, globalList);
       _map = _globalMap;
+      _frame = null;
+      _frameNames = null;
 
       // php/4045 - set the vars for any active EnvVar entries
       for (Map.Entry<StringValue, EnvVar> oldEntry : oldGlobal.entrySet()) {
@@ -5068,7 +5359,11 @@ public class Env {
       return lookupInclude(relPath, getPwd(), getSelfDirectory());
    }
 
-   private Path lookupInclude(StringValue include, Path pwd, Path scriptPwd) {
+   /**
+    * Looks up an include from a current directory and the including
+    * script's directory, filling the engine's include cache.
+    */
+   public Path lookupInclude(StringValue include, Path pwd, Path scriptPwd) {
       String includePath = getDefaultIncludePath();
 
       Path path = _bianca.getIncludeCache(include, includePath, pwd, scriptPwd);
@@ -6501,6 +6796,12 @@ public class Env {
          log.log(Level.FINE, e.toString(), e);
       }
 
+      try {
+         completeProfile();
+      } catch (Throwable e) {
+         log.log(Level.FINE, e.toString(), e);
+      }
+
       if (_cleanupList != null) {
          ArrayList<EnvCleanup> cleanupList = new ArrayList<EnvCleanup>(_cleanupList);
 
@@ -6612,7 +6913,7 @@ public class Env {
 
             // php/1k6e
             if (session.getSize() > 0) {
-               value = VariableModule.serialize(this, session.getArray());
+               value = VariableModule.serialize(this, session.getArray()).toString();
             } else {
                value = "";
             }
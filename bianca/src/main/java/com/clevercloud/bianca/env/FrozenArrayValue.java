@@ -0,0 +1,205 @@
+/*
+ * Copyright (c) 2012 Clever Cloud SAS -- all rights reserved
+ *
+ * This file is part of Bianca(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Bianca Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Bianca Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Bianca Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ * @author Marc-Antoine Perennou <Marc-Antoine@Perennou.com>
+ */
+package com.clevercloud.bianca.env;
+
+import com.clevercloud.util.L10N;
+
+import java.util.Map;
+
+/**
+ * A deeply immutable array, shared by any number of requests.
+ * <p/>
+ * Every copy is an ArrayValueImpl sharing the frozen entries until its
+ * first modification, so reading a frozen array never copies it.  Nested
+ * arrays are frozen as well, and references are resolved to their values.
+ */
+public class FrozenArrayValue extends ConstArrayValue {
+
+   private static final L10N L = new L10N(FrozenArrayValue.class);
+   // nesting limit, which also stops recursive arrays
+   private static final int MAX_DEPTH = 64;
+
+   // false only while the constructor fills the entries
+   private final boolean _isFrozen;
+
+   private FrozenArrayValue(Value[] keys, Value[] values) {
+      super(keys, values);
+
+      _isFrozen = true;
+   }
+
+   /**
+    * Returns the frozen form of a value, or null if the value can't be
+    * frozen because it contains objects or resources.
+    */
+   public static Value freeze(Value value) {
+      return freeze(value, 0);
+   }
+
+   private static Value freeze(Value value, int depth) {
+      value = value.toValue();
+
+      if (value instanceof FrozenArrayValue) {
+         return value;
+      } else if (value instanceof ArrayValue) {
+         if (MAX_DEPTH <= depth) {
+            return null;
+         }
+
+         ArrayValue array = (ArrayValue) value;
+
+         int size = array.getSize();
+         Value[] keys = new Value[size];
+         Value[] values = new Value[size];
+
+         int i = 0;
+         for (Map.Entry<Value, Value> entry : array.entrySet()) {
+            Value item = freeze(entry.getValue(), depth + 1);
+
+            if (item == null) {
+               return null;
+            }
+
+            keys[i] = entry.getKey();
+            values[i] = item;
+            i++;
+         }
+
+         return new FrozenArrayValue(keys, values);
+      } else if (value.isObject() || value.isResource()) {
+         return null;
+      } else {
+         return value;
+      }
+   }
+
+   /**
+    * Returns a modifiable copy sharing the frozen entries.
+    */
+   @Override
+   public Value copy() {
+      return new ArrayValueImpl(this);
+   }
+
+   @Override
+   public Value copyReturn() {
+      return new ArrayValueImpl(this);
+   }
+
+   @Override
+   public Value copySaveFunArg() {
+      return new ArrayValueImpl(this);
+   }
+
+   @Override
+   public Value toLocalValue() {
+      return new ArrayValueImpl(this);
+   }
+
+   @Override
+   public Value toLocalRef() {
+      return new ArrayValueImpl(this);
+   }
+
+   /**
+    * Returns the value, since a frozen element can't become a reference.
+    */
+   @Override
+   public Value getArg(Value index, boolean isTop) {
+      return get(index);
+   }
+
+   @Override
+   public ArrayValue append(Value key, Value value) {
+      if (!_isFrozen) {
+         return super.append(key, value);
+      }
+
+      throw frozen();
+   }
+
+   @Override
+   public Value put(Value value) {
+      throw frozen();
+   }
+
+   @Override
+   public Var putVar() {
+      throw frozen();
+   }
+
+   @Override
+   public ArrayValue unshift(Value value) {
+      throw frozen();
+   }
+
+   @Override
+   public ArrayValue splice(int start, int end, ArrayValue replace) {
+      throw frozen();
+   }
+
+   @Override
+   public Value getArray(Value index) {
+      throw frozen();
+   }
+
+   @Override
+   public Value getDirty(Value index) {
+      return get(index);
+   }
+
+   @Override
+   public Var getVar(Value index) {
+      throw frozen();
+   }
+
+   @Override
+   public Var getRef(Value index) {
+      throw frozen();
+   }
+
+   @Override
+   public Value remove(Value key) {
+      throw frozen();
+   }
+
+   @Override
+   public Value pop(Env env) {
+      throw frozen();
+   }
+
+   @Override
+   public void clear() {
+      throw frozen();
+   }
+
+   private static IllegalStateException frozen() {
+      return new IllegalStateException(L.l("a frozen array can't be modified"));
+   }
+}
@@ -567,7 +567,7 @@ abstract public class JavaAdapter extends ArrayValue
     * Serializes the value.
     */
    @Override
-   public void serialize(Env env, StringBuilder sb) {
+   public void serialize(Env env, StringValue sb) {
       throw new UnsupportedOperationException();
    }
 
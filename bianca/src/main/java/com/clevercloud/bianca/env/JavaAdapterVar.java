@@ -1270,7 +1270,7 @@ public class JavaAdapterVar extends Value {
     * Serializes the value.
     */
    @Override
-   public void serialize(Env env, StringBuilder sb, SerializeMap map) {
+   public void serialize(Env env, StringValue sb, SerializeMap map) {
       getValue().serialize(env, sb, map);
    }
 
@@ -37,6 +37,7 @@ import com.clevercloud.bianca.marshal.Marshal;
 import com.clevercloud.bianca.marshal.MarshalFactory;
 import com.clevercloud.bianca.module.ModuleContext;
 import com.clevercloud.bianca.parser.BiancaParser;
+import com.clevercloud.bianca.profile.Profiler;
 import com.clevercloud.util.L10N;
 
 import java.lang.annotation.Annotation;
@@ -287,6 +288,17 @@ abstract public class JavaInvoker
       return _hasEnv;
    }
 
+   /**
+    * Returns true if the php object is an argument.
+    */
+   public boolean getHasThis() {
+      if (!_isInit) {
+         init();
+      }
+
+      return _hasThis;
+   }
+
    /**
     * Returns true if the environment has rest-style arguments.
     */
@@ -728,11 +740,23 @@ abstract public class JavaInvoker
             _marshalArgs.length));
       }
 
-      Object result = invoke(obj, javaArgs);
+      Profiler profiler = env.getProfiler();
+
+      if (profiler == null) {
+         Object result = invoke(obj, javaArgs);
+
+         return _unmarshalReturn.unmarshal(env, result);
+      }
+
+      profiler.enter(getProfileName());
 
-      Value value = _unmarshalReturn.unmarshal(env, result);
+      try {
+         Object result = invoke(obj, javaArgs);
 
-      return value;
+         return _unmarshalReturn.unmarshal(env, result);
+      } finally {
+         profiler.exit();
+      }
    }
 
    abstract public Object invoke(Object obj, Object[] args);
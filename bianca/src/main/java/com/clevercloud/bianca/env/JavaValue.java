@@ -436,7 +436,7 @@ public class JavaValue extends ObjectValue
     * Serializes the value.
     */
    @Override
-   public void serialize(Env env, StringBuilder sb, SerializeMap map) {
+   public void serialize(Env env, StringValue sb, SerializeMap map) {
       String name = _classDef.getSimpleName();
 
       Set<? extends Map.Entry<Value, Value>> entrySet = entrySet();
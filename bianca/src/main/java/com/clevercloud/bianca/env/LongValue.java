@@ -475,12 +475,20 @@ public class LongValue extends NumberValue {
     * Serializes the value.
     */
    @Override
-   public void serialize(Env env, StringBuilder sb) {
+   public void serialize(Env env, StringValue sb) {
       sb.append("i:");
       sb.append(_value);
       sb.append(";");
    }
 
+   /**
+    * Encodes the value in JSON.
+    */
+   @Override
+   public void jsonEncode(Env env, StringValue sb) {
+      sb.append(_value);
+   }
+
    /**
     * Exports the value.
     */
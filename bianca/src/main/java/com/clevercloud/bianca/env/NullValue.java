@@ -529,7 +529,7 @@ public class NullValue extends Value
     * Serializes the value.
     */
    @Override
-   public void serialize(Env env, StringBuilder sb) {
+   public void serialize(Env env, StringValue sb) {
       sb.append("N;");
    }
 
@@ -1026,12 +1026,12 @@ public class ObjectExtValue extends ObjectValue
     */
    @Override
    public void serialize(Env env,
-                         StringBuilder sb, SerializeMap serializeMap) {
+                         StringValue sb, SerializeMap serializeMap) {
       Integer index = serializeMap.get(this);
 
       if (index != null) {
          sb.append("r:");
-         sb.append(index);
+         sb.append(index.intValue());
          sb.append(";");
 
          return;
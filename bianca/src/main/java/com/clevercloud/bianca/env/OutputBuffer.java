@@ -116,21 +116,49 @@ public class OutputBuffer {
    }
 
    /**
-    * Returns the buffer contents.
+    * Returns the buffer contents, decoded once with the output encoding.
     */
    public Value getContents() {
       try {
          _out.flush();
 
-         StringValue bb = new StringValue();
+         TempBuffer head = _tempStream.getHead();
 
-         for (TempBuffer ptr = _tempStream.getHead();
-              ptr != null;
-              ptr = ptr.getNext()) {
-            bb.append(new String(ptr.getBuffer()), 0, ptr.getLength());
+         if (head == null) {
+            return new StringValue();
          }
 
-         return bb;
+         byte[] bytes;
+         int length;
+
+         if (head.getNext() == null) {
+            bytes = head.getBuffer();
+            length = head.getLength();
+         } else {
+            bytes = new byte[_tempStream.getLength()];
+            length = 0;
+
+            for (TempBuffer ptr = head; ptr != null; ptr = ptr.getNext()) {
+               System.arraycopy(ptr.getBuffer(), 0, bytes, length,
+                  ptr.getLength());
+
+               length += ptr.getLength();
+            }
+         }
+
+         String encoding = _out.getJavaEncoding();
+
+         if (encoding == null) {
+            encoding = "ISO-8859-1";
+         }
+
+         try {
+            return new StringValue(new String(bytes, 0, length, encoding));
+         } catch (UnsupportedEncodingException e) {
+            log.log(Level.FINER, e.toString(), e);
+
+            return new StringValue(new String(bytes, 0, length));
+         }
       } catch (IOException e) {
          _env.error(e.toString(), e);
 
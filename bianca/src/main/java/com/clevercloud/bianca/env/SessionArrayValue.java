@@ -39,6 +39,7 @@ import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.Serializable;
 import java.util.IdentityHashMap;
+import java.util.Iterator;
 import java.util.Map;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Logger;
@@ -55,6 +56,11 @@ public class SessionArrayValue extends ArrayValueWrapper
    protected long _accessTime;
    private long _maxInactiveInterval;
    private boolean _isValid;
+   // true if the array may have changed since it was loaded
+   private boolean _isModified;
+   // the encoded session as last loaded from or written to the store
+   private String _encoded;
+   private long _storeTime;
 
    public SessionArrayValue(String id, long now,
                             long maxInactiveInterval) {
@@ -83,6 +89,46 @@ public class SessionArrayValue extends ArrayValueWrapper
     */
    public void setId(String id) {
       _id = id;
+
+      // the store has nothing under the new id
+      _encoded = null;
+      _isModified = true;
+   }
+
+   /**
+    * True if the session may have changed since it was loaded.  Any call
+    * which can reach a mutable value sets the flag, so a false value means
+    * the session doesn't need to be encoded or saved.
+    */
+   public boolean isModified() {
+      return _isModified;
+   }
+
+   public void setModified(boolean isModified) {
+      _isModified = isModified;
+   }
+
+   /**
+    * Returns the encoded session as last loaded from or written to the
+    * session store.
+    */
+   public String getEncoded() {
+      return _encoded;
+   }
+
+   public void setEncoded(String encoded) {
+      _encoded = encoded;
+   }
+
+   /**
+    * Returns the time the session was last written to the store.
+    */
+   public long getStoreTime() {
+      return _storeTime;
+   }
+
+   public void setStoreTime(long storeTime) {
+      _storeTime = storeTime;
    }
 
    /**
@@ -102,7 +148,10 @@ public class SessionArrayValue extends ArrayValueWrapper
 
       SessionArrayValue copy =
          new SessionArrayValue(_id, accessTime, _maxInactiveInterval,
-            (ArrayValue) getArray().copy(env, map));
+            (ArrayValue) super.getArray().copy(env, map));
+
+      copy._encoded = _encoded;
+      copy._storeTime = _storeTime;
 
       return copy;
    }
@@ -111,15 +160,15 @@ public class SessionArrayValue extends ArrayValueWrapper
     * Encoding for serialization.
     */
    public String encode(Env env) {
-      StringBuilder sb = new StringBuilder();
-      ArrayValue array = getArray();
+      StringValue sb = new StringValue();
+      ArrayValue array = super.getArray();
 
       SerializeMap serializeMap = new SerializeMap();
 
       synchronized (array) {
          for (Map.Entry<Value, Value> entry : array.entrySet()) {
-            sb.append(entry.getKey().toString());
-            sb.append("|");
+            sb.append(entry.getKey());
+            sb.append('|');
 
             entry.getValue().serialize(env, sb, serializeMap);
          }
@@ -132,7 +181,7 @@ public class SessionArrayValue extends ArrayValueWrapper
     * Decodes encoded values, adding them to this object.
     */
    public boolean decode(Env env, StringValue encoded) {
-      ArrayValue array = getArray();
+      ArrayValue array = super.getArray();
 
       try {
          UnserializeReader is = new UnserializeReader(encoded);
@@ -329,6 +378,179 @@ public class SessionArrayValue extends ArrayValueWrapper
       */
    }
 
+   //
+   // modification tracking
+   //
+
+   private Value modified(Value value) {
+      if (value != null && (value.isArray() || value.isObject())) {
+         _isModified = true;
+      }
+
+      return value;
+   }
+
+   @Override
+   public ArrayValue getArray() {
+      _isModified = true;
+
+      return super.getArray();
+   }
+
+   @Override
+   public void clear() {
+      _isModified = true;
+
+      super.clear();
+   }
+
+   @Override
+   public Value put(Value key, Value value) {
+      _isModified = true;
+
+      return super.put(key, value);
+   }
+
+   @Override
+   public ArrayValue append(Value key, Value value) {
+      _isModified = true;
+
+      return super.append(key, value);
+   }
+
+   @Override
+   public Value put(Value value) {
+      _isModified = true;
+
+      return super.put(value);
+   }
+
+   @Override
+   public ArrayValue unshift(Value value) {
+      _isModified = true;
+
+      return super.unshift(value);
+   }
+
+   @Override
+   public ArrayValue splice(int start, int end, ArrayValue replace) {
+      _isModified = true;
+
+      return super.splice(start, end, replace);
+   }
+
+   @Override
+   public Value getArg(Value index, boolean isTop) {
+      _isModified = true;
+
+      return super.getArg(index, isTop);
+   }
+
+   @Override
+   public Var putVar() {
+      _isModified = true;
+
+      return super.putVar();
+   }
+
+   @Override
+   public Value get(Value key) {
+      return modified(super.get(key));
+   }
+
+   @Override
+   public Value remove(Value key) {
+      _isModified = true;
+
+      return super.remove(key);
+   }
+
+   @Override
+   public Var getVar(Value index) {
+      _isModified = true;
+
+      return super.getVar(index);
+   }
+
+   @Override
+   public Value pop(Env env) {
+      _isModified = true;
+
+      return super.pop(env);
+   }
+
+   @Override
+   public Value shuffle() {
+      _isModified = true;
+
+      return super.shuffle();
+   }
+
+   @Override
+   public Entry getHead() {
+      _isModified = true;
+
+      return super.getHead();
+   }
+
+   @Override
+   protected Entry getTail() {
+      _isModified = true;
+
+      return super.getTail();
+   }
+
+   @Override
+   public Value current() {
+      return modified(super.current());
+   }
+
+   @Override
+   public Value next() {
+      return modified(super.next());
+   }
+
+   @Override
+   public Value prev() {
+      return modified(super.prev());
+   }
+
+   @Override
+   public Value each() {
+      _isModified = true;
+
+      return super.each();
+   }
+
+   @Override
+   public Value reset() {
+      return modified(super.reset());
+   }
+
+   @Override
+   public Value end() {
+      return modified(super.end());
+   }
+
+   @Override
+   public Value containsKey(Value key) {
+      return modified(super.containsKey(key));
+   }
+
+   @Override
+   public Iterator<Map.Entry<Value, Value>> getIterator(Env env) {
+      _isModified = true;
+
+      return super.getIterator(env);
+   }
+
+   @Override
+   public Iterator<Value> getValueIterator(Env env) {
+      _isModified = true;
+
+      return super.getValueIterator(env);
+   }
+
    //
    // Java serialization code
    //
@@ -0,0 +1,85 @@
+/*
+ * Copyright (c) 2012 Clever Cloud SAS -- all rights reserved
+ *
+ * This file is part of Bianca(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Bianca Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Bianca Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Bianca Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ * @author Marc-Antoine Perennou <Marc-Antoine@Perennou.com>
+ */
+package com.clevercloud.bianca.env;
+
+/**
+ * Environment entry for a slot of a function's local frame, used when
+ * a slot-indexed local is reached by name.
+ */
+final class SlotEnvVar extends EnvVar {
+
+   private final Var[] _frame;
+   private final int _index;
+
+   SlotEnvVar(Var[] frame, int index) {
+      _frame = frame;
+      _index = index;
+   }
+
+   /**
+    * Returns the current value.
+    */
+   @Override
+   public Value get() {
+      return getVar().toValue();
+   }
+
+   /**
+    * Sets the current value.
+    */
+   @Override
+   public Value set(Value value) {
+      return getVar().set(value);
+   }
+
+   /**
+    * Returns the current Var.
+    */
+   @Override
+   public Var getVar() {
+      Var var = _frame[_index];
+
+      if (var == null) {
+         var = new Var();
+         _frame[_index] = var;
+      }
+
+      return var;
+   }
+
+   /**
+    * Sets the var.
+    */
+   @Override
+   public Var setVar(Var var) {
+      _frame[_index] = var;
+
+      return var;
+   }
+}
@@ -35,10 +35,12 @@ import com.clevercloud.bianca.BiancaRuntimeException;
 import com.clevercloud.bianca.lib.file.BinaryInput;
 import com.clevercloud.bianca.marshal.Marshal;
 import com.clevercloud.vfs.ReadStream;
+import com.clevercloud.vfs.ReaderWriterStream;
 import com.clevercloud.vfs.WriteStream;
 import com.clevercloud.vfs.i18n.UTF8Reader;
 
 import java.io.*;
+import java.nio.charset.Charset;
 import java.util.IdentityHashMap;
 import java.util.zip.CRC32;
 /* TOCHECK append int */
@@ -52,19 +54,39 @@ public class StringValue
 
    public static final StringValue EMPTY = new StringValue("");
    private static final StringValue[] CHAR_STRINGS;
+   // decodes byte storage one char per byte
+   private static final Charset ISO_8859_1 = Charset.forName("ISO-8859-1");
    protected static final int IS_STRING = 0;
    protected static final int IS_LONG = 1;
    protected static final int IS_DOUBLE = 2;
 
-   private StringBuilder _buffer;
+   private static final byte[] EMPTY_BYTES = new byte[0];
+   // JSON escape for each ASCII character: 0 if none, 'u' for a hex escape
+   private static final byte[] JSON_ESCAPE = new byte[0x80];
+   private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+   // don't share a substring's buffer below this length
+   private static final int SHARE_MIN = 64;
+   // latin-1 characters, null once a wider character is stored
+   private byte[] _bytes;
+   // characters, only when the string has characters wider than latin-1
+   private char[] _chars;
+   private int _offset;
+   private int _length;
+   // true if the buffer may be used by another string: copied before writes
+   private boolean _isShared;
+   private int _hash;
+   private ValueType _valueType;
 
    public StringValue() {
-      _buffer = new StringBuilder();
+      _bytes = EMPTY_BYTES;
+      _isShared = true;
    }
 
    public StringValue(String buffer, int offset, int length) {
+      this();
+
       if (offset < 0) offset = 0;
-      _buffer = new StringBuilder(buffer.substring(Math.min(offset, buffer.length()), Math.min(offset + length, buffer.length())));
+      append(buffer, Math.min(offset, buffer.length()), Math.min(offset + length, buffer.length()));
    }
 
    /**
@@ -75,46 +97,75 @@ public class StringValue
    }
 
    public StringValue(char ch) {
-      _buffer = new StringBuilder().append(ch);
+      this();
+
+      append(ch);
    }
 
    public StringValue(byte ch) {
-      _buffer = new StringBuilder().append(ch);
+      this(String.valueOf(ch));
    }
 
    public StringValue(String s) {
-      _buffer = new StringBuilder(s);
+      this();
+
+      append(s);
    }
 
    public StringValue(String s, Value v1) {
-      _buffer = new StringBuilder(s);
+      this(s);
+
       v1.appendTo(this);
    }
 
    public StringValue(Value v1) {
       if (v1 instanceof StringValue) {
-         _buffer = new StringBuilder(((StringValue) v1)._buffer);
+         StringValue str = (StringValue) v1;
+
+         // copy-on-write: both strings copy the buffer before writing
+         str._isShared = true;
+
+         _bytes = str._bytes;
+         _chars = str._chars;
+         _offset = str._offset;
+         _length = str._length;
+         _hash = str._hash;
+         _valueType = str._valueType;
+         _isShared = true;
       } else {
-         _buffer = new StringBuilder();
+         _bytes = EMPTY_BYTES;
+         _isShared = true;
+
          v1.appendTo(this);
       }
    }
 
    public StringValue(Value v1, Value v2) {
-      _buffer = new StringBuilder();
+      this();
 
       v1.appendTo(this);
       v2.appendTo(this);
    }
 
    public StringValue(Value v1, Value v2, Value v3) {
-      _buffer = new StringBuilder();
+      this();
 
       v1.appendTo(this);
       v2.appendTo(this);
       v3.appendTo(this);
    }
 
+   /**
+    * Creates a string sharing part of another string's buffer.
+    */
+   private StringValue(byte[] bytes, char[] chars, int offset, int length) {
+      _bytes = bytes;
+      _chars = chars;
+      _offset = offset;
+      _length = length;
+      _isShared = true;
+   }
+
    /**
     * Creates the string.
     */
@@ -187,12 +238,26 @@ public class StringValue
     */
    @Override
    public ValueType getValueType() {
-      return getValueType(_buffer.toString(), 0, _buffer.length());
+      ValueType type = _valueType;
+
+      if (type == null) {
+         type = getValueType(this, 0, _length);
+
+         _valueType = type;
+      }
+
+      return type;
    }
 
    public static ValueType getValueType(String buffer,
                                         int offset,
                                         int len) {
+      return getValueType((CharSequence) buffer, offset, len);
+   }
+
+   private static ValueType getValueType(CharSequence buffer,
+                                         int offset,
+                                         int len) {
       if (len == 0) {
          // php/0307
          return ValueType.LONG_ADD;
@@ -504,6 +569,8 @@ public class StringValue
          double r = rValue.toDouble();
 
          return l == r;
+      } else if (rValue instanceof StringValue) {
+         return equalsString((StringValue) rValue);
       } else {
          return toString().equals(rValue.toString());
       }
@@ -513,7 +580,18 @@ public class StringValue
     * Compare two strings
     */
    public int cmpString(StringValue rValue) {
-      return toString().compareTo(rValue.toString());
+      int len = Math.min(_length, rValue._length);
+
+      for (int i = 0; i < len; i++) {
+         char chA = charAt(i);
+         char chB = rValue.charAt(i);
+
+         if (chA != chB) {
+            return chA - chB;
+         }
+      }
+
+      return _length - rValue._length;
    }
 
    // Conversions
@@ -540,7 +618,7 @@ public class StringValue
     */
    @Override
    public long toLong() {
-      return toLong(_buffer.toString());
+      return parseLong(this);
    }
 
    public static long toLong(String string) {
@@ -691,13 +769,17 @@ public class StringValue
     */
    @Override
    public double toDouble() {
-      return toDouble(toString());
+      return toDouble((CharSequence) this);
    }
 
    /**
     * Converts to a double.
     */
    public static double toDouble(String s) {
+      return toDouble((CharSequence) s);
+   }
+
+   private static double toDouble(CharSequence s) {
       int len = s.length();
 
       int start = 0;
@@ -761,10 +843,8 @@ public class StringValue
 
       if (i == 0) {
          return 0;
-      } else if (i == len && start == 0) {
-         return Double.parseDouble(s);
       } else {
-         return Double.parseDouble(s.substring(Math.max(0, start), i));
+         return Double.parseDouble(s.subSequence(Math.max(0, start), i).toString());
       }
    }
 
@@ -850,10 +930,10 @@ public class StringValue
     */
    @Override
    public final boolean toBoolean() {
-      if (_buffer.length() == 0) {
+      if (_length == 0) {
          return false;
       } else {
-         return (_buffer.length() != 1 || _buffer.charAt(0) != '0');
+         return (_length != 1 || charAt(0) != '0');
       }
    }
 
@@ -870,10 +950,9 @@ public class StringValue
 
       int sign = 1;
       long value = 0;
-      String buffer = toString();
 
       int i = 0;
-      char ch = buffer.charAt(i++);
+      char ch = charAt(i++);
       if ('0' <= ch && ch <= '9') {
          value = ch - '0';
       } else if (ch == '-' && len > 1) {
@@ -1006,7 +1085,7 @@ public class StringValue
     */
    @Override
    public Value append(Value index, Value value) {
-      if (_buffer.length() > 0) {
+      if (_length > 0) {
          return setCharValueAt(index.toLong(), value);
       } else {
          return new ArrayValueImpl().append(index, value);
@@ -1058,21 +1137,21 @@ public class StringValue
     */
    @Override
    public Value setCharValueAt(long indexL, Value value) {
-      int len = _buffer.length();
+      int len = _length;
 
       if (indexL < 0) {
          return this;
       } else if (indexL < len) {
-         StringValue sb = new StringValue(_buffer.toString());
+         StringValue sb = new StringValue(this);
 
          StringValue str = value.toStringValue();
 
          int index = (int) indexL;
 
          if (value.length() == 0) {
-            sb._buffer.setCharAt(index, (char) 0);
+            sb.setCharAt(index, (char) 0);
          } else {
-            sb._buffer.setCharAt(index, str.charAt(0));
+            sb.setCharAt(index, str.charAt(0));
          }
 
          return sb;
@@ -1086,27 +1165,50 @@ public class StringValue
          int padLen = index - len;
 
          for (int i = 0; i <= padLen; i++) {
-            sb._buffer.append(' ');
+            sb.append(' ');
          }
 
          StringValue str = value.toStringValue();
 
          if (value.length() == 0) {
-            sb._buffer.setCharAt(index, (char) 0);
+            sb.setCharAt(index, (char) 0);
          } else {
-            sb._buffer.setCharAt(index, str.charAt(0));
+            sb.setCharAt(index, str.charAt(0));
          }
 
          return sb;
       }
    }
 
+   /**
+    * Replaces a character, copying a shared buffer first.
+    */
+   private void setCharAt(int index, char ch) {
+      prepareWrite(0);
+
+      if (_chars == null && ch > 0xff) {
+         inflate(_bytes.length);
+      }
+
+      if (_chars != null) {
+         _chars[index] = ch;
+      } else {
+         _bytes[index] = (byte) ch;
+      }
+   }
+
    /**
     * Converts to a string.
     */
    @Override
    public String toString() {
-      return _buffer.toString();
+      if (_length == 0) {
+         return "";
+      } else if (_chars != null) {
+         return new String(_chars, _offset, _length);
+      } else {
+         return new String(_bytes, _offset, _length, ISO_8859_1);
+      }
    }
 
 
@@ -1265,124 +1367,96 @@ public class StringValue
     * Serializes the value.
     */
    @Override
-   public void serialize(Env env, StringBuilder sb) {
+   public void serialize(Env env, StringValue sb) {
       sb.append("s:");
-      sb.append(length());
+      sb.append(_length);
       sb.append(":\"");
-      sb.append(toString());
+      sb.appendStringValue(this, 0, _length);
       sb.append("\";");
    }
 
    /**
-    * Encodes the value in JSON.
+    * Encodes the value in JSON.  Runs of characters which need no escape
+    * are copied to the output buffer as a block.
     */
    @Override
    public void jsonEncode(Env env, StringValue sb) {
       sb.append('"');
 
-      int len = length();
+      int len = _length;
+      int head = 0;
+
       for (int i = 0; i < len; i++) {
-         char c = charAt(i);
+         char c = jsonCharAt(i);
 
-         switch (c) {
-            case '\b':
-               sb.append('\\');
-               sb.append('b');
-               break;
-            case '\f':
-               sb.append('\\');
-               sb.append('f');
-               break;
-            case '\n':
-               sb.append('\\');
-               sb.append('n');
-               break;
-            case '\r':
-               sb.append('\\');
-               sb.append('r');
-               break;
-            case '\t':
-               sb.append('\\');
-               sb.append('t');
-               break;
-            case '\\':
-               sb.append('\\');
-               sb.append('\\');
-               break;
-            case '"':
-               sb.append('\\');
-               sb.append('"');
-               break;
-            case '/':
-               sb.append('\\');
-               sb.append('/');
-               break;
-            default:
-               if (c <= 0x1f) {
-                  addUnicode(sb, c);
-               } else if (c < 0x80) {
-                  sb.append(c);
-               } else if ((c & 0xe0) == 0xc0 && i + 1 < len) {
-                  int c1 = charAt(i + 1);
-                  i++;
+         if (c < 0x80 && JSON_ESCAPE[c] == 0) {
+            continue;
+         }
 
-                  int ch = ((c & 0x1f) << 6) + (c1 & 0x3f);
+         if (head < i) {
+            sb.appendStringValue(this, head, i);
+         }
 
-                  addUnicode(sb, ch);
-               } else if ((c & 0xf0) == 0xe0 && i + 2 < len) {
-                  int c1 = charAt(i + 1);
-                  int c2 = charAt(i + 2);
+         if (c < 0x80) {
+            char escape = (char) JSON_ESCAPE[c];
 
-                  i += 2;
+            if (escape == 'u') {
+               addUnicode(sb, c);
+            } else {
+               sb.prepareWrite(2);
+               sb.appendChar('\\');
+               sb.appendChar(escape);
+            }
+         } else if ((c & 0xe0) == 0xc0 && i + 1 < len) {
+            int c1 = jsonCharAt(i + 1);
+            i++;
 
-                  int ch = ((c & 0x0f) << 12) + ((c1 & 0x3f) << 6) + (c2 & 0x3f);
+            int ch = ((c & 0x1f) << 6) + (c1 & 0x3f);
 
-                  addUnicode(sb, ch);
-               } else {
-                  // technically illegal
-                  addUnicode(sb, c);
-               }
+            addUnicode(sb, ch);
+         } else if ((c & 0xf0) == 0xe0 && i + 2 < len) {
+            int c1 = jsonCharAt(i + 1);
+            int c2 = jsonCharAt(i + 2);
 
-               break;
-         }
-      }
+            i += 2;
 
-      sb.append('"');
-   }
+            int ch = ((c & 0x0f) << 12) + ((c1 & 0x3f) << 6) + (c2 & 0x3f);
 
-   private void addUnicode(StringValue sb, int c) {
-      sb.append('\\');
-      sb.append('u');
+            addUnicode(sb, ch);
+         } else {
+            // technically illegal
+            addUnicode(sb, c);
+         }
 
-      int d = (c >> 12) & 0xf;
-      if (d < 10) {
-         sb.append((char) ('0' + d));
-      } else {
-         sb.append((char) ('a' + d - 10));
+         head = i + 1;
       }
 
-      d = (c >> 8) & 0xf;
-      if (d < 10) {
-         sb.append((char) ('0' + d));
-      } else {
-         sb.append((char) ('a' + d - 10));
+      if (head < len) {
+         sb.appendStringValue(this, head, len);
       }
 
-      d = (c >> 4) & 0xf;
-      if (d < 10) {
-         sb.append((char) ('0' + d));
-      } else {
-         sb.append((char) ('a' + d - 10));
-      }
+      sb.append('"');
+   }
 
-      d = (c) & 0xf;
-      if (d < 10) {
-         sb.append((char) ('0' + d));
+   private char jsonCharAt(int i) {
+      if (_chars != null) {
+         return _chars[_offset + i];
       } else {
-         sb.append((char) ('a' + d - 10));
+         return (char) (_bytes[_offset + i] & 0xff);
       }
    }
 
+   private static void addUnicode(StringValue sb, int c) {
+      sb.prepareWrite(6);
+
+      sb.appendChar('\\');
+      sb.appendChar('u');
+      sb.appendChar(HEX_DIGITS[(c >> 12) & 0xf]);
+      sb.appendChar(HEX_DIGITS[(c >> 8) & 0xf]);
+      sb.appendChar(HEX_DIGITS[(c >> 4) & 0xf]);
+      sb.appendChar(HEX_DIGITS[c & 0xf]);
+   }
+
    /*
     * Returns a value to be used as a key for the deserialize cache.
     */
@@ -1415,8 +1489,11 @@ public class StringValue
     * Append a Java string to the value.
     */
    public final StringValue append(String s) {
-      _buffer.append(s);
-      return this;
+      if (s == null) {
+         s = "null";
+      }
+
+      return append(s, 0, s.length());
    }
 
    /**
@@ -1424,8 +1501,39 @@ public class StringValue
     */
    public final StringValue append(String s, int start, int end) {
       if (start < 0) start = 0;
-      if (end > start)
-         _buffer.append(s.substring(Math.min(start, s.length()), Math.min(end, s.length())));
+      start = Math.min(start, s.length());
+      end = Math.min(end, s.length());
+
+      if (end > start) {
+         int sublen = end - start;
+
+         prepareWrite(sublen);
+
+         if (_chars != null) {
+            s.getChars(start, end, _chars, _length);
+         } else {
+            byte[] bytes = _bytes;
+            int length = _length;
+
+            for (int i = start; i < end; i++) {
+               char ch = s.charAt(i);
+
+               if (ch > 0xff) {
+                  _length = length;
+                  inflate(bytes.length);
+                  s.getChars(i, end, _chars, length);
+                  _length = length + end - i;
+
+                  return this;
+               }
+
+               bytes[length++] = (byte) ch;
+            }
+         }
+
+         _length += sublen;
+      }
+
       return this;
    }
 
@@ -1433,7 +1541,21 @@ public class StringValue
     * Append a Java buffer to the value.
     */
    public final StringValue append(char[] buf, int offset, int length) {
-      _buffer.append(buf, offset, length);
+      if (length <= 0) {
+         return this;
+      }
+
+      prepareWrite(length);
+
+      if (_chars != null) {
+         System.arraycopy(buf, offset, _chars, _length, length);
+         _length += length;
+      } else {
+         for (int i = 0; i < length; i++) {
+            appendChar(buf[offset + i]);
+         }
+      }
+
       return this;
    }
 
@@ -1441,15 +1563,82 @@ public class StringValue
     * Append a Java buffer to the value.
     */
    public final StringValue append(char[] buf) {
-      _buffer.append(buf);
-      return this;
+      return append(buf, 0, buf.length);
    }
 
    /**
     * Append a Java buffer to the value.
     */
    public final StringValue append(CharSequence buf, int head, int tail) {
-      _buffer.append(buf, head, tail);
+      if (buf instanceof StringValue) {
+         return appendStringValue((StringValue) buf, head, tail);
+      } else if (buf instanceof String) {
+         return append((String) buf, head, tail);
+      }
+
+      if (tail <= head) {
+         return this;
+      }
+
+      prepareWrite(tail - head);
+
+      for (int i = head; i < tail; i++) {
+         appendChar(buf.charAt(i));
+      }
+
+      return this;
+   }
+
+   private StringValue appendStringValue(StringValue sb, int head, int tail) {
+      if (head < 0 || sb._length < tail || tail < head) {
+         throw new IndexOutOfBoundsException("start " + head + ", end " + tail
+            + ", length " + sb._length);
+      }
+
+      int sublen = tail - head;
+
+      if (sublen == 0) {
+         return this;
+      }
+
+      if (_length == 0 && sublen == sb._length && sb != this) {
+         // share the whole buffer until one of the strings is written
+         sb._isShared = true;
+
+         _bytes = sb._bytes;
+         _chars = sb._chars;
+         _offset = sb._offset;
+         _length = sb._length;
+         _hash = sb._hash;
+         _valueType = sb._valueType;
+         _isShared = true;
+
+         return this;
+      }
+
+      // sb may be this string
+      byte[] srcBytes = sb._bytes;
+      char[] srcChars = sb._chars;
+      int srcOffset = sb._offset + head;
+
+      prepareWrite(sublen);
+
+      if (srcChars != null) {
+         if (_chars == null) {
+            inflate(_bytes.length);
+         }
+
+         System.arraycopy(srcChars, srcOffset, _chars, _length, sublen);
+      } else if (_chars != null) {
+         for (int i = 0; i < sublen; i++) {
+            _chars[_length + i] = (char) (srcBytes[srcOffset + i] & 0xff);
+         }
+      } else {
+         System.arraycopy(srcBytes, srcOffset, _bytes, _length, sublen);
+      }
+
+      _length += sublen;
+
       return this;
    }
 
@@ -1464,10 +1653,80 @@ public class StringValue
     * Append a Java char to the value.
     */
    public final StringValue append(char ch) {
-      _buffer.append(ch);
+      prepareWrite(1);
+
+      appendChar(ch);
+
       return this;
    }
 
+   /**
+    * Appends a character once prepareWrite has reserved room for it.
+    */
+   private void appendChar(char ch) {
+      if (_chars != null) {
+         _chars[_length++] = ch;
+      } else if (ch <= 0xff) {
+         _bytes[_length++] = (byte) ch;
+      } else {
+         inflate(_bytes.length);
+
+         _chars[_length++] = ch;
+      }
+   }
+
+   /**
+    * Makes the buffer writable with room for more characters.  Shared or
+    * offset buffers are copied first, and the cached hash and value type
+    * are cleared.
+    */
+   private void prepareWrite(int addLength) {
+      _hash = 0;
+      _valueType = null;
+
+      int newLength = _length + addLength;
+      int capacity = _chars != null ? _chars.length : _bytes.length;
+
+      if (!_isShared && _offset == 0 && newLength <= capacity) {
+         return;
+      }
+
+      if (addLength > 0) {
+         capacity = Math.max(Math.max(newLength, 2 * _length), 16);
+      } else {
+         capacity = newLength;
+      }
+
+      if (_chars != null) {
+         char[] chars = new char[capacity];
+         System.arraycopy(_chars, _offset, chars, 0, _length);
+         _chars = chars;
+      } else {
+         byte[] bytes = new byte[capacity];
+         System.arraycopy(_bytes, _offset, bytes, 0, _length);
+         _bytes = bytes;
+      }
+
+      _offset = 0;
+      _isShared = false;
+   }
+
+   /**
+    * Widens the latin-1 buffer once a wider character is stored.
+    */
+   private void inflate(int capacity) {
+      char[] chars = new char[Math.max(capacity, _length)];
+
+      for (int i = 0; i < _length; i++) {
+         chars[i] = (char) (_bytes[_offset + i] & 0xff);
+      }
+
+      _chars = chars;
+      _bytes = null;
+      _offset = 0;
+      _isShared = false;
+   }
+
    /**
     * Append a Java boolean to the value.
     */
@@ -1479,7 +1738,49 @@ public class StringValue
     * Append a Java long to the value.
     */
    public StringValue append(long v) {
-      return append(String.valueOf(v));
+      if (v == Long.MIN_VALUE) {
+         return append("-9223372036854775808");
+      }
+
+      long abs = v < 0 ? -v : v;
+
+      int len = v < 0 ? 2 : 1;
+      for (long rest = abs / 10; rest != 0; rest /= 10) {
+         len++;
+      }
+
+      prepareWrite(len);
+
+      // digits are written backwards from the end
+      int i = _length + len;
+
+      if (_chars != null) {
+         char[] chars = _chars;
+
+         do {
+            chars[--i] = (char) ('0' + abs % 10);
+            abs /= 10;
+         } while (abs != 0);
+
+         if (v < 0) {
+            chars[--i] = '-';
+         }
+      } else {
+         byte[] bytes = _bytes;
+
+         do {
+            bytes[--i] = (byte) ('0' + abs % 10);
+            abs /= 10;
+         } while (abs != 0);
+
+         if (v < 0) {
+            bytes[--i] = '-';
+         }
+      }
+
+      _length += len;
+
+      return this;
    }
 
    /**
@@ -1500,6 +1801,12 @@ public class StringValue
     * Append a Java value to the value.
     */
    public StringValue append(Value v) {
+      if (v instanceof StringValue) {
+         StringValue s = (StringValue) v;
+
+         return appendStringValue(s, 0, s._length);
+      }
+
       append(v.toString());
       return this;
    }
@@ -1744,7 +2051,7 @@ public class StringValue
     */
    @Override
    public int length() {
-      return _buffer.length();
+      return _length;
    }
 
    /**
@@ -1752,10 +2059,12 @@ public class StringValue
     */
    @Override
    public char charAt(int index) {
-      if (index < 0 || _buffer.length() <= index) {
+      if (index < 0 || _length <= index) {
          return 0;
+      } else if (_chars != null) {
+         return _chars[_offset + index];
       } else {
-         return _buffer.charAt(index);
+         return (char) (_bytes[_offset + index] & 0xff);
       }
    }
 
@@ -1788,7 +2097,41 @@ public class StringValue
     * Returns the first index of the match string, starting from the head.
     */
    public int indexOf(CharSequence match, int head) {
-      return substring(head).toString().indexOf(match.toString()) + head;
+      int matchLength = match.length();
+
+      if (head < 0) {
+         head = 0;
+      }
+
+      int end = _length - matchLength;
+
+      if (matchLength == 0) {
+         return head <= _length ? head : -1;
+      }
+
+      char first = match.charAt(0);
+
+      for (int i = head; i <= end; i++) {
+         if (charAt(i) == first && regionMatches(i, match, 1, matchLength)) {
+            return i;
+         }
+      }
+
+      return -1;
+   }
+
+   /**
+    * Returns true if the characters of match from mOffset are at offset.
+    */
+   private boolean regionMatches(int offset, CharSequence match,
+                                 int mOffset, int mLength) {
+      for (int j = mOffset; j < mLength; j++) {
+         if (charAt(offset + j) != match.charAt(j)) {
+            return false;
+         }
+      }
+
+      return true;
    }
 
    /**
@@ -1802,7 +2145,17 @@ public class StringValue
     * Returns the last index of the match string, starting from the head.
     */
    public int indexOf(char match, int head) {
-      return substring(head).toString().indexOf(match) + head;
+      if (head < 0) {
+         head = 0;
+      }
+
+      for (int i = head; i < _length; i++) {
+         if (charAt(i) == match) {
+            return i;
+         }
+      }
+
+      return -1;
    }
 
    /**
@@ -1816,11 +2169,15 @@ public class StringValue
     * Returns the last index of the match string, starting from the head.
     */
    public int lastIndexOf(char match, int tail) {
-      String str = toString();
-      if (str.isEmpty())
-         return -1;
-      int max = Math.min(str.length(), tail);
-      return str.substring(0, max).lastIndexOf(match);
+      int max = Math.min(_length, tail);
+
+      for (int i = max - 1; i >= 0; i--) {
+         if (charAt(i) == match) {
+            return i;
+         }
+      }
+
+      return -1;
    }
 
    /**
@@ -1834,7 +2191,16 @@ public class StringValue
     * Returns the last index of the match string, starting from the tail.
     */
    public int lastIndexOf(CharSequence match, int tail) {
-      return substring(0, tail).lastIndexOf(match.toString());
+      int matchLength = match.length();
+      int max = Math.min(_length, tail);
+
+      for (int i = max - matchLength; i >= 0; i--) {
+         if (regionMatches(i, match, 0, matchLength)) {
+            return i;
+         }
+      }
+
+      return -1;
    }
 
    /**
@@ -1858,47 +2224,118 @@ public class StringValue
     */
    public boolean regionMatches(int offset,
                                 StringValue match, int mOffset) {
-      return regionMatches(offset, match.toString(), mOffset);
+      int sublen = match.length() - mOffset;
+
+      if (offset < 0 || mOffset < 0 || _length < offset + sublen) {
+         return false;
+      }
+
+      for (int i = 0; i < sublen; i++) {
+         if (charAt(offset + i) != match.charAt(mOffset + i)) {
+            return false;
+         }
+      }
+
+      return true;
    }
 
    /**
     * Returns true if the string ends with another string.
     */
    public boolean endsWith(StringValue tail) {
-      return toString().endsWith(tail.toString());
+      int offset = _length - tail.length();
+
+      return offset >= 0 && regionMatches(offset, tail, 0);
    }
 
    /**
     * Returns a StringValue substring.
     */
    public StringValue substring(int head) {
-      String thisVal = toString();
       if (head < 0) head = 0;
-      return new StringValue(thisVal.substring(Math.min(head, thisVal.length())));
+      return substring(Math.min(head, _length), _length);
    }
 
    /**
-    * Returns a StringValue substring.
+    * Returns a StringValue substring.  Large substrings share the
+    * buffer until one of the strings is written.
     */
    public StringValue substring(int begin, int end) {
-      return new StringValue(stringSubstring(begin, end));
+      if (begin < 0) begin = 0;
+      if (end < begin) return new StringValue();
+      if (_length < end) {
+         throw new StringIndexOutOfBoundsException(end);
+      }
+
+      int sublen = end - begin;
+
+      if (sublen >= SHARE_MIN && 2 * sublen >= _length) {
+         _isShared = true;
+
+         return new StringValue(_bytes, _chars, _offset + begin, sublen);
+      }
+
+      StringValue sb = new StringValue();
+
+      sb.appendStringValue(this, begin, end);
+
+      return sb;
    }
 
    /**
     * Returns a String substring
     */
    public String stringSubstring(int begin, int end) {
-      String thisVal = toString();
       if (begin < 0) begin = 0;
       if (end < begin) return "";
-      return thisVal.substring(begin, end);
+      if (_length < end) {
+         throw new StringIndexOutOfBoundsException(end);
+      }
+
+      if (_chars != null) {
+         return new String(_chars, _offset + begin, end - begin);
+      } else {
+         return new String(_bytes, _offset + begin, end - begin, ISO_8859_1);
+      }
    }
 
    /**
     * Returns a character array
     */
    public char[] toCharArray() {
-      return toString().toCharArray();
+      char[] chars = new char[_length];
+
+      if (_chars != null) {
+         System.arraycopy(_chars, _offset, chars, 0, _length);
+      } else {
+         for (int i = 0; i < _length; i++) {
+            chars[i] = (char) (_bytes[_offset + i] & 0xff);
+         }
+      }
+
+      return chars;
+   }
+
+   /**
+    * Copies the low bytes of the characters, i.e. the bytes of a binary
+    * string.
+    */
+   public int getBytes(int index, byte[] buffer, int offset, int length) {
+      int sublen = Math.min(length, _length - index);
+
+      if (sublen <= 0) {
+         return 0;
+      }
+
+      if (_chars != null) {
+         for (int i = 0; i < sublen; i++) {
+            buffer[offset + i] = (byte) _chars[_offset + index + i];
+         }
+      } else {
+         System.arraycopy(_bytes, _offset + index, buffer, offset, sublen);
+      }
+
+      return sublen;
    }
 
    public char[] getRawCharArray() {
@@ -1996,7 +2433,9 @@ public class StringValue
     */
    public final void writeTo(OutputStream os) {
       try {
-         os.write(_buffer.toString().getBytes(), 0, _buffer.length());
+         byte[] bytes = toString().getBytes();
+
+         os.write(bytes, 0, Math.min(bytes.length, _length));
       } catch (IOException e) {
          throw new BiancaModuleException(e);
       }
@@ -2008,7 +2447,9 @@ public class StringValue
    public long getCrc32Value() {
       CRC32 crc = new CRC32();
 
-      crc.update(_buffer.toString().getBytes(), 0, length());
+      byte[] bytes = toString().getBytes();
+
+      crc.update(bytes, 0, Math.min(bytes.length, _length));
 
       return crc.getValue() & 0xffffffff;
    }
@@ -2022,7 +2463,27 @@ public class StringValue
     */
    @Override
    public int hashCode() {
-      return toString().hashCode();
+      int hash = _hash;
+
+      if (hash == 0 && _length > 0) {
+         if (_chars != null) {
+            char[] chars = _chars;
+
+            for (int i = _offset, end = _offset + _length; i < end; i++) {
+               hash = 31 * hash + chars[i];
+            }
+         } else {
+            byte[] bytes = _bytes;
+
+            for (int i = _offset, end = _offset + _length; i < end; i++) {
+               hash = 31 * hash + (bytes[i] & 0xff);
+            }
+         }
+
+         _hash = hash;
+      }
+
+      return hash;
    }
 
    /**
@@ -2042,7 +2503,8 @@ public class StringValue
       } else if (!(o instanceof StringValue)) {
          return false;
       }
-      return toString().equals(o.toString());
+
+      return equalsString((StringValue) o);
    }
 
    @Override
@@ -2052,7 +2514,33 @@ public class StringValue
       } else if (!(o instanceof StringValue)) {
          return false;
       }
-      return toString().equals(o.toString());
+
+      return equalsString((StringValue) o);
+   }
+
+   private boolean equalsString(StringValue s) {
+      int length = _length;
+
+      if (length != s._length) {
+         return false;
+      } else if (_bytes == s._bytes && _chars == s._chars && _offset == s._offset) {
+         return true;
+      }
+
+      int hashA = _hash;
+      int hashB = s._hash;
+
+      if (hashA != 0 && hashB != 0 && hashA != hashB) {
+         return false;
+      }
+
+      for (int i = length - 1; i >= 0; i--) {
+         if (charAt(i) != s.charAt(i)) {
+            return false;
+         }
+      }
+
+      return true;
    }
 
    /**
@@ -2203,7 +2691,7 @@ public class StringValue
    @Override
    public void print(Env env) {
       try {
-         env.getOut().print(toString());
+         printTo(env.getOut());
       } catch (IOException e) {
          throw new BiancaModuleException(e);
       }
@@ -2217,17 +2705,93 @@ public class StringValue
    @Override
    public void print(Env env, WriteStream out) {
       try {
-         out.print(toString());
+         printTo(out);
       } catch (IOException e) {
          throw new BiancaModuleException(e);
       }
    }
 
+   /**
+    * Prints the string.  A latin-1 string is written into the stream's
+    * buffer directly, except for the characters the stream's encoding
+    * changes.
+    */
+   private void printTo(WriteStream out)
+      throws IOException {
+      if (_chars != null || out.getSource() instanceof ReaderWriterStream) {
+         out.print(toString());
+
+         return;
+      }
+
+      byte[] bytes = _bytes;
+      int head = _offset;
+      int end = _offset + _length;
+
+      String encoding = out.getEncoding();
+
+      if (encoding == null || encoding.equals("ISO-8859-1")) {
+         out.write(bytes, head, _length);
+
+         return;
+      } else if (!encoding.equals("utf-8") && !encoding.equals("US-ASCII")) {
+         out.print(toString());
+
+         return;
+      }
+
+      // ASCII is unchanged by the encoding
+      for (int i = head; i < end; i++) {
+         if (bytes[i] < 0) {
+            if (head < i) {
+               out.write(bytes, head, i - head);
+            }
+
+            out.print((char) (bytes[i] & 0xff));
+
+            head = i + 1;
+         }
+      }
+
+      if (head < end) {
+         out.write(bytes, head, end - head);
+      }
+   }
+
    static {
+      // the single-character strings share two buffers
+      byte[] bytes = new byte[0x100];
+      char[] chars = new char[Character.MAX_VALUE];
+
+      for (int i = 0; i < chars.length; i++) {
+         chars[i] = (char) i;
+
+         if (i < bytes.length) {
+            bytes[i] = (byte) i;
+         }
+      }
+
       CHAR_STRINGS = new StringValue[Character.MAX_VALUE];
       for (char i = 0; i < CHAR_STRINGS.length; ++i) {
-         CHAR_STRINGS[i] = new StringValue(i);
+         if (i < bytes.length) {
+            CHAR_STRINGS[i] = new StringValue(bytes, null, i, 1);
+         } else {
+            CHAR_STRINGS[i] = new StringValue(null, chars, i, 1);
+         }
+      }
+
+      for (int i = 0; i < 0x20; i++) {
+         JSON_ESCAPE[i] = 'u';
       }
+
+      JSON_ESCAPE['\b'] = 'b';
+      JSON_ESCAPE['\f'] = 'f';
+      JSON_ESCAPE['\n'] = 'n';
+      JSON_ESCAPE['\r'] = 'r';
+      JSON_ESCAPE['\t'] = 't';
+      JSON_ESCAPE['\\'] = '\\';
+      JSON_ESCAPE['"'] = '"';
+      JSON_ESCAPE['/'] = '/';
    }
 
    class StringValueInputStream extends java.io.InputStream {
@@ -2264,11 +2828,11 @@ public class StringValue
          }
 
 
-         char[] s = _s.toString().toCharArray();
+         StringValue s = _s;
 
          int i;
          for (i = 0; i < length && _index < _length; i++) {
-            char ch = s[_index++];
+            char ch = s.charAt(_index++);
 
             if (ch < 0x80)
                buffer[offset + i] = (byte) ch;
@@ -2292,7 +2856,7 @@ public class StringValue
                }
             } else {
                if (length - (offset + i) > 3) {
-                  char ch2 = s[_index++];
+                  char ch2 = s.charAt(_index++);
                   int v = 0x10000 + (ch & 0x3ff) * 0x400 + (ch2 & 0x3ff);
 
                   buffer[offset + i++] = (byte) (0xf0 + (v >> 18));
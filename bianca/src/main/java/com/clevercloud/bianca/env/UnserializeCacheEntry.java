@@ -38,29 +38,41 @@ import java.lang.ref.SoftReference;
  */
 public class UnserializeCacheEntry {
 
-   private FreeList<SoftReference<CopyRoot>> _freeList;
-   private SoftReference<Value> _valueRef;
+   // unmodified copies, freed by concurrent requests
+   private final FreeList<SoftReference<CopyRoot>> _freeList
+      = new FreeList<SoftReference<CopyRoot>>(4);
+   private volatile SoftReference<Value> _valueRef;
+   // set when the owner bounds its memory itself instead of relying on gc
+   private volatile Value _value;
 
    public UnserializeCacheEntry(Value value) {
       _valueRef = new SoftReference<Value>(value);
    }
 
    public UnserializeCacheEntry(Env env, Value value) {
+      this(env, value, false);
+   }
+
+   /**
+    * @param isStrong true to keep the tree until clear(), for a cache
+    *                 enforcing its own memory budget
+    */
+   public UnserializeCacheEntry(Env env, Value value, boolean isStrong) {
       CopyRoot root = new CopyRoot(this);
 
       value = value.copyTree(env, root);
 
       _valueRef = new SoftReference<Value>(value);
+
+      if (isStrong) {
+         _value = value;
+      }
    }
 
    public Value getValue(Env env) {
-      SoftReference<CopyRoot> copyRef = null;
-
-      if (_freeList != null) {
-         copyRef = _freeList.allocate();
-      }
+      SoftReference<CopyRoot> copyRef;
 
-      if (copyRef != null) {
+      while ((copyRef = _freeList.allocate()) != null) {
          CopyRoot copy = copyRef.get();
 
          if (copy != null) {
@@ -70,10 +82,11 @@ public class UnserializeCacheEntry {
          }
       }
 
-      Value value = null;
+      Value value = _value;
+      SoftReference<Value> valueRef = _valueRef;
 
-      if (_valueRef != null) {
-         value = _valueRef.get();
+      if (value == null && valueRef != null) {
+         value = valueRef.get();
       }
 
       if (value != null) {
@@ -93,14 +106,15 @@ public class UnserializeCacheEntry {
 
    public void clear() {
       _valueRef = null;
-      _freeList = null;
+      _value = null;
+
+      while (_freeList.allocate() != null) {
+      }
    }
 
    void free(CopyRoot root) {
-      if (_freeList == null) {
-         _freeList = new FreeList<SoftReference<CopyRoot>>(2);
+      if (_valueRef != null) {
+         _freeList.free(new SoftReference<CopyRoot>(root));
       }
-
-      _freeList.free(new SoftReference<CopyRoot>(root));
    }
 }
@@ -2322,7 +2322,7 @@ abstract public class Value implements java.io.Serializable {
     * @param serializeMap holds reference indexes
     */
    public void serialize(Env env,
-                         StringBuilder sb,
+                         StringValue sb,
                          SerializeMap serializeMap) {
       serializeMap.incrementIndex();
 
@@ -2341,7 +2341,7 @@ abstract public class Value implements java.io.Serializable {
    /**
     * Serializes the value.
     */
-   public void serialize(Env env, StringBuilder sb) {
+   public void serialize(Env env, StringValue sb) {
       throw new UnsupportedOperationException(getClass().getName());
    }
 
@@ -1816,7 +1816,7 @@ public class Var extends Value
     * Serializes the value.
     */
    @Override
-   public void serialize(Env env, StringBuilder sb) {
+   public void serialize(Env env, StringValue sb) {
       _value.serialize(env, sb);
    }
 
@@ -1828,12 +1828,12 @@ public class Var extends Value
     */
    @Override
    public void serialize(Env env,
-                         StringBuilder sb, SerializeMap serializeMap) {
+                         StringValue sb, SerializeMap serializeMap) {
       Integer index = serializeMap.get(this);
 
       if (index != null) {
          sb.append("R:");
-         sb.append(index);
+         sb.append(index.intValue());
          sb.append(";");
       } else {
          serializeMap.put(this);
@@ -53,6 +53,20 @@ public class BinaryAssignExpr extends Expr {
       _value = value;
    }
 
+   /**
+    * Returns the assigned variable.
+    */
+   public AbstractVarExpr getVar() {
+      return _var;
+   }
+
+   /**
+    * Returns the assigned value.
+    */
+   public Expr getValue() {
+      return _value;
+   }
+
    /**
     * Creates a assignment
     *
@@ -48,7 +48,7 @@ public class CallExpr extends Expr {
    protected final String _name;
    protected final String _nsName;
    protected final Expr[] _args;
-   private int _funId;
+   private transient int _funId;
    protected boolean _isRef;
 
    public CallExpr(Location location, String name, ArrayList<Expr> args) {
@@ -99,6 +99,13 @@ public class CallExpr extends Expr {
       return _name;
    }
 
+   /**
+    * Returns the arguments.
+    */
+   public Expr[] getArgs() {
+      return _args;
+   }
+
    /**
     * Returns the location if known.
     */
@@ -40,12 +40,13 @@ import com.clevercloud.bianca.statement.Statement;
 import com.clevercloud.util.L10N;
 
 import java.io.IOException;
+import java.io.Serializable;
 import java.util.ArrayList;
 
 /**
  * Represents a PHP expression.
  */
-abstract public class Expr {
+abstract public class Expr implements Serializable {
 
    private static final L10N L = new L10N(Expr.class);
    public static final int COMPILE_ARG_MAX = 5;
@@ -31,10 +31,12 @@ package com.clevercloud.bianca.expr;
 
 import com.clevercloud.bianca.statement.StatementHandle;
 
+import java.io.Serializable;
+
 /**
  * A handle to a top expression
  */
-public class ExprHandle {
+public class ExprHandle implements Serializable {
 
    public static final ExprHandle NULL = new ExprHandle();
    private final StatementHandle _statement;
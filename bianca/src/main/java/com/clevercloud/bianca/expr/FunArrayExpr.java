@@ -33,6 +33,7 @@ import com.clevercloud.bianca.Location;
 import com.clevercloud.bianca.env.ArrayValue;
 import com.clevercloud.bianca.env.ArrayValueImpl;
 import com.clevercloud.bianca.env.Env;
+import com.clevercloud.bianca.env.FrozenArrayValue;
 import com.clevercloud.bianca.env.Value;
 
 import java.util.ArrayList;
@@ -45,6 +46,10 @@ public class FunArrayExpr extends Expr {
    protected final Expr[] _keys;
    protected final Expr[] _values;
 
+   // frozen value of a constant array, shared by all evaluations
+   private transient volatile Value _frozen;
+   private transient volatile boolean _isFrozenChecked;
+
    public FunArrayExpr(Location location,
                        ArrayList<Expr> keyList,
                        ArrayList<Expr> valueList) {
@@ -107,6 +112,35 @@ public class FunArrayExpr extends Expr {
     */
    @Override
    public Value eval(Env env) {
+      Value frozen = _frozen;
+
+      if (frozen != null) {
+         return frozen.copy();
+      }
+
+      Value array = buildArray(env);
+
+      if (!_isFrozenChecked) {
+         _isFrozenChecked = true;
+
+         if (isConstant()) {
+            frozen = FrozenArrayValue.freeze(array);
+
+            if (frozen != null) {
+               _frozen = frozen;
+
+               return frozen.copy();
+            }
+         }
+      }
+
+      return array;
+   }
+
+   /**
+    * Builds a new array from the element expressions.
+    */
+   private Value buildArray(Env env) {
       ArrayValue array = new ArrayValueImpl();
 
       for (int i = 0; i < _values.length; i++) {
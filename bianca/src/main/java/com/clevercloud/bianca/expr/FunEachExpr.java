@@ -40,7 +40,7 @@ import java.io.IOException;
  */
 public class FunEachExpr extends AbstractUnaryExpr {
 
-   private final L10N L = new L10N(FunEachExpr.class);
+   private static final L10N L = new L10N(FunEachExpr.class);
    private boolean _isVar;
 
    public FunEachExpr(Location location, Expr expr)
@@ -71,6 +71,20 @@ public class FunIncludeExpr extends AbstractUnaryExpr {
       _isRequire = isRequire;
    }
 
+   /**
+    * Returns the directory of the including script.
+    */
+   public Path getDir() {
+      return _dir;
+   }
+
+   /**
+    * Returns true for require.
+    */
+   public boolean isRequire() {
+      return _isRequire;
+   }
+
    /**
     * Evaluates the expression.
     *
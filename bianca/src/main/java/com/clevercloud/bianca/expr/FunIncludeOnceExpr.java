@@ -70,6 +70,13 @@ public class FunIncludeOnceExpr extends AbstractUnaryExpr {
       this(Location.UNKNOWN, sourceFile, expr, isRequire);
    }
 
+   /**
+    * Returns the directory of the including script.
+    */
+   public Path getDir() {
+      return _dir;
+   }
+
    /**
     * Evaluates the expression.
     *
@@ -53,6 +53,13 @@ public class UnaryPostIncrementExpr extends AbstractUnaryExpr {
       _incr = incr;
    }
 
+   /**
+    * Returns the increment, 1 or -1.
+    */
+   public int getIncrement() {
+      return _incr;
+   }
+
    @Override
    public Value eval(Env env) {
       return _expr.evalPostIncrement(env, _incr);
@@ -54,6 +54,13 @@ public class UnaryPreIncrementExpr extends AbstractUnaryExpr {
       _incr = incr;
    }
 
+   /**
+    * Returns the increment, 1 or -1.
+    */
+   public int getIncrement() {
+      return _incr;
+   }
+
    @Override
    public Value eval(Env env) {
       return _expr.evalPreIncrement(env, _incr);
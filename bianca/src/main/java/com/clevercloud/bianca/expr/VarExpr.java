@@ -122,6 +122,12 @@ public class VarExpr
     */
    @Override
    public Value eval(Env env) {
+      int index = _var.getIndex();
+
+      if (index >= 0) {
+         return env.getLocalValue(index, _name, true);
+      }
+
       return env.getValue(_name, false, true);
    }
 
@@ -133,6 +139,12 @@ public class VarExpr
     */
    @Override
    public Value evalTop(Env env) {
+      int index = _var.getIndex();
+
+      if (index >= 0) {
+         return env.getLocalValue(index, _name, false);
+      }
+
       return env.getValue(_name, false, false);
    }
 
@@ -141,6 +153,12 @@ public class VarExpr
     */
    @Override
    public boolean evalIsset(Env env) {
+      int index = _var.getIndex();
+
+      if (index >= 0) {
+         return env.getLocalValue(index, _name, false).isset();
+      }
+
       return env.getValue(_name, false, false).isset();
    }
 
@@ -185,7 +203,13 @@ public class VarExpr
       }
        */
       //} else {
-      value = env.getVar(_name);
+      int index = _var.getIndex();
+
+      if (index >= 0) {
+         value = env.getLocalVar(index);
+      } else {
+         value = env.getVar(_name);
+      }
 
       if (value == null) {
          value = new ArrayValueImpl();
@@ -221,6 +245,20 @@ public class VarExpr
       }
       } else {
        */
+      int index = _var.getIndex();
+
+      if (index >= 0) {
+         value = env.getLocalVar(index).toValue();
+
+         if (value.isString() || value.isNull()) {
+            value = env.createObject();
+
+            env.setLocalValue(index, value);
+         }
+
+         return value;
+      }
+
       value = env.getValue(_name);
 
       if (value == null || value.isString() || value.isNull()) {
@@ -241,6 +279,12 @@ public class VarExpr
     */
    @Override
    public Var evalVar(Env env) {
+      int index = _var.getIndex();
+
+      if (index >= 0) {
+         return env.getLocalVar(index);
+      }
+
       return env.getVar(_name);
    }
 
@@ -255,7 +299,7 @@ public class VarExpr
       // php/043k
       // php/0443
 
-      return env.getVar(_name);
+      return evalVar(env);
    }
 
    /**
@@ -266,7 +310,13 @@ public class VarExpr
    @Override
    public Value evalAssignValue(Env env, Value value) {
       // php/0232
-      env.setValue(_name, value);
+      int index = _var.getIndex();
+
+      if (index >= 0) {
+         env.setLocalValue(index, value);
+      } else {
+         env.setValue(_name, value);
+      }
 
       return value;
    }
@@ -278,7 +328,13 @@ public class VarExpr
     */
    @Override
    public Value evalAssignRef(Env env, Value value) {
-      env.setRef(_name, value);
+      int index = _var.getIndex();
+
+      if (index >= 0) {
+         env.setLocalRef(index, value);
+      } else {
+         env.setRef(_name, value);
+      }
 
       return value;
    }
@@ -296,7 +352,13 @@ public class VarExpr
      env.unsetGlobalVar(_name);
      else
       */
-      env.unsetLocalVar(_name);
+      int index = _var.getIndex();
+
+      if (index >= 0) {
+         env.unsetLocal(index);
+      } else {
+         env.unsetLocalVar(_name);
+      }
    }
 
    @Override
@@ -32,13 +32,16 @@ package com.clevercloud.bianca.expr;
 import com.clevercloud.bianca.env.StringValue;
 import com.clevercloud.bianca.program.FunctionInfo;
 
+import java.io.Serializable;
+
 /**
  * Information about a variable's use in a function.
  */
-public class VarInfo {
+public class VarInfo implements Serializable {
 
    private final FunctionInfo _function;
    private final StringValue _name;
+   private int _index = -1;
 
    public VarInfo(StringValue name, FunctionInfo function) {
       _name = name;
@@ -52,6 +55,21 @@ public class VarInfo {
       return _name;
    }
 
+   /**
+    * Returns the local frame slot, or -1 if the variable is looked up
+    * by name.
+    */
+   public int getIndex() {
+      return _index;
+   }
+
+   /**
+    * Sets the local frame slot.
+    */
+   public void setIndex(int index) {
+      _index = index;
+   }
+
    /**
     * Returns the owning function.
     */
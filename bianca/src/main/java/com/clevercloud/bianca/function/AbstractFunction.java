@@ -57,8 +57,9 @@ abstract public class AbstractFunction extends Callback {
    protected boolean _isClosure = false;
    protected Visibility _visibility = Visibility.PUBLIC;
    protected String _declaringClassName;
-   protected BiancaClass _bindingClass;
+   protected transient BiancaClass _bindingClass;
    protected int _parseIndex;
+   private transient String _profileName;
 
    public AbstractFunction() {
       // TODO:
@@ -73,6 +74,27 @@ abstract public class AbstractFunction extends Callback {
       return "unknown";
    }
 
+   /**
+    * Returns the name used in profile reports, Class::method for methods.
+    */
+   public String getProfileName() {
+      String name = _profileName;
+
+      if (name == null) {
+         String className = getDeclaringClassName();
+
+         if (className != null) {
+            name = className + "::" + getName();
+         } else {
+            name = getName();
+         }
+
+         _profileName = name;
+      }
+
+      return name;
+   }
+
    //
    // Callback values
    //
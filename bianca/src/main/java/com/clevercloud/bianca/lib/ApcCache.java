@@ -0,0 +1,453 @@
+/*
+ * Copyright (c) 2012 Clever Cloud SAS -- all rights reserved
+ *
+ * This file is part of Bianca(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Bianca Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Bianca Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Bianca Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ * @author Marc-Antoine Perennou <Marc-Antoine@Perennou.com>
+ */
+package com.clevercloud.bianca.lib;
+
+import com.clevercloud.bianca.env.ArrayValue;
+import com.clevercloud.bianca.env.Env;
+import com.clevercloud.bianca.env.FrozenArrayValue;
+import com.clevercloud.bianca.env.StringValue;
+import com.clevercloud.bianca.env.UnserializeCacheEntry;
+import com.clevercloud.bianca.env.Value;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Shared user cache for the apc module.
+ * <p/>
+ * The keys are spread over independently locked stripes, each one an
+ * access-ordered map evicting its least recently used entries when the
+ * stripe goes over its share of the memory limit.  Arrays and objects
+ * are stored as a detached tree, so a fetch doesn't copy the graph back
+ * until the script modifies it.
+ */
+public class ApcCache {
+
+   private static final int STRIPE_COUNT = 16;
+   // maximum depth of the memory estimate
+   private static final int MAX_DEPTH = 32;
+   private final Stripe[] _stripes;
+   private final long _maxMemory;
+   private final long _stripeMemory;
+   private final long _startTime;
+   private final AtomicLong _hitCount = new AtomicLong();
+   private final AtomicLong _missCount = new AtomicLong();
+   private final AtomicLong _insertCount = new AtomicLong();
+   private final AtomicLong _evictCount = new AtomicLong();
+
+   public ApcCache(long maxMemory) {
+      _maxMemory = maxMemory;
+      _stripeMemory = Math.max(1, maxMemory / STRIPE_COUNT);
+      _startTime = System.currentTimeMillis();
+
+      _stripes = new Stripe[STRIPE_COUNT];
+
+      for (int i = 0; i < _stripes.length; i++) {
+         _stripes[i] = new Stripe();
+      }
+   }
+
+   private Stripe getStripe(String key) {
+      int hash = key.hashCode();
+
+      hash ^= (hash >>> 16);
+
+      return _stripes[hash & (STRIPE_COUNT - 1)];
+   }
+
+   /**
+    * Returns the live entry for the key, counting the hit or miss.
+    */
+   public Entry get(String key, long now) {
+      Stripe stripe = getStripe(key);
+
+      Entry entry;
+
+      synchronized (stripe) {
+         entry = stripe.getLive(key, now);
+
+         if (entry != null) {
+            entry._hitCount++;
+            entry._accessTime = now;
+         }
+      }
+
+      if (entry != null) {
+         _hitCount.incrementAndGet();
+      } else {
+         _missCount.incrementAndGet();
+      }
+
+      return entry;
+   }
+
+   /**
+    * Returns the live entry for the key, without touching the statistics.
+    */
+   public Entry peek(String key, long now) {
+      Stripe stripe = getStripe(key);
+
+      synchronized (stripe) {
+         return stripe.getLive(key, now);
+      }
+   }
+
+   /**
+    * Stores an entry.  If isAdd is true, a live entry isn't replaced.
+    *
+    * @return false if the entry wasn't stored
+    */
+   public boolean put(Entry entry, boolean isAdd, long now) {
+      return replace(entry, null, isAdd, now);
+   }
+
+   /**
+    * Replaces the expected entry by a new one, atomically.  A null
+    * expected entry accepts any current entry.
+    */
+   public boolean replace(Entry entry, Entry expected,
+                          boolean isAdd, long now) {
+      if (_stripeMemory < entry._size) {
+         return false;
+      }
+
+      Stripe stripe = getStripe(entry._key);
+
+      synchronized (stripe) {
+         Entry oldEntry = stripe.getLive(entry._key, now);
+
+         if (oldEntry != null && isAdd) {
+            return false;
+         } else if (expected != null && oldEntry != expected) {
+            return false;
+         }
+
+         if (oldEntry != null) {
+            stripe.remove(entry._key);
+         }
+
+         while (_stripeMemory < stripe._memory + entry._size
+            && stripe.evict()) {
+            _evictCount.incrementAndGet();
+         }
+
+         stripe.put(entry);
+      }
+
+      _insertCount.incrementAndGet();
+
+      return true;
+   }
+
+   /**
+    * Removes an entry.
+    */
+   public Entry remove(String key) {
+      Stripe stripe = getStripe(key);
+
+      synchronized (stripe) {
+         return stripe.remove(key);
+      }
+   }
+
+   /**
+    * Removes all entries.
+    */
+   public void clear() {
+      for (Stripe stripe : _stripes) {
+         synchronized (stripe) {
+            stripe.clear();
+         }
+      }
+   }
+
+   /**
+    * Returns a snapshot of the live entries.
+    */
+   public ArrayList<Entry> getEntries(long now) {
+      ArrayList<Entry> entries = new ArrayList<Entry>();
+
+      for (Stripe stripe : _stripes) {
+         synchronized (stripe) {
+            for (Entry entry : stripe._map.values()) {
+               if (!entry.isExpired(now)) {
+                  entries.add(entry);
+               }
+            }
+         }
+      }
+
+      return entries;
+   }
+
+   public int getEntryCount() {
+      int count = 0;
+
+      for (Stripe stripe : _stripes) {
+         synchronized (stripe) {
+            count += stripe._map.size();
+         }
+      }
+
+      return count;
+   }
+
+   public long getMemorySize() {
+      long memory = 0;
+
+      for (Stripe stripe : _stripes) {
+         synchronized (stripe) {
+            memory += stripe._memory;
+         }
+      }
+
+      return memory;
+   }
+
+   public long getMaxMemory() {
+      return _maxMemory;
+   }
+
+   public long getStartTime() {
+      return _startTime;
+   }
+
+   public int getStripeCount() {
+      return STRIPE_COUNT;
+   }
+
+   public long getHitCount() {
+      return _hitCount.get();
+   }
+
+   public long getMissCount() {
+      return _missCount.get();
+   }
+
+   public long getInsertCount() {
+      return _insertCount.get();
+   }
+
+   public long getEvictCount() {
+      return _evictCount.get();
+   }
+
+   /**
+    * Estimates the memory used by a value.
+    */
+   public static long getSize(Value value) {
+      return getSize(value, 0);
+   }
+
+   private static long getSize(Value value, int depth) {
+      value = value.toValue();
+
+      if (value instanceof StringValue) {
+         return 48 + value.length();
+      } else if (value instanceof ArrayValue) {
+         long size = 64;
+
+         if (MAX_DEPTH <= depth) {
+            return size;
+         }
+
+         for (Map.Entry<Value, Value> entry : ((ArrayValue) value).entrySet()) {
+            size += 40 + getSize(entry.getKey(), depth + 1)
+               + getSize(entry.getValue(), depth + 1);
+         }
+
+         return size;
+      } else if (value.isObject()) {
+         return 256;
+      } else {
+         return 24;
+      }
+   }
+
+   /**
+    * A cache entry.  Scalars are stored as is, arrays and objects as a
+    * detached tree copied lazily on fetch.
+    */
+   public static class Entry {
+
+      private final String _key;
+      private final Value _value;
+      private final UnserializeCacheEntry _tree;
+      private final long _size;
+      private final long _createTime;
+      private final long _expireTime;
+      // guarded by the stripe
+      private long _accessTime;
+      private long _hitCount;
+
+      public Entry(Env env, String key, Value value, long ttl, long now) {
+         _key = key;
+
+         value = value.toValue();
+
+         // arrays of plain values are frozen and shared by every fetch
+         Value frozen = null;
+
+         if (value.isArray()) {
+            frozen = FrozenArrayValue.freeze(value);
+         }
+
+         if (frozen != null) {
+            _tree = null;
+            _value = frozen;
+         } else if (value.isArray() || value.isObject()) {
+            // held strongly, the stripes' memory limit bounds the trees
+            _tree = new UnserializeCacheEntry(env, value, true);
+            _value = null;
+         } else {
+            _tree = null;
+            _value = value.copy();
+         }
+
+         _size = key.length() + 64 + ApcCache.getSize(value);
+         _createTime = now;
+         _accessTime = now;
+         _expireTime = ttl > 0 ? now + 1000L * ttl : 0;
+      }
+
+      public String getKey() {
+         return _key;
+      }
+
+      /**
+       * Returns the value for a script.
+       */
+      public Value getValue(Env env) {
+         if (_tree != null) {
+            return _tree.getValue(env);
+         } else {
+            return _value.copy();
+         }
+      }
+
+      /**
+       * Returns the stored value of a scalar entry, null for arrays and
+       * objects.
+       */
+      public Value getScalar() {
+         if (_value != null && _value.isArray()) {
+            return null;
+         }
+
+         return _value;
+      }
+
+      public long getSize() {
+         return _size;
+      }
+
+      public long getCreateTime() {
+         return _createTime;
+      }
+
+      public long getAccessTime() {
+         return _accessTime;
+      }
+
+      public long getHitCount() {
+         return _hitCount;
+      }
+
+      /**
+       * Returns the time to live in seconds, 0 for no expiration.
+       */
+      public long getTtl() {
+         return _expireTime > 0 ? (_expireTime - _createTime) / 1000 : 0;
+      }
+
+      public boolean isExpired(long now) {
+         return _expireTime > 0 && _expireTime <= now;
+      }
+   }
+
+   static class Stripe {
+
+      private final LinkedHashMap<String, Entry> _map = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+      private long _memory;
+
+      Entry getLive(String key, long now) {
+         Entry entry = _map.get(key);
+
+         if (entry != null && entry.isExpired(now)) {
+            remove(key);
+
+            return null;
+         }
+
+         return entry;
+      }
+
+      void put(Entry entry) {
+         _map.put(entry._key, entry);
+         _memory += entry._size;
+      }
+
+      Entry remove(String key) {
+         Entry entry = _map.remove(key);
+
+         if (entry != null) {
+            _memory -= entry._size;
+         }
+
+         return entry;
+      }
+
+      /**
+       * Removes the least recently used entry.
+       */
+      boolean evict() {
+         Iterator<Entry> iter = _map.values().iterator();
+
+         if (!iter.hasNext()) {
+            return false;
+         }
+
+         Entry entry = iter.next();
+
+         iter.remove();
+
+         _memory -= entry._size;
+
+         return true;
+      }
+
+      void clear() {
+         _map.clear();
+         _memory = 0;
+      }
+   }
+}
@@ -0,0 +1,518 @@
+/*
+ * Copyright (c) 2012 Clever Cloud SAS -- all rights reserved
+ *
+ * This file is part of Bianca(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Bianca Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Bianca Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Bianca Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ * @author Marc-Antoine Perennou <Marc-Antoine@Perennou.com>
+ */
+package com.clevercloud.bianca.lib;
+
+import com.clevercloud.bianca.annotation.Optional;
+import com.clevercloud.bianca.annotation.Reference;
+import com.clevercloud.bianca.env.*;
+import com.clevercloud.bianca.module.AbstractBiancaModule;
+import com.clevercloud.bianca.module.IniDefinition;
+import com.clevercloud.bianca.module.IniDefinitions;
+import com.clevercloud.util.L10N;
+
+import java.util.Map;
+import java.util.logging.Logger;
+
+/**
+ * APCu compatible user cache, shared by all the requests of the context.
+ */
+public class ApcModule extends AbstractBiancaModule {
+
+   private static final L10N L = new L10N(ApcModule.class);
+   private static final Logger log = Logger.getLogger(ApcModule.class.getName());
+   private static final IniDefinitions _iniDefinitions = new IniDefinitions();
+   private static final long DEFAULT_SHM_SIZE = 32L * 1024 * 1024;
+   private ApcCache _cache;
+
+   /**
+    * Returns the default php.ini values.
+    */
+   @Override
+   public IniDefinitions getIniDefinitions() {
+      return _iniDefinitions;
+   }
+
+   @Override
+   public String[] getLoadedExtensions() {
+      return new String[]{"apc", "apcu"};
+   }
+
+   /**
+    * Returns the cache, created with the configured memory limit.
+    */
+   private synchronized ApcCache getCache(Env env) {
+      if (_cache == null) {
+         long size = INI_APC_SHM_SIZE.getAsLongBytes(env, DEFAULT_SHM_SIZE);
+
+         if (size <= 0) {
+            size = DEFAULT_SHM_SIZE;
+         }
+
+         _cache = new ApcCache(size);
+      }
+
+      return _cache;
+   }
+
+   private static boolean isEnabled(Env env) {
+      return INI_APC_ENABLED.getAsBoolean(env);
+   }
+
+   /**
+    * Returns true if the cache is enabled.
+    */
+   public boolean apcu_enabled(Env env) {
+      return isEnabled(env);
+   }
+
+   /**
+    * Returns a value from the cache, or an array of the found values
+    * for an array of keys.
+    */
+   public Value apcu_fetch(Env env,
+                           Value key,
+                           @Optional @Reference Value success) {
+      if (!isEnabled(env)) {
+         success.set(BooleanValue.FALSE);
+
+         return BooleanValue.FALSE;
+      }
+
+      ApcCache cache = getCache(env);
+      long now = env.getCurrentTime();
+
+      if (key.isArray()) {
+         ArrayValue result = new ArrayValueImpl();
+
+         for (Value name : key.toArrayValue(env).values()) {
+            Value value = fetch(env, cache, name.toString(), now);
+
+            if (value != null) {
+               result.put(name, value);
+            }
+         }
+
+         success.set(BooleanValue.TRUE);
+
+         return result;
+      }
+
+      Value value = fetch(env, cache, key.toString(), now);
+
+      if (value != null) {
+         success.set(BooleanValue.TRUE);
+
+         return value;
+      } else {
+         success.set(BooleanValue.FALSE);
+
+         return BooleanValue.FALSE;
+      }
+   }
+
+   private static Value fetch(Env env, ApcCache cache, String key, long now) {
+      ApcCache.Entry entry = cache.get(key, now);
+
+      if (entry == null) {
+         return null;
+      }
+
+      return entry.getValue(env);
+   }
+
+   /**
+    * Stores a value, or each value of an array of key/value pairs.
+    */
+   public Value apcu_store(Env env,
+                           Value key,
+                           @Optional Value value,
+                           @Optional long ttl) {
+      return store(env, key, value, ttl, false);
+   }
+
+   /**
+    * Stores a value only if the key isn't already cached.
+    */
+   public Value apcu_add(Env env,
+                         Value key,
+                         @Optional Value value,
+                         @Optional long ttl) {
+      return store(env, key, value, ttl, true);
+   }
+
+   private Value store(Env env, Value key, Value value,
+                       long ttl, boolean isAdd) {
+      if (!isEnabled(env)) {
+         return BooleanValue.FALSE;
+      }
+
+      ApcCache cache = getCache(env);
+      long now = env.getCurrentTime();
+
+      if (key.isArray()) {
+         // returns the keys which failed
+         ArrayValue errors = new ArrayValueImpl();
+
+         for (Map.Entry<Value, Value> entry : key.toArrayValue(env).entrySet()) {
+            String name = entry.getKey().toString();
+
+            ApcCache.Entry cacheEntry = new ApcCache.Entry(env, name, entry.getValue(), ttl, now);
+
+            if (!cache.put(cacheEntry, isAdd, now)) {
+               errors.put(entry.getKey(), LongValue.MINUS_ONE);
+            }
+         }
+
+         return errors;
+      }
+
+      if (value.isDefault()) {
+         env.warning(L.l("apc store requires a value for key '{0}'", key));
+
+         return BooleanValue.FALSE;
+      }
+
+      String name = key.toString();
+
+      if (value.toValue().isResource()) {
+         env.warning(L.l("apc can't store the resource for key '{0}'", name));
+
+         return BooleanValue.FALSE;
+      }
+
+      ApcCache.Entry entry = new ApcCache.Entry(env, name, value, ttl, now);
+
+      return BooleanValue.create(cache.put(entry, isAdd, now));
+   }
+
+   /**
+    * Increments a numeric value, creating it if it's missing.
+    */
+   public Value apcu_inc(Env env,
+                         String key,
+                         @Optional("1") long step,
+                         @Optional @Reference Value success,
+                         @Optional long ttl) {
+      return add(env, key, step, success, ttl);
+   }
+
+   /**
+    * Decrements a numeric value, creating it if it's missing.
+    */
+   public Value apcu_dec(Env env,
+                         String key,
+                         @Optional("1") long step,
+                         @Optional @Reference Value success,
+                         @Optional long ttl) {
+      return add(env, key, -step, success, ttl);
+   }
+
+   private Value add(Env env, String key, long step,
+                     Value success, long ttl) {
+      if (!isEnabled(env)) {
+         success.set(BooleanValue.FALSE);
+
+         return BooleanValue.FALSE;
+      }
+
+      ApcCache cache = getCache(env);
+      long now = env.getCurrentTime();
+
+      while (true) {
+         ApcCache.Entry oldEntry = cache.peek(key, now);
+         long value;
+
+         if (oldEntry == null) {
+            value = step;
+         } else {
+            Value oldValue = oldEntry.getScalar();
+
+            if (oldValue == null || !oldValue.isNumeric()) {
+               success.set(BooleanValue.FALSE);
+
+               return BooleanValue.FALSE;
+            }
+
+            value = oldValue.toLong() + step;
+            ttl = oldEntry.getTtl();
+         }
+
+         Value result = LongValue.create(value);
+         ApcCache.Entry entry = new ApcCache.Entry(env, key, result, ttl, now);
+
+         boolean isStored;
+
+         if (oldEntry == null) {
+            isStored = cache.put(entry, true, now);
+         } else {
+            isStored = cache.replace(entry, oldEntry, false, now);
+         }
+
+         if (isStored) {
+            success.set(BooleanValue.TRUE);
+
+            return result;
+         }
+      }
+   }
+
+   /**
+    * Replaces an integer value if it's still the old value.
+    */
+   public boolean apcu_cas(Env env, String key, long oldValue, long newValue) {
+      if (!isEnabled(env)) {
+         return false;
+      }
+
+      ApcCache cache = getCache(env);
+      long now = env.getCurrentTime();
+
+      ApcCache.Entry oldEntry = cache.peek(key, now);
+
+      if (oldEntry == null) {
+         return false;
+      }
+
+      Value value = oldEntry.getScalar();
+
+      if (!(value instanceof LongValue) || value.toLong() != oldValue) {
+         return false;
+      }
+
+      ApcCache.Entry entry = new ApcCache.Entry(env, key, LongValue.create(newValue),
+         oldEntry.getTtl(), now);
+
+      return cache.replace(entry, oldEntry, false, now);
+   }
+
+   /**
+    * Returns the cached value, or generates and stores it.
+    */
+   public Value apcu_entry(Env env,
+                           String key,
+                           Callable generator,
+                           @Optional long ttl) {
+      if (!isEnabled(env)) {
+         return generator.call(env, env.createString(key));
+      }
+
+      ApcCache cache = getCache(env);
+      long now = env.getCurrentTime();
+
+      Value value = fetch(env, cache, key, now);
+
+      if (value != null) {
+         return value;
+      }
+
+      value = generator.call(env, env.createString(key));
+
+      cache.put(new ApcCache.Entry(env, key, value, ttl, now), false, now);
+
+      return value;
+   }
+
+   /**
+    * Removes a value, or each value of an array of keys.
+    */
+   public Value apcu_delete(Env env, Value key) {
+      ApcCache cache = getCache(env);
+
+      if (key.isArray()) {
+         // returns the keys which failed
+         ArrayValue errors = new ArrayValueImpl();
+
+         for (Value name : key.toArrayValue(env).values()) {
+            if (cache.remove(name.toString()) == null) {
+               errors.put(name);
+            }
+         }
+
+         return errors;
+      }
+
+      return BooleanValue.create(cache.remove(key.toString()) != null);
+   }
+
+   /**
+    * Returns true if the key is cached, or the array of the cached keys.
+    */
+   public Value apcu_exists(Env env, Value key) {
+      ApcCache cache = getCache(env);
+      long now = env.getCurrentTime();
+
+      if (key.isArray()) {
+         ArrayValue result = new ArrayValueImpl();
+
+         for (Value name : key.toArrayValue(env).values()) {
+            if (cache.peek(name.toString(), now) != null) {
+               result.put(name, BooleanValue.TRUE);
+            }
+         }
+
+         return result;
+      }
+
+      return BooleanValue.create(cache.peek(key.toString(), now) != null);
+   }
+
+   /**
+    * Clears the cache.
+    */
+   public boolean apcu_clear_cache(Env env) {
+      getCache(env).clear();
+
+      return true;
+   }
+
+   /**
+    * Returns the cache statistics, and the entries unless limited.
+    */
+   public Value apcu_cache_info(Env env, @Optional boolean limited) {
+      ApcCache cache = getCache(env);
+      long now = env.getCurrentTime();
+
+      ArrayValue info = new ArrayValueImpl();
+
+      info.put(env.createString("num_slots"), LongValue.create(cache.getStripeCount()));
+      info.put(env.createString("ttl"), LongValue.ZERO);
+      info.put(env.createString("num_hits"), LongValue.create(cache.getHitCount()));
+      info.put(env.createString("num_misses"), LongValue.create(cache.getMissCount()));
+      info.put(env.createString("num_inserts"), LongValue.create(cache.getInsertCount()));
+      info.put(env.createString("num_entries"), LongValue.create(cache.getEntryCount()));
+      info.put(env.createString("expunges"), LongValue.create(cache.getEvictCount()));
+      info.put(env.createString("start_time"), LongValue.create(cache.getStartTime() / 1000));
+      info.put(env.createString("mem_size"), LongValue.create(cache.getMemorySize()));
+      info.put(env.createString("memory_type"), env.createString("java"));
+
+      if (limited) {
+         return info;
+      }
+
+      ArrayValue list = new ArrayValueImpl();
+
+      for (ApcCache.Entry entry : cache.getEntries(now)) {
+         ArrayValue item = new ArrayValueImpl();
+
+         item.put(env.createString("info"), env.createString(entry.getKey()));
+         item.put(env.createString("ttl"), LongValue.create(entry.getTtl()));
+         item.put(env.createString("num_hits"), LongValue.create(entry.getHitCount()));
+         item.put(env.createString("mtime"), LongValue.create(entry.getCreateTime() / 1000));
+         item.put(env.createString("creation_time"), LongValue.create(entry.getCreateTime() / 1000));
+         item.put(env.createString("deletion_time"), LongValue.ZERO);
+         item.put(env.createString("access_time"), LongValue.create(entry.getAccessTime() / 1000));
+         item.put(env.createString("ref_count"), LongValue.ZERO);
+         item.put(env.createString("mem_size"), LongValue.create(entry.getSize()));
+
+         list.put(item);
+      }
+
+      info.put(env.createString("cache_list"), list);
+
+      return info;
+   }
+
+   /**
+    * Returns the memory statistics.
+    */
+   public Value apcu_sma_info(Env env, @Optional boolean limited) {
+      ApcCache cache = getCache(env);
+
+      ArrayValue info = new ArrayValueImpl();
+
+      info.put(env.createString("num_seg"), LongValue.ONE);
+      info.put(env.createString("seg_size"), LongValue.create(cache.getMaxMemory()));
+      info.put(env.createString("avail_mem"),
+         LongValue.create(Math.max(0, cache.getMaxMemory() - cache.getMemorySize())));
+
+      return info;
+   }
+
+   //
+   // apc compatibility
+   //
+
+   public Value apc_fetch(Env env, Value key, @Optional @Reference Value success) {
+      return apcu_fetch(env, key, success);
+   }
+
+   public Value apc_store(Env env, Value key, @Optional Value value, @Optional long ttl) {
+      return apcu_store(env, key, value, ttl);
+   }
+
+   public Value apc_add(Env env, Value key, @Optional Value value, @Optional long ttl) {
+      return apcu_add(env, key, value, ttl);
+   }
+
+   public Value apc_inc(Env env, String key, @Optional("1") long step,
+                        @Optional @Reference Value success) {
+      return apcu_inc(env, key, step, success, 0);
+   }
+
+   public Value apc_dec(Env env, String key, @Optional("1") long step,
+                        @Optional @Reference Value success) {
+      return apcu_dec(env, key, step, success, 0);
+   }
+
+   public boolean apc_cas(Env env, String key, long oldValue, long newValue) {
+      return apcu_cas(env, key, oldValue, newValue);
+   }
+
+   public Value apc_delete(Env env, Value key) {
+      return apcu_delete(env, key);
+   }
+
+   public Value apc_exists(Env env, Value key) {
+      return apcu_exists(env, key);
+   }
+
+   /**
+    * Clears the user cache.  The opcode cache is managed by the page
+    * cache, so clearing it is a no-op.
+    */
+   public boolean apc_clear_cache(Env env, @Optional String type) {
+      if ("user".equals(type)) {
+         return apcu_clear_cache(env);
+      }
+
+      return true;
+   }
+
+   public Value apc_cache_info(Env env, @Optional String type,
+                               @Optional boolean limited) {
+      return apcu_cache_info(env, limited);
+   }
+
+   public Value apc_sma_info(Env env, @Optional boolean limited) {
+      return apcu_sma_info(env, limited);
+   }
+
+   static final IniDefinition INI_APC_ENABLED = _iniDefinitions.add("apc.enabled", true, PHP_INI_SYSTEM);
+   static final IniDefinition INI_APC_SHM_SIZE = _iniDefinitions.add("apc.shm_size", "32M", PHP_INI_SYSTEM);
+}
@@ -1062,7 +1062,7 @@ public class ArrayModule
       }
 
       // bianca/1730
-      Iterator<Map.Entry<Value, Value>> argIter = arg.entrySet().iterator();
+      Iterator<Map.Entry<Value, Value>> argIter = arg.getIterator(env);
 
       Iterator[] iters = new Iterator[args.length];
       for (int i = 0; i < args.length; i++) {
@@ -1072,7 +1072,7 @@ public class ArrayModule
 
          ArrayValue argArray = (ArrayValue) args[i];
 
-         iters[i] = argArray.values().iterator();
+         iters[i] = argArray.getValueIterator(env);
       }
 
       ArrayValue resultArray = new ArrayValueImpl();
@@ -955,6 +955,9 @@ public class OptionsModule extends AbstractBiancaModule {
       _iniDefinitions.add("always_populate_raw_post_data", false, PHP_INI_ALL);
    static final IniDefinition INI_ALLOW_WEBDAV_METHODS = _iniDefinitions.add("allow_webdav_methods", false, PHP_INI_ALL);
    static final IniDefinition INI_MEMORY_LIMIT = _iniDefinitions.add("memory_limit", "512M", PHP_INI_ALL);
+   static final IniDefinition INI_BIANCA_PROFILE = _iniDefinitions.add("bianca.profile", false, PHP_INI_PERDIR);
+   static final IniDefinition INI_BIANCA_PROFILE_HEADER =
+      _iniDefinitions.add("bianca.profile_header", false, PHP_INI_SYSTEM);
    // unsupported
    static final IniDefinition MAGIC_QUOTES_RUNTIME = _iniDefinitions.addUnsupported(
       "magic_quotes_runtime", false, PHP_INI_ALL);
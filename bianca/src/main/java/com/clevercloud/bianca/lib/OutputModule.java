@@ -38,6 +38,7 @@ import com.clevercloud.bianca.module.IniDefinitions;
 import com.clevercloud.bianca.module.ModuleStartupListener;
 import com.clevercloud.util.L10N;
 
+import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.util.HashMap;
@@ -490,6 +491,15 @@ public class OutputModule extends AbstractBiancaModule
     * subsequent calls.
     */
    public static Value ob_gzhandler(Env env, StringValue buffer, int state) {
+      HttpServletResponse response = env.getResponse();
+
+      // the response is already compressed by zlib.output_compression
+      if ((state & PHP_OUTPUT_HANDLER_START) != 0
+         && response != null
+         && response.containsHeader("Content-Encoding")) {
+         return BooleanValue.FALSE;
+      }
+
       Encoding encoding = Encoding.NONE;
       Value _SERVER = env.getGlobalVar("_SERVER");
 
@@ -0,0 +1,222 @@
+/*
+ * Copyright (c) 2012 Clever Cloud SAS -- all rights reserved
+ *
+ * This file is part of Bianca(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Bianca Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Bianca Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Bianca Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ * @author Marc-Antoine Perennou <Marc-Antoine@Perennou.com>
+ */
+package com.clevercloud.bianca.lib;
+
+import com.clevercloud.bianca.env.Env;
+import com.clevercloud.bianca.env.StringValue;
+import com.clevercloud.bianca.env.UnserializeCacheEntry;
+import com.clevercloud.bianca.env.Value;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Cache of unserialize() results shared by all requests.
+ * <p/>
+ * Entries are keyed by the serialized string's hash and checked against
+ * the string itself.  A hit returns a copy-on-write tree from the entry's
+ * CopyRoot, which goes back to the entry's free list at the end of the
+ * request when the script didn't modify it.
+ * <p/>
+ * The memory budget counts the serialized length of the entries, as an
+ * estimate of the size of their trees.  The least recently used entries
+ * are evicted past the budget.
+ */
+public class UnserializeCache {
+
+   private final long _capacity;
+   private final LinkedHashMap<Key, UnserializeCacheEntry> _map
+      = new LinkedHashMap<Key, UnserializeCacheEntry>(256, 0.75f, true);
+   private long _size;
+   private final AtomicLong _hitCount = new AtomicLong();
+   private final AtomicLong _missCount = new AtomicLong();
+   private final AtomicLong _evictCount = new AtomicLong();
+
+   /**
+    * @param capacity the memory budget, in characters of serialized data
+    */
+   public UnserializeCache(long capacity) {
+      _capacity = capacity;
+   }
+
+   /**
+    * Returns the memory budget.
+    */
+   public long getCapacity() {
+      return _capacity;
+   }
+
+   /**
+    * Returns the serialized length of the cached entries.
+    */
+   public synchronized long getSize() {
+      return _size;
+   }
+
+   public synchronized int getEntryCount() {
+      return _map.size();
+   }
+
+   public long getHitCount() {
+      return _hitCount.get();
+   }
+
+   public long getMissCount() {
+      return _missCount.get();
+   }
+
+   public long getEvictCount() {
+      return _evictCount.get();
+   }
+
+   /**
+    * Returns a copy of the cached value, or null.
+    */
+   public Value get(Env env, StringValue serialized) {
+      Key key = new Key(serialized);
+      UnserializeCacheEntry entry;
+
+      synchronized (this) {
+         entry = _map.get(key);
+      }
+
+      if (entry != null) {
+         Value value = entry.getValue(env);
+
+         if (value != null) {
+            _hitCount.incrementAndGet();
+
+            return value;
+         }
+
+         // the soft reference was cleared
+         remove(key);
+      }
+
+      _missCount.incrementAndGet();
+
+      return null;
+   }
+
+   /**
+    * Caches a freshly unserialized value and returns the copy to use.
+    * The value itself stays in the cache as the source of later copies.
+    */
+   public Value put(Env env, StringValue serialized, Value value) {
+      int length = serialized.length();
+
+      if (_capacity / 4 < length) {
+         return value;
+      }
+
+      // shares the buffer, copying it on the caller's next write
+      Key key = new Key(new StringValue(serialized));
+      UnserializeCacheEntry entry = new UnserializeCacheEntry(value);
+
+      synchronized (this) {
+         UnserializeCacheEntry oldEntry = _map.put(key, entry);
+
+         if (oldEntry == null) {
+            _size += length;
+         }
+
+         Iterator<Map.Entry<Key, UnserializeCacheEntry>> iter
+            = _map.entrySet().iterator();
+
+         while (_capacity < _size && iter.hasNext()) {
+            Map.Entry<Key, UnserializeCacheEntry> oldest = iter.next();
+
+            iter.remove();
+
+            _size -= oldest.getKey().getLength();
+            _evictCount.incrementAndGet();
+         }
+      }
+
+      Value copy = entry.getValue(env);
+
+      return copy != null ? copy : value;
+   }
+
+   private synchronized void remove(Key key) {
+      if (_map.remove(key) != null) {
+         _size -= key.getLength();
+      }
+   }
+
+   public synchronized void clear() {
+      _map.clear();
+      _size = 0;
+   }
+
+   @Override
+   public String toString() {
+      return (getClass().getSimpleName()
+         + "[size=" + getSize()
+         + ",entries=" + getEntryCount()
+         + ",hit=" + getHitCount()
+         + ",miss=" + getMissCount()
+         + ",evict=" + getEvictCount() + "]");
+   }
+
+   static final class Key {
+
+      private final StringValue _string;
+      private final int _hash;
+
+      Key(StringValue string) {
+         _string = string;
+         _hash = string.hashCode();
+      }
+
+      int getLength() {
+         return _string.length();
+      }
+
+      @Override
+      public int hashCode() {
+         return _hash;
+      }
+
+      @Override
+      public boolean equals(Object o) {
+         if (this == o) {
+            return true;
+         } else if (!(o instanceof Key)) {
+            return false;
+         }
+
+         Key key = (Key) o;
+
+         return _hash == key._hash && _string.equals(key._string);
+      }
+   }
+}
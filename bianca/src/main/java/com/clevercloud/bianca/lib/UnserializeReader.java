@@ -31,28 +31,37 @@
 package com.clevercloud.bianca.lib;
 
 import com.clevercloud.bianca.env.*;
+import com.clevercloud.util.ConcurrentLruCache;
 import com.clevercloud.util.L10N;
-import com.clevercloud.util.LruCache;
 
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.logging.Logger;
 
+/**
+ * Reads serialize() output directly from the string's buffer.  Short keys
+ * and class names are interned, so repeated unserializes share them.
+ */
 public final class UnserializeReader {
 
    private static final L10N L = new L10N(UnserializeReader.class);
    private static final Logger log = Logger.getLogger(UnserializeReader.class.getName());
-   private static final LruCache<StringKey, StringValue> _keyCache = new LruCache<StringKey, StringValue>(4096);
-   private final String _buffer;
+   // keys and class names up to this length are interned
+   private static final int INTERN_MAX = 32;
+   private static final ConcurrentLruCache<StringKey, StringValue> _keyCache = new ConcurrentLruCache<StringKey, StringValue>(4096);
+   private static final ConcurrentLruCache<StringKey, String> _classNameCache = new ConcurrentLruCache<StringKey, String>(1024);
+   private final StringValue _buffer;
+   private final int _length;
    private int _index;
-   private StringKey _key = new StringKey();
+   private final StringKey _key = new StringKey();
    private ArrayList<Value> _valueList = new ArrayList<Value>();
    private ArrayList<Boolean> _referenceList = new ArrayList<Boolean>();
    private boolean _useReference;
 
    public UnserializeReader(StringValue s)
       throws IOException {
-      _buffer = s.toString();
+      _buffer = s;
+      _length = s.length();
 
       if (s.indexOf("R:") >= 0
          || s.indexOf("r:") >= 0) {
@@ -62,12 +71,7 @@ public final class UnserializeReader {
 
    public UnserializeReader(String s)
       throws IOException {
-      _buffer = s;
-
-      if (s.indexOf("R:") >= 0
-         || s.indexOf("r:") >= 0) {
-         initReferenceList();
-      }
+      this(new StringValue(s));
    }
 
    boolean useReference() {
@@ -190,7 +194,7 @@ public final class UnserializeReader {
                return BooleanValue.FALSE;
             }
 
-            String className = readString(len);
+            String className = readClassName(len);
 
             expect('"');
             expect(':');
@@ -561,19 +565,17 @@ public final class UnserializeReader {
 
             StringValue v;
 
-            if (len < 32) {
-               _key.init(_buffer, _index);
+            if (len < INTERN_MAX && _index + len <= _length) {
+               _key.init(_buffer, _index, len);
 
                v = _keyCache.get(_key);
 
                if (v != null) {
                   _index += len;
                } else {
-                  StringKey key = new StringKey(_buffer, _index);
-
                   v = readStringValue(env, len);
 
-                  _keyCache.put(key, v);
+                  _keyCache.putIfNew(new StringKey(v, 0, len), v);
                }
             } else {
                v = readStringValue(env, len);
@@ -625,7 +627,7 @@ public final class UnserializeReader {
 
    public final void expect(int expectCh)
       throws IOException {
-      if (_buffer.length() <= _index) {
+      if (_length <= _index) {
          throw new IOException(L.l("expected '{0}' at end of string",
             String.valueOf((char) expectCh)));
       }
@@ -638,7 +640,7 @@ public final class UnserializeReader {
          if (_index - 2 >= 0) {
             context = _buffer.charAt(_index - 2) + context;
          }
-         if (_index < _buffer.length()) {
+         if (_index < _length) {
             context += _buffer.charAt(_index);
          }
 
@@ -675,7 +677,7 @@ public final class UnserializeReader {
    }
 
    public final boolean isValidString(int len) {
-      if (_index + len >= _buffer.length()) {
+      if (_index + len >= _length) {
          return false;
       }
 
@@ -683,66 +685,93 @@ public final class UnserializeReader {
    }
 
    public final String readString(int len) {
-      int end = Math.min(_buffer.length(), _index + len);
-      String str = _buffer.substring(_index, end);
+      int end = Math.min(_length, _index + len);
+      String str = _buffer.substring(_index, end).toString();
       _index += len;
       return str;
    }
 
+   /**
+    * Reads a class name, interning the short ones.
+    */
+   private String readClassName(int len) {
+      if (INTERN_MAX <= len || _length < _index + len) {
+         return readString(len);
+      }
+
+      _key.init(_buffer, _index, len);
+
+      String name = _classNameCache.get(_key);
+
+      if (name == null) {
+         name = readString(len);
+
+         _classNameCache.putIfNew(new StringKey(new StringValue(name), 0, len), name);
+      } else {
+         _index += len;
+      }
+
+      return name;
+   }
+
+   /**
+    * Copies the string directly from the buffer.
+    */
    public final StringValue readStringValue(Env env, int len) {
-      return new StringValue(readString(len));
+      int end = Math.min(_length, _index + len);
+      StringValue value = new StringValue();
+      value.append(_buffer, _index, end);
+      _index += len;
+      return value;
    }
 
    public final int read() {
-      if (_index < _buffer.length()) {
+      if (_index < _length) {
          return _buffer.charAt(_index++);
       } else {
          return -1;
       }
    }
 
-   public final int read(String buffer, int offset, int length) {
-      buffer = new StringBuilder(buffer.substring(0, offset)).append(_buffer.substring(_index)).toString();
-
-      _index += length;
-
-      return length;
-   }
-
    public final void unread() {
       _index--;
    }
 
+   /**
+    * Key for the intern caches, matching a range of a buffer without
+    * copying it.
+    */
    public final static class StringKey {
 
-      String _buffer;
-      int _offset;
+      private StringValue _buffer;
+      private int _offset;
+      private int _length;
+      private int _hash;
 
       StringKey() {
       }
 
-      StringKey(String buffer, int offset) {
-         _buffer = buffer;
-         _offset = 0;
+      StringKey(StringValue buffer, int offset, int length) {
+         init(buffer, offset, length);
       }
 
-      void init(String buffer, int offset) {
+      void init(StringValue buffer, int offset, int length) {
          _buffer = buffer;
          _offset = offset;
-      }
+         _length = length;
 
-      @Override
-      public int hashCode() {
-         String buffer = _buffer;
-         int offset = _offset;
-         int end = _buffer.length();
          int hash = 17;
 
-         for (; offset < end; offset++) {
-            hash = 65521 * hash + buffer.charAt(offset);
+         for (int i = 0; i < length; i++) {
+            hash = 65521 * hash + buffer.charAt(offset + i);
          }
 
-         return hash;
+         _hash = hash;
+      }
+
+      @Override
+      public int hashCode() {
+         return _hash;
       }
 
       @Override
@@ -753,13 +782,24 @@ public final class UnserializeReader {
 
          StringKey key = (StringKey) o;
 
-         int length = _buffer.length();
+         int length = _length;
 
-         if (length != key._buffer.length()) {
+         if (length != key._length || _hash != key._hash) {
             return false;
          }
 
-         return _buffer.equals(key._buffer);
+         StringValue aBuffer = _buffer;
+         StringValue bBuffer = key._buffer;
+         int aOffset = _offset;
+         int bOffset = key._offset;
+
+         for (int i = 0; i < length; i++) {
+            if (aBuffer.charAt(aOffset + i) != bBuffer.charAt(bOffset + i)) {
+               return false;
+            }
+         }
+
+         return true;
       }
    }
 }
@@ -35,12 +35,10 @@ import com.clevercloud.bianca.env.*;
 import com.clevercloud.bianca.function.AbstractFunction;
 import com.clevercloud.bianca.module.AbstractBiancaModule;
 import com.clevercloud.util.L10N;
-import com.clevercloud.util.LruCache;
 import com.clevercloud.vfs.StringWriter;
 import com.clevercloud.vfs.WriteStream;
 
 import java.io.IOException;
-import java.lang.ref.SoftReference;
 import java.util.IdentityHashMap;
 import java.util.Map;
 import java.util.logging.Level;
@@ -53,7 +51,6 @@ public class VariableModule extends AbstractBiancaModule {
 
    private static final Logger log = Logger.getLogger(VariableModule.class.getName());
    private static final L10N L = new L10N(VariableModule.class);
-   private static final LruCache<UnserializeKey, UnserializeCacheEntry> _unserializeCache = new LruCache<UnserializeKey, UnserializeCacheEntry>(256);
 
    /**
     * Returns a constant
@@ -581,13 +578,13 @@ public class VariableModule extends AbstractBiancaModule {
    /**
     * Serializes the value to a string.
     */
-   public static String serialize(Env env,
-                                  @PassThru @ReadOnly Value v) {
-      StringBuilder sb = new StringBuilder();
+   public static StringValue serialize(Env env,
+                                       @PassThru @ReadOnly Value v) {
+      StringValue sb = new StringValue();
 
       v.serialize(env, sb, new SerializeMap());
 
-      return sb.toString();
+      return sb;
    }
 
    /**
@@ -653,20 +650,17 @@ public class VariableModule extends AbstractBiancaModule {
     * Unserializes the value from a string.
     */
    public static Value unserialize(Env env, StringValue s) {
-      Value v = null;
-
-      UnserializeKey key = new UnserializeKey(s);
-
-      UnserializeCacheEntry entry = _unserializeCache.get(key);
+      UnserializeCache cache = env.getBianca().getUnserializeCache();
 
-      if (entry != null) {
-         v = entry.getValue(env);
+      if (cache != null) {
+         Value v = cache.get(env, s);
 
          if (v != null) {
             return v;
          }
       }
 
+      Value v = null;
       UnserializeReader is = null;
 
       try {
@@ -678,15 +672,11 @@ public class VariableModule extends AbstractBiancaModule {
 
          env.notice(e.toString());
 
-         v = BooleanValue.FALSE;
+         return BooleanValue.FALSE;
       }
 
-      if (is != null && !is.useReference()) {
-         entry = new UnserializeCacheEntry(v);
-
-         _unserializeCache.put(key, entry);
-
-         return entry.getValue(env);
+      if (cache != null && !is.useReference()) {
+         return cache.put(env, s, v);
       }
 
       return v;
@@ -795,41 +785,4 @@ public class VariableModule extends AbstractBiancaModule {
          v.print(env);
       }
    }
-
-   static class UnserializeKey {
-
-      private final SoftReference<StringValue> _stringRef;
-      private int _hash;
-
-      UnserializeKey(StringValue string) {
-         _hash = string.hashCode();
-
-         _stringRef = new SoftReference<StringValue>(string);
-      }
-
-      @Override
-      public int hashCode() {
-         return _hash;
-      }
-
-      @Override
-      public boolean equals(Object o) {
-         if (this == o) {
-            return true;
-         } else if (!(o instanceof UnserializeKey)) {
-            return false;
-         }
-
-         UnserializeKey key = (UnserializeKey) o;
-
-         StringValue a = _stringRef.get();
-         StringValue b = key._stringRef.get();
-
-         if (a == null || b == null) {
-            return false;
-         }
-
-         return a.equals(b);
-      }
-   }
 }
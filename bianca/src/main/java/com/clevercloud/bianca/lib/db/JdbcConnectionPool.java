@@ -0,0 +1,921 @@
+/*
+ * Copyright (c) 2012 Clever Cloud SAS -- all rights reserved
+ *
+ * This file is part of Bianca(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Bianca Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Bianca Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Bianca Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ * @author Marc-Antoine Perennou <Marc-Antoine@Perennou.com>
+ */
+package com.clevercloud.bianca.lib.db;
+
+import com.clevercloud.util.L10N;
+
+import javax.sql.DataSource;
+import java.io.PrintWriter;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Bounded pool of physical connections in front of a raw driver
+ * DataSource, with one sub-pool per user and password.
+ *
+ * Connections handed out are proxies: close() returns the physical
+ * connection to the pool after resetting its session state (open
+ * transaction, autocommit, catalog, isolation, read-only, statements).
+ * Connections idle for more than a second are validated before reuse.
+ * Each physical connection keeps its own PreparedStatementCache.
+ */
+public class JdbcConnectionPool implements DataSource {
+
+   private static final L10N L = new L10N(JdbcConnectionPool.class);
+   private static final Logger log = Logger.getLogger(JdbcConnectionPool.class.getName());
+   private static final long VALIDATE_IDLE_TIME = 1000L;
+   private static final int VALIDATE_TIMEOUT = 5;
+   private static final int STATEMENT_PRUNE_SIZE = 64;
+   private final DataSource _ds;
+   private final String _name;
+   private final int _maxConnections;
+   private final long _idleTimeout;
+   private final long _maxWait;
+   private final ConcurrentHashMap<Key, UserPool> _poolMap = new ConcurrentHashMap<Key, UserPool>();
+   private volatile boolean _isClosed;
+   private final AtomicLong _borrowCount = new AtomicLong();
+   private final AtomicLong _createCount = new AtomicLong();
+   private final AtomicLong _destroyCount = new AtomicLong();
+   private final AtomicLong _validateFailCount = new AtomicLong();
+   private final AtomicLong _waitCount = new AtomicLong();
+   private final AtomicLong _waitNanos = new AtomicLong();
+   private volatile long _maxWaitNanos;
+
+   /**
+    * @param ds the raw data source
+    * @param name the pool name, i.e. the driver and url
+    * @param maxConnections the maximum number of connections per user
+    * @param idleTimeout the time in milliseconds before an idle connection
+    *                    is closed
+    * @param maxWait the time in milliseconds to wait for a free connection
+    */
+   public JdbcConnectionPool(DataSource ds, String name,
+                             int maxConnections, long idleTimeout,
+                             long maxWait) {
+      _ds = ds;
+      _name = name;
+      _maxConnections = Math.max(1, maxConnections);
+      _idleTimeout = idleTimeout;
+      _maxWait = maxWait;
+   }
+
+   /**
+    * Returns the pool name.
+    */
+   public String getName() {
+      return _name;
+   }
+
+   /**
+    * Returns the maximum number of connections per user.
+    */
+   public int getMaxConnections() {
+      return _maxConnections;
+   }
+
+   /**
+    * Returns the number of connections currently borrowed.
+    */
+   public int getActiveCount() {
+      int count = 0;
+
+      for (UserPool pool : _poolMap.values()) {
+         synchronized (pool) {
+            count += pool._activeCount;
+         }
+      }
+
+      return count;
+   }
+
+   /**
+    * Returns the number of idle connections.
+    */
+   public int getIdleCount() {
+      int count = 0;
+
+      for (UserPool pool : _poolMap.values()) {
+         synchronized (pool) {
+            count += pool._idleList.size();
+         }
+      }
+
+      return count;
+   }
+
+   /**
+    * Returns the number of connections handed out.
+    */
+   public long getBorrowCount() {
+      return _borrowCount.get();
+   }
+
+   /**
+    * Returns the number of physical connections opened.
+    */
+   public long getCreateCount() {
+      return _createCount.get();
+   }
+
+   /**
+    * Returns the number of physical connections closed.
+    */
+   public long getDestroyCount() {
+      return _destroyCount.get();
+   }
+
+   /**
+    * Returns the number of idle connections which failed validation.
+    */
+   public long getValidateFailCount() {
+      return _validateFailCount.get();
+   }
+
+   /**
+    * Returns the number of borrows which had to wait for a connection.
+    */
+   public long getWaitCount() {
+      return _waitCount.get();
+   }
+
+   /**
+    * Returns the total time spent waiting for a connection, in
+    * microseconds.
+    */
+   public long getWaitTimeMicros() {
+      return _waitNanos.get() / 1000;
+   }
+
+   /**
+    * Returns the longest wait for a connection, in microseconds.
+    */
+   public long getMaxWaitTimeMicros() {
+      return _maxWaitNanos / 1000;
+   }
+
+   @Override
+   public Connection getConnection()
+      throws SQLException {
+      return getConnection(null, null);
+   }
+
+   @Override
+   public Connection getConnection(String user, String password)
+      throws SQLException {
+      if (_isClosed) {
+         throw new SQLException(L.l("{0} is closed", this));
+      }
+
+      UserPool pool = getPool(user, password);
+
+      long waitStart = 0;
+
+      while (true) {
+         PooledConnection pooled;
+
+         synchronized (pool) {
+            pooled = pool.pollIdle();
+
+            if (pooled == null && pool._activeCount >= _maxConnections) {
+               long now = System.nanoTime();
+
+               if (waitStart == 0) {
+                  waitStart = now;
+               }
+
+               long remaining = _maxWait - (now - waitStart) / 1000000L;
+
+               if (remaining <= 0) {
+                  addWait(now - waitStart);
+
+                  throw new SQLException(L.l(
+                     "{0} has no free connection after {1}ms ({2} active)",
+                     this, _maxWait, pool._activeCount));
+               }
+
+               try {
+                  pool.wait(remaining);
+               } catch (InterruptedException e) {
+                  Thread.currentThread().interrupt();
+
+                  throw new SQLException(L.l("interrupted waiting for {0}", this));
+               }
+
+               continue;
+            }
+
+            pool._activeCount++;
+         }
+
+         if (waitStart != 0) {
+            addWait(System.nanoTime() - waitStart);
+            waitStart = 0;
+         }
+
+         if (pooled == null) {
+            pooled = create(pool);
+         } else if (!validate(pooled)) {
+            _validateFailCount.incrementAndGet();
+            destroy(pool, pooled);
+            continue;
+         }
+
+         _borrowCount.incrementAndGet();
+
+         return pooled.open();
+      }
+   }
+
+   private UserPool getPool(String user, String password) {
+      Key key = new Key(user, password);
+
+      UserPool pool = _poolMap.get(key);
+
+      if (pool == null) {
+         pool = new UserPool(key);
+
+         UserPool oldPool = _poolMap.putIfAbsent(key, pool);
+
+         if (oldPool != null) {
+            pool = oldPool;
+         }
+      }
+
+      return pool;
+   }
+
+   private void addWait(long nanos) {
+      _waitCount.incrementAndGet();
+      _waitNanos.addAndGet(nanos);
+
+      if (_maxWaitNanos < nanos) {
+         _maxWaitNanos = nanos;
+      }
+   }
+
+   /**
+    * Opens a new physical connection for an already reserved slot.
+    */
+   private PooledConnection create(UserPool pool)
+      throws SQLException {
+      boolean isValid = false;
+
+      try {
+         Key key = pool._key;
+         Connection conn;
+
+         if (key._user != null) {
+            conn = _ds.getConnection(key._user, key._password);
+         } else {
+            conn = _ds.getConnection();
+         }
+
+         if (conn == null) {
+            throw new SQLException(L.l("{0} returned no connection", _ds));
+         }
+
+         PooledConnection pooled;
+
+         try {
+            pooled = new PooledConnection(pool, conn);
+         } catch (SQLException e) {
+            conn.close();
+
+            throw e;
+         }
+
+         _createCount.incrementAndGet();
+         isValid = true;
+
+         return pooled;
+      } finally {
+         if (!isValid) {
+            pool.freeSlot();
+         }
+      }
+   }
+
+   /**
+    * Checks an idle connection before handing it out again.
+    */
+   private boolean validate(PooledConnection pooled) {
+      long idle = System.currentTimeMillis() - pooled._idleStartTime;
+
+      if (_idleTimeout > 0 && _idleTimeout < idle) {
+         return false;
+      }
+
+      try {
+         Connection conn = pooled._conn;
+
+         if (conn.isClosed()) {
+            return false;
+         } else if (idle < VALIDATE_IDLE_TIME) {
+            return true;
+         } else {
+            return conn.isValid(VALIDATE_TIMEOUT);
+         }
+      } catch (AbstractMethodError e) {
+         // pre-JDBC 4 driver without isValid()
+         return true;
+      } catch (Throwable e) {
+         log.log(Level.FINER, e.toString(), e);
+
+         return false;
+      }
+   }
+
+   /**
+    * Returns a connection to the pool, or closes it if it's marked for
+    * removal or its session can't be reset.
+    */
+   void release(PooledConnection pooled) {
+      UserPool pool = pooled._pool;
+
+      if (_isClosed || pooled._isRemove || !pooled.reset()) {
+         destroy(pool, pooled);
+         return;
+      }
+
+      ArrayList<PooledConnection> expired = null;
+
+      synchronized (pool) {
+         pooled._idleStartTime = System.currentTimeMillis();
+         pool._idleList.add(pooled);
+
+         expired = pool.removeExpired(pooled._idleStartTime);
+
+         pool._activeCount--;
+         pool.notify();
+      }
+
+      if (expired != null) {
+         for (PooledConnection conn : expired) {
+            closePhysical(conn);
+         }
+      }
+   }
+
+   /**
+    * Closes a borrowed connection and frees its slot.
+    */
+   private void destroy(UserPool pool, PooledConnection pooled) {
+      closePhysical(pooled);
+
+      pool.freeSlot();
+   }
+
+   private void closePhysical(PooledConnection pooled) {
+      _destroyCount.incrementAndGet();
+
+      if (pooled._statementCache != null) {
+         pooled._statementCache.close();
+      }
+
+      try {
+         pooled._conn.close();
+      } catch (Throwable e) {
+         log.log(Level.FINER, e.toString(), e);
+      }
+   }
+
+   /**
+    * Closes the idle connections. Borrowed connections are closed when
+    * they are returned.
+    */
+   public void close() {
+      _isClosed = true;
+
+      for (UserPool pool : _poolMap.values()) {
+         ArrayList<PooledConnection> idleList;
+
+         synchronized (pool) {
+            idleList = new ArrayList<PooledConnection>(pool._idleList);
+            pool._idleList.clear();
+            pool.notifyAll();
+         }
+
+         for (PooledConnection pooled : idleList) {
+            closePhysical(pooled);
+         }
+      }
+   }
+
+   /**
+    * Notify that a connection must not go back to the pool, e.g. after
+    * stateful mysql commands like temporary tables.
+    */
+   public static void markForRemoval(Connection conn) {
+      ConnectionHandle handle = getHandle(conn);
+
+      if (handle != null) {
+         PooledConnection pooled = handle._pooled;
+
+         if (pooled != null) {
+            pooled._isRemove = true;
+         }
+      }
+   }
+
+   /**
+    * Notify that a transaction was started with SQL, e.g. BEGIN, so the
+    * connection is rolled back before it goes back to the pool.
+    */
+   public static void markTransaction(Connection conn) {
+      ConnectionHandle handle = getHandle(conn);
+
+      if (handle != null) {
+         PooledConnection pooled = handle._pooled;
+
+         if (pooled != null) {
+            pooled._isTransaction = true;
+         }
+      }
+   }
+
+   /**
+    * Returns true if the SQL starts a transaction, i.e. BEGIN or
+    * START TRANSACTION.
+    */
+   public static boolean isTransactionStart(String sql) {
+      int length = sql.length();
+      int i = 0;
+
+      while (i < length && Character.isWhitespace(sql.charAt(i))) {
+         i++;
+      }
+
+      if (sql.regionMatches(true, i, "BEGIN", 0, 5)) {
+         return i + 5 == length || !Character.isLetterOrDigit(sql.charAt(i + 5));
+      }
+
+      if (!sql.regionMatches(true, i, "START", 0, 5)) {
+         return false;
+      }
+
+      i += 5;
+
+      int start = i;
+
+      while (i < length && Character.isWhitespace(sql.charAt(i))) {
+         i++;
+      }
+
+      return i > start && sql.regionMatches(true, i, "TRANSACTION", 0, 11);
+   }
+
+   /**
+    * Returns the prepared statement cache of a pooled connection, which
+    * lives as long as the physical connection, or null if the connection
+    * isn't pooled.
+    */
+   public static PreparedStatementCache getStatementCache(Connection conn,
+                                                          int capacity) {
+      ConnectionHandle handle = getHandle(conn);
+
+      if (handle != null) {
+         PooledConnection pooled = handle._pooled;
+
+         if (pooled != null) {
+            return pooled.getStatementCache(capacity);
+         }
+      }
+
+      return null;
+   }
+
+   /**
+    * Returns the physical connection behind a pooled connection. Session
+    * changes made on it bypass the proxy, so the connection's whole
+    * session state is restored when it is returned.
+    */
+   public static Connection unwrap(Connection conn) {
+      ConnectionHandle handle = getHandle(conn);
+
+      if (handle != null) {
+         PooledConnection pooled = handle._pooled;
+
+         if (pooled != null) {
+            pooled._isUnwrapped = true;
+
+            return pooled._conn;
+         }
+      }
+
+      return conn;
+   }
+
+   private static ConnectionHandle getHandle(Connection conn) {
+      if (conn == null || !Proxy.isProxyClass(conn.getClass())) {
+         return null;
+      }
+
+      InvocationHandler handler = Proxy.getInvocationHandler(conn);
+
+      if (handler instanceof ConnectionHandle) {
+         return (ConnectionHandle) handler;
+      } else {
+         return null;
+      }
+   }
+
+   @Override
+   public int getLoginTimeout()
+      throws SQLException {
+      return _ds.getLoginTimeout();
+   }
+
+   @Override
+   public PrintWriter getLogWriter()
+      throws SQLException {
+      return _ds.getLogWriter();
+   }
+
+   //@Override TODO: Uncomment when switching to java7
+   public Logger getParentLogger() {
+      throw new UnsupportedOperationException();
+   }
+
+   @Override
+   public void setLoginTimeout(int seconds)
+      throws SQLException {
+      _ds.setLoginTimeout(seconds);
+   }
+
+   @Override
+   public void setLogWriter(PrintWriter out)
+      throws SQLException {
+      _ds.setLogWriter(out);
+   }
+
+   @Override
+   public <T> T unwrap(Class<T> iface)
+      throws SQLException {
+      throw new UnsupportedOperationException("Not supported yet.");
+   }
+
+   @Override
+   public boolean isWrapperFor(Class<?> iface)
+      throws SQLException {
+      throw new UnsupportedOperationException("Not supported yet.");
+   }
+
+   @Override
+   public String toString() {
+      return (getClass().getSimpleName()
+         + "[" + _name
+         + ",active=" + getActiveCount()
+         + ",idle=" + getIdleCount()
+         + "]");
+   }
+
+   static final class Key {
+
+      private final String _user;
+      private final String _password;
+
+      Key(String user, String password) {
+         _user = user;
+         _password = password;
+      }
+
+      @Override
+      public int hashCode() {
+         int hash = _user != null ? _user.hashCode() : 0;
+
+         return 65521 * hash + (_password != null ? _password.hashCode() : 0);
+      }
+
+      @Override
+      public boolean equals(Object o) {
+         if (!(o instanceof Key)) {
+            return false;
+         }
+
+         Key key = (Key) o;
+
+         return (isEqual(_user, key._user)
+            && isEqual(_password, key._password));
+      }
+
+      private static boolean isEqual(String a, String b) {
+         return a == null ? b == null : a.equals(b);
+      }
+   }
+
+   /**
+    * Connections of a single user. The counts and the idle list are
+    * guarded by the pool's monitor.
+    */
+   final class UserPool {
+
+      private final Key _key;
+      private final ArrayList<PooledConnection> _idleList = new ArrayList<PooledConnection>();
+      private int _activeCount;
+
+      UserPool(Key key) {
+         _key = key;
+      }
+
+      /**
+       * Returns the most recently used idle connection.
+       */
+      PooledConnection pollIdle() {
+         int size = _idleList.size();
+
+         if (size == 0) {
+            return null;
+         } else {
+            return _idleList.remove(size - 1);
+         }
+      }
+
+      /**
+       * Removes the idle connections older than the idle timeout. The
+       * oldest connections are at the head of the list.
+       */
+      ArrayList<PooledConnection> removeExpired(long now) {
+         if (_idleTimeout <= 0) {
+            return null;
+         }
+
+         ArrayList<PooledConnection> expired = null;
+
+         while (_idleList.size() > 0
+            && _idleTimeout < now - _idleList.get(0)._idleStartTime) {
+            if (expired == null) {
+               expired = new ArrayList<PooledConnection>();
+            }
+
+            expired.add(_idleList.remove(0));
+         }
+
+         return expired;
+      }
+
+      void freeSlot() {
+         synchronized (this) {
+            _activeCount--;
+            notify();
+         }
+      }
+   }
+
+   /**
+    * A physical connection with the session state to restore when it
+    * goes back to the pool.
+    */
+   final class PooledConnection {
+
+      private final UserPool _pool;
+      private final Connection _conn;
+      private final String _catalog;
+      private final int _isolation;
+      private ArrayList<Statement> _statementList;
+      private PreparedStatementCache _statementCache;
+      private long _idleStartTime;
+      private boolean _isAutoCommitChanged;
+      private boolean _isCatalogChanged;
+      private boolean _isIsolationChanged;
+      private boolean _isReadOnlyChanged;
+      private volatile boolean _isTransaction;
+      private volatile boolean _isUnwrapped;
+      private volatile boolean _isRemove;
+
+      PooledConnection(UserPool pool, Connection conn)
+         throws SQLException {
+         _pool = pool;
+         _conn = conn;
+         _catalog = conn.getCatalog();
+         _isolation = conn.getTransactionIsolation();
+         _idleStartTime = System.currentTimeMillis();
+      }
+
+      PreparedStatementCache getStatementCache(int capacity) {
+         if (_statementCache == null) {
+            _statementCache = new PreparedStatementCache(_conn, capacity);
+         }
+
+         return _statementCache;
+      }
+
+      Connection open() {
+         ConnectionHandle handle = new ConnectionHandle(this);
+
+         return (Connection) Proxy.newProxyInstance(
+            JdbcConnectionPool.class.getClassLoader(),
+            new Class<?>[]{Connection.class},
+            handle);
+      }
+
+      void addStatement(Statement stmt) {
+         if (_statementList == null) {
+            _statementList = new ArrayList<Statement>();
+         } else if (_statementList.size() >= STATEMENT_PRUNE_SIZE) {
+            pruneStatements();
+         }
+
+         _statementList.add(stmt);
+      }
+
+      private void pruneStatements() {
+         for (int i = _statementList.size() - 1; i >= 0; i--) {
+            try {
+               if (_statementList.get(i).isClosed()) {
+                  _statementList.remove(i);
+               }
+            } catch (SQLException e) {
+               _statementList.remove(i);
+            }
+         }
+      }
+
+      /**
+       * Restores the session state, returning false if the connection
+       * can't be reused.
+       */
+      boolean reset() {
+         try {
+            if (_statementCache != null) {
+               _statementCache.freeActive();
+            }
+
+            ArrayList<Statement> statementList = _statementList;
+            _statementList = null;
+
+            if (statementList != null) {
+               for (Statement stmt : statementList) {
+                  stmt.close();
+               }
+            }
+
+            boolean isUnwrapped = _isUnwrapped;
+            _isUnwrapped = false;
+
+            // php code or a driver call may have left a transaction open
+            // without going through setAutoCommit
+            _isAutoCommitChanged = false;
+
+            if (!_conn.getAutoCommit()) {
+               _conn.rollback();
+               _conn.setAutoCommit(true);
+            } else if (_isTransaction) {
+               Statement stmt = _conn.createStatement();
+
+               try {
+                  stmt.execute("ROLLBACK");
+               } finally {
+                  stmt.close();
+               }
+            }
+
+            _isTransaction = false;
+
+            if (_isCatalogChanged || isUnwrapped) {
+               _isCatalogChanged = false;
+
+               if (_catalog != null && !_catalog.equals(_conn.getCatalog())) {
+                  _conn.setCatalog(_catalog);
+               }
+            }
+
+            if (_isIsolationChanged || isUnwrapped) {
+               _isIsolationChanged = false;
+
+               if (_conn.getTransactionIsolation() != _isolation) {
+                  _conn.setTransactionIsolation(_isolation);
+               }
+            }
+
+            if (_isReadOnlyChanged || isUnwrapped) {
+               _isReadOnlyChanged = false;
+
+               if (_conn.isReadOnly()) {
+                  _conn.setReadOnly(false);
+               }
+            }
+
+            _conn.clearWarnings();
+
+            return true;
+         } catch (Throwable e) {
+            log.log(Level.FINE, e.toString(), e);
+
+            return false;
+         }
+      }
+   }
+
+   /**
+    * The InvocationHandler behind the Connection proxy given to a
+    * single borrower.
+    */
+   final class ConnectionHandle implements InvocationHandler {
+
+      private PooledConnection _pooled;
+
+      ConnectionHandle(PooledConnection pooled) {
+         _pooled = pooled;
+      }
+
+      @Override
+      public Object invoke(Object proxy, Method method, Object[] args)
+         throws Throwable {
+         String name = method.getName();
+         int argCount = args != null ? args.length : 0;
+
+         if (argCount == 0) {
+            if ("close".equals(name)) {
+               close();
+               return null;
+            } else if ("isClosed".equals(name) && _pooled == null) {
+               return Boolean.TRUE;
+            } else if ("hashCode".equals(name)) {
+               return System.identityHashCode(proxy);
+            } else if ("toString".equals(name)) {
+               return ("PooledConnection[" + _name + ","
+                  + (_pooled != null ? _pooled._conn : "closed") + "]");
+            }
+         } else if (argCount == 1 && "equals".equals(name)) {
+            return proxy == args[0];
+         }
+
+         PooledConnection pooled = _pooled;
+
+         if (pooled == null) {
+            throw new SQLException(L.l("connection is closed"));
+         }
+
+         if (name.startsWith("set")) {
+            if ("setAutoCommit".equals(name)) {
+               pooled._isAutoCommitChanged = true;
+            } else if ("setCatalog".equals(name)) {
+               pooled._isCatalogChanged = true;
+            } else if ("setTransactionIsolation".equals(name)) {
+               pooled._isIsolationChanged = true;
+            } else if ("setReadOnly".equals(name)) {
+               pooled._isReadOnlyChanged = true;
+            }
+         }
+
+         Object result;
+
+         try {
+            result = method.invoke(pooled._conn, args);
+         } catch (InvocationTargetException e) {
+            throw e.getCause();
+         }
+
+         if (result instanceof Statement) {
+            pooled.addStatement((Statement) result);
+         }
+
+         return result;
+      }
+
+      private void close() {
+         PooledConnection pooled = _pooled;
+         _pooled = null;
+
+         if (pooled != null) {
+            release(pooled);
+         }
+      }
+   }
+}
@@ -53,6 +53,7 @@ public abstract class JdbcConnectionResource
    private Statement _savedStmt;
    private Statement _freeStmt;
    private JdbcResultResource _rs;
+   private JdbcResultResource _unbufferedResult;
    private int _affectedRows;
    private String _errorMessage = null;
    private int _errorCode;
@@ -368,6 +369,51 @@ public abstract class JdbcConnectionResource
       }
    }
 
+   /**
+    * Prepares a statement through the connection's statement cache.
+    */
+   PreparedStatement prepareStatement(Env env, String sql,
+                                      int resultSetType, boolean isCall)
+      throws SQLException {
+      Connection conn = getConnection(env);
+
+      if (conn == null) {
+         return null;
+      }
+
+      PreparedStatementCache statementCache = _conn.getStatementCache();
+
+      if (statementCache != null) {
+         return statementCache.prepare(sql, resultSetType, isCall);
+      } else if (isCall) {
+         return conn.prepareCall(sql, resultSetType, ResultSet.CONCUR_READ_ONLY);
+      } else {
+         return conn.prepareStatement(sql, resultSetType, ResultSet.CONCUR_READ_ONLY);
+      }
+   }
+
+   /**
+    * Gives back a statement from prepareStatement().
+    */
+   void freeStatement(PreparedStatement stmt) {
+      ConnectionEntry conn = _conn;
+      PreparedStatementCache statementCache = null;
+
+      if (conn != null) {
+         statementCache = conn.getStatementCache();
+      }
+
+      if (statementCache != null) {
+         statementCache.free(stmt);
+      } else {
+         try {
+            stmt.close();
+         } catch (SQLException e) {
+            log.log(Level.FINE, e.toString(), e);
+         }
+      }
+   }
+
    /**
     * Returns the unwrapped SQL connection
     * associated to this statement.
@@ -478,6 +524,18 @@ public abstract class JdbcConnectionResource
          return;
       }
 
+      ConnectionEntry conn = _conn;
+      PreparedStatementCache statementCache = null;
+
+      if (conn != null) {
+         statementCache = conn.getStatementCache();
+      }
+
+      if (statementCache != null && statementCache.isActive(stmt)) {
+         // still owned by its JdbcStatementResource, which frees it
+         return;
+      }
+
       if (_freeStmt == null && false) {
          _freeStmt = stmt;
       } else {
@@ -517,6 +575,8 @@ public abstract class JdbcConnectionResource
       }
 
       try {
+         closeUnbufferedResult();
+
          Statement savedStmt = _savedStmt;
          _savedStmt = null;
 
@@ -558,8 +618,19 @@ public abstract class JdbcConnectionResource
     * Execute a single query.
     */
    protected Value realQuery(Env env, String sql) {
+      return realQuery(env, sql, false);
+   }
+
+   /**
+    * Execute a single query. An unbuffered query uses a forward-only
+    * statement with a streaming fetch size, so the driver does not hold
+    * the whole result in memory, but its result cannot be seeked.
+    */
+   protected Value realQuery(Env env, String sql, boolean isUnbuffered) {
       clearErrors();
 
+      closeUnbufferedResult();
+
       _rs = null;
 
       Statement stmt = _freeStmt;
@@ -581,8 +652,11 @@ public abstract class JdbcConnectionResource
          if (true || stmt == null) {
             // TODO: test for performance
 
-            boolean isSeekable = isSeekable();
-            if (isSeekable) {
+            if (isUnbuffered) {
+               stmt = conn.createStatement(ResultSet.TYPE_FORWARD_ONLY,
+                  ResultSet.CONCUR_READ_ONLY);
+               stmt.setFetchSize(getStreamingFetchSize());
+            } else if (isSeekable()) {
                stmt = conn.createStatement(ResultSet.TYPE_SCROLL_INSENSITIVE,
                   ResultSet.CONCUR_READ_ONLY);
             } else {
@@ -600,6 +674,10 @@ public abstract class JdbcConnectionResource
             _rs = createResult(_env, stmt, rs);
             _affectedRows = 0;
 
+            if (isUnbuffered) {
+               _unbufferedResult = _rs;
+            }
+
             // TODO: if these are needed, get them lazily for performance
             // _warnings = stmt.getWarnings();
          } else {
@@ -728,6 +806,22 @@ public abstract class JdbcConnectionResource
             break;
          }
 
+         case 'b':
+         case 'B': {
+            if (tok.matchesToken("BEGIN")) {
+               // the pool rolls back SQL-started transactions on return
+               connEntry.markPoolTransaction();
+            }
+            break;
+         }
+         case 's':
+         case 'S': {
+            if (JdbcConnectionPool.isTransactionStart(sql)) {
+               connEntry.markPoolTransaction();
+            }
+            break;
+         }
+
          // reason for comment out?  no real perf gain?
          /*
         case 'b': case 'B': {
@@ -996,6 +1090,27 @@ public abstract class JdbcConnectionResource
       _errorCode = e.getErrorCode();
    }
 
+   /**
+    * Closes the result of a previous unbuffered query. The driver cannot
+    * run another statement on the connection while rows are still being
+    * streamed, so PHP discards the remaining rows in that case.
+    */
+   protected void closeUnbufferedResult() {
+      JdbcResultResource rs = _unbufferedResult;
+      _unbufferedResult = null;
+
+      if (rs != null) {
+         rs.close();
+      }
+   }
+
+   /**
+    * Returns the fetch size used for unbuffered queries.
+    */
+   protected int getStreamingFetchSize() {
+      return 256;
+   }
+
    /**
     * Returns true if this connection supports TYPE_SCROLL_INSENSITIVE.
     * http://bugs.clevercloud.com/view.php?id=3746
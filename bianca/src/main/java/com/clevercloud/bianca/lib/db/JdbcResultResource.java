@@ -50,6 +50,19 @@ public class JdbcResultResource {
    public static final int FETCH_ASSOC = 0x1;
    public static final int FETCH_NUM = 0x2;
    public static final int FETCH_BOTH = FETCH_ASSOC | FETCH_NUM;
+   private static final ColumnDecoder NULL_DECODER = new NullDecoder();
+   private static final ColumnDecoder STRING_DECODER = new StringDecoder();
+   private static final ColumnDecoder BOOLEAN_DECODER = new BooleanDecoder();
+   private static final ColumnDecoder LONG_DECODER = new LongDecoder();
+   private static final ColumnDecoder DOUBLE_DECODER = new DoubleDecoder();
+   private static final ColumnDecoder CURRENCY_DECODER = new CurrencyDecoder();
+   private static final ColumnDecoder BLOB_DECODER = new BlobDecoder();
+   private static final ColumnDecoder CLOB_DECODER = new ClobDecoder();
+   private static final ColumnDecoder BINARY_DECODER = new BinaryDecoder();
+   private static final ColumnDecoder VARCHAR_DECODER = new VarcharDecoder();
+   private static final ColumnDecoder TIME_DECODER = new TimeDecoder();
+   private static final ColumnDecoder DATE_DECODER = new DateDecoder();
+   private static final ColumnDecoder TIMESTAMP_DECODER = new TimestampDecoder();
    public static final String INTEGER = "int";
    public static final String BLOB = "blob";
    public static final String STRING = "string";
@@ -67,8 +80,12 @@ public class JdbcResultResource {
    private JdbcConnectionResource _conn;
    private Env _env;
    protected ResultSetMetaData _metaData;
-   private Value[] _columnNames;
+   private StringValue[] _columnNames;
+   private Value[] _columnKeys;
+   private ColumnDecoder[] _columnDecoders;
+   private Value[] _row;
    private int _affectedRows;
+   private boolean _isUnbuffered;
 
    /**
     * Constructor for JdbcResultResource
@@ -85,6 +102,7 @@ public class JdbcResultResource {
       _stmt = stmt;
       _rs = rs;
       _conn = conn;
+      _isUnbuffered = isStreaming(rs);
    }
 
    /**
@@ -153,42 +171,113 @@ public class JdbcResultResource {
          if (_rs.next()) {
             _isValid = true;
 
-            ArrayValue array = new ArrayValueImpl();
+            return createRow(env, type);
+         } else {
+            return null;
+         }
+      } catch (SQLException e) {
+         log.log(Level.FINE, e.toString(), e);
+         return null;
+      }
+   }
 
-            ResultSetMetaData md = getMetaData();
+   /**
+    * Fetches all remaining rows as an array of rows.
+    *
+    * @param type one of FETCH_ASSOC, FETCH_NUM, or FETCH_BOTH
+    * @return the list of rows, empty when there are no more rows
+    */
+   public ArrayValue fetchAll(Env env, int type) {
+      ArrayValue rows = new ArrayValueImpl();
 
-            int count = md.getColumnCount();
+      try {
+         if (_rs == null) {
+            return rows;
+         }
 
-            if ((type & FETCH_ASSOC) != 0) {
-               _columnNames = new Value[count];
+         while (_rs.next()) {
+            _isValid = true;
 
-               for (int i = 0; i < count; i++) {
-                  String columnName = md.getColumnLabel(i + 1);
+            rows.put(createRow(env, type));
+         }
+      } catch (SQLException e) {
+         log.log(Level.FINE, e.toString(), e);
+      }
 
-                  _columnNames[i] = env.createString(columnName);
-               }
-            }
+      return rows;
+   }
 
-            for (int i = 0; i < count; i++) {
-               Value value = getColumnValue(env, _rs, md, i + 1);
+   /**
+    * Builds the array for the current row. The column decoders and the
+    * key values are created once and shared by all the rows.
+    */
+   private ArrayValue createRow(Env env, int type)
+      throws SQLException {
+      ColumnDecoder[] decoders = getColumnDecoders();
+      int count = decoders.length;
 
-               if ((type & FETCH_NUM) != 0) {
-                  array.put(LongValue.create(i), value);
-               }
+      ResultSet rs = _rs;
+      ResultSetMetaData md = _metaData;
 
-               if ((type & FETCH_ASSOC) != 0) {
-                  array.put(_columnNames[i], value);
-               }
-            }
+      if (type == FETCH_NUM) {
+         Value[] row = _row;
 
-            return array;
-         } else {
-            return null;
+         for (int i = 0; i < count; i++) {
+            row[i] = decodeColumn(env, rs, md, i + 1, decoders[i]);
          }
-      } catch (SQLException e) {
-         log.log(Level.FINE, e.toString(), e);
-         return null;
+
+         return new ArrayValueImpl(row, 0, count);
+      }
+
+      Value[] keys = _columnKeys;
+      ArrayValue array = new ArrayValueImpl();
+
+      for (int i = 0; i < count; i++) {
+         Value value = decodeColumn(env, rs, md, i + 1, decoders[i]);
+
+         if ((type & FETCH_NUM) != 0) {
+            array.append(LongValue.create(i), value);
+         }
+
+         if ((type & FETCH_ASSOC) != 0) {
+            array.append(keys[i], value);
+         }
+      }
+
+      return array;
+   }
+
+   /**
+    * Returns the decoders for the columns, chosen once from the meta data.
+    */
+   private ColumnDecoder[] getColumnDecoders()
+      throws SQLException {
+      ColumnDecoder[] decoders = _columnDecoders;
+
+      if (decoders != null) {
+         return decoders;
+      }
+
+      ResultSetMetaData md = getMetaData();
+
+      int count = md.getColumnCount();
+
+      decoders = new ColumnDecoder[count];
+      StringValue[] names = new StringValue[count];
+      Value[] keys = new Value[count];
+
+      for (int i = 0; i < count; i++) {
+         decoders[i] = getColumnDecoder(md, i + 1);
+         names[i] = _env.createString(md.getColumnLabel(i + 1));
+         keys[i] = names[i].toKey();
       }
+
+      _columnNames = names;
+      _columnKeys = keys;
+      _row = new Value[count];
+      _columnDecoders = decoders;
+
+      return decoders;
    }
 
    /**
@@ -304,15 +393,14 @@ public class JdbcResultResource {
 
             Value result = env.createObject();
 
-            ResultSetMetaData md = getMetaData();
+            ColumnDecoder[] decoders = getColumnDecoders();
+            StringValue[] names = _columnNames;
 
-            int count = md.getColumnCount();
+            for (int i = 0; i < decoders.length; i++) {
+               Value value = decodeColumn(env, _rs, _metaData, i + 1,
+                  decoders[i]);
 
-            for (int i = 0; i < count; i++) {
-               String name = md.getColumnLabel(i + 1);
-               Value value = getColumnValue(env, _rs, md, i + 1);
-
-               result.putField(env, name, value);
+               result.putField(env, names[i], value);
             }
 
             return result;
@@ -427,151 +515,107 @@ public class JdbcResultResource {
                                ResultSetMetaData metaData,
                                int column)
       throws SQLException {
-      // Note: typically, the PHP column value is returned as
-      // a String, except for binary values.
+      ColumnDecoder decoder;
 
       try {
-         switch (metaData.getColumnType(column)) {
-            case Types.NULL:
-               return NullValue.NULL;
-
-            case Types.BIT: {
-               String typeName = metaData.getColumnTypeName(column);
-               // Postgres matches BIT for BOOL columns
-               if (!typeName.equals("bool")) {
-                  String value = rs.getString(column);
-
-                  if (rs.wasNull()) {
-                     return NullValue.NULL;
-                  } else {
-                     return _env.createString(value);
-                  }
-               }
-               // else fall to boolean
-            }
-
-            case Types.BOOLEAN: {
-               boolean b = rs.getBoolean(column);
-               if (rs.wasNull()) {
-                  return NullValue.NULL;
-               } else {
-                  return env.createString(b ? "t" : "f");
-               }
-            }
+         decoder = getColumnDecoder(metaData, column);
+      } catch (SQLException e) {
+         // php/141e
+         log.log(Level.FINE, e.toString(), e);
 
-            case Types.TINYINT:
-            case Types.SMALLINT:
-            case Types.INTEGER:
-            case Types.BIGINT: {
-               long value = rs.getLong(column);
-
-               if (rs.wasNull()) {
-                  return NullValue.NULL;
-               } else {
-                  return _env.createString(String.valueOf(value));
-               }
-            }
-            case Types.REAL:
-            case Types.DOUBLE: {
-               double value = rs.getDouble(column);
+         return NullValue.NULL;
+      }
 
-               if (rs.wasNull()) {
-                  return NullValue.NULL;
-               } else if (metaData.isCurrency(column)) {
-                  StringValue sb = new StringValue();
+      return decodeColumn(env, rs, metaData, column, decoder);
+   }
 
-                  sb.append("$");
+   /**
+    * Reads a column value with its decoder.
+    */
+   private Value decodeColumn(Env env,
+                              ResultSet rs,
+                              ResultSetMetaData metaData,
+                              int column,
+                              ColumnDecoder decoder) {
+      try {
+         return decoder.decode(this, env, rs, metaData, column);
+      } catch (IOException e) {
+         log.log(Level.FINE, e.toString(), e);
 
-                  return sb.append(value);
-               } else if (value == 0.0) {
-                  StringValue sb = new StringValue();
+         return NullValue.NULL;
+      } catch (SQLException e) {
+         // php/141e
+         log.log(Level.FINE, e.toString(), e);
 
-                  return sb.append("0");
-               } else {
-                  StringValue sb = new StringValue();
+         return NullValue.NULL;
+      }
+   }
 
-                  return sb.append(value);
-               }
-            }
+   /**
+    * Returns the decoder for a column's type.
+    */
+   private static ColumnDecoder getColumnDecoder(ResultSetMetaData metaData,
+                                                 int column)
+      throws SQLException {
+      // Note: typically, the PHP column value is returned as
+      // a String, except for binary values.
 
-            case Types.BLOB: {
-               Object object = rs.getBlob(column);
-               if (object.getClass().getName().equals("oracle.sql.BLOB")) {
-                  OracleOciLob ociLob = new OracleOciLob((Oracle) _conn,
-                     OracleModule.OCI_D_LOB);
-                  ociLob.setLob(object);
-                  object = ociLob;
-               }
-               return env.wrapJava(object);
-            }
+      switch (metaData.getColumnType(column)) {
+         case Types.NULL:
+            return NULL_DECODER;
 
-            case Types.CLOB: {
-               Object object = rs.getClob(column);
-               if (object.getClass().getName().equals("oracle.sql.CLOB")) {
-                  OracleOciLob ociLob = new OracleOciLob((Oracle) _conn,
-                     OracleModule.OCI_D_LOB);
-                  ociLob.setLob(object);
-                  object = ociLob;
-               }
-               return env.wrapJava(object);
+         case Types.BIT: {
+            String typeName = metaData.getColumnTypeName(column);
+            // Postgres matches BIT for BOOL columns
+            if (!typeName.equals("bool")) {
+               return STRING_DECODER;
             }
+            // else fall to boolean
+         }
 
-            case Types.LONGVARBINARY:
-            case Types.VARBINARY:
-            case Types.BINARY: {
-               StringValue bb = new StringValue();
-
-               InputStream is = rs.getBinaryStream(column);
-
-               if (is == null) // || rs.wasNull())
-               {
-                  return NullValue.NULL;
-               }
-
-               try {
-                  bb.appendReadAll(is, Long.MAX_VALUE / 2);
-               } catch (RuntimeException e) {
-                  log.log(Level.WARNING, e.toString(), e);
+         case Types.BOOLEAN:
+            return BOOLEAN_DECODER;
 
-                  return NullValue.NULL;
-               }
+         case Types.TINYINT:
+         case Types.SMALLINT:
+         case Types.INTEGER:
+         case Types.BIGINT:
+            return LONG_DECODER;
 
-               return bb;
+         case Types.REAL:
+         case Types.DOUBLE:
+            if (metaData.isCurrency(column)) {
+               return CURRENCY_DECODER;
+            } else {
+               return DOUBLE_DECODER;
             }
 
-            case Types.VARCHAR:
-            case Types.LONGVARCHAR:
-               return getColumnString(env, rs, metaData, column);
+         case Types.BLOB:
+            return BLOB_DECODER;
 
-            case Types.TIME:
-               return getColumnTime(env, rs, column);
+         case Types.CLOB:
+            return CLOB_DECODER;
 
-            case Types.TIMESTAMP:
-               return getColumnTimestamp(env, rs, column);
+         case Types.LONGVARBINARY:
+         case Types.VARBINARY:
+         case Types.BINARY:
+            return BINARY_DECODER;
 
-            case Types.DATE:
-               return getColumnDate(env, rs, column);
+         case Types.VARCHAR:
+         case Types.LONGVARCHAR:
+            return VARCHAR_DECODER;
 
-            default: {
-               String strValue = rs.getString(column);
+         case Types.TIME:
+            return TIME_DECODER;
 
-               if (strValue == null) // || rs.wasNull())
-               {
-                  return NullValue.NULL;
-               } else {
-                  return env.createString(strValue);
-               }
-            }
-         }
-      } catch (IOException e) {
-         log.log(Level.FINE, e.toString(), e);
+         case Types.TIMESTAMP:
+            return TIMESTAMP_DECODER;
 
-         return NullValue.NULL;
-      } catch (SQLException e) {
-         // php/141e
-         log.log(Level.FINE, e.toString(), e);
+         case Types.DATE:
+            return DATE_DECODER;
 
-         return NullValue.NULL;
+         default:
+            return STRING_DECODER;
       }
    }
 
@@ -1111,7 +1155,7 @@ public class JdbcResultResource {
     * @return the number of rows in the specified result set
     */
    public static int getNumRows(ResultSet rs) {
-      if (rs == null) {
+      if (rs == null || isStreaming(rs)) {
          return -1;
       }
 
@@ -1138,6 +1182,33 @@ public class JdbcResultResource {
       }
    }
 
+   /**
+    * Returns true if the rows are streamed by the driver, i.e. the
+    * result of an unbuffered query. The size of such a result is not
+    * known until all rows are read and it cannot be seeked.
+    */
+   public boolean isUnbuffered() {
+      return _isUnbuffered;
+   }
+
+   /**
+    * Returns true for a forward-only result set with a fetch size,
+    * which the driver streams instead of reading it all at once.
+    */
+   static boolean isStreaming(ResultSet rs) {
+      if (rs == null) {
+         return false;
+      }
+
+      try {
+         return rs.getType() == ResultSet.TYPE_FORWARD_ONLY
+            && rs.getFetchSize() != 0;
+      } catch (SQLException e) {
+         log.log(Level.FINE, e.toString(), e);
+         return false;
+      }
+   }
+
    /**
     * Returns the value at a particular row and column.
     *
@@ -1163,6 +1234,12 @@ public class JdbcResultResource {
             return BooleanValue.FALSE;
          }
 
+         if (_isUnbuffered) {
+            env.warning(L.l("unable to seek row {0} of an unbuffered result",
+               row));
+            return BooleanValue.FALSE;
+         }
+
          int currentRow = _rs.getRow();
 
          if ((row < 0) || (!_rs.absolute(row + 1)) || _rs.isAfterLast()) {
@@ -1319,4 +1396,220 @@ public class JdbcResultResource {
    public JdbcResultResource validateResult() {
       return this;
    }
+
+   /**
+    * Reads the PHP value of a column, chosen once per column.
+    */
+   abstract static class ColumnDecoder {
+
+      abstract Value decode(JdbcResultResource result,
+                            Env env,
+                            ResultSet rs,
+                            ResultSetMetaData md,
+                            int column)
+         throws IOException, SQLException;
+   }
+
+   static class NullDecoder extends ColumnDecoder {
+
+      @Override
+      Value decode(JdbcResultResource result, Env env,
+                   ResultSet rs, ResultSetMetaData md, int column) {
+         return NullValue.NULL;
+      }
+   }
+
+   static class StringDecoder extends ColumnDecoder {
+
+      @Override
+      Value decode(JdbcResultResource result, Env env,
+                   ResultSet rs, ResultSetMetaData md, int column)
+         throws SQLException {
+         String value = rs.getString(column);
+
+         if (value == null) {
+            return NullValue.NULL;
+         } else {
+            return env.createString(value);
+         }
+      }
+   }
+
+   static class BooleanDecoder extends ColumnDecoder {
+
+      @Override
+      Value decode(JdbcResultResource result, Env env,
+                   ResultSet rs, ResultSetMetaData md, int column)
+         throws SQLException {
+         boolean b = rs.getBoolean(column);
+
+         if (rs.wasNull()) {
+            return NullValue.NULL;
+         } else {
+            return env.createString(b ? "t" : "f");
+         }
+      }
+   }
+
+   static class LongDecoder extends ColumnDecoder {
+
+      @Override
+      Value decode(JdbcResultResource result, Env env,
+                   ResultSet rs, ResultSetMetaData md, int column)
+         throws SQLException {
+         long value = rs.getLong(column);
+
+         if (rs.wasNull()) {
+            return NullValue.NULL;
+         } else {
+            // digits are written directly, without an intermediate String
+            StringValue sb = new StringValue();
+
+            return sb.append(value);
+         }
+      }
+   }
+
+   static class DoubleDecoder extends ColumnDecoder {
+
+      @Override
+      Value decode(JdbcResultResource result, Env env,
+                   ResultSet rs, ResultSetMetaData md, int column)
+         throws SQLException {
+         double value = rs.getDouble(column);
+
+         if (rs.wasNull()) {
+            return NullValue.NULL;
+         } else if (value == 0.0) {
+            StringValue sb = new StringValue();
+
+            return sb.append("0");
+         } else {
+            StringValue sb = new StringValue();
+
+            return sb.append(value);
+         }
+      }
+   }
+
+   static class CurrencyDecoder extends ColumnDecoder {
+
+      @Override
+      Value decode(JdbcResultResource result, Env env,
+                   ResultSet rs, ResultSetMetaData md, int column)
+         throws SQLException {
+         double value = rs.getDouble(column);
+
+         if (rs.wasNull()) {
+            return NullValue.NULL;
+         } else {
+            StringValue sb = new StringValue();
+
+            sb.append("$");
+
+            return sb.append(value);
+         }
+      }
+   }
+
+   static class BlobDecoder extends ColumnDecoder {
+
+      @Override
+      Value decode(JdbcResultResource result, Env env,
+                   ResultSet rs, ResultSetMetaData md, int column)
+         throws SQLException {
+         Object object = rs.getBlob(column);
+         if (object.getClass().getName().equals("oracle.sql.BLOB")) {
+            OracleOciLob ociLob = new OracleOciLob((Oracle) result._conn,
+               OracleModule.OCI_D_LOB);
+            ociLob.setLob(object);
+            object = ociLob;
+         }
+         return env.wrapJava(object);
+      }
+   }
+
+   static class ClobDecoder extends ColumnDecoder {
+
+      @Override
+      Value decode(JdbcResultResource result, Env env,
+                   ResultSet rs, ResultSetMetaData md, int column)
+         throws SQLException {
+         Object object = rs.getClob(column);
+         if (object.getClass().getName().equals("oracle.sql.CLOB")) {
+            OracleOciLob ociLob = new OracleOciLob((Oracle) result._conn,
+               OracleModule.OCI_D_LOB);
+            ociLob.setLob(object);
+            object = ociLob;
+         }
+         return env.wrapJava(object);
+      }
+   }
+
+   static class BinaryDecoder extends ColumnDecoder {
+
+      @Override
+      Value decode(JdbcResultResource result, Env env,
+                   ResultSet rs, ResultSetMetaData md, int column)
+         throws IOException, SQLException {
+         StringValue bb = new StringValue();
+
+         InputStream is = rs.getBinaryStream(column);
+
+         if (is == null) // || rs.wasNull())
+         {
+            return NullValue.NULL;
+         }
+
+         try {
+            bb.appendReadAll(is, Long.MAX_VALUE / 2);
+         } catch (RuntimeException e) {
+            log.log(Level.WARNING, e.toString(), e);
+
+            return NullValue.NULL;
+         }
+
+         return bb;
+      }
+   }
+
+   static class VarcharDecoder extends ColumnDecoder {
+
+      @Override
+      Value decode(JdbcResultResource result, Env env,
+                   ResultSet rs, ResultSetMetaData md, int column)
+         throws IOException, SQLException {
+         return result.getColumnString(env, rs, md, column);
+      }
+   }
+
+   static class TimeDecoder extends ColumnDecoder {
+
+      @Override
+      Value decode(JdbcResultResource result, Env env,
+                   ResultSet rs, ResultSetMetaData md, int column)
+         throws SQLException {
+         return result.getColumnTime(env, rs, column);
+      }
+   }
+
+   static class DateDecoder extends ColumnDecoder {
+
+      @Override
+      Value decode(JdbcResultResource result, Env env,
+                   ResultSet rs, ResultSetMetaData md, int column)
+         throws SQLException {
+         return result.getColumnDate(env, rs, column);
+      }
+   }
+
+   static class TimestampDecoder extends ColumnDecoder {
+
+      @Override
+      Value decode(JdbcResultResource result, Env env,
+                   ResultSet rs, ResultSetMetaData md, int column)
+         throws SQLException {
+         return result.getColumnTimestamp(env, rs, column);
+      }
+   }
 }
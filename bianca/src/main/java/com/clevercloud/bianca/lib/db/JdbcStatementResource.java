@@ -177,9 +177,7 @@ public class JdbcStatementResource {
             rs.close();
          }
 
-         if (_stmt != null) {
-            _stmt.close();
-         }
+         freeStatement();
 
       } catch (SQLException e) {
          _errorMessage = e.getMessage();
@@ -498,9 +496,7 @@ public class JdbcStatementResource {
     */
    public boolean prepare(Env env, StringValue query) {
       try {
-         if (_stmt != null) {
-            _stmt.close();
-         }
+         freeStatement();
 
          _query = query.toString();
 
@@ -508,25 +504,18 @@ public class JdbcStatementResource {
             return false;
          }
 
-         Connection conn = _conn.getConnection(env);
-
-         if (conn == null) {
-            return false;
-         }
-
          if (this instanceof OracleStatement) {
-            _stmt = conn.prepareCall(_query,
-               ResultSet.TYPE_SCROLL_INSENSITIVE,
-               ResultSet.CONCUR_READ_ONLY);
+            _stmt = _conn.prepareStatement(env, _query,
+               ResultSet.TYPE_SCROLL_INSENSITIVE, true);
          } else if (_conn.isSeekable()) {
-            _stmt = conn.prepareStatement(_query,
-               ResultSet.TYPE_SCROLL_INSENSITIVE,
-               ResultSet.CONCUR_READ_ONLY);
+            _stmt = _conn.prepareStatement(env, _query,
+               ResultSet.TYPE_SCROLL_INSENSITIVE, false);
          } else {
-            _stmt = conn.prepareStatement(_query);
+            _stmt = _conn.prepareStatement(env, _query,
+               ResultSet.TYPE_FORWARD_ONLY, false);
          }
 
-         return true;
+         return _stmt != null;
 
       } catch (SQLException e) {
          log.log(Level.FINE, e.toString(), e);
@@ -544,29 +533,15 @@ public class JdbcStatementResource {
     */
    public boolean prepareStatement(Env env, String query) {
       try {
-         if (_stmt != null) {
-            _stmt.close();
-         }
+         freeStatement();
 
          _query = query;
 
-         Connection conn = _conn.getConnection(env);
-
-         if (conn == null) {
-            return false;
-         }
-
-         if (this instanceof OracleStatement) {
-            _stmt = conn.prepareCall(query,
-               ResultSet.TYPE_SCROLL_INSENSITIVE,
-               ResultSet.CONCUR_READ_ONLY);
-         } else {
-            _stmt = conn.prepareStatement(query,
-               ResultSet.TYPE_SCROLL_INSENSITIVE,
-               ResultSet.CONCUR_READ_ONLY);
-         }
+         _stmt = _conn.prepareStatement(env, query,
+            ResultSet.TYPE_SCROLL_INSENSITIVE,
+            this instanceof OracleStatement);
 
-         return true;
+         return _stmt != null;
 
       } catch (SQLException e) {
          log.log(Level.FINE, e.toString(), e);
@@ -576,6 +551,18 @@ public class JdbcStatementResource {
       }
    }
 
+   /**
+    * Gives the current statement back to the connection's statement cache.
+    */
+   private void freeStatement() {
+      PreparedStatement stmt = _stmt;
+      _stmt = null;
+
+      if (stmt != null) {
+         _conn.freeStatement(stmt);
+      }
+   }
+
    /**
     * Returns a parameter value
     * Known subclasses: see PostgresStatement.execute
@@ -1199,10 +1199,13 @@ public class MysqlModule extends AbstractBiancaModule {
       // An "unbuffered" query is a performance optimization
       // for large data sets. Mysql will lock the table in
       // question until all rows are read by the client.
-      // It is unclear how this would be implemented on top
-      // of Connector/J.
+      // The rows are streamed through a forward-only result.
 
-      return mysql_query(env, name, conn);
+      if (conn == null) {
+         conn = getConnection(env);
+      }
+
+      return conn.query(env, name, MYSQL_USE_RESULT);
    }
 
    /**
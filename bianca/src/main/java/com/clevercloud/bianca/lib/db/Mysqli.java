@@ -340,6 +340,9 @@ public class Mysqli extends JdbcConnectionResource {
             Method method = cls.getMethod("changeUser", String.class, String.class);
 
             if (method != null) {
+               // the pooled connection now belongs to another user
+               _conn.markForPoolRemoval();
+
                method.invoke(conn, user, password);
 
                select_db(db);
@@ -733,7 +736,7 @@ public class Mysqli extends JdbcConnectionResource {
     * @param env        the PHP executing environment
     * @param sql        the escaped query string (can contain
     *                   escape sequences like `\n' and `\Z')
-    * @param resultMode ignored
+    * @param resultMode MYSQLI_USE_RESULT for an unbuffered query
     * @return a {@link JdbcResultResource}, or null for failure
     */
    public Value query(Env env,
@@ -741,7 +744,8 @@ public class Mysqli extends JdbcConnectionResource {
                       @Optional("MYSQLI_STORE_RESULT") int resultMode) {
       String sql = sqlV.toString();
 
-      return realQuery(env, sql);
+      return realQuery(env, sql,
+         resultMode == MysqliModule.MYSQLI_USE_RESULT);
    }
 
    /**
@@ -749,9 +753,11 @@ public class Mysqli extends JdbcConnectionResource {
     * to handle any special cases.
     */
    @Override
-   protected Value realQuery(Env env, String sql) {
+   protected Value realQuery(Env env, String sql, boolean isUnbuffered) {
       clearErrors();
 
+      closeUnbufferedResult();
+
       _lastSql = null;
 
       setResultResource(null);
@@ -827,7 +833,7 @@ public class Mysqli extends JdbcConnectionResource {
             }
          }
 
-         return super.realQuery(env, sql);
+         return super.realQuery(env, sql, isUnbuffered);
       } catch (SQLException e) {
          saveErrors(e);
 
@@ -1220,6 +1226,16 @@ public class Mysqli extends JdbcConnectionResource {
       return ((Mysqli) validateConnection()).getWarningCount(env);
    }
 
+   /**
+    * Connector/J only streams rows for a forward-only, read-only statement
+    * with a fetch size of Integer.MIN_VALUE, otherwise it reads the
+    * whole result.
+    */
+   @Override
+   protected int getStreamingFetchSize() {
+      return Integer.MIN_VALUE;
+   }
+
    /**
     * Creates a database-specific result.
     */
@@ -528,6 +528,20 @@ public class MysqliModule extends AbstractBiancaModule {
       return conn.field_count();
    }
 
+   /**
+    * Returns all the remaining rows of the result.
+    */
+   @ReturnNullAsFalse
+   public static ArrayValue mysqli_fetch_all(Env env,
+                                             @NotNull MysqliResult result,
+                                             @Optional("MYSQLI_NUM") int type) {
+      if (result == null) {
+         return null;
+      }
+
+      return result.fetch_all(env, type);
+   }
+
    /**
     * Returns a row for the result.
     */
@@ -893,10 +907,8 @@ public class MysqliModule extends AbstractBiancaModule {
       @NotNull Mysqli conn,
       StringValue sql,
       @Optional("MYSQLI_STORE_RESULT") int resultMode) {
-      // ERRATUM: <i>resultMode</i> is ignored, MYSQLI_USE_RESULT would represent
-      //  an unbuffered query, but that is not supported.
-
-      Value value = query(env, conn, sql);
+      // MYSQLI_USE_RESULT streams the rows through a forward-only result
+      Value value = query(env, conn, sql, resultMode);
 
       if (value == null) {
          return BooleanValue.FALSE;
@@ -907,11 +919,12 @@ public class MysqliModule extends AbstractBiancaModule {
 
    private static Value query(Env env,
                               Mysqli conn,
-                              StringValue sql) {
+                              StringValue sql,
+                              int resultMode) {
       Value value = null;
 
       try {
-         value = conn.query(env, sql, MYSQLI_STORE_RESULT);
+         value = conn.query(env, sql, resultMode);
       } catch (Exception e) {
          log.log(Level.FINE, e.toString(), e);
       }
@@ -1059,7 +1072,7 @@ public class MysqliModule extends AbstractBiancaModule {
       }
 
       return query(env, conn,
-         env.createString(buf.toString()));
+         env.createString(buf.toString()), MYSQLI_STORE_RESULT);
    }
 
    /**
@@ -64,8 +64,13 @@ public class MysqliResult extends JdbcResultResource {
                        Mysqli conn) {
       super(env, stmt, rs, conn);
 
-      // getNumRows() is efficient for MySQL
-      _resultSetSize = getNumRows();
+      // getNumRows() is efficient for MySQL, but an unbuffered result
+      // only knows its size once it has been read, PHP reports 0
+      if (isUnbuffered()) {
+         _resultSetSize = 0;
+      } else {
+         _resultSetSize = getNumRows();
+      }
    }
 
    /**
@@ -139,6 +144,25 @@ public class MysqliResult extends JdbcResultResource {
       return fetchArray(env, JdbcResultResource.FETCH_ASSOC);
    }
 
+   /**
+    * Fetches all remaining rows of the result.
+    *
+    * @param type one of MYSQLI_ASSOC, MYSQLI_NUM (default), or MYSQLI_BOTH
+    * @return an array of rows, each one as fetch_array() would return it
+    */
+   @ReturnNullAsFalse
+   public ArrayValue fetch_all(Env env,
+                               @Optional("MYSQLI_NUM") int type) {
+      if (type != MysqliModule.MYSQLI_ASSOC
+         && type != MysqliModule.MYSQLI_BOTH
+         && type != MysqliModule.MYSQLI_NUM) {
+         env.warning(L.l("invalid result_type"));
+         return null;
+      }
+
+      return fetchAll(env, type);
+   }
+
    /**
     * Returns field metadata for a single field.
     *
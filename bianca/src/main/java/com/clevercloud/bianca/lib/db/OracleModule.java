@@ -787,8 +787,9 @@ public class OracleModule extends AbstractBiancaModule {
          //     var_dump($data);
          //  }
 
-         // Get the underlying JDBC connection.
-         Connection conn = stmt.getJavaConnection();
+         // Use the pooled connection so the pool sees the auto-commit change
+         // and rolls back any open transaction when it is returned.
+         Connection conn = stmt.validateConnection().getConnection(env);
 
          // Large Objects can not be used in auto-commit mode.
          conn.setAutoCommit(false);
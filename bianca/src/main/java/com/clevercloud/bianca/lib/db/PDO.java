@@ -131,16 +131,21 @@ public class PDO implements EnvCleanup {
    public static final int MYSQL_ATTR_IGNORE_SPACE = 1009;
    public static final Value MYSQL_ATTR_INIT_COMMAND_V = StringValue.create(MYSQL_ATTR_INIT_COMMAND);
    public static final Value ATTR_ERRMODE_V = StringValue.create(ATTR_ERRMODE);
+   public static final Value MYSQL_ATTR_USE_BUFFERED_QUERY_V
+      = StringValue.create(MYSQL_ATTR_USE_BUFFERED_QUERY);
    private final Env _env;
    private final String _dsn;
    private String _user;
    private String _password;
    private final PDOError _error;
    private Connection _conn;
+   private PreparedStatementCache _statementCache;
+   private boolean _isStatementCacheOwner;
    private Statement _lastStatement;
    private PDOStatement _lastPDOStatement;
    private String _lastInsertId;
    private boolean _inTransaction;
+   private boolean _isBufferedQuery = true;
    private static String ENCODING = "utf8";
    private final static Properties driverList = new Properties();
 
@@ -184,6 +189,10 @@ public class PDO implements EnvCleanup {
             if (options.keyExists(ATTR_ERRMODE_V)) {
                _error.setErrmode(options.get(ATTR_ERRMODE_V).toInt());
             }
+            if (options.keyExists(MYSQL_ATTR_USE_BUFFERED_QUERY_V)) {
+               _isBufferedQuery
+                  = options.get(MYSQL_ATTR_USE_BUFFERED_QUERY_V).toBoolean();
+            }
             if (options.keyExists(MYSQL_ATTR_INIT_COMMAND_V)) {
                exec(options.get(MYSQL_ATTR_INIT_COMMAND_V).toString());
             }
@@ -220,8 +229,28 @@ public class PDO implements EnvCleanup {
       }
    }
 
+   /**
+    * Returns the prepared statement cache, shared with the connection
+    * pool when the connection is pooled.
+    */
+   private PreparedStatementCache getStatementCache() {
+      if (_statementCache == null) {
+         int capacity = _env.getBianca().getPreparedStatementCacheSize();
+
+         _statementCache = JdbcConnectionPool.getStatementCache(_conn, capacity);
+
+         if (_statementCache == null) {
+            _statementCache = new PreparedStatementCache(_conn, capacity);
+            _isStatementCacheOwner = true;
+         }
+      }
+
+      return _statementCache;
+   }
+
    private void closeStatements() {
       Statement lastStatement = _lastStatement;
+      PDOStatement lastPDOStatement = _lastPDOStatement;
 
       _lastInsertId = null;
       _lastStatement = null;
@@ -231,6 +260,11 @@ public class PDO implements EnvCleanup {
          if (lastStatement != null) {
             lastStatement.close();
          }
+
+         // the driver can't run another statement while rows are streamed
+         if (lastPDOStatement != null && lastPDOStatement.isUnbuffered()) {
+            lastPDOStatement.closeCursor();
+         }
       } catch (Throwable t) {
          log.log(Level.WARNING, t.toString(), t);
       }
@@ -274,11 +308,17 @@ public class PDO implements EnvCleanup {
    @Override
    public void cleanup() {
       Connection conn = _conn;
+      PreparedStatementCache statementCache = _statementCache;
 
       _conn = null;
+      _statementCache = null;
 
       closeStatements();
 
+      if (statementCache != null && _isStatementCacheOwner) {
+         statementCache.close();
+      }
+
       if (conn != null) {
          try {
             conn.close();
@@ -307,6 +347,10 @@ public class PDO implements EnvCleanup {
 
       closeStatements();
 
+      if (JdbcConnectionPool.isTransactionStart(query)) {
+         JdbcConnectionPool.markTransaction(_conn);
+      }
+
       Statement stmt = null;
 
       int rowCount;
@@ -387,6 +431,8 @@ public class PDO implements EnvCleanup {
             return StringValue.create(getServerVersion());
          case ATTR_TIMEOUT:
             return LongValue.create(getTimeout());
+         case MYSQL_ATTR_USE_BUFFERED_QUERY:
+            return BooleanValue.create(_isBufferedQuery);
 
          default:
             _error.unsupportedAttribute(attribute);
@@ -505,7 +551,9 @@ public class PDO implements EnvCleanup {
       try {
          closeStatements();
 
-         PDOStatement pdoStatement = new PDOStatement(_env, _conn, statement, true, driverOptions);
+         PDOStatement pdoStatement = new PDOStatement(_env, _conn,
+            getStatementCache(), statement, true, getFetchSize(),
+            driverOptions);
 
          _lastPDOStatement = pdoStatement;
 
@@ -517,6 +565,21 @@ public class PDO implements EnvCleanup {
       }
    }
 
+   /**
+    * Returns the fetch size for new statements, 0 for the driver default.
+    * Unbuffered queries stream their rows; Connector/J only does so with
+    * a fetch size of Integer.MIN_VALUE.
+    */
+   private int getFetchSize() {
+      if (_isBufferedQuery) {
+         return 0;
+      } else if (_dsn.startsWith("mysql:")) {
+         return Integer.MIN_VALUE;
+      } else {
+         return 256;
+      }
+   }
+
    /**
     * Queries the database
     */
@@ -528,8 +591,13 @@ public class PDO implements EnvCleanup {
       try {
          closeStatements();
 
+         if (JdbcConnectionPool.isTransactionStart(query)) {
+            JdbcConnectionPool.markTransaction(_conn);
+         }
+
          PDOStatement pdoStatement = new PDOStatement(
-            _env, _conn, query, false, null);
+            _env, _conn, getStatementCache(), query, false, getFetchSize(),
+            null);
          _lastPDOStatement = pdoStatement;
          return _env.wrapJava(pdoStatement);
       } catch (SQLException e) {
@@ -642,6 +710,10 @@ public class PDO implements EnvCleanup {
 
          case ATTR_STATEMENT_CLASS:
             return setStatementClass(value);
+
+         case MYSQL_ATTR_USE_BUFFERED_QUERY:
+            _isBufferedQuery = value.toBoolean();
+            return true;
       }
 
       if (isInit) {
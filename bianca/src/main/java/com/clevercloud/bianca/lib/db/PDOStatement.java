@@ -53,7 +53,7 @@ import java.util.logging.Logger;
  * PDO object oriented API facade.
  */
 public class PDOStatement
-   implements Iterable<Value>, EnvCleanup {
+   implements Iterable<Value>, EnvCleanup, PreparedStatementCache.Owner {
 
    private static final Logger log = Logger.getLogger(
       PDOStatement.class.getName());
@@ -71,8 +71,13 @@ public class PDOStatement
    private final Env _env;
    private final PDOError _error;
    private final String _query;
+   private String _preparedQuery;
+   private boolean _isCall;
    private Statement _statement;
    private PreparedStatement _preparedStatement;
+   private boolean _isDetached;
+   private final PreparedStatementCache _statementCache;
+   private final int _fetchSize;
    private ResultSet _resultSet;
    private ResultSetMetaData _resultSetMetaData;
    private boolean _resultSetExhausted = true;
@@ -84,11 +89,15 @@ public class PDOStatement
    private IntMap _parameterNameMap;
 
    PDOStatement(Env env, Connection conn,
+                PreparedStatementCache statementCache,
                 String query, boolean isPrepared,
+                int fetchSize,
                 ArrayValue options)
       throws SQLException {
       _env = env;
       _error = new PDOError(_env);
+      _statementCache = statementCache;
+      _fetchSize = fetchSize;
 
       _query = query;
 
@@ -104,15 +113,15 @@ public class PDOStatement
          _statement = null;
 
          int ch;
-         if (query.length() > 4
+         _isCall = (query.length() > 4
             && ((ch = query.charAt(0)) == 'c' || ch == 'C')
             && ((ch = query.charAt(1)) == 'a' || ch == 'A')
             && ((ch = query.charAt(2)) == 'l' || ch == 'L')
-            && ((ch = query.charAt(3)) == 'l' || ch == 'L')) {
-            _preparedStatement = conn.prepareCall(query);
-         } else {
-            _preparedStatement = conn.prepareStatement(query);
-         }
+            && ((ch = query.charAt(3)) == 'l' || ch == 'L'));
+
+         _preparedQuery = query;
+
+         prepareStatement();
 
          // php/1s41 - oracle can't handle this
          //_preparedStatement.setEscapeProcessing(false);
@@ -125,6 +134,10 @@ public class PDOStatement
             statement = conn.createStatement();
             statement.setEscapeProcessing(false);
 
+            if (fetchSize != 0) {
+               statement.setFetchSize(fetchSize);
+            }
+
             if (statement.execute(query)) {
                _resultSet = statement.getResultSet();
                _resultSetExhausted = false;
@@ -147,6 +160,44 @@ public class PDOStatement
    }
 
    // side-effect, updates _parameterNameMap
+   /**
+    * Prepares the statement through the connection's statement cache.
+    */
+   private void prepareStatement()
+      throws SQLException {
+      _preparedStatement = _statementCache.prepare(_preparedQuery,
+         ResultSet.TYPE_FORWARD_ONLY, _isCall, this);
+      _isDetached = false;
+
+      // reset by the statement cache when the statement is freed
+      if (_fetchSize != 0) {
+         _preparedStatement.setFetchSize(_fetchSize);
+      }
+   }
+
+   /**
+    * Gives the prepared statement to a new statement for the same query
+    * when its cursor is closed or exhausted.  The statement is prepared
+    * again on the next execute().
+    */
+   @Override
+   public boolean detach(PreparedStatement stmt) {
+      if (stmt != _preparedStatement) {
+         return false;
+      }
+
+      if (_resultSet != null && !_resultSetExhausted) {
+         return false;
+      }
+
+      closeCursor();
+
+      _preparedStatement = null;
+      _isDetached = true;
+
+      return true;
+   }
+
    private String parseQueryString(String query) {
       final int queryLength = query.length();
       StringBuilder parsedQuery = new StringBuilder(queryLength);
@@ -377,6 +428,7 @@ public class PDOStatement
       _lastInsertId = null;
       _statement = null;
       _preparedStatement = null;
+      _isDetached = false;
 
       if (resultSet != null) {
          try {
@@ -395,11 +447,7 @@ public class PDOStatement
       }
 
       if (preparedStatement != null) {
-         try {
-            preparedStatement.close();
-         } catch (SQLException e) {
-            log.log(Level.WARNING, e.toString(), e);
-         }
+         _statementCache.free(preparedStatement);
       }
    }
 
@@ -437,6 +485,10 @@ public class PDOStatement
       closeCursor();
 
       try {
+         if (_isDetached) {
+            prepareStatement();
+         }
+
          _preparedStatement.clearParameters();
          _preparedStatement.clearWarnings();
 
@@ -1092,6 +1144,11 @@ public class PDOStatement
          stmt = _statement;
       }
 
+      if (stmt == null) {
+         // detached, the keys went with the statement
+         return "0";
+      }
+
       ResultSet resultSet = null;
 
       try {
@@ -1143,8 +1200,17 @@ public class PDOStatement
       return index;
    }
 
+   /**
+    * Returns true if the rows of this statement are streamed by the
+    * driver, i.e. PDO::MYSQL_ATTR_USE_BUFFERED_QUERY is false.
+    */
+   boolean isUnbuffered() {
+      return _fetchSize != 0;
+   }
+
    public int rowCount() {
-      if (_resultSet == null) {
+      // an unbuffered result can't be rewound to count its rows
+      if (_resultSet == null || isUnbuffered()) {
          return 0;
       }
 
@@ -995,17 +995,7 @@ public class PostgresModule extends AbstractBiancaModule {
             return null;
          }
 
-         ArrayValueImpl newArray = new ArrayValueImpl();
-
-         int curr = 0;
-
-         for (ArrayValue row = result.fetchAssoc(env);
-              row != null;
-              row = result.fetchAssoc(env)) {
-
-            newArray.put(LongValue.create(curr++), row);
-
-         }
+         ArrayValue newArray = result.fetchAll(env, PGSQL_ASSOC);
 
          if (newArray.getSize() > 0) {
             return newArray;
@@ -2024,10 +2014,11 @@ public class PostgresModule extends AbstractBiancaModule {
 
          Method method = cl.getDeclaredMethod("getLargeObjectAPI", (Class) null);
 
-         Connection pgconn = conn.getJavaConnection();
+         // Large Objects may not be used in auto-commit mode. The change
+         // goes through the pooled connection so it is undone on return.
+         conn.getConnection(env).setAutoCommit(false);
 
-         // Large Objects may not be used in auto-commit mode.
-         pgconn.setAutoCommit(false);
+         Connection pgconn = conn.getJavaConnection();
 
          lobManager = method.invoke(pgconn, new Object[]{});
          // lobManager = ((org.postgresql.PGConnection)conn).getLargeObjectAPI();
@@ -0,0 +1,432 @@
+/*
+ * Copyright (c) 2012 Clever Cloud SAS -- all rights reserved
+ *
+ * This file is part of Bianca(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Bianca Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Bianca Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Bianca Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ * @author Marc-Antoine Perennou <Marc-Antoine@Perennou.com>
+ */
+package com.clevercloud.bianca.lib.db;
+
+import com.clevercloud.util.CacheListener;
+import com.clevercloud.util.LruCache;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.IdentityHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * LRU cache of the prepared statements of a single connection, keyed by
+ * the SQL text, the result set type and the catalog.
+ *
+ * A statement from prepare() belongs to the caller until it's given back
+ * with free(). Preparing the same SQL again while the cached statement is
+ * in use asks its Owner to detach, e.g. a php statement whose cursor is
+ * done, and otherwise returns a plain statement, which free() closes.
+ */
+public class PreparedStatementCache {
+
+   private static final Logger log = Logger.getLogger(PreparedStatementCache.class.getName());
+   private static final AtomicLong _totalHitCount = new AtomicLong();
+   private static final AtomicLong _totalMissCount = new AtomicLong();
+   private static final AtomicLong _totalEvictCount = new AtomicLong();
+   private final Connection _conn;
+   private final int _capacity;
+   private final LruCache<Key, Entry> _cache;
+   private final IdentityHashMap<PreparedStatement, Entry> _activeMap = new IdentityHashMap<PreparedStatement, Entry>();
+   private long _hitCount;
+   private long _missCount;
+   private long _evictCount;
+   private boolean _isClosed;
+
+   /**
+    * @param conn the connection preparing the statements
+    * @param capacity the number of statements to keep, 0 to disable
+    */
+   public PreparedStatementCache(Connection conn, int capacity) {
+      _conn = conn;
+      _capacity = capacity;
+
+      if (capacity > 0) {
+         _cache = new LruCache<Key, Entry>(capacity);
+      } else {
+         _cache = null;
+      }
+   }
+
+   /**
+    * Returns the number of prepares served from the cache.
+    */
+   public long getHitCount() {
+      return _hitCount;
+   }
+
+   /**
+    * Returns the number of prepares which went to the driver.
+    */
+   public long getMissCount() {
+      return _missCount;
+   }
+
+   /**
+    * Returns the number of statements closed by eviction.
+    */
+   public long getEvictCount() {
+      return _evictCount;
+   }
+
+   /**
+    * Returns the hits of all the caches.
+    */
+   public static long getTotalHitCount() {
+      return _totalHitCount.get();
+   }
+
+   /**
+    * Returns the misses of all the caches.
+    */
+   public static long getTotalMissCount() {
+      return _totalMissCount.get();
+   }
+
+   /**
+    * Returns the evictions of all the caches.
+    */
+   public static long getTotalEvictCount() {
+      return _totalEvictCount.get();
+   }
+
+   /**
+    * Returns a prepared statement for the sql, reusing a cached one when
+    * possible.
+    *
+    * @param sql the query
+    * @param resultSetType the ResultSet type, e.g. TYPE_FORWARD_ONLY
+    * @param isCall true for a CallableStatement
+    */
+   public PreparedStatement prepare(String sql,
+                                    int resultSetType,
+                                    boolean isCall)
+      throws SQLException {
+      return prepare(sql, resultSetType, isCall, null);
+   }
+
+   /**
+    * Returns a prepared statement for the sql, taking the cached statement
+    * over from its owner when the owner is done with it.
+    *
+    * @param owner the caller, which may be asked to give the statement
+    *              back before it frees it, or null
+    */
+   public synchronized PreparedStatement prepare(String sql,
+                                                 int resultSetType,
+                                                 boolean isCall,
+                                                 Owner owner)
+      throws SQLException {
+      if (_cache == null) {
+         return create(sql, resultSetType, isCall);
+      }
+
+      Key key = new Key(sql, resultSetType, isCall, _conn.getCatalog());
+
+      Entry entry = _cache.get(key);
+
+      if (entry != null && !entry._isActive && !entry._isEvicted) {
+         _hitCount++;
+         _totalHitCount.incrementAndGet();
+
+         entry._isActive = true;
+         entry._owner = owner;
+         _activeMap.put(entry._stmt, entry);
+
+         return entry._stmt;
+      }
+
+      if (entry != null && entry._isActive && !entry._isEvicted
+         && entry._owner != null && entry._owner.detach(entry._stmt)) {
+         // the owner prepares again before its next use of the statement
+         if (entry.reset()) {
+            _hitCount++;
+            _totalHitCount.incrementAndGet();
+
+            entry._isActive = true;
+            entry._owner = owner;
+
+            return entry._stmt;
+         }
+
+         _activeMap.remove(entry._stmt);
+         close(entry._stmt);
+         _cache.remove(entry._key);
+         entry = null;
+      }
+
+      _missCount++;
+      _totalMissCount.incrementAndGet();
+
+      PreparedStatement stmt = create(sql, resultSetType, isCall);
+
+      if (entry == null || entry._isEvicted) {
+         try {
+            entry = new Entry(key, stmt);
+         } catch (SQLException e) {
+            close(stmt);
+
+            throw e;
+         }
+
+         entry._isActive = true;
+         entry._owner = owner;
+
+         _activeMap.put(stmt, entry);
+         _cache.put(key, entry);
+      }
+
+      return stmt;
+   }
+
+   private PreparedStatement create(String sql,
+                                    int resultSetType,
+                                    boolean isCall)
+      throws SQLException {
+      if (isCall) {
+         return _conn.prepareCall(sql, resultSetType, ResultSet.CONCUR_READ_ONLY);
+      } else if (resultSetType == ResultSet.TYPE_FORWARD_ONLY) {
+         return _conn.prepareStatement(sql);
+      } else {
+         return _conn.prepareStatement(sql, resultSetType, ResultSet.CONCUR_READ_ONLY);
+      }
+   }
+
+   /**
+    * Gives a statement from prepare() back, closing it if it isn't
+    * cached.
+    */
+   public synchronized void free(PreparedStatement stmt) {
+      Entry entry = _activeMap.remove(stmt);
+
+      if (entry == null) {
+         close(stmt);
+      } else if (entry._isEvicted) {
+         entry._isActive = false;
+         entry._owner = null;
+
+         close(stmt);
+      } else if (!entry.reset()) {
+         close(stmt);
+
+         _cache.remove(entry._key);
+      }
+   }
+
+   /**
+    * Returns true if the statement came from prepare() and hasn't been
+    * freed yet.
+    */
+   public synchronized boolean isActive(Statement stmt) {
+      return _activeMap.containsKey(stmt);
+   }
+
+   /**
+    * Closes the statements still in use, e.g. leaked by a php script when
+    * the connection goes back to the pool.
+    */
+   public synchronized void freeActive() {
+      if (_activeMap.size() == 0) {
+         return;
+      }
+
+      for (Entry entry : _activeMap.values()) {
+         boolean isCached = !entry._isEvicted;
+
+         entry._isActive = false;
+         entry._owner = null;
+         entry._isEvicted = true;
+
+         close(entry._stmt);
+
+         if (isCached) {
+            _cache.remove(entry._key);
+         }
+      }
+
+      _activeMap.clear();
+   }
+
+   /**
+    * Closes all the statements.
+    */
+   public synchronized void close() {
+      _isClosed = true;
+
+      freeActive();
+
+      if (_cache != null) {
+         _cache.clear();
+      }
+   }
+
+   private static void close(PreparedStatement stmt) {
+      try {
+         stmt.close();
+      } catch (SQLException e) {
+         log.log(Level.FINER, e.toString(), e);
+      }
+   }
+
+   @Override
+   public String toString() {
+      return (getClass().getSimpleName()
+         + "[size=" + (_cache != null ? _cache.size() : 0)
+         + ",capacity=" + _capacity
+         + ",hit=" + _hitCount
+         + ",miss=" + _missCount
+         + "]");
+   }
+
+   /**
+    * Holder of a statement from prepare() which can give it back early.
+    */
+   public interface Owner {
+
+      /**
+       * Drops the statement if the owner is done with it, e.g. its cursor
+       * is closed or exhausted, returning false if it is still in use.
+       */
+      boolean detach(PreparedStatement stmt);
+   }
+
+   static final class Key {
+
+      private final String _sql;
+      private final int _resultSetType;
+      private final boolean _isCall;
+      private final String _catalog;
+
+      Key(String sql, int resultSetType, boolean isCall, String catalog) {
+         _sql = sql;
+         _resultSetType = resultSetType;
+         _isCall = isCall;
+         _catalog = catalog;
+      }
+
+      @Override
+      public int hashCode() {
+         int hash = _sql.hashCode();
+
+         hash = 65521 * hash + _resultSetType;
+
+         if (_catalog != null) {
+            hash = 65521 * hash + _catalog.hashCode();
+         }
+
+         return _isCall ? hash + 1 : hash;
+      }
+
+      @Override
+      public boolean equals(Object o) {
+         if (!(o instanceof Key)) {
+            return false;
+         }
+
+         Key key = (Key) o;
+
+         return (_sql.equals(key._sql)
+            && _resultSetType == key._resultSetType
+            && _isCall == key._isCall
+            && (_catalog == null ? key._catalog == null : _catalog.equals(key._catalog)));
+      }
+   }
+
+   final class Entry implements CacheListener {
+
+      private final Key _key;
+      private final PreparedStatement _stmt;
+      private final int _fetchSize;
+      private final int _maxRows;
+      private Owner _owner;
+      private boolean _isActive;
+      private boolean _isEvicted;
+
+      Entry(Key key, PreparedStatement stmt)
+         throws SQLException {
+         _key = key;
+         _stmt = stmt;
+         _fetchSize = stmt.getFetchSize();
+         _maxRows = stmt.getMaxRows();
+      }
+
+      /**
+       * Clears the parameters and the settings changed by the last user.
+       */
+      boolean reset() {
+         _isActive = false;
+         _owner = null;
+
+         try {
+            _stmt.clearParameters();
+            _stmt.clearWarnings();
+
+            if (_stmt.getFetchSize() != _fetchSize) {
+               _stmt.setFetchSize(_fetchSize);
+            }
+
+            if (_stmt.getMaxRows() != _maxRows) {
+               _stmt.setMaxRows(_maxRows);
+            }
+
+            return true;
+         } catch (SQLException e) {
+            log.log(Level.FINER, e.toString(), e);
+
+            _isEvicted = true;
+
+            return false;
+         }
+      }
+
+      @Override
+      public void removeEvent() {
+         if (_isEvicted) {
+            return;
+         }
+
+         _isEvicted = true;
+
+         if (!_isClosed) {
+            _evictCount++;
+            _totalEvictCount.incrementAndGet();
+         }
+
+         if (!_isActive) {
+            close(_stmt);
+         }
+      }
+   }
+}
@@ -33,13 +33,25 @@ package com.clevercloud.bianca.lib.json;
 import com.clevercloud.bianca.env.*;
 import com.clevercloud.util.L10N;
 
+/**
+ * Decodes JSON from the bytes of a string.  Object keys are interned for
+ * the length of a decode and JSON lists are built as packed arrays.
+ */
 class JsonDecoder {
 
    private static final L10N L = new L10N(JsonDecoder.class);
+   // longest key which is interned
+   private static final int KEY_MAX = 32;
+   private static final int KEY_CACHE_SIZE = 256;
    private StringValue _str;
+   private byte[] _buf;
    private int _len;
    private int _offset;
    private boolean _isAssociative;
+   private StringValue[] _keyCache;
+   // values of the lists being decoded
+   private Value[] _values = new Value[16];
+   private int _valueTop;
 
    public Value jsonDecode(Env env,
                            StringValue s,
@@ -48,6 +60,9 @@ class JsonDecoder {
       _len = _str.length();
       _offset = 0;
 
+      _buf = new byte[_len];
+      _str.getBytes(0, _buf, 0, _len);
+
       _isAssociative = assoc;
 
       Value val = jsonDecodeImpl(env, true);
@@ -74,7 +89,8 @@ class JsonDecoder {
          return errorReturn(env);
       }
 
-      char ch = _str.charAt(_offset);
+      byte[] buf = _buf;
+      int ch = buf[_offset];
 
       switch (ch) {
          case '"': {
@@ -87,18 +103,8 @@ class JsonDecoder {
             if (isTop && _offset + 4 < _len) {
                return decodeString(env, false);
             } else if (_offset + 3 < _len) {
-               char ch2 = _str.charAt(_offset + 1);
-               char ch3 = _str.charAt(_offset + 2);
-               char ch4 = _str.charAt(_offset + 3);
-
-               if ((ch2 == 'r' || ch2 == 'R')
-                  && (ch3 == 'u' || ch3 == 'U')
-                  && (ch4 == 'e' || ch4 == 'E')) {
-                  if (_offset + 4 < _len
-                     && (ch = _str.charAt(_offset + 4)) != ','
-                     && ch != ']'
-                     && ch != '}'
-                     && !Character.isWhitespace(ch)) {
+               if (isLiteral("rue", _offset + 1)) {
+                  if (_offset + 4 < _len && !isValueEnd(buf[_offset + 4])) {
                      return errorReturn(env, "malformed 'true'");
                   } else {
                      _offset += 4;
@@ -119,20 +125,8 @@ class JsonDecoder {
             if (isTop && _offset + 5 < _len) {
                return decodeString(env, false);
             } else if (_offset + 4 < _len) {
-               char ch2 = _str.charAt(_offset + 1);
-               char ch3 = _str.charAt(_offset + 2);
-               char ch4 = _str.charAt(_offset + 3);
-               char ch5 = _str.charAt(_offset + 4);
-
-               if ((ch2 == 'a' || ch2 == 'A')
-                  && (ch3 == 'l' || ch3 == 'L')
-                  && (ch4 == 's' || ch4 == 'S')
-                  && (ch5 == 'e' || ch5 == 'E')) {
-                  if (_offset + 5 < _len
-                     && (ch = _str.charAt(_offset + 5)) != ','
-                     && ch != ']'
-                     && ch != '}'
-                     && !Character.isWhitespace(ch)) {
+               if (isLiteral("alse", _offset + 1)) {
+                  if (_offset + 5 < _len && !isValueEnd(buf[_offset + 5])) {
                      return errorReturn(env, "malformed 'false'");
                   } else {
                      _offset += 5;
@@ -153,18 +147,8 @@ class JsonDecoder {
             if (isTop && _offset + 4 < _len) {
                return decodeString(env, false);
             } else if (_offset + 3 < _len) {
-               char ch2 = _str.charAt(_offset + 1);
-               char ch3 = _str.charAt(_offset + 2);
-               char ch4 = _str.charAt(_offset + 3);
-
-               if ((ch2 == 'u' || ch2 == 'U')
-                  && (ch3 == 'l' || ch3 == 'L')
-                  && (ch4 == 'l' || ch4 == 'L')) {
-                  if (_offset + 4 < _len
-                     && (ch = _str.charAt(_offset + 4)) != ','
-                     && ch != ']'
-                     && ch != '}'
-                     && !Character.isWhitespace(ch)) {
+               if (isLiteral("ull", _offset + 1)) {
+                  if (_offset + 4 < _len && !isValueEnd(buf[_offset + 4])) {
                      return errorReturn(env, "malformed 'null'");
                   } else {
                      _offset += 4;
@@ -210,38 +194,61 @@ class JsonDecoder {
       }
    }
 
+   /**
+    * Matches the rest of a literal, ignoring case.
+    */
+   private boolean isLiteral(String lower, int offset) {
+      for (int i = 0; i < lower.length(); i++) {
+         if ((_buf[offset + i] | 0x20) != lower.charAt(i)) {
+            return false;
+         }
+      }
+
+      return true;
+   }
+
+   private static boolean isValueEnd(int ch) {
+      return (ch == ',' || ch == ']' || ch == '}'
+         || Character.isWhitespace((char) (ch & 0xff)));
+   }
+
    /**
     * Checks to see if there is a valid number per JSON Internet Draft.
     */
    private Value decodeNumber(Env env) {
-      int startOffset = _offset;
+      byte[] buf = _buf;
+      int len = _len;
+      int offset = _offset;
+      int startOffset = offset;
 
       long value = 0;
       int sign = 1;
 
-      char ch;
+      int ch;
 
       // (-)?
-      if ((ch = _str.charAt(_offset)) == '-') {
+      if (buf[offset] == '-') {
          sign = -1;
 
-         _offset++;
+         offset++;
       }
 
-      if (_len <= _offset) {
+      if (len <= offset) {
+         _offset = offset;
+
          return errorReturn(env, "expected 1-9");
       }
 
-      ch = _str.charAt(_offset++);
+      ch = buf[offset++];
 
       // (0) | ([1-9] [0-9]*)
       if (ch == '0') {
       } else if ('1' <= ch && ch <= '9') {
          value = ch - '0';
 
-         while (_offset < _len
-            && '0' <= (ch = _str.charAt(_offset)) && ch <= '9') {
-            _offset++;
+         while (offset < len
+            && '0' <= (ch = buf[offset]) && ch <= '9') {
+            offset++;
 
             value = 10 * value + ch - '0';
          }
@@ -250,41 +257,37 @@ class JsonDecoder {
       boolean isDouble = false;
 
       // ((decimalPoint) [0-9]+)?
-      if (_offset < _len && (ch = _str.charAt(_offset)) == '.') {
-         _offset++;
+      if (offset < len && buf[offset] == '.') {
+         offset++;
 
          isDouble = true;
 
-         while (_offset < _len
-            && '0' <= (ch = _str.charAt(_offset)) && ch <= '9') {
-            _offset++;
+         while (offset < len
+            && '0' <= (ch = buf[offset]) && ch <= '9') {
+            offset++;
          }
       }
 
       // ((e | E) (+ | -)? [0-9]+)
-      if (_offset < _len && (ch = _str.charAt(_offset)) == 'e' || ch == 'E') {
-         _offset++;
+      if (offset < len && ((ch = buf[offset]) == 'e' || ch == 'E')) {
+         offset++;
 
          isDouble = true;
 
-         if (_offset < _len && (ch = _str.charAt(_offset)) == '+' || ch == '-') {
-            _offset++;
+         if (offset < len && ((ch = buf[offset]) == '+' || ch == '-')) {
+            offset++;
          }
 
-         while (_offset < _len
-            && '0' <= (ch = _str.charAt(_offset)) && ch <= '9') {
-            _offset++;
+         while (offset < len
+            && '0' <= (ch = buf[offset]) && ch <= '9') {
+            offset++;
          }
-
-         /*
-         if (_offset < _len)
-         return errorReturn(env,
-         L.l("expected 0-9 exponent at '{0}'", (char) ch));
-          */
       }
 
+      _offset = offset;
+
       if (isDouble) {
-         String strValue = _str.stringSubstring(startOffset, _offset);
+         String strValue = _str.stringSubstring(startOffset, offset);
 
          return DoubleValue.create(Double.parseDouble(strValue));
       } else {
@@ -293,44 +296,61 @@ class JsonDecoder {
    }
 
    /**
-    * Returns a non-associative PHP array.
+    * Returns a non-associative PHP array.  The values are collected on a
+    * stack and copied into a packed array once the list is complete.
     */
    private Value decodeArray(Env env) {
-      ArrayValueImpl array = new ArrayValueImpl();
+      int base = _valueTop;
 
-      _offset++;
+      try {
+         _offset++;
 
-      while (true) {
-         skipWhitespace();
+         while (true) {
+            skipWhitespace();
 
-         if (_offset >= _len) {
-            return errorReturn(env, "expected either ',' or ']'");
-         }
+            if (_offset >= _len) {
+               return errorReturn(env, "expected either ',' or ']'");
+            }
 
-         if (_str.charAt(_offset) == ']') {
-            _offset++;
-            break;
-         }
+            if (_buf[_offset] == ']') {
+               _offset++;
+               break;
+            }
 
-         array.append(jsonDecodeImpl(env, false));
+            Value value = jsonDecodeImpl(env, false);
 
-         skipWhitespace();
+            if (_valueTop == _values.length) {
+               Value[] values = new Value[2 * _values.length];
+               System.arraycopy(_values, 0, values, 0, _valueTop);
+               _values = values;
+            }
 
-         if (_offset >= _len) {
-            return errorReturn(env, "expected either ',' or ']'");
-         }
+            _values[_valueTop++] = value;
 
-         char ch = _str.charAt(_offset++);
+            skipWhitespace();
 
-         if (ch == ',') {
-         } else if (ch == ']') {
-            break;
-         } else {
-            return errorReturn(env, "expected either ',' or ']'");
+            if (_offset >= _len) {
+               return errorReturn(env, "expected either ',' or ']'");
+            }
+
+            int ch = _buf[_offset++];
+
+            if (ch == ',') {
+            } else if (ch == ']') {
+               break;
+            } else {
+               return errorReturn(env, "expected either ',' or ']'");
+            }
          }
-      }
 
-      return array;
+         return new ArrayValueImpl(_values, base, _valueTop - base);
+      } finally {
+         for (int i = base; i < _valueTop; i++) {
+            _values[i] = null;
+         }
+
+         _valueTop = base;
+      }
    }
 
    private Value decodeObject(Env env) {
@@ -352,16 +372,16 @@ class JsonDecoder {
       while (true) {
          skipWhitespace();
 
-         if (_offset >= _len || _str.charAt(_offset) == '}') {
+         if (_offset >= _len || _buf[_offset] == '}') {
             _offset++;
             break;
          }
 
-         Value name = jsonDecodeImpl(env, false);
+         Value name = decodeKey(env);
 
          skipWhitespace();
 
-         if (_offset >= _len || _str.charAt(_offset++) != ':') {
+         if (_offset >= _len || _buf[_offset++] != ':') {
             return errorReturn(env, "expected ':'");
          }
 
@@ -369,11 +389,11 @@ class JsonDecoder {
 
          skipWhitespace();
 
-         char ch;
+         int ch;
 
          if (_offset >= _len) {
             return errorReturn(env, "expected either ',' or '}'");
-         } else if ((ch = _str.charAt(_offset++)) == ',') {
+         } else if ((ch = _buf[_offset++]) == ',') {
          } else if (ch == '}') {
             break;
          } else {
@@ -395,28 +415,29 @@ class JsonDecoder {
       while (true) {
          skipWhitespace();
 
-         if (_len <= _offset || _str.charAt(_offset) == '}') {
+         if (_len <= _offset || _buf[_offset] == '}') {
             _offset++;
             break;
          }
 
-         Value name = jsonDecodeImpl(env, false);
+         Value name = decodeKey(env);
 
          skipWhitespace();
 
-         if (_len <= _offset || _str.charAt(_offset++) != ':') {
+         if (_len <= _offset || _buf[_offset++] != ':') {
             return errorReturn(env, "expected ':'");
          }
 
-         object.putField(env, name.toString(), jsonDecodeImpl(env, false));
+         object.putThisField(env, name.toStringValue(),
+            jsonDecodeImpl(env, false));
 
          skipWhitespace();
 
-         char ch;
+         int ch;
 
          if (_offset >= _len) {
             return errorReturn(env, "expected either ',' or '}'");
-         } else if ((ch = _str.charAt(_offset++)) == ',') {
+         } else if ((ch = _buf[_offset++]) == ',') {
          } else if (ch == '}') {
             break;
          } else {
@@ -427,24 +448,115 @@ class JsonDecoder {
       return object;
    }
 
+   /**
+    * Decodes an object key.  Short keys without escapes are interned, so
+    * a list of objects shares one string per key.
+    */
+   private Value decodeKey(Env env) {
+      skipWhitespace();
+
+      if (_len <= _offset || _buf[_offset] != '"') {
+         return jsonDecodeImpl(env, false);
+      }
+
+      byte[] buf = _buf;
+      int head = _offset + 1;
+      int end = Math.min(_len, head + KEY_MAX + 1);
+      int hash = 0;
+
+      for (int i = head; i < end; i++) {
+         int ch = buf[i];
+
+         if (ch == '"') {
+            StringValue key = getKey(head, i, hash);
+
+            _offset = i + 1;
+
+            return key;
+         } else if (ch == '\\') {
+            break;
+         }
+
+         hash = 31 * hash + ch;
+      }
+
+      return jsonDecodeImpl(env, false);
+   }
+
+   private StringValue getKey(int head, int tail, int hash) {
+      StringValue[] cache = _keyCache;
+
+      if (cache == null) {
+         cache = _keyCache = new StringValue[KEY_CACHE_SIZE];
+      }
+
+      int slot = (hash ^ (hash >>> 8)) & (KEY_CACHE_SIZE - 1);
+      int len = tail - head;
+
+      StringValue key = cache[slot];
+
+      if (key != null && key.length() == len) {
+         byte[] buf = _buf;
+         int i = 0;
+
+         for (; i < len; i++) {
+            if (key.charAt(i) != (char) (buf[head + i] & 0xff)) {
+               break;
+            }
+         }
+
+         if (i == len) {
+            return key;
+         }
+      }
+
+      key = new StringValue().append(_str, head, tail);
+
+      cache[slot] = key;
+
+      return key;
+   }
+
    /**
     * Returns a PHP string.
     */
    private Value decodeString(Env env, boolean isQuoted) {
+      byte[] buf = _buf;
+      int len = _len;
+
+      // fast path: a string without escapes is copied as a block
+      int head = _offset;
+      int i = head;
+
+      for (; i < len; i++) {
+         int ch = buf[i];
+
+         if (ch == '"') {
+            _offset = i + 1;
+
+            return new StringValue().append(_str, head, i);
+         } else if (ch == '\\') {
+            break;
+         }
+      }
+
       StringValue sb = new StringValue();
 
-      while (_offset < _len) {
-         char ch = _str.charAt(_offset++);
+      sb.append(_str, head, i);
+      _offset = i;
+
+      while (_offset < len) {
+         int ch = buf[_offset++];
 
          switch (ch) {
 
             // Escaped Characters
             case '\\':
-               if (_offset >= _len) {
+               if (_offset >= len) {
                   return errorReturn(env, "invalid escape character");
                }
 
-               ch = _str.charAt(_offset++);
+               ch = buf[_offset++];
 
                switch (ch) {
                   case '"':
@@ -475,9 +587,9 @@ class JsonDecoder {
                   case 'U':
                      int hex = 0;
 
-                     for (int i = 0; _offset < _len && i < 4; i++) {
+                     for (int j = 0; _offset < len && j < 4; j++) {
                         hex = hex << 4;
-                        ch = _str.charAt(_offset++);
+                        ch = buf[_offset++];
 
                         if ('0' <= ch && ch <= '9') {
                            hex += ch - '0';
@@ -508,7 +620,15 @@ class JsonDecoder {
                return sb;
 
             default:
-               sb.append(ch);
+               // copy the run up to the next escape or quote
+               head = _offset - 1;
+
+               while (_offset < len
+                  && (ch = buf[_offset]) != '"' && ch != '\\') {
+                  _offset++;
+               }
+
+               sb.append(_str, head, _offset);
          }
       }
 
@@ -538,17 +658,23 @@ class JsonDecoder {
    }
 
    private void skipWhitespace() {
-      while (_offset < _len) {
-         char ch = _str.charAt(_offset);
+      byte[] buf = _buf;
+      int len = _len;
+      int offset = _offset;
+
+      while (offset < len) {
+         int ch = buf[offset];
 
          if (ch == ' '
             || ch == '\n'
             || ch == '\r'
             || ch == '\t') {
-            _offset++;
+            offset++;
          } else {
             break;
          }
       }
+
+      _offset = offset;
    }
 }
@@ -53,6 +53,8 @@ class Regcomp {
    private static final L10N L = new L10N(RegexpNode.class);
    // #2526, JIT issues with Integer.MAX_VALUE
    private static final int INTEGER_MAX = Integer.MAX_VALUE - 1;
+   // shorter literals are left to the first-character set
+   private static final int MIN_LITERAL_LENGTH = 2;
    static final int MULTILINE = 0x1;
    static final int SINGLE_LINE = 0x2;
    static final int IGNORE_CASE = 0x4;
@@ -710,6 +712,24 @@ class Regcomp {
       }
    }
 
+   /**
+    * Returns the longest literal every match of prog contains, or null
+    * if there's none worth scanning for.
+    */
+   static RegexpLiteral requiredLiteral(RegexpNode prog) {
+      RegexpLiteral literal = prog.requiredLiteral(true);
+
+      if (literal != null && MIN_LITERAL_LENGTH <= literal.length()) {
+         if (log.isLoggable(Level.FINEST)) {
+            log.finest("regexp literal " + literal);
+         }
+
+         return literal;
+      } else {
+         return null;
+      }
+   }
+
    static RegexpNode concat(RegexpNode prev, RegexpNode next) {
       if (prev != null) {
          return prev.concat(next).getHead();
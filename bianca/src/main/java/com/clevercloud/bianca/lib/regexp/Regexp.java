@@ -57,12 +57,16 @@ public class Regexp {
    int _minLength; // minimum length possible for this regexp
    int _firstChar;
    boolean[] _firstSet;
+   RegexpLiteral _literal; // required literal, scanned before matching
    boolean _isAnchorBegin;
    StringValue[] _groupNames;
    boolean _isUnicode;
    boolean _isPHP5String;
    boolean _isUtf8;
    boolean _isEval;
+   // linear-time matcher, compiled on first use
+   private volatile RegexpAutomaton _automaton;
+   private volatile boolean _isAutomatonCompiled;
 
    public Regexp(StringValue rawRegexp)
       throws IllegalRegexpException {
@@ -195,6 +199,34 @@ public class Regexp {
       return _isEval;
    }
 
+   /**
+    * Returns the automaton matcher, or null if the pattern needs the
+    * backtracking matcher.
+    */
+   RegexpAutomaton getAutomaton() {
+      if (!_isAutomatonCompiled) {
+         _automaton = RegexpAutomaton.create(this);
+         _isAutomatonCompiled = true;
+      }
+
+      return _automaton;
+   }
+
+   /**
+    * True once the pattern is known to need the backtracking matcher.
+    */
+   boolean isBacktrackOnly() {
+      return _isAutomatonCompiled && _automaton == null;
+   }
+
+   /**
+    * Returns the name of the engine taking over when backtracking is
+    * too expensive.
+    */
+   public String getEngine() {
+      return getAutomaton() != null ? "automaton" : "backtrack";
+   }
+
    private void compile(RegexpNode prog, Regcomp comp) {
       _ignoreCase = (comp._flags & Regcomp.IGNORE_CASE) != 0;
       _isGlobal = (comp._flags & Regcomp.GLOBAL) != 0;
@@ -217,6 +249,7 @@ public class Regexp {
       _firstChar = prog.firstChar();
       _firstSet = prog.firstSet(new boolean[256]);
       _prefix = new CharBuffer(prog.prefix());
+      _literal = Regcomp.requiredLiteral(prog);
 
       //this._prog = RegOptim.linkLoops(prog);
 
@@ -0,0 +1,764 @@
+/*
+ * Copyright (c) 2012 Clever Cloud SAS -- all rights reserved
+ *
+ * This file is part of Bianca(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Bianca Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Bianca Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Bianca Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ * @author Marc-Antoine Perennou <Marc-Antoine@Perennou.com>
+ */
+package com.clevercloud.bianca.lib.regexp;
+
+import com.clevercloud.bianca.env.StringValue;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Linear-time matcher (a Pike VM) compiled from the node tree of patterns
+ * without backreferences, lookaround, recursion or possessive loops.
+ * <p/>
+ * Threads run in lock step over the subject in priority order, so matches
+ * follow the backtracking matcher's leftmost, greedy-first rules without
+ * its exponential worst case.
+ */
+final class RegexpAutomaton {
+
+   private static final Logger log = Logger.getLogger(RegexpAutomaton.class.getName());
+   /**
+    * Returned by exec when the subject needs the backtracking matcher.
+    */
+   static final int FALLBACK = -2;
+   static final int MAX_PROGRAM = 8192;
+   private static final int OP_MATCH = 0;
+   private static final int OP_CHAR = 1;
+   private static final int OP_CHAR_IGNORE_CASE = 2;
+   private static final int OP_NODE = 3;
+   private static final int OP_ASSERT = 4;
+   private static final int OP_SPLIT = 5;
+   private static final int OP_JUMP = 6;
+   private static final int OP_SAVE_BEGIN = 7;
+   private static final int OP_SAVE_END = 8;
+   // builder markers around loop bodies, jumps in the final program
+   private static final int OP_LOOP_BEGIN = 9;
+   private static final int OP_LOOP_END = 10;
+   private final int[] _op;
+   private final int[] _next;
+   private final int[] _alt;
+   private final int[] _arg;
+   private final RegexpNode[] _node;
+   private final int _start;
+   private final int _nGroup;
+   private final int _lengthSlot;
+
+   private RegexpAutomaton(Builder builder, int start) {
+      int size = builder._size;
+
+      _op = Arrays.copyOf(builder._op, size);
+      _next = Arrays.copyOf(builder._next, size);
+      _alt = Arrays.copyOf(builder._alt, size);
+      _arg = Arrays.copyOf(builder._arg, size);
+      _node = Arrays.copyOf(builder._node, size);
+
+      for (int pc = 0; pc < size; pc++) {
+         if (_op[pc] == OP_LOOP_BEGIN || _op[pc] == OP_LOOP_END) {
+            _op[pc] = OP_JUMP;
+         }
+      }
+
+      for (int pc = 0; pc < size; pc++) {
+         _next[pc] = resolve(_next[pc]);
+         _alt[pc] = resolve(_alt[pc]);
+      }
+
+      _start = resolve(start);
+      _nGroup = builder._nGroup;
+      _lengthSlot = 2 * _nGroup;
+   }
+
+   /**
+    * Compiles the regexp, returning null if it uses a construct the
+    * automaton can't express.
+    */
+   static RegexpAutomaton create(Regexp regexp) {
+      try {
+         Builder builder = new Builder(regexp._nGroup, regexp._nLoop);
+
+         int start = builder.compile(regexp._prog, builder._noLoops);
+
+         if (start < 0 || builder.hasEmptyLoop()) {
+            return null;
+         }
+
+         return new RegexpAutomaton(builder, start);
+      } catch (StackOverflowError e) {
+         log.log(Level.FINER, e.toString(), e);
+
+         return null;
+      }
+   }
+
+   /**
+    * Skips the jumps left by the builder's placeholders.
+    */
+   private int resolve(int pc) {
+      for (int i = 0; pc >= 0 && _op[pc] == OP_JUMP && i < _op.length; i++) {
+         pc = _next[pc];
+      }
+
+      return pc;
+   }
+
+   int getSize() {
+      return _op.length;
+   }
+
+   /**
+    * Finds the first match beginning between first and last, filling the
+    * groups of the state.
+    *
+    * @return the match start, -1 for no match or FALLBACK
+    */
+   int exec(StringValue subject, int length, int first, int last,
+            boolean[] firstSet, RegexpLiteral prefix, RegexpState state) {
+      Matcher m = state.getAutomatonMatcher(this);
+
+      int[][] clistCaps = m._clistCaps;
+      int[] clistPc = m._clistPc;
+      int[][] nlistCaps = m._nlistCaps;
+      int[] nlistPc = m._nlistPc;
+
+      int[] matchCaps = null;
+      int matchEnd = -1;
+      int ccount = 0;
+
+      if (Integer.MAX_VALUE - 2 * (length - first) - 8 < m._generation) {
+         Arrays.fill(m._mark, 0);
+         m._generation = 0;
+      }
+
+      m._generation++;
+
+      for (int i = first; ; i++) {
+         if (matchCaps == null && i <= last) {
+            if (ccount == 0 && prefix != null) {
+               i = prefix.indexOf(subject, i, length);
+
+               if (i < 0 || last < i) {
+                  break;
+               }
+
+               m._generation++;
+            } else if (ccount == 0 && firstSet != null) {
+               for (; i < last && i < length; i++) {
+                  char ch = subject.charAt(i);
+
+                  if (ch >= 256 || firstSet[ch]) {
+                     break;
+                  }
+               }
+
+               // the generation marks which pcs are already queued at i
+               m._generation++;
+            }
+
+            char ch = i < length ? subject.charAt(i) : 0;
+
+            if (firstSet == null || length <= i || ch >= 256 || firstSet[ch]) {
+               int[] caps = new int[_lengthSlot + 1];
+               Arrays.fill(caps, -1);
+               caps[0] = i;
+               caps[_lengthSlot] = 0;
+
+               m._count = ccount;
+               addThread(m, clistPc, clistCaps, _start, caps,
+                  subject, length, i, state);
+               ccount = m._count;
+            }
+         }
+
+         if (ccount == 0) {
+            if (matchCaps != null || last <= i) {
+               break;
+            }
+
+            // the seed died at once, later ones may still match
+            m._generation++;
+            continue;
+         }
+
+         m._generation++;
+         m._count = 0;
+
+         char ch = i < length ? subject.charAt(i) : 0;
+
+         for (int j = 0; j < ccount; j++) {
+            int pc = clistPc[j];
+            int[] caps = clistCaps[j];
+            clistCaps[j] = null;
+
+            switch (_op[pc]) {
+               case OP_MATCH:
+                  matchCaps = caps;
+                  matchEnd = i;
+
+                  // lower priority threads can't win any more
+                  for (j++; j < ccount; j++) {
+                     clistCaps[j] = null;
+                  }
+                  break;
+
+               case OP_CHAR:
+                  if (i < length && ch == _arg[pc]) {
+                     addThread(m, nlistPc, nlistCaps, _next[pc], caps,
+                        subject, length, i + 1, state);
+                  }
+                  break;
+
+               case OP_CHAR_IGNORE_CASE:
+                  if (i < length && equalsIgnoreCase(ch, (char) _arg[pc])) {
+                     addThread(m, nlistPc, nlistCaps, _next[pc], caps,
+                        subject, length, i + 1, state);
+                  }
+                  break;
+
+               case OP_NODE: {
+                  if (i < length) {
+                     int tail = _node[pc].match(subject, length, i, state);
+
+                     if (tail == i + 1) {
+                        addThread(m, nlistPc, nlistCaps, _next[pc], caps,
+                           subject, length, i + 1, state);
+                     } else if (tail > i + 1) {
+                        // surrogate pair, only the backtracker steps by two
+                        clear(clistCaps, j + 1, ccount);
+                        clear(nlistCaps, 0, m._count);
+                        return FALLBACK;
+                     }
+                  }
+                  break;
+               }
+
+               default:
+                  throw new IllegalStateException(String.valueOf(_op[pc]));
+            }
+         }
+
+         ccount = m._count;
+
+         int[] tmpPc = clistPc;
+         clistPc = nlistPc;
+         nlistPc = tmpPc;
+
+         int[][] tmpCaps = clistCaps;
+         clistCaps = nlistCaps;
+         nlistCaps = tmpCaps;
+
+         if (length <= i) {
+            clear(clistCaps, 0, ccount);
+            break;
+         }
+      }
+
+      if (matchCaps == null) {
+         return -1;
+      }
+
+      for (int g = 1; g < _nGroup; g++) {
+         state.setBegin(g, matchCaps[2 * g]);
+         state.setEnd(g, matchCaps[2 * g + 1]);
+      }
+
+      state.setLength(matchCaps[_lengthSlot]);
+      state.setBegin(0, matchCaps[0]);
+      state.setEnd(0, matchEnd);
+
+      return matchCaps[0];
+   }
+
+   /**
+    * Follows the non-consuming instructions from pc, queueing the
+    * consuming ones at the end of the list in priority order.
+    */
+   private void addThread(Matcher m, int[] listPc, int[][] listCaps,
+                          int pc, int[] caps,
+                          StringValue subject, int length, int offset,
+                          RegexpState state) {
+      int[] mark = m._mark;
+
+      while (true) {
+         if (mark[pc] == m._generation) {
+            return;
+         }
+
+         mark[pc] = m._generation;
+
+         switch (_op[pc]) {
+            case OP_SPLIT:
+               addThread(m, listPc, listCaps, _next[pc], caps,
+                  subject, length, offset, state);
+               pc = _alt[pc];
+               break;
+
+            case OP_JUMP:
+               pc = _next[pc];
+               break;
+
+            case OP_SAVE_BEGIN:
+               caps = caps.clone();
+               caps[2 * _arg[pc]] = offset;
+               pc = _next[pc];
+               break;
+
+            case OP_SAVE_END: {
+               int group = _arg[pc];
+
+               caps = caps.clone();
+               caps[2 * group + 1] = offset;
+
+               if (caps[_lengthSlot] < group) {
+                  caps[_lengthSlot] = group;
+               }
+
+               pc = _next[pc];
+               break;
+            }
+
+            case OP_ASSERT:
+               if (_node[pc].match(subject, length, offset, state) < 0) {
+                  return;
+               }
+
+               pc = _next[pc];
+               break;
+
+            default: {
+               int count = m._count++;
+
+               listPc[count] = pc;
+               listCaps[count] = caps;
+               return;
+            }
+         }
+      }
+   }
+
+   private static void clear(int[][] caps, int begin, int end) {
+      for (; begin < end; begin++) {
+         caps[begin] = null;
+      }
+   }
+
+   private static boolean equalsIgnoreCase(char a, char b) {
+      return (a == b
+         || Character.toLowerCase(a) == Character.toLowerCase(b)
+         || Character.toUpperCase(a) == Character.toUpperCase(b));
+   }
+
+   @Override
+   public String toString() {
+      return getClass().getSimpleName() + "[" + _op.length + "]";
+   }
+
+   /**
+    * Per-state scratch space, reused between matches.
+    */
+   static final class Matcher {
+
+      final int[] _clistPc;
+      final int[][] _clistCaps;
+      final int[] _nlistPc;
+      final int[][] _nlistCaps;
+      final int[] _mark;
+      int _generation;
+      int _count;
+
+      Matcher(int size) {
+         _clistPc = new int[size];
+         _clistCaps = new int[size][];
+         _nlistPc = new int[size];
+         _nlistCaps = new int[size][];
+         _mark = new int[size];
+      }
+
+      int getCapacity() {
+         return _mark.length;
+      }
+   }
+
+   /**
+    * Builds the program from the node graph. Nodes compile themselves
+    * through RegexpNode.compileAutomaton, loop counts are unrolled into the
+    * loop context.
+    */
+   static final class Builder {
+
+      private final int _nGroup;
+      private final int[] _noLoops;
+      private final HashMap<Key, Integer> _compiled = new HashMap<Key, Integer>();
+      private int[] _op = new int[64];
+      private int[] _next = new int[64];
+      private int[] _alt = new int[64];
+      private int[] _arg = new int[64];
+      private RegexpNode[] _node = new RegexpNode[64];
+      private int _size;
+      private int _match = -1;
+
+      Builder(int nGroup, int nLoop) {
+         _nGroup = nGroup;
+         _noLoops = new int[nLoop];
+         Arrays.fill(_noLoops, -1);
+      }
+
+      /**
+       * Compiles node with its continuation, sharing the code of nodes
+       * already compiled in the same loop context.
+       */
+      int compile(RegexpNode node, int[] loops) {
+         if (node == null) {
+            return match();
+         }
+
+         Key key = new Key(node, loops);
+         Integer value = _compiled.get(key);
+
+         if (value != null) {
+            return value;
+         }
+
+         // placeholder, so loops can jump back to their head
+         int pc = add(OP_JUMP, -1, -1, 0, null);
+
+         if (pc < 0) {
+            return -1;
+         }
+
+         _compiled.put(key, pc);
+
+         int target = node.compileAutomaton(this, loops);
+
+         if (target < 0) {
+            return -1;
+         }
+
+         _next[pc] = target;
+
+         return pc;
+      }
+
+      int match() {
+         if (_match < 0) {
+            _match = add(OP_MATCH, -1, -1, 0, null);
+         }
+
+         return _match;
+      }
+
+      int addChar(char ch, int next) {
+         return add(OP_CHAR, next, -1, ch, null);
+      }
+
+      int addCharIgnoreCase(char ch, int next) {
+         return add(OP_CHAR_IGNORE_CASE, next, -1, ch, null);
+      }
+
+      /**
+       * A node matching exactly one character.
+       */
+      int addNode(RegexpNode node, int next) {
+         return add(OP_NODE, next, -1, 0, node);
+      }
+
+      /**
+       * A zero-width node.
+       */
+      int addAssert(RegexpNode node, int next) {
+         return add(OP_ASSERT, next, -1, 0, node);
+      }
+
+      int addGroupBegin(int group, int next) {
+         if (group <= 0) {
+            return next;
+         }
+
+         return add(OP_SAVE_BEGIN, next, -1, group, null);
+      }
+
+      int addGroupEnd(int group, int next) {
+         if (group <= 0) {
+            return next;
+         }
+
+         return add(OP_SAVE_END, next, -1, group, null);
+      }
+
+      /**
+       * Alternation preferring first.
+       */
+      int addSplit(int first, int second) {
+         if (first < 0 || second < 0) {
+            return -1;
+         }
+
+         return add(OP_SPLIT, first, second, 0, null);
+      }
+
+      /**
+       * A loop over a single character node.
+       */
+      int addCharLoop(RegexpNode node, int min, int max,
+                      int next, boolean isGreedy) {
+         if (next < 0) {
+            return -1;
+         }
+
+         int pc;
+
+         if (max >= RegexpNode.INTEGER_MAX) {
+            pc = add(OP_JUMP, -1, -1, 0, null);
+
+            if (pc < 0) {
+               return -1;
+            }
+
+            int body = node.compileAutomatonLeaf(this, pc);
+            int split = isGreedy ? addSplit(body, next) : addSplit(next, body);
+
+            if (split < 0) {
+               return -1;
+            }
+
+            _next[pc] = split;
+         } else {
+            pc = next;
+
+            for (int i = min; i < max && pc >= 0; i++) {
+               int body = node.compileAutomatonLeaf(this, pc);
+
+               pc = isGreedy ? addSplit(body, next) : addSplit(next, body);
+            }
+         }
+
+         for (int i = 0; i < min && pc >= 0; i++) {
+            pc = node.compileAutomatonLeaf(this, pc);
+         }
+
+         return pc;
+      }
+
+      /**
+       * The head of a general loop: the first iteration of body.
+       */
+      int addLoopHead(RegexpNode body, int index, int min, int max,
+                      RegexpNode next, int[] loops, boolean isGreedy) {
+         int exit = compile(next, setLoop(loops, index, -1));
+
+         if (exit < 0 || max <= 0) {
+            return exit;
+         }
+
+         int pc = addLoopBegin(index, compile(body, setLoop(loops, index, 0)));
+
+         if (min > 0) {
+            return pc;
+         } else if (isGreedy) {
+            return addSplit(pc, exit);
+         } else {
+            return addSplit(exit, pc);
+         }
+      }
+
+      /**
+       * The tail of a general loop: either another iteration or the exit,
+       * depending on the iterations already done.
+       */
+      int addLoopTail(RegexpNode body, int index, int min, int max,
+                      RegexpNode next, int[] loops, boolean isGreedy) {
+         int count = loops[index] + 1;
+
+         if (max >= RegexpNode.INTEGER_MAX && min < count) {
+            // unbounded loops behave the same for every count past min
+            count = min;
+         }
+
+         int end = add(OP_LOOP_END, -1, -1, index, null);
+
+         if (end < 0) {
+            return -1;
+         } else if (count < min) {
+            _next[end] = addLoopBegin(index, compile(body, setLoop(loops, index, count)));
+
+            return _next[end] < 0 ? -1 : end;
+         }
+
+         int exit = compile(next, setLoop(loops, index, -1));
+
+         if (exit < 0 || max <= count) {
+            _next[end] = exit;
+         } else {
+            int pc = addLoopBegin(index, compile(body, setLoop(loops, index, count)));
+
+            if (isGreedy) {
+               _next[end] = addSplit(pc, exit);
+            } else {
+               _next[end] = addSplit(exit, pc);
+            }
+         }
+
+         return _next[end] < 0 ? -1 : end;
+      }
+
+      /**
+       * True if a loop body can match the empty string. The automaton
+       * can't follow the backtracker's rules for empty iterations, so
+       * those patterns keep the node tree.
+       */
+      boolean hasEmptyLoop() {
+         boolean[] visited = new boolean[_size];
+         int[] stack = new int[2 * _size + 1];
+
+         for (int pc = 0; pc < _size; pc++) {
+            if (_op[pc] != OP_LOOP_BEGIN) {
+               continue;
+            }
+
+            int index = _arg[pc];
+
+            Arrays.fill(visited, false);
+
+            int top = 0;
+            stack[top++] = _next[pc];
+
+            while (top > 0) {
+               int ptr = stack[--top];
+
+               if (ptr < 0 || visited[ptr]) {
+                  continue;
+               }
+
+               visited[ptr] = true;
+
+               switch (_op[ptr]) {
+                  case OP_LOOP_END:
+                     if (_arg[ptr] == index) {
+                        return true;
+                     }
+
+                     stack[top++] = _next[ptr];
+                     break;
+
+                  case OP_SPLIT:
+                     stack[top++] = _next[ptr];
+                     stack[top++] = _alt[ptr];
+                     break;
+
+                  case OP_JUMP:
+                  case OP_ASSERT:
+                  case OP_SAVE_BEGIN:
+                  case OP_SAVE_END:
+                  case OP_LOOP_BEGIN:
+                     stack[top++] = _next[ptr];
+                     break;
+
+                  default:
+                     break;
+               }
+            }
+         }
+
+         return false;
+      }
+
+      private int addLoopBegin(int index, int next) {
+         return add(OP_LOOP_BEGIN, next, -1, index, null);
+      }
+
+      private static int[] setLoop(int[] loops, int index, int count) {
+         if (loops[index] == count) {
+            return loops;
+         }
+
+         int[] newLoops = loops.clone();
+         newLoops[index] = count;
+
+         return newLoops;
+      }
+
+      private int add(int op, int next, int alt, int arg, RegexpNode node) {
+         if (next < 0
+            && op != OP_JUMP && op != OP_MATCH && op != OP_LOOP_END) {
+            return -1;
+         } else if (MAX_PROGRAM <= _size) {
+            return -1;
+         }
+
+         if (_op.length <= _size) {
+            int capacity = 2 * _op.length;
+
+            _op = Arrays.copyOf(_op, capacity);
+            _next = Arrays.copyOf(_next, capacity);
+            _alt = Arrays.copyOf(_alt, capacity);
+            _arg = Arrays.copyOf(_arg, capacity);
+            _node = Arrays.copyOf(_node, capacity);
+         }
+
+         int pc = _size++;
+
+         _op[pc] = op;
+         _next[pc] = next;
+         _alt[pc] = alt;
+         _arg[pc] = arg;
+         _node[pc] = node;
+
+         return pc;
+      }
+   }
+
+   private static final class Key {
+
+      private final RegexpNode _node;
+      private final int[] _loops;
+
+      Key(RegexpNode node, int[] loops) {
+         _node = node;
+         _loops = loops;
+      }
+
+      @Override
+      public int hashCode() {
+         return 65521 * System.identityHashCode(_node) + Arrays.hashCode(_loops);
+      }
+
+      @Override
+      public boolean equals(Object o) {
+         if (!(o instanceof Key)) {
+            return false;
+         }
+
+         Key key = (Key) o;
+
+         return _node == key._node && Arrays.equals(_loops, key._loops);
+      }
+   }
+}
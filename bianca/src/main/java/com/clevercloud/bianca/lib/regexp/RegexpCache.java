@@ -31,48 +31,293 @@ package com.clevercloud.bianca.lib.regexp;
 
 import com.clevercloud.bianca.env.Env;
 import com.clevercloud.bianca.env.StringValue;
+import com.clevercloud.util.ConcurrentLruCache;
+import com.clevercloud.util.L10N;
+
+import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 /**
- * FIFO cache of line-item regular expressions.
+ * Compiled-pattern cache shared by preg, ereg and the preg_replace
+ * replacement programs.
+ * <p/>
+ * Entries are keyed by the kind of program, the pattern and the encoding.
+ * Compiled programs are immutable and shared by all threads, the match
+ * state lives in each Env's RegexpState pool.
  */
 public class RegexpCache {
 
-   private final Regexp[] _cache;
-   private int _head;
-   private static final int MAX_SIZE = 4;
+   private static final Logger log = Logger.getLogger(RegexpCache.class.getName());
+   private static final L10N L = new L10N(RegexpCache.class);
+   static final int PREG = 0;
+   static final int EREG = 1;
+   static final int EREGI = 2;
+   static final int UNICODE_EREG = 3;
+   static final int UNICODE_EREGI = 4;
+   static final int REPLACEMENT = 5;
+   static final int REPLACEMENT_EVAL = 6;
+   private final ConcurrentLruCache<Key, Entry> _cache;
+   private final AtomicLong _compileCount = new AtomicLong();
+   private final AtomicLong _compileTime = new AtomicLong();
+   private final AtomicLong _errorCount = new AtomicLong();
 
-   public RegexpCache() {
-      _cache = new Regexp[MAX_SIZE];
+   public RegexpCache(int capacity) {
+      _cache = new ConcurrentLruCache<Key, Entry>(capacity);
    }
 
-   public Regexp get(Env env, StringValue str) {
-      int head = _head;
+   public int getCapacity() {
+      return _cache.getCapacity();
+   }
 
-      for (int i = 0; i < MAX_SIZE; i++) {
-         Regexp regexp = _cache[(head + i) % MAX_SIZE];
+   public int size() {
+      return _cache.size();
+   }
 
-         if (regexp == null) {
-            break;
-         } else {
-            StringValue rawRegexp = regexp.getRawRegexp();
+   public long getHitCount() {
+      return _cache.getHitCount();
+   }
 
-            if (rawRegexp == str || rawRegexp.equals(str)) {
-               return regexp;
-            }
+   public long getMissCount() {
+      return _cache.getMissCount();
+   }
+
+   public long getEvictCount() {
+      return _cache.getEvictCount();
+   }
+
+   /**
+    * Returns the number of compiled programs, including failed ones.
+    */
+   public long getCompileCount() {
+      return _compileCount.get();
+   }
+
+   /**
+    * Returns the total compile time in nanoseconds.
+    */
+   public long getCompileTime() {
+      return _compileTime.get();
+   }
+
+   public long getErrorCount() {
+      return _errorCount.get();
+   }
+
+   public void clear() {
+      _cache.clear();
+   }
+
+   Regexp getRegexp(StringValue pattern)
+      throws IllegalRegexpException {
+      return (Regexp) get(null, PREG, pattern, null);
+   }
+
+   Ereg getEreg(StringValue pattern)
+      throws IllegalRegexpException {
+      return (Ereg) get(null, EREG, pattern, null);
+   }
+
+   Eregi getEregi(StringValue pattern)
+      throws IllegalRegexpException {
+      return (Eregi) get(null, EREGI, pattern, null);
+   }
+
+   UnicodeEreg getUnicodeEreg(StringValue pattern, String encoding)
+      throws IllegalRegexpException {
+      return (UnicodeEreg) get(null, UNICODE_EREG, pattern, encoding);
+   }
+
+   UnicodeEregi getUnicodeEregi(StringValue pattern, String encoding)
+      throws IllegalRegexpException {
+      return (UnicodeEregi) get(null, UNICODE_EREGI, pattern, encoding);
+   }
+
+   /**
+    * Returns the compiled replacement, or null after a warning.
+    */
+   @SuppressWarnings("unchecked")
+   ArrayList<RegexpModule.Replacement> getReplacement(Env env,
+                                                      StringValue replacement,
+                                                      boolean isEval) {
+      try {
+         int kind = isEval ? REPLACEMENT_EVAL : REPLACEMENT;
+
+         return (ArrayList<RegexpModule.Replacement>) get(env, kind, replacement, null);
+      } catch (IllegalRegexpException e) {
+         throw new IllegalStateException(e);
+      }
+   }
+
+   private Object get(Env env, int kind, StringValue pattern, String encoding)
+      throws IllegalRegexpException {
+      Key key = new Key(kind, pattern, encoding);
+
+      Entry entry = _cache.get(key);
+
+      if (entry == null) {
+         entry = new Entry(key);
+
+         Entry oldEntry = _cache.putIfNew(key, entry);
+
+         if (oldEntry != null) {
+            entry = oldEntry;
          }
       }
 
-      Regexp regexp = RegexpModule.createRegexp(env, str);
+      return entry.get(env);
+   }
+
+   private Object compile(Env env, Key key)
+      throws IllegalRegexpException {
+      long start = System.nanoTime();
+
+      try {
+         StringValue pattern = key._pattern;
+
+         switch (key._kind) {
+            case PREG:
+               return new Regexp(pattern);
+
+            case EREG:
+               return new Ereg(RegexpModule.cleanEregRegexp(pattern, false));
+
+            case EREGI:
+               return new Eregi(RegexpModule.cleanEregRegexp(pattern, false));
+
+            case UNICODE_EREG:
+               return new UnicodeEreg(RegexpModule.cleanEregRegexp(pattern, false));
 
-      head = head - 1;
+            case UNICODE_EREGI:
+               return new UnicodeEregi(RegexpModule.cleanEregRegexp(pattern, false));
 
-      if (head < 0) {
-         head = MAX_SIZE - 1;
+            case REPLACEMENT:
+               return RegexpModule.compileReplacement(env, pattern, false);
+
+            case REPLACEMENT_EVAL:
+               return RegexpModule.compileReplacement(env, pattern, true);
+
+            default:
+               throw new IllegalStateException(String.valueOf(key._kind));
+         }
+      } catch (IllegalRegexpException e) {
+         _errorCount.incrementAndGet();
+
+         throw e;
+      } finally {
+         _compileCount.incrementAndGet();
+         _compileTime.addAndGet(System.nanoTime() - start);
       }
+   }
+
+   @Override
+   public String toString() {
+      return (getClass().getSimpleName()
+         + "[size=" + size()
+         + ",hit=" + getHitCount()
+         + ",miss=" + getMissCount()
+         + ",compile=" + getCompileCount()
+         + ",compile-ms=" + getCompileTime() / 1000000L + "]");
+   }
+
+   /**
+    * Cache key, comparing the pattern by identity first.
+    */
+   static final class Key {
+
+      private final int _kind;
+      private final StringValue _pattern;
+      private final String _encoding;
+      private final int _hash;
+
+      Key(int kind, StringValue pattern, String encoding) {
+         _kind = kind;
+         _pattern = pattern;
+         _encoding = encoding;
+
+         int hash = 65521 * pattern.hashCode() + kind;
 
-      _cache[head] = regexp;
-      _head = head;
+         if (encoding != null) {
+            hash = 31 * hash + encoding.hashCode();
+         }
+
+         _hash = hash;
+      }
+
+      @Override
+      public int hashCode() {
+         return _hash;
+      }
+
+      @Override
+      public boolean equals(Object o) {
+         if (this == o) {
+            return true;
+         } else if (!(o instanceof Key)) {
+            return false;
+         }
+
+         Key key = (Key) o;
+
+         if (_hash != key._hash || _kind != key._kind) {
+            return false;
+         } else if (_encoding == null
+            ? key._encoding != null
+            : !_encoding.equals(key._encoding)) {
+            return false;
+         }
 
-      return regexp;
+         return _pattern == key._pattern || _pattern.equals(key._pattern);
+      }
+   }
+
+   /**
+    * Compiles its program once, on first use.
+    */
+   final class Entry {
+
+      private final Key _key;
+      private volatile Object _value;
+      private volatile IllegalRegexpException _exn;
+
+      Entry(Key key) {
+         _key = key;
+      }
+
+      Object get(Env env)
+         throws IllegalRegexpException {
+         Object value = _value;
+
+         if (value != null) {
+            return value;
+         }
+
+         synchronized (this) {
+            if (_value != null) {
+               return _value;
+            } else if (_exn != null) {
+               throw _exn;
+            }
+
+            try {
+               value = compile(env, _key);
+            } catch (IllegalRegexpException e) {
+               _exn = e;
+
+               throw e;
+            }
+
+            // failed replacements warn each time, so they aren't kept
+            _value = value;
+
+            if (value instanceof Regexp && log.isLoggable(Level.FINE)) {
+               log.fine(L.l("regexp {0} falls back to the {1} engine",
+                  _key._pattern, ((Regexp) value).getEngine()));
+            }
+
+            return value;
+         }
+      }
    }
 }
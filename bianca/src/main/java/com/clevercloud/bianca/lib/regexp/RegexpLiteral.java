@@ -0,0 +1,196 @@
+/*
+ * Copyright (c) 2012 Clever Cloud SAS -- all rights reserved
+ *
+ * This file is part of Bianca(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Bianca Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Bianca Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Bianca Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ * @author Marc-Antoine Perennou <Marc-Antoine@Perennou.com>
+ */
+package com.clevercloud.bianca.lib.regexp;
+
+import com.clevercloud.bianca.env.StringValue;
+
+/**
+ * A literal every match of a regexp contains, used to skip ahead or to
+ * reject a subject before running the matcher.
+ * <p/>
+ * Longer literals are scanned with Boyer-Moore-Horspool.
+ */
+final class RegexpLiteral {
+
+   private final String _value;
+   private final boolean _isIgnoreCase;
+   private final boolean _isPrefix;
+   // shift by the low byte of the last character of the window
+   private final int[] _shift;
+
+   RegexpLiteral(String value, boolean isIgnoreCase, boolean isPrefix) {
+      _value = value;
+      _isIgnoreCase = isIgnoreCase;
+      _isPrefix = isPrefix;
+
+      int length = value.length();
+
+      _shift = new int[256];
+
+      for (int i = 0; i < _shift.length; i++) {
+         _shift[i] = length;
+      }
+
+      for (int i = 0; i < length - 1; i++) {
+         char ch = value.charAt(i);
+         int shift = length - 1 - i;
+
+         if (isIgnoreCase) {
+            char lower = Character.toLowerCase(ch);
+            char upper = Character.toUpperCase(ch);
+
+            setShift(ch, shift);
+            setShift(lower, shift);
+            setShift(upper, shift);
+            setShift(Character.toUpperCase(lower), shift);
+            setShift(Character.toLowerCase(upper), shift);
+         } else {
+            setShift(ch, shift);
+         }
+      }
+   }
+
+   private void setShift(char ch, int shift) {
+      // buckets share the smallest shift, which is always safe
+      int index = ch & 0xff;
+
+      if (shift < _shift[index]) {
+         _shift[index] = shift;
+      }
+   }
+
+   /**
+    * Returns the longer of two literals, preferring prefixes and
+    * case-sensitive literals.
+    */
+   static RegexpLiteral longest(RegexpLiteral a, RegexpLiteral b) {
+      if (a == null) {
+         return b;
+      } else if (b == null) {
+         return a;
+      } else if (a.length() != b.length()) {
+         return a.length() > b.length() ? a : b;
+      } else if (a._isPrefix != b._isPrefix) {
+         return a._isPrefix ? a : b;
+      } else if (a._isIgnoreCase != b._isIgnoreCase) {
+         return a._isIgnoreCase ? b : a;
+      } else {
+         return a;
+      }
+   }
+
+   int length() {
+      return _value.length();
+   }
+
+   /**
+    * True if every match starts with the literal.
+    */
+   boolean isPrefix() {
+      return _isPrefix;
+   }
+
+   boolean isIgnoreCase() {
+      return _isIgnoreCase;
+   }
+
+   /**
+    * Returns the first offset of the literal in subject at or after
+    * offset, or -1.
+    */
+   int indexOf(StringValue subject, int offset, int length) {
+      String value = _value;
+      int sublen = value.length();
+      int last = length - sublen;
+
+      if (offset < 0) {
+         offset = 0;
+      }
+
+      if (sublen == 1) {
+         char ch = value.charAt(0);
+
+         for (; offset <= last; offset++) {
+            if (isMatch(subject.charAt(offset), ch)) {
+               return offset;
+            }
+         }
+
+         return -1;
+      }
+
+      int[] shiftTable = _shift;
+      int tail = sublen - 1;
+
+      while (offset <= last) {
+         char ch = subject.charAt(offset + tail);
+
+         if (isMatch(ch, value.charAt(tail))) {
+            int i = tail - 1;
+
+            for (; i >= 0; i--) {
+               if (!isMatch(subject.charAt(offset + i), value.charAt(i))) {
+                  break;
+               }
+            }
+
+            if (i < 0) {
+               return offset;
+            }
+         }
+
+         if (_isIgnoreCase && ch >= 0x80) {
+            // non-ascii case folding isn't tracked by the table
+            offset++;
+         } else {
+            offset += shiftTable[ch & 0xff];
+         }
+      }
+
+      return -1;
+   }
+
+   private boolean isMatch(char ch, char pattern) {
+      if (ch == pattern) {
+         return true;
+      } else if (!_isIgnoreCase) {
+         return false;
+      } else {
+         return (Character.toLowerCase(ch) == Character.toLowerCase(pattern)
+            || Character.toUpperCase(ch) == Character.toUpperCase(pattern));
+      }
+   }
+
+   @Override
+   public String toString() {
+      return (getClass().getSimpleName() + "[" + _value
+         + (_isIgnoreCase ? ",i" : "")
+         + (_isPrefix ? ",prefix" : "") + "]");
+   }
+}
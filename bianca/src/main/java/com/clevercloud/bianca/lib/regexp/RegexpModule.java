@@ -37,7 +37,6 @@ import com.clevercloud.bianca.env.*;
 import com.clevercloud.bianca.lib.i18n.MbstringModule;
 import com.clevercloud.bianca.module.AbstractBiancaModule;
 import com.clevercloud.util.L10N;
-import com.clevercloud.util.LruCache;
 
 import java.util.ArrayList;
 import java.util.Iterator;
@@ -70,12 +69,7 @@ public class RegexpModule
    // #2526, possible JIT/OS problem with max comparison
    private static final long LONG_MAX = Long.MAX_VALUE - 1;
    public static final boolean[] PREG_QUOTE = new boolean[256];
-   private static LruCache<StringValue, RegexpCacheItem> _regexpCache = new LruCache<StringValue, RegexpCacheItem>(1024);
-   private static LruCache<StringValue, Ereg> _eregCache = new LruCache<StringValue, Ereg>(1024);
-   private static LruCache<StringValue, Eregi> _eregiCache = new LruCache<StringValue, Eregi>(1024);
-   private static LruCache<UnicodeEregKey, UnicodeEreg> _unicodeEregCache = new LruCache<UnicodeEregKey, UnicodeEreg>(1024);
-   private static LruCache<UnicodeEregKey, UnicodeEregi> _unicodeEregiCache = new LruCache<UnicodeEregKey, UnicodeEregi>(1024);
-   private static LruCache<StringValue, ArrayList<Replacement>> _replacementCache = new LruCache<StringValue, ArrayList<Replacement>>(1024);
+   private static volatile RegexpCache _cache = new RegexpCache(1024);
 
    @Override
    public String[] getLoadedExtensions() {
@@ -84,26 +78,24 @@ public class RegexpModule
 
    @Hide
    public static int getRegexpCacheSize() {
-      return _regexpCache.getCapacity();
+      return _cache.getCapacity();
    }
 
    @Hide
    public static void setRegexpCacheSize(int size) {
-      if (size < 0 || size == _regexpCache.getCapacity()) {
+      if (size < 0 || size == _cache.getCapacity()) {
          return;
       }
 
-      _regexpCache = new LruCache<StringValue, RegexpCacheItem>(size);
-
-      _eregCache = new LruCache<StringValue, Ereg>(size);
-
-      _eregiCache = new LruCache<StringValue, Eregi>(size);
-
-      _unicodeEregCache = new LruCache<UnicodeEregKey, UnicodeEreg>(size);
-
-      _unicodeEregiCache = new LruCache<UnicodeEregKey, UnicodeEregi>(size);
+      _cache = new RegexpCache(size);
+   }
 
-      _replacementCache = new LruCache<StringValue, ArrayList<Replacement>>(size);
+   /**
+    * Returns the shared compiled-pattern cache, for its statistics.
+    */
+   @Hide
+   public static RegexpCache getRegexpCache() {
+      return _cache;
    }
 
    /**
@@ -247,17 +239,7 @@ public class RegexpModule
             L.l("Regexp pattern must have opening and closing delimiters"));
       }
 
-      RegexpCacheItem cacheItem = _regexpCache.get(regexpValue);
-
-      if (cacheItem == null) {
-         cacheItem = new RegexpCacheItem(regexpValue);
-
-         _regexpCache.putIfNew(regexpValue, cacheItem);
-
-         cacheItem = _regexpCache.get(regexpValue);
-      }
-
-      return cacheItem.get();
+      return _cache.getRegexp(regexpValue);
    }
 
    public static Regexp[] createRegexpArray(Value pattern) {
@@ -318,17 +300,7 @@ public class RegexpModule
             regexpStr = value.toStringValue();
          }
 
-         Ereg ereg = _eregCache.get(regexpStr);
-
-         if (ereg == null) {
-            StringValue cleanPattern = cleanEregRegexp(regexpStr, false);
-
-            ereg = new Ereg(cleanPattern);
-
-            _eregCache.put(regexpStr, ereg);
-         }
-
-         return ereg;
+         return _cache.getEreg(regexpStr);
       } catch (IllegalRegexpException e) {
          log.log(Level.FINE, e.getMessage(), e);
          env.warning(e);
@@ -349,17 +321,7 @@ public class RegexpModule
             regexpStr = value.toStringValue();
          }
 
-         Ereg ereg = _eregCache.get(regexpStr);
-
-         if (ereg == null) {
-            StringValue cleanPattern = cleanEregRegexp(regexpStr, false);
-
-            ereg = new Ereg(cleanPattern);
-
-            _eregCache.put(regexpStr, ereg);
-         }
-
-         return ereg;
+         return _cache.getEreg(regexpStr);
       } catch (IllegalRegexpException e) {
          throw new BiancaException(e);
       }
@@ -377,17 +339,7 @@ public class RegexpModule
             regexpStr = value.toStringValue();
          }
 
-         Eregi eregi = _eregiCache.get(regexpStr);
-
-         if (eregi == null) {
-            StringValue cleanPattern = cleanEregRegexp(regexpStr, false);
-
-            eregi = new Eregi(cleanPattern);
-
-            _eregiCache.put(regexpStr, eregi);
-         }
-
-         return eregi;
+         return _cache.getEregi(regexpStr);
       } catch (IllegalRegexpException e) {
          log.log(Level.FINE, e.getMessage(), e);
          env.warning(e);
@@ -408,17 +360,7 @@ public class RegexpModule
             regexpStr = value.toStringValue();
          }
 
-         Eregi eregi = _eregiCache.get(regexpStr);
-
-         if (eregi == null) {
-            StringValue cleanPattern = cleanEregRegexp(regexpStr, false);
-
-            eregi = new Eregi(cleanPattern);
-
-            _eregiCache.put(regexpStr, eregi);
-         }
-
-         return eregi;
+         return _cache.getEregi(regexpStr);
       } catch (IllegalRegexpException e) {
          throw new BiancaException(e);
       }
@@ -432,19 +374,7 @@ public class RegexpModule
                                                StringValue pattern,
                                                String encoding) {
       try {
-         UnicodeEregKey key = new UnicodeEregKey(pattern, encoding);
-
-         UnicodeEreg ereg = _unicodeEregCache.get(key);
-
-         if (ereg == null) {
-            StringValue cleanPattern = cleanEregRegexp(pattern, false);
-
-            ereg = new UnicodeEreg(cleanPattern);
-
-            _unicodeEregCache.put(key, ereg);
-         }
-
-         return ereg;
+         return _cache.getUnicodeEreg(pattern, encoding);
       } catch (IllegalRegexpException e) {
          log.log(Level.FINE, e.getMessage(), e);
          env.warning(e);
@@ -461,19 +391,7 @@ public class RegexpModule
                                                  StringValue pattern,
                                                  String encoding) {
       try {
-         UnicodeEregKey key = new UnicodeEregKey(pattern, encoding);
-
-         UnicodeEregi ereg = _unicodeEregiCache.get(key);
-
-         if (ereg == null) {
-            StringValue cleanPattern = cleanEregRegexp(pattern, false);
-
-            ereg = new UnicodeEregi(cleanPattern);
-
-            _unicodeEregiCache.put(key, ereg);
-         }
-
-         return ereg;
+         return _cache.getUnicodeEregi(pattern, encoding);
       } catch (IllegalRegexpException e) {
          log.log(Level.FINE, e.getMessage(), e);
          env.warning(e);
@@ -1183,15 +1101,11 @@ public class RegexpModule
       // check for e modifier in patternString
       boolean isEval = regexp.isEval();
 
-      ArrayList<Replacement> replacementProgram = _replacementCache.get(replacement);
+      ArrayList<Replacement> replacementProgram
+         = _cache.getReplacement(env, replacement, isEval);
 
       if (replacementProgram == null) {
-         replacementProgram = compileReplacement(env, replacement, isEval);
-         if (replacementProgram == null) {
-            return null;
-         }
-
-         _replacementCache.put(replacement, replacementProgram);
+         return null;
       }
 
       StringValue result = pregReplaceStringImpl(env,
@@ -1286,14 +1200,11 @@ public class RegexpModule
 
       regexpState.setSubject(env, subject);
 
-      ArrayList<Replacement> replacementProgram = _replacementCache.get(replacementStr);
+      ArrayList<Replacement> replacementProgram
+         = _cache.getReplacement(env, replacementStr, false);
 
       if (replacementProgram == null) {
-         replacementProgram = compileReplacement(env, replacementStr, false);
-         if (replacementProgram == null) {
-            return null;
-         }
-         _replacementCache.put(replacementStr, replacementProgram);
+         return null;
       }
 
       StringValue result = pregReplaceStringImpl(env,
@@ -1885,7 +1796,7 @@ public class RegexpModule
       return sb;
    }
 
-   private static ArrayList<Replacement> compileReplacement(Env env, StringValue replacement, boolean isEval) {
+   static ArrayList<Replacement> compileReplacement(Env env, StringValue replacement, boolean isEval) {
       ArrayList<Replacement> program = new ArrayList<Replacement>();
       StringBuilder text = new StringBuilder();
 
@@ -1975,7 +1886,7 @@ public class RegexpModule
     * Cleans the regexp from valid values that the Java regexps can't handle.
     * Ereg has a different syntax so need to handle it differently from preg.
     */
-   private static StringValue cleanEregRegexp(StringValue regexp,
+   static StringValue cleanEregRegexp(StringValue regexp,
                                               boolean isComments) {
       int len = regexp.length();
 
@@ -2382,61 +2293,6 @@ public class RegexpModule
       }
    }
 
-   static class UnicodeEregKey {
-
-      StringValue _regexpValue;
-      String _encoding;
-
-      UnicodeEregKey(StringValue regexpValue, String encoding) {
-         _regexpValue = regexpValue;
-         _encoding = encoding;
-      }
-
-      @Override
-      public boolean equals(Object o) {
-         if (!(o instanceof UnicodeEregKey)) {
-            return false;
-         }
-
-         UnicodeEregKey ereg = (UnicodeEregKey) o;
-
-         return _regexpValue.equals(ereg._regexpValue)
-            && _encoding.equals(ereg._encoding);
-      }
-   }
-
-   static final class RegexpCacheItem {
-
-      private final StringValue _pattern;
-      private Regexp _regexp;
-      private IllegalRegexpException _exn;
-
-      RegexpCacheItem(StringValue pattern) {
-         _pattern = pattern;
-      }
-
-      public Regexp get()
-         throws IllegalRegexpException {
-         if (_regexp != null) {
-            return _regexp;
-         } else if (_exn != null) {
-            throw _exn;
-         }
-
-         synchronized (this) {
-            try {
-               _regexp = new Regexp(_pattern);
-
-               return _regexp;
-            } catch (IllegalRegexpException e) {
-               _exn = e;
-
-               throw e;
-            }
-         }
-      }
-   }
-
    static {
       PREG_QUOTE['\\'] = true;
       PREG_QUOTE['+'] = true;
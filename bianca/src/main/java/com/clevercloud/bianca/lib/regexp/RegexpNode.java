@@ -108,7 +108,7 @@ class RegexpNode {
    static final int RC_UPPER = 11;
    static final int RC_XDIGIT = 12;
    // #2526, possible JIT/OS issue with Integer.MAX_VALUE
-   private static final int INTEGER_MAX = Integer.MAX_VALUE - 1;
+   static final int INTEGER_MAX = Integer.MAX_VALUE - 1;
    public static final int FAIL = -1;
    public static final int SUCCESS = 0;
    static final RegexpNode N_END = new End();
@@ -210,6 +210,15 @@ class RegexpNode {
       return false;
    }
 
+   /**
+    * Returns the longest literal every match from this node contains.
+    *
+    * @param isStart true if nothing is consumed before this node
+    */
+   RegexpLiteral requiredLiteral(boolean isStart) {
+      return null;
+   }
+
    RegexpNode getTail() {
       return this;
    }
@@ -218,6 +227,25 @@ class RegexpNode {
       return this;
    }
 
+   //
+   // automaton functions
+   //
+
+   /**
+    * Compiles the node and its continuation, returning the entry pc or -1
+    * if the automaton can't express the node.
+    */
+   int compileAutomaton(RegexpAutomaton.Builder builder, int[] loops) {
+      return compileAutomatonLeaf(builder, builder.match());
+   }
+
+   /**
+    * Compiles a node without continuation, followed by next.
+    */
+   int compileAutomatonLeaf(RegexpAutomaton.Builder builder, int next) {
+      return -1;
+   }
+
    //
    // matching
    //
@@ -287,6 +315,11 @@ class RegexpNode {
       int minLength() {
          return 1;
       }
+
+      @Override
+      int compileAutomatonLeaf(RegexpAutomaton.Builder builder, int next) {
+         return builder.addNode(this, next);
+      }
    }
 
    static class CharNode extends AbstractCharNode {
@@ -313,6 +346,11 @@ class RegexpNode {
          }
       }
 
+      @Override
+      int compileAutomatonLeaf(RegexpAutomaton.Builder builder, int next) {
+         return builder.addChar(_ch, next);
+      }
+
       @Override
       int match(StringValue string, int length, int offset, RegexpState state) {
          if (offset < length && string.charAt(offset) == _ch) {
@@ -565,6 +603,17 @@ class RegexpNode {
          return firstSet;
       }
 
+      @Override
+      RegexpLiteral requiredLiteral(boolean isStart) {
+         return _next.requiredLiteral(isStart && _max == 0);
+      }
+
+      @Override
+      int compileAutomaton(RegexpAutomaton.Builder builder, int[] loops) {
+         return builder.addCharLoop(_node, _min, _max,
+            builder.compile(_next, loops), true);
+      }
+
       //
       // match functions
       //
@@ -593,6 +642,8 @@ class RegexpNode {
          }
 
          for (; min <= i; i--) {
+            state.backtrack();
+
             tail = next.match(string, length, offset + i, state);
 
             if (tail >= 0) {
@@ -680,6 +731,17 @@ class RegexpNode {
          return firstSet;
       }
 
+      @Override
+      RegexpLiteral requiredLiteral(boolean isStart) {
+         return _next.requiredLiteral(isStart && _max == 0);
+      }
+
+      @Override
+      int compileAutomaton(RegexpAutomaton.Builder builder, int[] loops) {
+         return builder.addCharLoop(_node, _min, _max,
+            builder.compile(_next, loops), false);
+      }
+
       //
       // match functions
       //
@@ -702,6 +764,8 @@ class RegexpNode {
          }
 
          for (; i <= max; i++) {
+            state.backtrack();
+
             tail = next.match(string, length, offset + i, state);
 
             if (tail >= 0) {
@@ -778,6 +842,16 @@ class RegexpNode {
          return _head.isAnchorBegin();
       }
 
+      @Override
+      RegexpLiteral requiredLiteral(boolean isStart) {
+         RegexpLiteral head = _head.requiredLiteral(isStart);
+
+         // anchors don't consume, so the next literal may still be a prefix
+         boolean isNextStart = isStart && _head instanceof NullableNode;
+
+         return RegexpLiteral.longest(head, _next.requiredLiteral(isNextStart));
+      }
+
       RegexpNode getConcatHead() {
          return _head;
       }
@@ -786,6 +860,12 @@ class RegexpNode {
          return _next;
       }
 
+      @Override
+      int compileAutomaton(RegexpAutomaton.Builder builder, int[] loops) {
+         return _head.compileAutomatonLeaf(builder,
+            builder.compile(_next, loops));
+      }
+
       @Override
       int match(StringValue string, int length, int offset, RegexpState state) {
          offset = _head.match(string, length, offset, state);
@@ -959,6 +1039,11 @@ class RegexpNode {
       EmptyNode() {
       }
 
+      @Override
+      int compileAutomatonLeaf(RegexpAutomaton.Builder builder, int next) {
+         return next;
+      }
+
       @Override
       int match(StringValue string, int length, int offset, RegexpState state) {
          return offset;
@@ -972,6 +1057,11 @@ class RegexpNode {
          return next;
       }
 
+      @Override
+      int compileAutomatonLeaf(RegexpAutomaton.Builder builder, int next) {
+         return next;
+      }
+
       @Override
       int match(StringValue string, int length, int offset, RegexpState state) {
          return offset;
@@ -1074,6 +1164,16 @@ class RegexpNode {
          return _node.isAnchorBegin();
       }
 
+      @Override
+      RegexpLiteral requiredLiteral(boolean isStart) {
+         return _node.requiredLiteral(isStart);
+      }
+
+      @Override
+      int compileAutomaton(RegexpAutomaton.Builder builder, int[] loops) {
+         return builder.addGroupBegin(_group, builder.compile(_node, loops));
+      }
+
       @Override
       int match(StringValue string, int length, int offset, RegexpState state) {
          int oldBegin = state.getBegin(_group);
@@ -1168,6 +1268,16 @@ class RegexpNode {
          return _next.minLength();
       }
 
+      @Override
+      RegexpLiteral requiredLiteral(boolean isStart) {
+         return _next.requiredLiteral(isStart);
+      }
+
+      @Override
+      int compileAutomaton(RegexpAutomaton.Builder builder, int[] loops) {
+         return builder.addGroupEnd(_group, builder.compile(_next, loops));
+      }
+
       @Override
       int match(StringValue string, int length, int offset, RegexpState state) {
          int oldEnd = state.getEnd(_group);
@@ -1322,6 +1432,11 @@ class RegexpNode {
       boolean isNullable() {
          return true;
       }
+
+      @Override
+      int compileAutomatonLeaf(RegexpAutomaton.Builder builder, int next) {
+         return builder.addAssert(this, next);
+      }
    }
 
    static class LoopHead extends RegexpNode {
@@ -1381,6 +1496,24 @@ class RegexpNode {
          return firstSet;
       }
 
+      @Override
+      RegexpLiteral requiredLiteral(boolean isStart) {
+         RegexpLiteral next = ((LoopTail) _tail)._next.requiredLiteral(false);
+
+         if (_min > 0) {
+            // the body ends at the loop tail, which stops the walk
+            return RegexpLiteral.longest(_node.requiredLiteral(isStart), next);
+         } else {
+            return next;
+         }
+      }
+
+      @Override
+      int compileAutomaton(RegexpAutomaton.Builder builder, int[] loops) {
+         return builder.addLoopHead(_node, _index, _min, _max,
+            ((LoopTail) _tail)._next, loops, true);
+      }
+
       //
       // match functions
       //
@@ -1452,11 +1585,19 @@ class RegexpNode {
          return this;
       }
 
+      @Override
+      int compileAutomaton(RegexpAutomaton.Builder builder, int[] loops) {
+         return builder.addLoopTail(_head._node, _index, _head._min, _head._max,
+            _next, loops, true);
+      }
+
       //
       // match functions
       //
       @Override
       int match(StringValue string, int strlen, int offset, RegexpState state) {
+         state.backtrack();
+
          int oldCount = state._loopCount[_index];
 
          if (oldCount + 1 < _head._min) {
@@ -1532,6 +1673,23 @@ class RegexpNode {
          return _min * _node.minLength() + _tail.minLength();
       }
 
+      @Override
+      RegexpLiteral requiredLiteral(boolean isStart) {
+         RegexpLiteral next = _tail._next.requiredLiteral(false);
+
+         if (_min > 0) {
+            return RegexpLiteral.longest(_node.requiredLiteral(isStart), next);
+         } else {
+            return next;
+         }
+      }
+
+      @Override
+      int compileAutomaton(RegexpAutomaton.Builder builder, int[] loops) {
+         return builder.addLoopHead(_node, _index, _min, _max,
+            _tail._next, loops, false);
+      }
+
       //
       // match functions
       //
@@ -1606,11 +1764,19 @@ class RegexpNode {
          return this;
       }
 
+      @Override
+      int compileAutomaton(RegexpAutomaton.Builder builder, int[] loops) {
+         return builder.addLoopTail(_head._node, _index, _head._min, _head._max,
+            _next, loops, false);
+      }
+
       //
       // match functions
       //
       @Override
       int match(StringValue string, int strlen, int offset, RegexpState state) {
+         state.backtrack();
+
          int i = state._loopCount[_index];
          int oldOffset = state._loopOffset[_index];
 
@@ -1660,6 +1826,11 @@ class RegexpNode {
          return new Not(node);
       }
 
+      @Override
+      int compileAutomatonLeaf(RegexpAutomaton.Builder builder, int next) {
+         return builder.addNode(this, next);
+      }
+
       @Override
       int match(StringValue string, int strlen, int offset, RegexpState state) {
          int result = _node.match(string, strlen, offset, state);
@@ -1746,9 +1917,33 @@ class RegexpNode {
          return _left.isAnchorBegin() && _right != null && _right.isAnchorBegin();
       }
 
+      @Override
+      int compileAutomaton(RegexpAutomaton.Builder builder, int[] loops) {
+         int left = builder.compile(_left, loops);
+
+         if (_right == null) {
+            return left;
+         } else {
+            return builder.addSplit(left, _right.compileAutomaton(builder, loops));
+         }
+      }
+
+      @Override
+      int compileAutomatonLeaf(RegexpAutomaton.Builder builder, int next) {
+         int left = _left.compileAutomatonLeaf(builder, next);
+
+         if (_right == null) {
+            return left;
+         } else {
+            return builder.addSplit(left, _right.compileAutomatonLeaf(builder, next));
+         }
+      }
+
       @Override
       int match(StringValue string, int strlen, int offset, RegexpState state) {
          for (Or ptr = this; ptr != null; ptr = ptr._right) {
+            state.backtrack();
+
             int value = ptr._left.match(string, strlen, offset, state);
 
             if (value >= 0) {
@@ -2467,6 +2662,20 @@ class RegexpNode {
          return _buffer;
       }
 
+      @Override
+      RegexpLiteral requiredLiteral(boolean isStart) {
+         return new RegexpLiteral(_buffer, false, isStart);
+      }
+
+      @Override
+      int compileAutomatonLeaf(RegexpAutomaton.Builder builder, int next) {
+         for (int i = _buffer.length() - 1; i >= 0; i--) {
+            next = builder.addChar(_buffer.charAt(i), next);
+         }
+
+         return next;
+      }
+
       //
       // match function
       //
@@ -2598,6 +2807,20 @@ class RegexpNode {
          return _buffer;
       }
 
+      @Override
+      RegexpLiteral requiredLiteral(boolean isStart) {
+         return new RegexpLiteral(_buffer, true, isStart);
+      }
+
+      @Override
+      int compileAutomatonLeaf(RegexpAutomaton.Builder builder, int next) {
+         for (int i = _buffer.length() - 1; i >= 0; i--) {
+            next = builder.addCharIgnoreCase(_buffer.charAt(i), next);
+         }
+
+         return next;
+      }
+
       //
       // match function
       //
@@ -2626,6 +2849,11 @@ class RegexpNode {
 
    private static class StringBegin extends RegexpNode {
 
+      @Override
+      int compileAutomatonLeaf(RegexpAutomaton.Builder builder, int next) {
+         return builder.addAssert(this, next);
+      }
+
       @Override
       int match(StringValue string, int strlen, int offset, RegexpState state) {
          if (offset == state._start) {
@@ -2638,6 +2866,11 @@ class RegexpNode {
 
    private static class StringEnd extends RegexpNode {
 
+      @Override
+      int compileAutomatonLeaf(RegexpAutomaton.Builder builder, int next) {
+         return builder.addAssert(this, next);
+      }
+
       @Override
       int match(StringValue string, int strlen, int offset, RegexpState state) {
          if (offset == strlen) {
@@ -2662,6 +2895,11 @@ class RegexpNode {
 
    private static class StringNewline extends RegexpNode {
 
+      @Override
+      int compileAutomatonLeaf(RegexpAutomaton.Builder builder, int next) {
+         return builder.addAssert(this, next);
+      }
+
       @Override
       int match(StringValue string, int strlen, int offset, RegexpState state) {
          if (offset == strlen
@@ -2678,6 +2916,11 @@ class RegexpNode {
 
    private static class Word extends RegexpNode {
 
+      @Override
+      int compileAutomatonLeaf(RegexpAutomaton.Builder builder, int next) {
+         return builder.addAssert(this, next);
+      }
+
       @Override
       int match(StringValue string, int strlen, int offset, RegexpState state) {
          if ((state._start < offset
@@ -2693,6 +2936,11 @@ class RegexpNode {
 
    private static class NotWord extends RegexpNode {
 
+      @Override
+      int compileAutomatonLeaf(RegexpAutomaton.Builder builder, int next) {
+         return builder.addAssert(this, next);
+      }
+
       @Override
       int match(StringValue string, int strlen, int offset, RegexpState state) {
          if ((state._start < offset
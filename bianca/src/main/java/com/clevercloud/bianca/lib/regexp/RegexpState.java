@@ -46,6 +46,10 @@ public class RegexpState {
    private static final L10N L = new L10N(Regexp.class);
    public static final int FAIL = -1;
    public static final int SUCCESS = 0;
+   // backtracking steps before a match switches to the automaton
+   static final int BACKTRACK_LIMIT = 100000;
+   private static final BacktrackLimitException BACKTRACK_LIMIT_EXCEEDED
+      = new BacktrackLimitException();
    private Regexp _regexp;
    private StringValue _subject;
    private int _subjectLength;
@@ -64,6 +68,9 @@ public class RegexpState {
    int[] _groupEnd;
    int[] _loopCount;
    int[] _loopOffset;
+   private RegexpAutomaton.Matcher _automatonMatcher;
+   // remaining backtracking steps, negative for no limit
+   private int _backtrackCount;
 
    private RegexpState() {
       int size = 32;
@@ -165,6 +172,22 @@ public class RegexpState {
          StringValue subject = _subject;
          int length = _subjectLength;
 
+         RegexpLiteral literal = _regexp._literal;
+         RegexpLiteral prefix = null;
+
+         if (literal != null) {
+            int offset = literal.indexOf(subject, _first, length);
+
+            if (offset < 0) {
+               _first = length + 1;
+
+               return false;
+            } else if (literal.isPrefix()) {
+               prefix = literal;
+               _first = offset;
+            }
+         }
+
          /* php/4e85 XXX: optim doesn't work for greedy loops
          if (_regexp._isAnchorBegin) {
          if (_first + minLength <= length)
@@ -172,35 +195,44 @@ public class RegexpState {
          }
           */
 
-         for (; _first + minLength <= length; _first++) {
-            if (firstSet != null && _first < length) {
-               char firstChar = subject.charAt(_first);
+         int first = _first;
 
-               if (firstChar < 256 && !firstSet[firstChar]) {
-                  continue;
-               }
-            }
+         startBacktrack();
 
-            clearGroup();
-            int offset = _regexp._prog.match(subject, length, _first, this);
+         try {
+            return findBacktrack(subject, length, minLength, firstSet, prefix);
+         } catch (BacktrackLimitException e) {
+            _backtrackCount = -1;
 
-            if (offset >= 0) {
-               _groupBegin[0] = _first;
-               _groupEnd[0] = offset;
+            RegexpAutomaton automaton = _regexp.getAutomaton();
 
-               if (_first < offset) {
-                  _first = offset;
-               } else {
-                  _first += 1;
-               }
+            if (automaton != null) {
+               clearGroup();
+
+               int begin = automaton.exec(subject, length,
+                  first, length - minLength, firstSet, prefix, this);
+
+               if (begin >= 0) {
+                  int end = _groupEnd[0];
+
+                  if (begin < end) {
+                     _first = end;
+                  } else {
+                     _first = begin + 1;
+                  }
 
-               return true;
+                  return true;
+               } else if (begin != RegexpAutomaton.FALLBACK) {
+                  _first = length + 1;
+
+                  return false;
+               }
             }
-         }
 
-         _first = length + 1;
+            _first = first;
 
-         return false;
+            return findBacktrack(subject, length, minLength, firstSet, prefix);
+         }
       } catch (StackOverflowError e) {
          log.warning(L.l("regexp '{0}' produces a StackOverflowError for\n{1}",
             _regexp, _subject));
@@ -210,6 +242,51 @@ public class RegexpState {
       }
    }
 
+   /**
+    * Finds the next match with the backtracking matcher.
+    */
+   private boolean findBacktrack(StringValue subject, int length,
+                                 int minLength, boolean[] firstSet,
+                                 RegexpLiteral prefix) {
+      for (; _first + minLength <= length; _first++) {
+         if (prefix != null) {
+            _first = prefix.indexOf(subject, _first, length);
+
+            if (_first < 0) {
+               break;
+            }
+         }
+
+         if (firstSet != null && _first < length) {
+            char firstChar = subject.charAt(_first);
+
+            if (firstChar < 256 && !firstSet[firstChar]) {
+               continue;
+            }
+         }
+
+         clearGroup();
+         int offset = _regexp._prog.match(subject, length, _first, this);
+
+         if (offset >= 0) {
+            _groupBegin[0] = _first;
+            _groupEnd[0] = offset;
+
+            if (_first < offset) {
+               _first = offset;
+            } else {
+               _first += 1;
+            }
+
+            return true;
+         }
+      }
+
+      _first = length + 1;
+
+      return false;
+   }
+
    public boolean find(Env env, StringValue subject) {
       try {
          if (subject == null) {
@@ -246,7 +323,32 @@ public class RegexpState {
          _first = first;
          clearGroup();
 
-         return _regexp._prog.match(_subject, _subjectLength, first, this);
+         startBacktrack();
+
+         try {
+            return _regexp._prog.match(_subject, _subjectLength, first, this);
+         } catch (BacktrackLimitException e) {
+            _backtrackCount = -1;
+
+            RegexpAutomaton automaton = _regexp.getAutomaton();
+
+            if (automaton != null) {
+               clearGroup();
+
+               int begin = automaton.exec(_subject, _subjectLength,
+                  first, first, null, null, this);
+
+               if (begin >= 0) {
+                  return _groupEnd[0];
+               } else if (begin != RegexpAutomaton.FALLBACK) {
+                  return -1;
+               }
+            }
+
+            clearGroup();
+
+            return _regexp._prog.match(_subject, _subjectLength, first, this);
+         }
       } catch (StackOverflowError e) {
          log.warning(L.l("regexp '{0}' produces a StackOverflowError for\n{1}",
             _regexp, subject));
@@ -285,32 +387,56 @@ public class RegexpState {
          int minLength = _regexp._minLength;
          boolean[] firstSet = _regexp._firstSet;
          int end = subjectLength - minLength;
-         RegexpNode prog = _regexp._prog;
 
          if (_regexp._isAnchorBegin) {
             end = start;
          }
 
-         for (; start <= end; start++) {
-            if (firstSet != null && (start < end || minLength > 0)) {
-               char firstChar = subject.charAt(start);
+         RegexpLiteral literal = _regexp._literal;
+         RegexpLiteral prefix = null;
+
+         if (literal != null) {
+            // rejects the subject without entering the matcher
+            int offset = literal.indexOf(subject, start, subjectLength);
 
-               if (firstChar < 256 && !firstSet[firstChar]) {
-                  continue;
+            if (offset < 0) {
+               return -1;
+            } else if (literal.isPrefix()) {
+               if (end < offset) {
+                  return -1;
                }
+
+               prefix = literal;
+               start = offset;
             }
+         }
+
+         startBacktrack();
+
+         try {
+            return execBacktrack(subject, subjectLength, start, end,
+               minLength, firstSet, prefix);
+         } catch (BacktrackLimitException e) {
+            _backtrackCount = -1;
+
+            RegexpAutomaton automaton = _regexp.getAutomaton();
 
-            int value = prog.match(subject, subjectLength, start, this);
+            if (automaton != null) {
+               clearGroup();
 
-            if (value >= 0) {
-               _groupBegin[0] = start;
-               _groupEnd[0] = value;
+               int value = automaton.exec(subject, subjectLength,
+                  start, end, firstSet, prefix, this);
 
-               return start;
+               if (value != RegexpAutomaton.FALLBACK) {
+                  return value;
+               }
             }
-         }
 
-         return -1;
+            clearGroup();
+
+            return execBacktrack(subject, subjectLength, start, end,
+               minLength, firstSet, prefix);
+         }
       } catch (StackOverflowError e) {
          log.warning(L.l("regexp '{0}' produces a StackOverflowError for\n{1}",
             _regexp, subject));
@@ -320,6 +446,76 @@ public class RegexpState {
       }
    }
 
+   /**
+    * Returns the start of the first match with the backtracking matcher.
+    */
+   private int execBacktrack(StringValue subject, int subjectLength,
+                             int start, int end, int minLength,
+                             boolean[] firstSet, RegexpLiteral prefix) {
+      RegexpNode prog = _regexp._prog;
+
+      for (; start <= end; start++) {
+         if (prefix != null) {
+            start = prefix.indexOf(subject, start, subjectLength);
+
+            if (start < 0 || end < start) {
+               break;
+            }
+         }
+
+         if (firstSet != null && (start < end || minLength > 0)) {
+            char firstChar = subject.charAt(start);
+
+            if (firstChar < 256 && !firstSet[firstChar]) {
+               continue;
+            }
+         }
+
+         int value = prog.match(subject, subjectLength, start, this);
+
+         if (value >= 0) {
+            _groupBegin[0] = start;
+            _groupEnd[0] = value;
+
+            return start;
+         }
+      }
+
+      return -1;
+   }
+
+   /**
+    * Starts the backtracking step budget. A pattern without an automaton
+    * backtracks without a limit.
+    */
+   private void startBacktrack() {
+      _backtrackCount = _regexp.isBacktrackOnly() ? -1 : BACKTRACK_LIMIT;
+   }
+
+   /**
+    * Counts a backtracking step, abandoning the backtracking matcher once
+    * the budget is spent.
+    */
+   final void backtrack() {
+      if (--_backtrackCount == 0) {
+         throw BACKTRACK_LIMIT_EXCEEDED;
+      }
+   }
+
+   /**
+    * Returns the automaton scratch space, sized for the automaton.
+    */
+   RegexpAutomaton.Matcher getAutomatonMatcher(RegexpAutomaton automaton) {
+      RegexpAutomaton.Matcher matcher = _automatonMatcher;
+
+      if (matcher == null || matcher.getCapacity() < automaton.getSize()) {
+         matcher = new RegexpAutomaton.Matcher(automaton.getSize());
+         _automatonMatcher = matcher;
+      }
+
+      return matcher;
+   }
+
    private void clearGroup() {
       _groupLength = 0;
 
@@ -414,4 +610,15 @@ public class RegexpState {
    public String toString() {
       return getClass().getSimpleName() + "[" + _regexp + "]";
    }
+
+   /**
+    * Thrown when a match spends its backtracking budget.
+    */
+   static final class BacktrackLimitException extends RuntimeException {
+
+      @Override
+      public Throwable fillInStackTrace() {
+         return this;
+      }
+   }
 }
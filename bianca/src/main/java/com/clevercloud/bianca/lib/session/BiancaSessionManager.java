@@ -34,7 +34,9 @@ import com.clevercloud.bianca.env.Env;
 import com.clevercloud.bianca.env.SessionArrayValue;
 import com.clevercloud.bianca.env.StringValue;
 import com.clevercloud.config.ConfigException;
+import com.clevercloud.java.WorkDir;
 import com.clevercloud.util.*;
+import com.clevercloud.vfs.Path;
 
 import java.io.IOException;
 import java.io.ObjectInputStream;
@@ -42,6 +44,7 @@ import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -60,7 +63,7 @@ public class BiancaSessionManager {
    private static int SET_TRUE = 1;
    private static int SET_FALSE = 2;
    // active sessions
-   protected LruCache<String, SessionArrayValue> _sessions;
+   protected ConcurrentLruCache<String, SessionArrayValue> _sessions;
    // total sessions
    private int _totalSessions;
    // iterator to purge sessions (to reduce gc)
@@ -79,20 +82,83 @@ public class BiancaSessionManager {
    private boolean _isAppendServerIndex = false;
    private boolean _isTwoDigitSessionIndex = false;
    protected boolean _isClosed;
-   private Map _persistentStore;
+   private volatile SessionStore _store;
    // statistics
    protected Object _statisticsLock = new Object();
    protected long _sessionCreateCount;
    protected long _sessionTimeoutCount;
+   private final AtomicLong _sessionSaveCount = new AtomicLong();
+   private final AtomicLong _sessionCleanCount = new AtomicLong();
 
    /**
     * Creates and initializes a new session manager.
     */
    public BiancaSessionManager(BiancaContext bianca) {
-      _sessions = new LruCache<String, SessionArrayValue>(_sessionMax);
+      _sessions = new ConcurrentLruCache<String, SessionArrayValue>(_sessionMax);
       _sessionIter = _sessions.values();
 
-      _persistentStore = bianca.getSessionCache();
+      Map<String, Object> sessionCache = bianca.getSessionCache();
+
+      if (sessionCache != null) {
+         _store = new MapSessionStore(sessionCache);
+      }
+   }
+
+   /**
+    * Returns the persistent session store, or null for memory-only sessions.
+    */
+   public SessionStore getSessionStore() {
+      return _store;
+   }
+
+   /**
+    * Sets the persistent session store.
+    */
+   public void setSessionStore(SessionStore store) {
+      SessionStore oldStore = _store;
+
+      _store = store;
+
+      if (oldStore != null && oldStore != store) {
+         oldStore.close();
+      }
+   }
+
+   /**
+    * Sets the persistent session store by type: "file" for one file per
+    * session in the given directory, "memory" for a local map standing in
+    * for a remote cache, or the name of a SessionStore class.  Writes are
+    * flushed by a background thread every flushInterval milliseconds, or
+    * synchronously when flushInterval is 0.
+    */
+   public void setSessionStore(String type, Path dir, long flushInterval)
+      throws ConfigException {
+      SessionStore store;
+
+      if ("file".equals(type)) {
+         if (dir == null) {
+            dir = WorkDir.getLocalWorkDir().lookup("bianca-session");
+         }
+
+         store = new FileSessionStore(dir);
+      } else if ("memory".equals(type)) {
+         store = new MapSessionStore();
+      } else {
+         try {
+            Class<?> cl = Class.forName(type, false,
+               Thread.currentThread().getContextClassLoader());
+
+            store = (SessionStore) cl.newInstance();
+         } catch (Exception e) {
+            throw new ConfigException(
+               L.l("'{0}' is an invalid session store.  "
+                  + "'file', 'memory' or a SessionStore class are allowed.",
+                  type), e);
+         }
+      }
+
+      setSessionStore(new WriteBehindSessionStore(store,
+         flushInterval, _sessionTimeout));
    }
 
    /**
@@ -187,6 +253,20 @@ public class BiancaSessionManager {
       return _sessionTimeoutCount;
    }
 
+   /**
+    * Returns the number of sessions written to the store.
+    */
+   public long getSessionSaveCount() {
+      return _sessionSaveCount.get();
+   }
+
+   /**
+    * Returns the number of unchanged sessions which weren't saved.
+    */
+   public long getSessionCleanCount() {
+      return _sessionCleanCount.get();
+   }
+
    /**
     * True if the server should reuse the current session id if the
     * session doesn't exist.
@@ -247,8 +327,14 @@ public class BiancaSessionManager {
    public void removeSession(String sessionId) {
       _sessions.remove(sessionId);
 
-      if (_persistentStore != null) {
-         _persistentStore.remove(sessionId);
+      SessionStore store = _store;
+
+      if (store != null) {
+         try {
+            store.remove(sessionId);
+         } catch (IOException e) {
+            log.log(Level.WARNING, e.toString(), e);
+         }
       }
 
       remove(sessionId);
@@ -387,15 +473,80 @@ public class BiancaSessionManager {
       return (SessionArrayValue) session.copy(env);
    }
 
+   /**
+    * Saves the session at the end of a request.  An unmodified session
+    * still in the cache is neither copied nor encoded, and a session whose
+    * encoding didn't change isn't written to the store.
+    */
    public void saveSession(Env env, SessionArrayValue session) {
-      SessionArrayValue copy = (SessionArrayValue) session.copy(env);
+      String id = session.getId();
+      SessionStore store = _store;
+
+      if (!session.isModified() && !getAlwaysSaveSession()) {
+         SessionArrayValue cached = _sessions.get(id);
+
+         if (cached != null && id.equals(cached.getId())) {
+            _sessionCleanCount.incrementAndGet();
 
-      _sessions.put(session.getId(), copy);
+            cached.setAccess(session.getAccessTime());
+
+            session.finish();
+
+            if (store != null) {
+               touch(store, cached, env.getCurrentTime());
+            }
+
+            return;
+         }
+      }
+
+      SessionArrayValue copy = (SessionArrayValue) session.copy(env);
 
       session.finish();
 
-      if (_persistentStore != null) {
-         _persistentStore.put(session.getId(), copy.encode(env));
+      if (store != null) {
+         String encoded = copy.encode(env);
+         String oldEncoded = session.getEncoded();
+
+         if (encoded.equals(oldEncoded)
+            || oldEncoded == null && encoded.length() == 0) {
+            // unchanged, or still empty and never stored
+            _sessionCleanCount.incrementAndGet();
+
+            touch(store, copy, env.getCurrentTime());
+         } else {
+            try {
+               store.store(id, encoded);
+
+               _sessionSaveCount.incrementAndGet();
+
+               copy.setEncoded(encoded);
+               copy.setStoreTime(env.getCurrentTime());
+            } catch (IOException e) {
+               log.log(Level.WARNING, L.l("can't save session {0}: {1}", id, e), e);
+            }
+         }
+      }
+
+      _sessions.put(id, copy);
+   }
+
+   /**
+    * Touches a stored session which hasn't been written recently, so the
+    * store doesn't purge sessions which are used but unchanged.
+    */
+   private void touch(SessionStore store, SessionArrayValue session, long now) {
+      if (session.getEncoded() == null
+         || now - session.getStoreTime() < _sessionTimeout / 4) {
+         return;
+      }
+
+      session.setStoreTime(now);
+
+      try {
+         store.touch(session.getId());
+      } catch (IOException e) {
+         log.log(Level.FINE, e.toString(), e);
       }
    }
 
@@ -443,16 +594,22 @@ public class BiancaSessionManager {
             return false;
          }
 
-         if (_persistentStore != null) {
-            String encoded = (String) _persistentStore.get(session.getId());
+         SessionStore store = _store;
+
+         if (store != null) {
+            String encoded = store.load(session.getId());
 
             if (encoded != null) {
                session.decode(env, new StringValue(encoded));
+
+               session.setEncoded(encoded);
+               session.setStoreTime(now);
             }
          }
 
          if (session.load()) {
             session.setAccess(now);
+            session.setModified(false);
             return true;
          } else {
             session.reset(now);
@@ -487,7 +644,7 @@ public class BiancaSessionManager {
       boolean isError = false;
 
       synchronized (_sessions) {
-         _sessionIter = _sessions.values(_sessionIter);
+         _sessionIter = _sessions.values();
 
          while (_sessionIter.hasNext()) {
             SessionArrayValue session = _sessionIter.next();
@@ -518,6 +675,12 @@ public class BiancaSessionManager {
             isError = true;
          }
       }
+
+      SessionStore store = _store;
+
+      if (store != null) {
+         store.close();
+      }
    }
 
    /**
@@ -0,0 +1,192 @@
+/*
+ * Copyright (c) 2012 Clever Cloud SAS -- all rights reserved
+ *
+ * This file is part of Bianca(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Bianca Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Bianca Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Bianca Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ * @author Marc-Antoine Perennou <Marc-Antoine@Perennou.com>
+ */
+package com.clevercloud.bianca.lib.session;
+
+import com.clevercloud.util.L10N;
+import com.clevercloud.vfs.Path;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Session store saving each session in its own file, like PHP's files
+ * save handler.  The file's modified time is the session's last use.
+ */
+public class FileSessionStore implements SessionStore {
+
+   private static final L10N L = new L10N(FileSessionStore.class);
+   private static final Logger log = Logger.getLogger(FileSessionStore.class.getName());
+   private static final String PREFIX = "sess_";
+   private static final String CHARSET = "UTF-8";
+   private final File _dir;
+
+   public FileSessionStore(Path dir) {
+      _dir = new File(dir.getNativePath());
+
+      _dir.mkdirs();
+   }
+
+   /**
+    * Returns the session directory.
+    */
+   public File getDir() {
+      return _dir;
+   }
+
+   @Override
+   public String load(String id)
+      throws IOException {
+      File file = getFile(id);
+
+      if (!file.isFile()) {
+         return null;
+      }
+
+      InputStream is;
+
+      try {
+         is = new FileInputStream(file);
+      } catch (IOException e) {
+         // purged by another thread
+         return null;
+      }
+
+      try {
+         ByteArrayOutputStream bos = new ByteArrayOutputStream((int) file.length());
+         byte[] buffer = new byte[4096];
+         int len;
+
+         while ((len = is.read(buffer)) > 0) {
+            bos.write(buffer, 0, len);
+         }
+
+         return new String(bos.toByteArray(), CHARSET);
+      } finally {
+         is.close();
+      }
+   }
+
+   @Override
+   public void store(String id, String data)
+      throws IOException {
+      File file = getFile(id);
+      File tmp = new File(file.getPath() + ".tmp" + Thread.currentThread().getId());
+
+      OutputStream os = new FileOutputStream(tmp);
+
+      try {
+         os.write(data.getBytes(CHARSET));
+      } finally {
+         os.close();
+      }
+
+      if (!tmp.renameTo(file)) {
+         file.delete();
+
+         if (!tmp.renameTo(file)) {
+            tmp.delete();
+
+            throw new IOException(L.l("can't rename {0} to {1}", tmp, file));
+         }
+      }
+   }
+
+   @Override
+   public void touch(String id) {
+      getFile(id).setLastModified(System.currentTimeMillis());
+   }
+
+   @Override
+   public void remove(String id) {
+      getFile(id).delete();
+   }
+
+   @Override
+   public void purge(long maxIdleTime) {
+      File[] files = _dir.listFiles();
+
+      if (files == null) {
+         return;
+      }
+
+      long expire = System.currentTimeMillis() - maxIdleTime;
+      int count = 0;
+
+      for (File file : files) {
+         if (file.getName().startsWith(PREFIX)
+            && file.lastModified() < expire
+            && file.delete()) {
+            count++;
+         }
+      }
+
+      if (count > 0 && log.isLoggable(Level.FINE)) {
+         log.fine(L.l("{0} purged {1} expired sessions", this, count));
+      }
+   }
+
+   @Override
+   public void close() {
+   }
+
+   /**
+    * Returns the session file, escaping any character which isn't safe
+    * in a file name, since the id comes from the request.
+    */
+   private File getFile(String id) {
+      StringBuilder sb = new StringBuilder(PREFIX);
+
+      for (int i = 0; i < id.length(); i++) {
+         char ch = id.charAt(i);
+
+         if ('a' <= ch && ch <= 'z'
+            || 'A' <= ch && ch <= 'Z'
+            || '0' <= ch && ch <= '9'
+            || ch == '-' || ch == ',') {
+            sb.append(ch);
+         } else {
+            sb.append('_').append(Integer.toHexString(ch)).append('_');
+         }
+      }
+
+      return new File(_dir, sb.toString());
+   }
+
+   @Override
+   public String toString() {
+      return getClass().getSimpleName() + "[" + _dir + "]";
+   }
+}
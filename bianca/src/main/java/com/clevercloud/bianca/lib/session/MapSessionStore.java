@@ -0,0 +1,110 @@
+/*
+ * Copyright (c) 2012 Clever Cloud SAS -- all rights reserved
+ *
+ * This file is part of Bianca(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Bianca Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Bianca Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Bianca Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ * @author Marc-Antoine Perennou <Marc-Antoine@Perennou.com>
+ */
+package com.clevercloud.bianca.lib.session;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Session store over a key/value map.  The map may be a client for a
+ * remote cache, like the map returned by BiancaContext.getSessionCache(),
+ * or a local map standing in for one.
+ * <p/>
+ * The map only holds the encoded sessions.  The last use of each session
+ * is tracked locally for purge(), so remote maps should also expire their
+ * entries themselves.
+ */
+public class MapSessionStore implements SessionStore {
+
+   private final Map<String, Object> _map;
+   private final ConcurrentHashMap<String, Long> _accessTimeMap
+      = new ConcurrentHashMap<String, Long>();
+
+   public MapSessionStore() {
+      this(new ConcurrentHashMap<String, Object>());
+   }
+
+   public MapSessionStore(Map<String, Object> map) {
+      _map = map;
+   }
+
+   @Override
+   public String load(String id) {
+      Object value = _map.get(id);
+
+      if (value == null) {
+         return null;
+      }
+
+      _accessTimeMap.put(id, System.currentTimeMillis());
+
+      return value.toString();
+   }
+
+   @Override
+   public void store(String id, String data) {
+      _map.put(id, data);
+
+      _accessTimeMap.put(id, System.currentTimeMillis());
+   }
+
+   @Override
+   public void touch(String id) {
+      _accessTimeMap.put(id, System.currentTimeMillis());
+   }
+
+   @Override
+   public void remove(String id) {
+      _map.remove(id);
+
+      _accessTimeMap.remove(id);
+   }
+
+   @Override
+   public void purge(long maxIdleTime) {
+      long expire = System.currentTimeMillis() - maxIdleTime;
+
+      Iterator<Map.Entry<String, Long>> iter = _accessTimeMap.entrySet().iterator();
+
+      while (iter.hasNext()) {
+         Map.Entry<String, Long> entry = iter.next();
+
+         if (entry.getValue() < expire) {
+            iter.remove();
+
+            _map.remove(entry.getKey());
+         }
+      }
+   }
+
+   @Override
+   public void close() {
+   }
+}
@@ -0,0 +1,77 @@
+/*
+ * Copyright (c) 2012 Clever Cloud SAS -- all rights reserved
+ *
+ * This file is part of Bianca(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Bianca Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Bianca Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Bianca Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ * @author Marc-Antoine Perennou <Marc-Antoine@Perennou.com>
+ */
+package com.clevercloud.bianca.lib.session;
+
+import java.io.IOException;
+
+/**
+ * Persistent backing store for the encoded PHP sessions.
+ * <p/>
+ * The session manager keeps the active sessions in memory and calls the
+ * store when a session is created, changed or destroyed.  Implementations
+ * must be thread-safe.
+ */
+public interface SessionStore {
+
+   /**
+    * Returns the encoded session, or null if the store doesn't have it.
+    */
+   public String load(String id)
+      throws IOException;
+
+   /**
+    * Saves the encoded session.
+    */
+   public void store(String id, String data)
+      throws IOException;
+
+   /**
+    * Marks an unchanged session as recently used, so it isn't purged.
+    */
+   public void touch(String id)
+      throws IOException;
+
+   /**
+    * Removes the session.
+    */
+   public void remove(String id)
+      throws IOException;
+
+   /**
+    * Removes the sessions which haven't been stored or touched for
+    * the given idle time in milliseconds.
+    */
+   public void purge(long maxIdleTime)
+      throws IOException;
+
+   /**
+    * Closes the store.
+    */
+   public void close();
+}
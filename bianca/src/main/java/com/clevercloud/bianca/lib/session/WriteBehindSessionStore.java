@@ -0,0 +1,259 @@
+/*
+ * Copyright (c) 2012 Clever Cloud SAS -- all rights reserved
+ *
+ * This file is part of Bianca(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Bianca Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Bianca Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Bianca Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ * @author Marc-Antoine Perennou <Marc-Antoine@Perennou.com>
+ */
+package com.clevercloud.bianca.lib.session;
+
+import com.clevercloud.util.L10N;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Session store queueing the writes to another store, which are flushed
+ * by a background thread.  Repeated writes of a session between two
+ * flushes are coalesced into one.  The thread also purges the expired
+ * sessions.
+ * <p/>
+ * With a flush interval of 0, writes go straight to the store and the
+ * thread only purges.
+ */
+public class WriteBehindSessionStore implements SessionStore {
+
+   private static final L10N L = new L10N(WriteBehindSessionStore.class);
+   private static final Logger log = Logger.getLogger(WriteBehindSessionStore.class.getName());
+   private static final Object REMOVE = new Object();
+   private static final Object TOUCH = new Object();
+   private static final long PURGE_INTERVAL = 60 * 1000L;
+   // above this many queued writes, the caller writes synchronously
+   private static final int PENDING_MAX = 16 * 1024;
+   private final SessionStore _store;
+   private final long _flushInterval;
+   private final long _maxIdleTime;
+   private final ConcurrentHashMap<String, Object> _pending
+      = new ConcurrentHashMap<String, Object>();
+   private final Thread _thread;
+   private volatile boolean _isClosed;
+   private final AtomicLong _writeCount = new AtomicLong();
+   private final AtomicLong _coalesceCount = new AtomicLong();
+
+   /**
+    * @param store         the backing store
+    * @param flushInterval the flush interval in milliseconds, 0 for none
+    * @param maxIdleTime   the session timeout in milliseconds
+    */
+   public WriteBehindSessionStore(SessionStore store,
+                                  long flushInterval,
+                                  long maxIdleTime) {
+      _store = store;
+      _flushInterval = flushInterval;
+      _maxIdleTime = maxIdleTime;
+
+      _thread = new Thread(new Flusher(), "bianca-session-writer");
+      _thread.setDaemon(true);
+      _thread.start();
+   }
+
+   /**
+    * Returns the backing store.
+    */
+   public SessionStore getStore() {
+      return _store;
+   }
+
+   /**
+    * Returns the number of sessions written to the backing store.
+    */
+   public long getWriteCount() {
+      return _writeCount.get();
+   }
+
+   /**
+    * Returns the number of writes replaced by a later one before a flush.
+    */
+   public long getCoalesceCount() {
+      return _coalesceCount.get();
+   }
+
+   /**
+    * Returns the number of queued writes.
+    */
+   public int getPendingCount() {
+      return _pending.size();
+   }
+
+   @Override
+   public String load(String id)
+      throws IOException {
+      Object value = _pending.get(id);
+
+      if (value == REMOVE) {
+         return null;
+      } else if (value instanceof String) {
+         return (String) value;
+      } else {
+         return _store.load(id);
+      }
+   }
+
+   @Override
+   public void store(String id, String data)
+      throws IOException {
+      if (_flushInterval <= 0) {
+         _store.store(id, data);
+         _writeCount.incrementAndGet();
+         return;
+      }
+
+      Object oldValue = _pending.put(id, data);
+
+      if (oldValue instanceof String) {
+         _coalesceCount.incrementAndGet();
+      }
+
+      if (_isClosed || PENDING_MAX <= _pending.size()) {
+         // the store can't keep up, so the request waits for it
+         flush();
+      }
+   }
+
+   @Override
+   public void touch(String id)
+      throws IOException {
+      if (_flushInterval <= 0) {
+         _store.touch(id);
+      } else {
+         // a queued write will touch the session anyway
+         _pending.putIfAbsent(id, TOUCH);
+      }
+   }
+
+   @Override
+   public void remove(String id)
+      throws IOException {
+      if (_flushInterval <= 0) {
+         _store.remove(id);
+      } else {
+         _pending.put(id, REMOVE);
+
+         if (_isClosed) {
+            flush();
+         }
+      }
+   }
+
+   @Override
+   public void purge(long maxIdleTime)
+      throws IOException {
+      _store.purge(maxIdleTime);
+   }
+
+   /**
+    * Writes the queued sessions to the backing store.
+    */
+   public synchronized void flush() {
+      for (Map.Entry<String, Object> entry : _pending.entrySet()) {
+         String id = entry.getKey();
+         Object value = entry.getValue();
+
+         try {
+            if (value == REMOVE) {
+               _store.remove(id);
+            } else if (value == TOUCH) {
+               _store.touch(id);
+            } else {
+               _store.store(id, (String) value);
+               _writeCount.incrementAndGet();
+            }
+         } catch (Exception e) {
+            log.log(Level.WARNING, L.l("can't save session {0}: {1}", id, e), e);
+         }
+
+         // a newer value queued during the write stays for the next flush
+         _pending.remove(id, value);
+      }
+   }
+
+   @Override
+   public void close() {
+      _isClosed = true;
+
+      _thread.interrupt();
+
+      try {
+         _thread.join(_flushInterval + 1000L);
+      } catch (InterruptedException e) {
+         Thread.currentThread().interrupt();
+      }
+
+      flush();
+
+      _store.close();
+   }
+
+   @Override
+   public String toString() {
+      return getClass().getSimpleName() + "[" + _store + "]";
+   }
+
+   class Flusher implements Runnable {
+
+      @Override
+      public void run() {
+         long interval = _flushInterval > 0 ? _flushInterval : PURGE_INTERVAL;
+         long nextPurge = System.currentTimeMillis() + PURGE_INTERVAL;
+
+         while (!_isClosed) {
+            try {
+               Thread.sleep(interval);
+            } catch (InterruptedException e) {
+               if (_isClosed) {
+                  return;
+               }
+            }
+
+            flush();
+
+            long now = System.currentTimeMillis();
+
+            if (nextPurge <= now && _maxIdleTime > 0) {
+               nextPurge = now + PURGE_INTERVAL;
+
+               try {
+                  _store.purge(_maxIdleTime);
+               } catch (Exception e) {
+                  log.log(Level.FINE, e.toString(), e);
+               }
+            }
+         }
+      }
+   }
+}
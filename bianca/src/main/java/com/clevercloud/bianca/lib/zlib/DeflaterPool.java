@@ -0,0 +1,78 @@
+/*
+ * Copyright (c) 2012 Clever Cloud SAS -- all rights reserved
+ *
+ * This file is part of Bianca(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Bianca Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Bianca Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Bianca Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ * @author Marc-Antoine Perennou <Marc-Antoine@Perennou.com>
+ */
+package com.clevercloud.bianca.lib.zlib;
+
+import com.clevercloud.util.FreeList;
+
+import java.util.zip.Deflater;
+
+/**
+ * Pool of deflaters.  A Deflater holds native zlib state, which is costly
+ * to allocate for every compressed response or string.
+ */
+public final class DeflaterPool {
+
+   private static final FreeList<Deflater> _freeRaw = new FreeList<Deflater>(32);
+   private static final FreeList<Deflater> _freeZlib = new FreeList<Deflater>(32);
+
+   private DeflaterPool() {
+   }
+
+   /**
+    * Returns a deflater with the compression level.
+    *
+    * @param nowrap true for raw deflate data without the zlib wrapper
+    */
+   public static Deflater allocate(int level, boolean nowrap) {
+      Deflater def = nowrap ? _freeRaw.allocate() : _freeZlib.allocate();
+
+      if (def == null) {
+         return new Deflater(level, nowrap);
+      }
+
+      def.setLevel(level);
+
+      return def;
+   }
+
+   /**
+    * Returns a deflater to the pool.  The nowrap flag must match its
+    * allocation.
+    */
+   public static void free(Deflater def, boolean nowrap) {
+      def.reset();
+      def.setStrategy(Deflater.DEFAULT_STRATEGY);
+
+      FreeList<Deflater> freeList = nowrap ? _freeRaw : _freeZlib;
+
+      if (!freeList.free(def)) {
+         def.end();
+      }
+   }
+}
@@ -41,6 +41,8 @@ import com.clevercloud.bianca.lib.file.BinaryOutput;
 import com.clevercloud.bianca.lib.file.BinaryStream;
 import com.clevercloud.bianca.lib.file.FileModule;
 import com.clevercloud.bianca.module.AbstractBiancaModule;
+import com.clevercloud.bianca.module.IniDefinition;
+import com.clevercloud.bianca.module.IniDefinitions;
 import com.clevercloud.util.L10N;
 import com.clevercloud.vfs.StreamImplOutputStream;
 import com.clevercloud.vfs.TempBuffer;
@@ -63,6 +65,7 @@ public class ZlibModule extends AbstractBiancaModule {
 
    private static final Logger log = Logger.getLogger(ZlibModule.class.getName());
    private static final L10N L = new L10N(ZlibModule.class);
+   private static final IniDefinitions _iniDefinitions = new IniDefinitions();
    public static final int FORCE_GZIP = 0x1;
    public static final int FORCE_DEFLATE = 0x2;
    private int _dbg;
@@ -72,6 +75,14 @@ public class ZlibModule extends AbstractBiancaModule {
       return new String[]{"zlib"};
    }
 
+   /**
+    * Returns the default php.ini values.
+    */
+   @Override
+   public IniDefinitions getIniDefinitions() {
+      return _iniDefinitions;
+   }
+
    /**
     * @param env
     * @param fileName
@@ -433,7 +444,7 @@ public class ZlibModule extends AbstractBiancaModule {
       Deflater deflater = null;
 
       try {
-         deflater = new Deflater(level, true);
+         deflater = DeflaterPool.allocate(level, true);
          Adler32 crc = new Adler32();
 
          boolean isFinished = false;
@@ -487,7 +498,7 @@ public class ZlibModule extends AbstractBiancaModule {
          throw BiancaModuleException.create(e);
       } finally {
          if (deflater != null) {
-            deflater.end();
+            DeflaterPool.free(deflater, true);
          }
       }
    }
@@ -544,7 +555,7 @@ public class ZlibModule extends AbstractBiancaModule {
       Deflater deflater = null;
 
       try {
-         deflater = new Deflater(level, true);
+         deflater = DeflaterPool.allocate(level, true);
 
          boolean isFinished = false;
          TempStream out = new TempStream();
@@ -566,7 +577,6 @@ public class ZlibModule extends AbstractBiancaModule {
                out.write(buffer, 0, len, false);
             }
          }
-         deflater.end();
 
          return env.createBinaryString(out.getHead());
 
@@ -576,7 +586,7 @@ public class ZlibModule extends AbstractBiancaModule {
          TempBuffer.free(tempBuf);
 
          if (deflater != null) {
-            deflater.end();
+            DeflaterPool.free(deflater, true);
          }
       }
    }
@@ -754,4 +764,7 @@ public class ZlibModule extends AbstractBiancaModule {
 
       return Deflater.DEFAULT_STRATEGY;
    }
+
+   static final IniDefinition INI_ZLIB_OUTPUT_COMPRESSION = _iniDefinitions.add("zlib.output_compression", false, PHP_INI_ALL);
+   static final IniDefinition INI_ZLIB_OUTPUT_COMPRESSION_LEVEL = _iniDefinitions.add("zlib.output_compression_level", -1, PHP_INI_ALL);
 }
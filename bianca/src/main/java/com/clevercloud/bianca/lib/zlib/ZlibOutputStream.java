@@ -48,6 +48,8 @@ public class ZlibOutputStream extends AbstractBinaryOutput {
 
    private OutputStream _os;
    private DeflaterOutputStream _out;
+   // pooled, so it's freed on close
+   private Deflater _def;
    private CRC32 _crc32;
    private static byte[] _header = {
       (byte) 0x1f, (byte) 0x8b, // gzip file identifier (ID1, ID2)
@@ -71,6 +73,7 @@ public class ZlibOutputStream extends AbstractBinaryOutput {
    private ZlibOutputStream(OutputStream os, Deflater def)
       throws IOException {
       _os = os;
+      _def = def;
       _out = new DeflaterOutputStream(_os, def);
 
       _os.write(_header, 0, _header.length);
@@ -125,9 +128,9 @@ public class ZlibOutputStream extends AbstractBinaryOutput {
       Deflater def;
 
       if (encodingMode == ZlibModule.FORCE_GZIP) {
-         def = new Deflater(compressionLevel, true);
+         def = DeflaterPool.allocate(compressionLevel, true);
       } else {
-         def = new Deflater(compressionLevel, false);
+         def = DeflaterPool.allocate(compressionLevel, false);
       }
 
       def.setStrategy(strategy);
@@ -206,9 +209,13 @@ public class ZlibOutputStream extends AbstractBinaryOutput {
          _out = null;
 
          if (out != null) {
-            finish(out);
+            try {
+               finish(out);
 
-            out.close();
+               out.close();
+            } finally {
+               DeflaterPool.free(_def, _isGzip);
+            }
          }
 
          _os.close();
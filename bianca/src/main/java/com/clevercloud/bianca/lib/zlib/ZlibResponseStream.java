@@ -0,0 +1,221 @@
+/*
+ * Copyright (c) 2012 Clever Cloud SAS -- all rights reserved
+ *
+ * This file is part of Bianca(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Bianca Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Bianca Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Bianca Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ * @author Marc-Antoine Perennou <Marc-Antoine@Perennou.com>
+ */
+package com.clevercloud.bianca.lib.zlib;
+
+import com.clevercloud.vfs.TempBuffer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Compresses a response body with the gzip or deflate content coding as
+ * it is written, so compressed blocks reach the client while the page is
+ * still running.
+ */
+public class ZlibResponseStream extends OutputStream {
+
+   private static final byte[] GZIP_HEADER = {
+      (byte) 0x1f, (byte) 0x8b, // gzip file identifier (ID1, ID2)
+      (byte) 0x8, // Deflate compression method (CM)
+      0, // optional flags (FLG)
+      0, 0, 0, 0, // modification time (MTIME)
+      0, // extra optional flags (XFL)
+      (byte) 0x3 // operating system (OS)
+   };
+   private final OutputStream _os;
+   private final boolean _isGzip;
+   private final CRC32 _crc;
+   private Deflater _deflater;
+   private TempBuffer _tempBuffer;
+   private boolean _isHeaderWritten;
+
+   /**
+    * @param os     the response stream
+    * @param isGzip true for gzip, false for deflate (zlib format)
+    * @param level  the compression level
+    */
+   public ZlibResponseStream(OutputStream os, boolean isGzip, int level) {
+      _os = os;
+      _isGzip = isGzip;
+
+      // gzip writes its own header and trailer around raw deflate data
+      _deflater = DeflaterPool.allocate(level, isGzip);
+      _tempBuffer = TempBuffer.allocate();
+
+      _crc = isGzip ? new CRC32() : null;
+   }
+
+   /**
+    * Returns the content coding name.
+    */
+   public String getContentEncoding() {
+      return _isGzip ? "gzip" : "deflate";
+   }
+
+   @Override
+   public void write(int v)
+      throws IOException {
+      byte[] buffer = new byte[]{(byte) v};
+
+      write(buffer, 0, 1);
+   }
+
+   @Override
+   public void write(byte[] buffer, int offset, int length)
+      throws IOException {
+      Deflater deflater = _deflater;
+
+      if (deflater == null) {
+         throw new IOException("write to closed stream");
+      }
+
+      if (length <= 0) {
+         return;
+      }
+
+      writeHeader();
+
+      if (_crc != null) {
+         _crc.update(buffer, offset, length);
+      }
+
+      deflater.setInput(buffer, offset, length);
+
+      while (!deflater.needsInput()) {
+         deflate();
+      }
+   }
+
+   /**
+    * Flushes the compressed data produced so far.  Data still held by the
+    * deflater is sent when its block completes or on close.
+    */
+   @Override
+   public void flush()
+      throws IOException {
+      if (_deflater != null) {
+         _os.flush();
+      }
+   }
+
+   /**
+    * Finishes the compressed stream, closes the response stream and
+    * returns the deflater to the pool.
+    */
+   @Override
+   public void close()
+      throws IOException {
+      Deflater deflater = _deflater;
+
+      if (deflater == null) {
+         return;
+      }
+
+      try {
+         // an empty body, e.g. for a redirect, stays empty
+         if (!_isHeaderWritten) {
+            _os.close();
+
+            return;
+         }
+
+         deflater.finish();
+
+         while (!deflater.finished()) {
+            deflate();
+         }
+
+         if (_isGzip) {
+            writeInt((int) _crc.getValue());
+            writeInt((int) deflater.getBytesRead());
+         }
+
+         _os.close();
+      } finally {
+         release();
+      }
+   }
+
+   /**
+    * Returns the deflater to the pool without finishing the stream, e.g.
+    * when the response is abandoned after an error.
+    */
+   public void release() {
+      Deflater deflater = _deflater;
+      _deflater = null;
+
+      TempBuffer tempBuffer = _tempBuffer;
+      _tempBuffer = null;
+
+      if (deflater != null) {
+         DeflaterPool.free(deflater, _isGzip);
+      }
+
+      if (tempBuffer != null) {
+         TempBuffer.free(tempBuffer);
+      }
+   }
+
+   private void writeHeader()
+      throws IOException {
+      if (!_isHeaderWritten) {
+         _isHeaderWritten = true;
+
+         if (_isGzip) {
+            _os.write(GZIP_HEADER, 0, GZIP_HEADER.length);
+         }
+      }
+   }
+
+   private void deflate()
+      throws IOException {
+      byte[] buffer = _tempBuffer.getBuffer();
+
+      int len = _deflater.deflate(buffer, 0, buffer.length);
+
+      if (len > 0) {
+         _os.write(buffer, 0, len);
+      }
+   }
+
+   private void writeInt(int v)
+      throws IOException {
+      _os.write(v);
+      _os.write(v >> 8);
+      _os.write(v >> 16);
+      _os.write(v >> 24);
+   }
+
+   @Override
+   public String toString() {
+      return getClass().getSimpleName() + "[" + getContentEncoding() + "]";
+   }
+}
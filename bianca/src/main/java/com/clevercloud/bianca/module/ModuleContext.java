@@ -69,6 +69,7 @@ public class ModuleContext {
    private HashSet<URL> _serviceClassUrls = new HashSet<URL>();
    private HashSet<URL> _serviceModuleUrls = new HashSet<URL>();
    private HashMap<String, ModuleInfo> _moduleInfoMap = new HashMap<String, ModuleInfo>();
+   private StaticInvokerCompiler _staticInvokerCompiler;
    private HashSet<String> _extensionSet = new HashSet<String>();
    private ClassDef _stdClassDef;
    private BiancaClass _stdClass;
@@ -433,6 +434,26 @@ public class ModuleContext {
       }
    }
 
+   /**
+    * Returns the module info with the given name.
+    */
+   public ModuleInfo findModuleInfo(String name) {
+      return _moduleInfoMap.get(name);
+   }
+
+   /**
+    * Returns the generator of direct invokers for module functions.
+    */
+   public StaticInvokerCompiler getStaticInvokerCompiler() {
+      synchronized (this) {
+         if (_staticInvokerCompiler == null) {
+            _staticInvokerCompiler = new StaticInvokerCompiler(this);
+         }
+
+         return _staticInvokerCompiler;
+      }
+   }
+
    /**
     * Returns true if an extension is loaded.
     */
@@ -39,6 +39,7 @@ import com.clevercloud.util.L10N;
 import java.lang.reflect.Field;
 import java.lang.reflect.Method;
 import java.lang.reflect.Modifier;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -59,6 +60,7 @@ public class ModuleInfo {
    private HashSet<String> _extensionSet = new HashSet<String>();
    private HashMap<StringValue, Value> _unicodeConstMap = new HashMap<StringValue, Value>();
    private HashMap<String, AbstractFunction> _staticFunctions = new HashMap<String, AbstractFunction>();
+   private ArrayList<StaticFunction> _staticFunctionList = new ArrayList<StaticFunction>();
    private IniDefinitions _iniDefinitions = new IniDefinitions();
    private HashSet<String> _extensionClassMap = new HashSet<String>();
 
@@ -109,6 +111,13 @@ public class ModuleInfo {
       return _staticFunctions;
    }
 
+   /**
+    * Returns the introspected functions, including overloaded ones.
+    */
+   public ArrayList<StaticFunction> getStaticFunctions() {
+      return _staticFunctionList;
+   }
+
    public IniDefinitions getIniDefinitions() {
       return _iniDefinitions;
    }
@@ -204,6 +213,8 @@ public class ModuleInfo {
 
             StaticFunction function = _context.createStaticFunction(_module, method);
 
+            _staticFunctionList.add(function);
+
             String functionName = function.getName();
 
             AbstractJavaMethod oldFunction = (AbstractJavaMethod) _staticFunctions.get(functionName);
@@ -33,19 +33,29 @@ package com.clevercloud.bianca.module;
 import com.clevercloud.bianca.BiancaExitException;
 import com.clevercloud.bianca.BiancaModuleException;
 import com.clevercloud.bianca.annotation.Name;
+import com.clevercloud.bianca.env.BiancaClass;
+import com.clevercloud.bianca.env.Env;
 import com.clevercloud.bianca.env.JavaInvoker;
+import com.clevercloud.bianca.env.Value;
+import com.clevercloud.bianca.profile.Profiler;
 
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Represents the introspected static function information.
  */
 public class StaticFunction extends JavaInvoker {
 
+   // calls before the module's invokers are generated
+   private static final int INVOKER_THRESHOLD = 1000;
    protected final BiancaModule _biancaModule;
    protected final Method _method;
+   private final ModuleContext _moduleContext;
    private final int _argLength;
+   private volatile StaticInvoker _invoker;
+   private final AtomicInteger _callCount = new AtomicInteger();
 
    /**
     * Creates the statically introspected function.
@@ -62,6 +72,7 @@ public class StaticFunction extends JavaInvoker {
          method.getAnnotations(),
          method.getReturnType());
 
+      _moduleContext = moduleContext;
       _method = method;
       _argLength = method.getParameterTypes().length;
       _biancaModule = biancaModule;
@@ -116,11 +127,90 @@ public class StaticFunction extends JavaInvoker {
       return _argLength;
    }
 
+   /**
+    * Returns the generated invoker, or null if called by reflection.
+    */
+   public StaticInvoker getInvoker() {
+      return _invoker;
+   }
+
+   /**
+    * Sets the generated invoker.
+    */
+   public void setInvoker(StaticInvoker invoker) {
+      _invoker = invoker;
+   }
+
+   @Override
+   public Value callMethod(Env env,
+                           BiancaClass qClass,
+                           Value qThis,
+                           Value[] args) {
+      StaticInvoker invoker = _invoker;
+
+      if (invoker == null) {
+         int count = _callCount.get();
+
+         // only the call crossing the threshold requests the invokers
+         if (count <= INVOKER_THRESHOLD
+            && _callCount.compareAndSet(count, count + 1)
+            && count == INVOKER_THRESHOLD
+            && _moduleContext != null) {
+            _moduleContext.getStaticInvokerCompiler().compileLater(_biancaModule);
+         }
+      } else if (invoker.isDirectCall() && isDirectArgs(args)) {
+         Profiler profiler = env.getProfiler();
+
+         if (profiler != null) {
+            profiler.enter(getProfileName());
+         }
+
+         try {
+            return invoker.call(env, args);
+         } catch (Error e) {
+            throw BiancaModuleException.create(e);
+         } finally {
+            if (profiler != null) {
+               profiler.exit();
+            }
+         }
+      }
+
+      return super.callMethod(env, qClass, qThis, args);
+   }
+
+   /**
+    * Returns true if the arguments need no defaults and no rest array.
+    */
+   private boolean isDirectArgs(Value[] args) {
+      if (args.length != getMarshalArgs().length) {
+         return false;
+      }
+
+      for (int i = 0; i < args.length; i++) {
+         if (args[i] == null) {
+            return false;
+         }
+      }
+
+      return true;
+   }
+
    /**
     * Evalutes the function.
     */
    @Override
    public Object invoke(Object obj, Object[] javaArgs) {
+      StaticInvoker invoker = _invoker;
+
+      if (invoker != null) {
+         try {
+            return invoker.invoke(javaArgs);
+         } catch (Error e) {
+            throw BiancaModuleException.create(e);
+         }
+      }
+
       try {
          return _method.invoke(_biancaModule, javaArgs);
       } catch (IllegalArgumentException e) {
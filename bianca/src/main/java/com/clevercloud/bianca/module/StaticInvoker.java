@@ -0,0 +1,95 @@
+/*
+ * Copyright (c) 2012 Clever Cloud SAS -- all rights reserved
+ *
+ * This file is part of Bianca(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Bianca Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Bianca Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Bianca Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ * @author Marc-Antoine Perennou <Marc-Antoine@Perennou.com>
+ */
+package com.clevercloud.bianca.module;
+
+import com.clevercloud.bianca.env.Env;
+import com.clevercloud.bianca.env.Value;
+import com.clevercloud.bianca.marshal.Marshal;
+
+/**
+ * Generated invoker calling a module function without reflection.
+ */
+abstract public class StaticInvoker {
+
+   private final StaticFunction _function;
+
+   protected StaticInvoker(StaticFunction function) {
+      _function = function;
+   }
+
+   /**
+    * Returns the invoked function.
+    */
+   public StaticFunction getFunction() {
+      return _function;
+   }
+
+   /**
+    * Returns true if call() marshals the arguments itself.
+    */
+   public boolean isDirectCall() {
+      return false;
+   }
+
+   /**
+    * Calls the function with exactly its declared php arguments.
+    * Generated invokers marshal inline, this default marshals the
+    * arguments and calls invoke().
+    */
+   public Value call(Env env, Value[] args) {
+      StaticFunction fun = _function;
+      Marshal[] marshalArgs = fun.getMarshalArgs();
+      Class<?>[] paramTypes = fun.getMethod().getParameterTypes();
+
+      int offset = fun.getHasEnv() ? 1 : 0;
+
+      Object[] javaArgs = new Object[paramTypes.length];
+
+      if (offset > 0) {
+         javaArgs[0] = env;
+      }
+
+      for (int i = 0; i < args.length; i++) {
+         javaArgs[i + offset] = marshalArgs[i].marshal(env, args[i],
+            paramTypes[i + offset]);
+      }
+
+      return fun.getUnmarshalReturn().unmarshal(env, invoke(javaArgs));
+   }
+
+   /**
+    * Calls the function with already marshaled java arguments.
+    */
+   abstract public Object invoke(Object[] args);
+
+   @Override
+   public String toString() {
+      return getClass().getSimpleName() + "[" + _function.getName() + "]";
+   }
+}
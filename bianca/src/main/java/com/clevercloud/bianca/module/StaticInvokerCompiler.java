@@ -0,0 +1,398 @@
+/*
+ * Copyright (c) 2012 Clever Cloud SAS -- all rights reserved
+ *
+ * This file is part of Bianca(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Bianca Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Bianca Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Bianca Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ * @author Marc-Antoine Perennou <Marc-Antoine@Perennou.com>
+ */
+package com.clevercloud.bianca.module;
+
+import com.clevercloud.bianca.compiler.JavaClassCompiler;
+import com.clevercloud.bianca.marshal.*;
+import com.clevercloud.util.DaemonThreadFactory;
+import com.clevercloud.util.L10N;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Generates the invokers of a module's functions in the background.
+ *
+ * Each function of the module gets its own invoker class, calling the
+ * java method directly. When the function takes exactly its php
+ * arguments, the invoker also marshals them inline, so long, int,
+ * double, boolean and String arguments and results are never boxed.
+ */
+public class StaticInvokerCompiler {
+
+   private static final L10N L = new L10N(StaticInvokerCompiler.class);
+   private static final Logger log = Logger.getLogger(StaticInvokerCompiler.class.getName());
+   private static final String PACKAGE = "_bianca";
+   private static final AtomicInteger _classCount = new AtomicInteger();
+   private final ModuleContext _context;
+   private final HashSet<String> _requestedModules = new HashSet<String>();
+   private JavaClassCompiler _javaCompiler;
+   private ExecutorService _executor;
+   private boolean _isDisabled;
+
+   public StaticInvokerCompiler(ModuleContext context) {
+      _context = context;
+   }
+
+   /**
+    * Requests the invokers for the module's functions.
+    */
+   public void compileLater(BiancaModule module) {
+      final String name = module.getClass().getName();
+
+      synchronized (this) {
+         if (_isDisabled || !_requestedModules.add(name)) {
+            return;
+         }
+
+         if (_executor == null) {
+            _executor = Executors.newSingleThreadExecutor(
+               new DaemonThreadFactory("bianca-invoker"));
+         }
+
+         _executor.execute(new Runnable() {
+            @Override
+            public void run() {
+               compile(name);
+            }
+         });
+      }
+   }
+
+   /**
+    * Generates and installs the invokers for a module.
+    */
+   public void compile(String moduleName) {
+      ModuleInfo info = _context.findModuleInfo(moduleName);
+
+      if (info == null) {
+         return;
+      }
+
+      try {
+         ArrayList<StaticFunction> funList = new ArrayList<StaticFunction>();
+
+         for (StaticFunction fun : info.getStaticFunctions()) {
+            if (fun.getInvoker() == null && isAccessible(fun.getMethod())) {
+               funList.add(fun);
+            }
+         }
+
+         if (funList.isEmpty()) {
+            return;
+         }
+
+         Class<?> moduleClass = info.getModule().getClass();
+         String simpleName = moduleClass.getSimpleName().replaceAll("[^a-zA-Z0-9]", "_");
+         String className = (simpleName + "_Invokers_" + _classCount.incrementAndGet());
+
+         String source = generate(className, funList);
+
+         if (log.isLoggable(Level.FINEST)) {
+            log.finest(source);
+         }
+
+         ClassLoader loader = moduleClass.getClassLoader();
+
+         Class<?> cl;
+
+         if (loader != null) {
+            cl = getJavaCompiler().compile(PACKAGE + "." + className, source, loader);
+         } else {
+            cl = getJavaCompiler().compile(PACKAGE + "." + className, source);
+         }
+
+         for (int i = 0; i < funList.size(); i++) {
+            StaticFunction fun = funList.get(i);
+
+            Class<?> invokerClass = cl.getClassLoader().loadClass(cl.getName() + "$F" + i);
+
+            Constructor<?> ctor = invokerClass.getConstructor(StaticFunction.class);
+
+            fun.setInvoker((StaticInvoker) ctor.newInstance(fun));
+         }
+
+         if (log.isLoggable(Level.FINE)) {
+            log.fine(L.l("{0} generated {1} invokers",
+               moduleName, funList.size()));
+         }
+      } catch (Throwable e) {
+         if (_javaCompiler == null) {
+            // no JDK, keep calling through reflection
+            synchronized (this) {
+               _isDisabled = true;
+            }
+         }
+
+         log.log(Level.FINE, e.toString(), e);
+      }
+   }
+
+   private String generate(String className, ArrayList<StaticFunction> funList) {
+      StringBuilder out = new StringBuilder();
+
+      out.append("package ").append(PACKAGE).append(";\n\n");
+      out.append("import com.clevercloud.bianca.env.*;\n");
+      out.append("import com.clevercloud.bianca.marshal.Marshal;\n");
+      out.append("import com.clevercloud.bianca.module.StaticFunction;\n");
+      out.append("import com.clevercloud.bianca.module.StaticInvoker;\n\n");
+      out.append("public final class ").append(className).append(" {\n");
+
+      for (int i = 0; i < funList.size(); i++) {
+         generateInvoker(out, i, funList.get(i));
+      }
+
+      out.append("}\n");
+
+      return out.toString();
+   }
+
+   private void generateInvoker(StringBuilder out, int index, StaticFunction fun) {
+      Method method = fun.getMethod();
+      Class<?>[] param = method.getParameterTypes();
+      Class<?> retType = method.getReturnType();
+      String declName = method.getDeclaringClass().getCanonicalName();
+      boolean isStatic = Modifier.isStatic(method.getModifiers());
+
+      String target;
+
+      if (isStatic) {
+         target = declName + "." + method.getName();
+      } else {
+         target = "_module." + method.getName();
+      }
+
+      out.append("\n  public static final class F").append(index);
+      out.append(" extends StaticInvoker {\n");
+
+      if (!isStatic) {
+         out.append("    private final ").append(declName).append(" _module;\n");
+      }
+
+      out.append("    private final Marshal[] _marshal;\n");
+      out.append("    private final Marshal _ret;\n");
+      out.append("    private final Class[] _param;\n\n");
+
+      out.append("    public F").append(index).append("(StaticFunction fun) {\n");
+      out.append("      super(fun);\n");
+
+      if (!isStatic) {
+         out.append("      _module = (").append(declName).append(") fun.getModule();\n");
+      }
+
+      out.append("      _marshal = fun.getMarshalArgs();\n");
+      out.append("      _ret = fun.getUnmarshalReturn();\n");
+      out.append("      _param = fun.getMethod().getParameterTypes();\n");
+      out.append("    }\n");
+
+      // invoke() with java arguments marshaled by JavaInvoker
+      out.append("\n    public Object invoke(Object[] args) {\n");
+
+      StringBuilder call = new StringBuilder();
+      call.append(target).append("(");
+
+      for (int k = 0; k < param.length; k++) {
+         if (k > 0) {
+            call.append(", ");
+         }
+
+         if (param[k].isPrimitive()) {
+            call.append("((").append(getWrapper(param[k]).getName());
+            call.append(") args[").append(k).append("]).");
+            call.append(param[k].getName()).append("Value()");
+         } else {
+            call.append("(").append(param[k].getCanonicalName());
+            call.append(") args[").append(k).append("]");
+         }
+      }
+
+      call.append(")");
+
+      if (void.class.equals(retType)) {
+         out.append("      ").append(call).append(";\n");
+         out.append("      return null;\n");
+      } else {
+         out.append("      return ").append(call).append(";\n");
+      }
+
+      out.append("    }\n");
+
+      if (fun.getHasRestArgs() || fun.getHasThis()) {
+         out.append("  }\n");
+         return;
+      }
+
+      // call() with the php arguments
+      Marshal[] marshals = fun.getMarshalArgs();
+      int offset = fun.getHasEnv() ? 1 : 0;
+
+      call = new StringBuilder();
+      call.append(target).append("(");
+
+      for (int k = 0; k < param.length; k++) {
+         if (k > 0) {
+            call.append(", ");
+         }
+
+         if (k < offset) {
+            call.append("env");
+            continue;
+         }
+
+         int i = k - offset;
+         Class<?> marshalClass = marshals[i].getClass();
+         String arg = "args[" + i + "]";
+
+         if (marshalClass == LongMarshal.class && param[k] == long.class) {
+            call.append(arg).append(".toLong()");
+         } else if (marshalClass == IntegerMarshal.class && param[k] == int.class) {
+            call.append("(int) ").append(arg).append(".toLong()");
+         } else if (marshalClass == DoubleMarshal.class && param[k] == double.class) {
+            call.append(arg).append(".toDouble()");
+         } else if (marshalClass == BooleanMarshal.class && param[k] == boolean.class) {
+            call.append(arg).append(".toBoolean()");
+         } else if (marshalClass == StringMarshal.class && param[k] == String.class) {
+            call.append(arg).append(".toJavaString()");
+         } else if (param[k].isPrimitive()) {
+            call.append("((").append(getWrapper(param[k]).getName());
+            call.append(") _marshal[").append(i).append("].marshal(env, ");
+            call.append(arg).append(", _param[").append(k).append("])).");
+            call.append(param[k].getName()).append("Value()");
+         } else {
+            call.append("(").append(param[k].getCanonicalName());
+            call.append(") _marshal[").append(i).append("].marshal(env, ");
+            call.append(arg).append(", _param[").append(k).append("])");
+         }
+      }
+
+      call.append(")");
+
+      Class<?> retMarshal = fun.getUnmarshalReturn().getClass();
+
+      out.append("\n    public boolean isDirectCall() {\n");
+      out.append("      return true;\n");
+      out.append("    }\n");
+
+      out.append("\n    public Value call(Env env, Value[] args) {\n");
+
+      if (void.class.equals(retType)) {
+         out.append("      ").append(call).append(";\n");
+         out.append("      return _ret.unmarshal(env, null);\n");
+      } else if (retMarshal == LongMarshal.class && retType == long.class
+         || retMarshal == IntegerMarshal.class && retType == int.class) {
+         out.append("      return LongValue.create(").append(call).append(");\n");
+      } else if (retMarshal == DoubleMarshal.class && retType == double.class) {
+         out.append("      return new DoubleValue(").append(call).append(");\n");
+      } else if (retMarshal == BooleanMarshal.class && retType == boolean.class) {
+         out.append("      return ").append(call);
+         out.append(" ? BooleanValue.TRUE : BooleanValue.FALSE;\n");
+      } else {
+         out.append("      return _ret.unmarshal(env, ").append(call).append(");\n");
+      }
+
+      out.append("    }\n");
+      out.append("  }\n");
+   }
+
+   /**
+    * Returns true if generated code can call the method.
+    */
+   private static boolean isAccessible(Method method) {
+      if (!Modifier.isPublic(method.getModifiers())
+         || !isAccessible(method.getDeclaringClass())) {
+         return false;
+      }
+
+      for (Class<?> param : method.getParameterTypes()) {
+         if (!isAccessible(param)) {
+            return false;
+         }
+      }
+
+      return true;
+   }
+
+   private static boolean isAccessible(Class<?> cl) {
+      while (cl.isArray()) {
+         cl = cl.getComponentType();
+      }
+
+      if (cl.isPrimitive()) {
+         return true;
+      }
+
+      if (cl.getCanonicalName() == null) {
+         return false;
+      }
+
+      for (; cl != null; cl = cl.getDeclaringClass()) {
+         if (!Modifier.isPublic(cl.getModifiers())) {
+            return false;
+         }
+      }
+
+      return true;
+   }
+
+   private static Class<?> getWrapper(Class<?> cl) {
+      if (cl == boolean.class) {
+         return Boolean.class;
+      } else if (cl == char.class) {
+         return Character.class;
+      } else if (cl == byte.class) {
+         return Byte.class;
+      } else if (cl == short.class) {
+         return Short.class;
+      } else if (cl == int.class) {
+         return Integer.class;
+      } else if (cl == long.class) {
+         return Long.class;
+      } else if (cl == float.class) {
+         return Float.class;
+      } else {
+         return Double.class;
+      }
+   }
+
+   private synchronized JavaClassCompiler getJavaCompiler() {
+      if (_javaCompiler == null) {
+         _javaCompiler = new JavaClassCompiler();
+      }
+
+      return _javaCompiler;
+   }
+}
@@ -30,14 +30,19 @@
 package com.clevercloud.bianca.page;
 
 import com.clevercloud.bianca.BiancaContext;
+import com.clevercloud.bianca.BiancaException;
+import com.clevercloud.bianca.compiler.ProgramCompiler;
 import com.clevercloud.bianca.parser.BiancaParser;
 import com.clevercloud.bianca.program.BiancaProgram;
+import com.clevercloud.java.WorkDir;
 import com.clevercloud.util.L10N;
-import com.clevercloud.util.LruCache;
+import com.clevercloud.util.ConcurrentLruCache;
 import com.clevercloud.vfs.IOExceptionWrapper;
 import com.clevercloud.vfs.Path;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -48,14 +53,25 @@ public class PageManager {
 
    private static final Logger log = Logger.getLogger(PageManager.class.getName());
    protected static final L10N L = new L10N(PageManager.class);
+   // watcher interval when no dependency-check-interval is configured
+   private static final long DEFAULT_WATCH_INTERVAL = 2000L;
    private final BiancaContext _bianca;
    //private Path _pwd;
    private boolean _isLazyCompile;
    private boolean _isCompile;
    private boolean _isCompileFailover = true;
    private boolean _isRequireSource = true;
-   protected LruCache<Path, BiancaProgram> _programCache = new LruCache<Path, BiancaProgram>(1024);
-   private boolean _isClosed;
+   private int _compileThreshold = 16;
+   private ProgramCompiler _compiler;
+   private boolean _isParseCache;
+   private Path _parseCacheDir;
+   private ParseCache _parseCache;
+   private final ArrayList<Path> _preloadDirList = new ArrayList<Path>();
+   private Path _preloadList;
+   private int _preloadThreadMax;
+   protected ConcurrentLruCache<Path, BiancaProgram> _programCache = new ConcurrentLruCache<Path, BiancaProgram>(1024);
+   private volatile boolean _isClosed;
+   private volatile Thread _watchThread;
 
    /**
     * Constructor.
@@ -117,6 +133,20 @@ public class PageManager {
       _isLazyCompile = isCompile;
    }
 
+   /**
+    * Returns the number of executions before a lazy page is compiled.
+    */
+   public int getCompileThreshold() {
+      return _compileThreshold;
+   }
+
+   /**
+    * Sets the number of executions before a lazy page is compiled.
+    */
+   public void setCompileThreshold(int threshold) {
+      _compileThreshold = threshold;
+   }
+
    /**
     * true if compiled pages require their source
     */
@@ -131,6 +161,163 @@ public class PageManager {
       return _isRequireSource;
    }
 
+   /**
+    * true if parsed programs are saved on disk.
+    */
+   public boolean isParseCache() {
+      return _isParseCache;
+   }
+
+   /**
+    * true if parsed programs are saved on disk.
+    */
+   public void setParseCache(boolean isParseCache) {
+      _isParseCache = isParseCache;
+   }
+
+   /**
+    * Sets the directory of the parse cache, defaulting to the work directory.
+    */
+   public void setParseCacheDir(Path dir) {
+      _parseCacheDir = dir;
+   }
+
+   /**
+    * Returns the persistent parse cache, or null if it's disabled.
+    */
+   public synchronized ParseCache getParseCache() {
+      if (!_isParseCache) {
+         return null;
+      }
+
+      if (_parseCache == null) {
+         Path dir = _parseCacheDir;
+
+         if (dir == null) {
+            dir = WorkDir.getLocalWorkDir().lookup("bianca-parse");
+         }
+
+         _parseCache = new ParseCache(_bianca, dir);
+      }
+
+      return _parseCache;
+   }
+
+   /**
+    * Adds a directory whose pages are parsed by preload().
+    */
+   public void addPreloadDir(Path dir) {
+      _preloadDirList.add(dir);
+   }
+
+   /**
+    * Sets the list file of pages to preload. The cached pages are written
+    * back to the list when the manager closes.
+    */
+   public void setPreloadList(Path path) {
+      _preloadList = path;
+   }
+
+   /**
+    * Sets the number of preload threads, defaulting to the processor count.
+    */
+   public void setPreloadThreadMax(int threadMax) {
+      _preloadThreadMax = threadMax;
+   }
+
+   /**
+    * true if there is anything to preload.
+    */
+   public boolean isPreload() {
+      return _preloadList != null || !_preloadDirList.isEmpty();
+   }
+
+   /**
+    * Parses the configured pages into the page cache.
+    *
+    * @return the number of preloaded pages
+    */
+   public int preload() {
+      PagePreloader preloader = new PagePreloader(_bianca, this);
+
+      for (Path dir : _preloadDirList) {
+         preloader.addDirectory(dir);
+      }
+
+      preloader.setList(_preloadList);
+
+      if (_preloadThreadMax > 0) {
+         preloader.setThreadMax(_preloadThreadMax);
+      }
+
+      return preloader.preload();
+   }
+
+   /**
+    * Returns the cached program for a path, or null.
+    */
+   public BiancaProgram getProgram(Path path) {
+      return _programCache.get(path);
+   }
+
+   /**
+    * Returns true if a background thread checks the page sources.
+    */
+   public boolean isDependencyWatch() {
+      return _watchThread != null;
+   }
+
+   /**
+    * If true, a background thread checks the sources of the cached pages,
+    * instead of the requests checking them on each parse.
+    */
+   public synchronized void setDependencyWatch(boolean isWatch) {
+      if (isWatch == (_watchThread != null)) {
+         return;
+      }
+
+      if (isWatch) {
+         _watchThread = new Thread(new DependencyWatcher(), "bianca-page-watch");
+         _watchThread.setDaemon(true);
+         _watchThread.start();
+      } else {
+         _watchThread.interrupt();
+         _watchThread = null;
+      }
+   }
+
+   /**
+    * Checks the sources of the cached pages, marking the modified ones
+    * so the next parse reloads them.
+    *
+    * @return the number of modified pages
+    */
+   public int checkModified() {
+      int count = 0;
+
+      Iterator<BiancaProgram> iter = _programCache.values();
+
+      while (iter.hasNext()) {
+         BiancaProgram program = iter.next();
+
+         if (program != null && !program.isModified()
+            && program.checkModified()) {
+            if (log.isLoggable(Level.FINE)) {
+               log.fine(L.l("Bianca[{0}] page is modified", program));
+            }
+
+            count++;
+         }
+      }
+
+      if (count > 0) {
+         // a deleted or renamed file may change where an include resolves
+         _bianca.clearIncludeCache();
+      }
+
+      return count;
+   }
+
    /**
     * Gets the max size of the page cache.
     */
@@ -143,7 +330,7 @@ public class PageManager {
     */
    public void setPageCacheSize(int size) {
       if (size >= 0 && size != _programCache.getCapacity()) {
-         _programCache = new LruCache<Path, BiancaProgram>(size);
+         _programCache = new ConcurrentLruCache<Path, BiancaProgram>(size);
       }
    }
 
@@ -235,6 +422,14 @@ public class PageManager {
                   _bianca.getScriptEncoding(),
                   fileName,
                   line);
+
+               if (fileName == null) {
+                  ParseCache parseCache = getParseCache();
+
+                  if (parseCache != null) {
+                     parseCache.store(path, program);
+                  }
+               }
             }
 
             _programCache.put(path, program);
@@ -259,6 +454,12 @@ public class PageManager {
    }
 
    protected BiancaProgram preloadProgram(Path path, String fileName) {
+      ParseCache parseCache = getParseCache();
+
+      if (parseCache != null && fileName == null) {
+         return parseCache.load(path);
+      }
+
       return null;
    }
 
@@ -272,14 +473,86 @@ public class PageManager {
    }
 
    protected BiancaPage compilePage(BiancaProgram program, Path path) {
+      if (_isCompile && !_isLazyCompile) {
+         if (!getCompiler().compile(program)
+            && program.getCompileException() != null
+            && !_isCompileFailover) {
+            throw new BiancaException(program.getCompileException());
+         }
+      } else if ((_isCompile || _isLazyCompile)
+         && !program.isCompiled()
+         && program.isCompilable()
+         && program.addExecuteCount() == _compileThreshold) {
+         if (log.isLoggable(Level.FINE)) {
+            log.fine(L.l("Bianca[{0}] compiling page in the background", path));
+         }
+
+         getCompiler().compileLater(program);
+      }
+
       if (log.isLoggable(Level.FINE)) {
-         log.fine(L.l("Bianca[{0}] loading interpreted page", path));
+         if (program.isCompiled()) {
+            log.fine(L.l("Bianca[{0}] loading compiled page", path));
+         } else {
+            log.fine(L.l("Bianca[{0}] loading interpreted page", path));
+         }
       }
 
       return new InterpretedPage(program);
    }
 
+   /**
+    * Returns the compiler for the page statements.
+    */
+   protected synchronized ProgramCompiler getCompiler() {
+      if (_compiler == null) {
+         _compiler = new ProgramCompiler();
+      }
+
+      return _compiler;
+   }
+
    public void close() {
       _isClosed = true;
+
+      setDependencyWatch(false);
+
+      if (_preloadList != null) {
+         PagePreloader.writeList(_preloadList, _programCache.keys());
+      }
+
+      synchronized (this) {
+         if (_compiler != null) {
+            _compiler.close();
+         }
+      }
+   }
+
+   class DependencyWatcher implements Runnable {
+
+      @Override
+      public void run() {
+         Thread thread = Thread.currentThread();
+
+         while (!_isClosed && _watchThread == thread) {
+            long interval = _bianca.getDependencyCheckInterval();
+
+            if (interval <= 0) {
+               interval = DEFAULT_WATCH_INTERVAL;
+            }
+
+            try {
+               Thread.sleep(interval);
+            } catch (InterruptedException e) {
+               continue;
+            }
+
+            try {
+               checkModified();
+            } catch (Exception e) {
+               log.log(Level.WARNING, e.toString(), e);
+            }
+         }
+      }
    }
 }
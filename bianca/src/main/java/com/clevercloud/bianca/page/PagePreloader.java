@@ -0,0 +1,472 @@
+/*
+ * Copyright (c) 2012 Clever Cloud SAS -- all rights reserved
+ *
+ * This file is part of Bianca(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Bianca Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Bianca Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Bianca Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ * @author Marc-Antoine Perennou <Marc-Antoine@Perennou.com>
+ */
+package com.clevercloud.bianca.page;
+
+import com.clevercloud.bianca.BiancaContext;
+import com.clevercloud.bianca.env.Env;
+import com.clevercloud.bianca.expr.BinaryAppendExpr;
+import com.clevercloud.bianca.expr.CallExpr;
+import com.clevercloud.bianca.expr.ConstDirExpr;
+import com.clevercloud.bianca.expr.ConstFileExpr;
+import com.clevercloud.bianca.expr.Expr;
+import com.clevercloud.bianca.expr.FunIncludeExpr;
+import com.clevercloud.bianca.expr.FunIncludeOnceExpr;
+import com.clevercloud.bianca.program.BiancaProgram;
+import com.clevercloud.util.DaemonThreadFactory;
+import com.clevercloud.util.L10N;
+import com.clevercloud.vfs.Path;
+import com.clevercloud.vfs.ReadStream;
+import com.clevercloud.vfs.WriteStream;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Parses pages into the page cache before the first request.
+ * <p/>
+ * Pages come from a list of directories and from a list file of the pages
+ * cached by a previous run.  Static include and require expressions are
+ * resolved from each page, which fills the engine's include cache and
+ * preloads the included pages as well.
+ */
+public class PagePreloader {
+
+   private static final Logger log = Logger.getLogger(PagePreloader.class.getName());
+   private static final L10N L = new L10N(PagePreloader.class);
+   private final BiancaContext _bianca;
+   private final PageManager _pageManager;
+   private final ArrayList<Path> _dirList = new ArrayList<Path>();
+   private Path _listPath;
+   private String[] _extensions = new String[]{".php"};
+   private int _threadMax = Runtime.getRuntime().availableProcessors();
+   private boolean _isIncludes = true;
+   private long _progressInterval = 5000L;
+   private final ConcurrentHashMap<Path, Boolean> _pageSet = new ConcurrentHashMap<Path, Boolean>();
+   private final AtomicInteger _pageCount = new AtomicInteger();
+   private final AtomicInteger _includeCount = new AtomicInteger();
+   private final AtomicInteger _errorCount = new AtomicInteger();
+   private final LinkedBlockingQueue<PreloadItem> _queue = new LinkedBlockingQueue<PreloadItem>();
+   private ExecutorService _executor;
+   // guarded by this
+   private int _pendingCount;
+   private int _submitCount;
+
+   public PagePreloader(BiancaContext bianca, PageManager pageManager) {
+      _bianca = bianca;
+      _pageManager = pageManager;
+   }
+
+   /**
+    * Adds a directory whose pages are preloaded.
+    */
+   public void addDirectory(Path dir) {
+      _dirList.add(dir);
+   }
+
+   /**
+    * Sets the file listing the pages to preload, one path per line.
+    */
+   public void setList(Path listPath) {
+      _listPath = listPath;
+   }
+
+   /**
+    * Sets the page extensions of the directory walk.
+    */
+   public void setExtensions(String[] extensions) {
+      _extensions = extensions;
+   }
+
+   /**
+    * Sets the number of parsing threads.
+    */
+   public void setThreadMax(int threadMax) {
+      _threadMax = Math.max(1, threadMax);
+   }
+
+   /**
+    * true if static includes are resolved and preloaded.
+    */
+   public void setIncludes(boolean isIncludes) {
+      _isIncludes = isIncludes;
+   }
+
+   /**
+    * Sets the interval of the progress log in milliseconds.
+    */
+   public void setProgressInterval(long interval) {
+      _progressInterval = interval;
+   }
+
+   public int getPageCount() {
+      return _pageCount.get();
+   }
+
+   public int getIncludeCount() {
+      return _includeCount.get();
+   }
+
+   public int getErrorCount() {
+      return _errorCount.get();
+   }
+
+   /**
+    * Preloads the pages, returning when all of them are parsed.
+    *
+    * @return the number of preloaded pages
+    */
+   public int preload() {
+      long start = System.currentTimeMillis();
+
+      _executor = Executors.newFixedThreadPool(_threadMax,
+         new DaemonThreadFactory("bianca-preload"));
+
+      for (int i = 0; i < _threadMax; i++) {
+         _executor.execute(new PreloadWorker());
+      }
+
+      try {
+         if (_listPath != null) {
+            submitList(_listPath);
+         }
+
+         for (Path dir : _dirList) {
+            submitDirectory(dir);
+         }
+
+         waitForCompletion(start);
+      } finally {
+         // interrupts the workers waiting on the queue
+         _executor.shutdownNow();
+
+         _queue.clear();
+      }
+
+      log.info(L.l("Bianca preloaded {0} pages ({1} includes, {2} errors) in {3}ms with {4} threads",
+         _pageCount.get(), _includeCount.get(), _errorCount.get(),
+         System.currentTimeMillis() - start, _threadMax));
+
+      return _pageCount.get();
+   }
+
+   private void submitList(Path listPath) {
+      if (!listPath.canRead()) {
+         return;
+      }
+
+      ReadStream is = null;
+
+      try {
+         is = listPath.openRead();
+
+         String line;
+
+         while ((line = is.readLine()) != null) {
+            line = line.trim();
+
+            if (line.length() > 0 && !line.startsWith("#")) {
+               Path path = _bianca.getPwd().lookup(line);
+
+               submit(path, path.getParent());
+            }
+         }
+      } catch (IOException e) {
+         log.log(Level.WARNING, L.l("can't read preload list {0}", listPath), e);
+      } finally {
+         if (is != null) {
+            is.close();
+         }
+      }
+   }
+
+   private void submitDirectory(Path dir) {
+      String[] list;
+
+      try {
+         list = dir.list();
+      } catch (IOException e) {
+         log.log(Level.FINE, e.toString(), e);
+
+         return;
+      }
+
+      for (String name : list) {
+         if (name.startsWith(".")) {
+            continue;
+         }
+
+         Path path = dir.lookup(name);
+
+         if (path.isDirectory()) {
+            submitDirectory(path);
+         } else if (isPage(name)) {
+            submit(path, dir);
+         }
+      }
+   }
+
+   private boolean isPage(String name) {
+      for (String ext : _extensions) {
+         if (name.endsWith(ext)) {
+            return true;
+         }
+      }
+
+      return false;
+   }
+
+   /**
+    * Queues a page, unless it's already preloaded.
+    */
+   private void submit(final Path path, final Path pwd) {
+      if (_pageSet.putIfAbsent(path, Boolean.TRUE) != null) {
+         return;
+      }
+
+      synchronized (this) {
+         _pendingCount++;
+         _submitCount++;
+      }
+
+      _queue.add(new PreloadItem(path, pwd));
+   }
+
+   private synchronized void complete() {
+      _pendingCount--;
+
+      notifyAll();
+   }
+
+   private void waitForCompletion(long start) {
+      long lastLog = start;
+
+      synchronized (this) {
+         while (_pendingCount > 0) {
+            try {
+               wait(_progressInterval);
+            } catch (InterruptedException e) {
+               Thread.currentThread().interrupt();
+
+               return;
+            }
+
+            long now = System.currentTimeMillis();
+
+            if (_pendingCount > 0 && _progressInterval <= now - lastLog) {
+               lastLog = now;
+
+               log.info(L.l("Bianca preloading {0}/{1} pages ({2}ms)",
+                  _submitCount - _pendingCount, _submitCount, now - start));
+            }
+         }
+      }
+   }
+
+   /**
+    * Parses a page and queues its static includes.
+    *
+    * @param env the worker's env, used to resolve the includes
+    */
+   private void preloadPage(Env env, Path path, Path pwd) {
+      if (!path.canRead()) {
+         return;
+      }
+
+      try {
+         _bianca.parse(path);
+
+         _pageCount.incrementAndGet();
+
+         if (log.isLoggable(Level.FINER)) {
+            log.finer(L.l("Bianca[{0}] preloaded", path));
+         }
+
+         if (!_isIncludes) {
+            return;
+         }
+
+         BiancaProgram program = _pageManager.getProgram(path);
+
+         if (program == null || program.getIncludeList().isEmpty()) {
+            return;
+         }
+
+         for (Expr expr : program.getIncludeList()) {
+            Path include = lookupInclude(env, expr, pwd);
+
+            if (include != null) {
+               _includeCount.incrementAndGet();
+
+               submit(include, pwd);
+            }
+         }
+      } catch (Throwable e) {
+         _errorCount.incrementAndGet();
+
+         log.log(Level.FINE, L.l("Bianca[{0}] can't be preloaded", path), e);
+      }
+   }
+
+   /**
+    * Resolves an include with a static name, filling the include cache.
+    */
+   private Path lookupInclude(Env env, Expr expr, Path pwd) {
+      Path scriptPwd;
+      Expr name;
+
+      if (expr instanceof FunIncludeExpr) {
+         scriptPwd = ((FunIncludeExpr) expr).getDir();
+         name = ((FunIncludeExpr) expr).getExpr();
+      } else if (expr instanceof FunIncludeOnceExpr) {
+         scriptPwd = ((FunIncludeOnceExpr) expr).getDir();
+         name = ((FunIncludeOnceExpr) expr).getExpr();
+      } else {
+         return null;
+      }
+
+      if (scriptPwd == null || !isStatic(name)) {
+         return null;
+      }
+
+      return env.lookupInclude(name.eval(env).toStringValue(), pwd, scriptPwd);
+   }
+
+   /**
+    * Returns true for names built from literals, __FILE__, __DIR__ and
+    * dirname().
+    */
+   private static boolean isStatic(Expr expr) {
+      if (expr.isLiteral()
+         || expr instanceof ConstDirExpr
+         || expr instanceof ConstFileExpr) {
+         return true;
+      } else if (expr instanceof BinaryAppendExpr) {
+         for (BinaryAppendExpr ptr = (BinaryAppendExpr) expr;
+              ptr != null;
+              ptr = ptr.getNext()) {
+            if (!isStatic(ptr.getValue())) {
+               return false;
+            }
+         }
+
+         return true;
+      } else if (expr instanceof CallExpr) {
+         CallExpr call = (CallExpr) expr;
+         Expr[] args = call.getArgs();
+
+         return ("dirname".equalsIgnoreCase(call.getName())
+            && args.length == 1
+            && isStatic(args[0]));
+      } else {
+         return false;
+      }
+   }
+
+   /**
+    * Writes a list file of the given pages, for a later preload.
+    */
+   public static void writeList(Path listPath, Iterator<Path> pages) {
+      WriteStream out = null;
+
+      try {
+         listPath.getParent().mkdirs();
+
+         out = listPath.openWrite();
+
+         while (pages.hasNext()) {
+            Path page = pages.next();
+
+            if ("file".equals(page.getScheme())) {
+               out.println(page.getNativePath());
+            }
+         }
+      } catch (IOException e) {
+         log.log(Level.WARNING, L.l("can't write preload list {0}", listPath), e);
+      } finally {
+         if (out != null) {
+            try {
+               out.close();
+            } catch (IOException e) {
+               log.log(Level.FINE, e.toString(), e);
+            }
+         }
+      }
+   }
+
+   @Override
+   public String toString() {
+      return getClass().getSimpleName() + "[" + _dirList + "," + _listPath + "]";
+   }
+
+   static final class PreloadItem {
+
+      private final Path _path;
+      private final Path _pwd;
+
+      PreloadItem(Path path, Path pwd) {
+         _path = path;
+         _pwd = pwd;
+      }
+   }
+
+   /**
+    * Parses queued pages with a single env until the preload ends.
+    */
+   final class PreloadWorker implements Runnable {
+
+      @Override
+      public void run() {
+         Env env = new Env(_bianca);
+
+         try {
+            while (true) {
+               PreloadItem item = _queue.take();
+
+               try {
+                  preloadPage(env, item._path, item._pwd);
+               } finally {
+                  complete();
+               }
+            }
+         } catch (InterruptedException e) {
+            // preload finished
+         } finally {
+            env.close();
+         }
+      }
+   }
+}
@@ -0,0 +1,449 @@
+/*
+ * Copyright (c) 2012 Clever Cloud SAS -- all rights reserved
+ *
+ * This file is part of Bianca(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Bianca Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Bianca Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Bianca Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ * @author Marc-Antoine Perennou <Marc-Antoine@Perennou.com>
+ */
+package com.clevercloud.bianca.page;
+
+import com.clevercloud.bianca.BiancaContext;
+import com.clevercloud.bianca.expr.Expr;
+import com.clevercloud.bianca.program.BiancaProgram;
+import com.clevercloud.bianca.program.Function;
+import com.clevercloud.bianca.program.FunctionInfo;
+import com.clevercloud.bianca.program.InterpretedClassDef;
+import com.clevercloud.bianca.statement.Statement;
+import com.clevercloud.util.Crc64;
+import com.clevercloud.util.L10N;
+import com.clevercloud.vfs.Depend;
+import com.clevercloud.vfs.Path;
+import com.clevercloud.vfs.Vfs;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Persistent cache of parsed programs.
+ * <p/>
+ * Each program is stored as a serialized syntax tree in its own file under
+ * the work directory, keyed by the source path and validated against the
+ * source's modified time, length and crc64 digest, so a restarted server
+ * skips the parser for unchanged files.  Cache files are memory-mapped
+ * and only read when their page is first requested.
+ */
+public class ParseCache {
+
+   private static final Logger log = Logger.getLogger(ParseCache.class.getName());
+   private static final L10N L = new L10N(ParseCache.class);
+   private static final int MAGIC = 0x42415354; // BAST
+   private final BiancaContext _bianca;
+   private final Path _dir;
+   // engine version and parse options, stale files are ignored
+   private final String _version;
+   private final AtomicLong _hitCount = new AtomicLong();
+   private final AtomicLong _missCount = new AtomicLong();
+   private final AtomicLong _writeCount = new AtomicLong();
+   private final AtomicLong _errorCount = new AtomicLong();
+
+   public ParseCache(BiancaContext bianca, Path dir) {
+      _bianca = bianca;
+      _dir = dir;
+
+      _version = (bianca.getVersion()
+         + " " + bianca.getVersionDate()
+         + " strict=" + bianca.isStrict()
+         + " loose=" + bianca.isLooseParse()
+         + " encoding=" + bianca.getScriptEncoding());
+   }
+
+   /**
+    * Returns the cache directory.
+    */
+   public Path getDir() {
+      return _dir;
+   }
+
+   public long getHitCount() {
+      return _hitCount.get();
+   }
+
+   public long getMissCount() {
+      return _missCount.get();
+   }
+
+   public long getWriteCount() {
+      return _writeCount.get();
+   }
+
+   public long getErrorCount() {
+      return _errorCount.get();
+   }
+
+   /**
+    * Returns true if programs for the path can be cached.
+    */
+   public boolean isCacheable(Path path) {
+      return "file".equals(path.getScheme());
+   }
+
+   /**
+    * Loads the cached program for a source file, or returns null if there
+    * is no valid cache entry.
+    */
+   public BiancaProgram load(Path path) {
+      if (!isCacheable(path)) {
+         return null;
+      }
+
+      File file = getCacheFile(path);
+
+      if (!file.isFile()) {
+         _missCount.incrementAndGet();
+
+         return null;
+      }
+
+      try {
+         BiancaProgram program = read(path, file);
+
+         if (program != null) {
+            _hitCount.incrementAndGet();
+
+            if (log.isLoggable(Level.FINE)) {
+               log.fine(L.l("Bianca[{0}] loaded parsed page from {1}", path, file));
+            }
+
+            return program;
+         }
+      } catch (Exception e) {
+         _errorCount.incrementAndGet();
+
+         log.log(Level.FINE, L.l("Bianca[{0}] can't load parse cache {1}", path, file), e);
+      }
+
+      _missCount.incrementAndGet();
+
+      file.delete();
+
+      return null;
+   }
+
+   /**
+    * Saves a freshly parsed program.
+    */
+   public void store(Path path, BiancaProgram program) {
+      if (!isCacheable(path)) {
+         return;
+      }
+
+      File file = getCacheFile(path);
+      File tmp = new File(file.getPath() + ".tmp" + Thread.currentThread().getId());
+
+      try {
+         file.getParentFile().mkdirs();
+
+         write(path, program, tmp);
+
+         if (!tmp.renameTo(file)) {
+            file.delete();
+
+            if (!tmp.renameTo(file)) {
+               throw new IOException(L.l("can't rename {0} to {1}", tmp, file));
+            }
+         }
+
+         _writeCount.incrementAndGet();
+      } catch (Throwable e) {
+         // StackOverflowError for very deep trees
+         _errorCount.incrementAndGet();
+
+         log.log(Level.WARNING, L.l("Bianca[{0}] can't write parse cache {1}", path, file), e);
+
+         tmp.delete();
+      }
+   }
+
+   /**
+    * Removes all cached programs.
+    */
+   public void clear() {
+      File dir = new File(_dir.getNativePath());
+      File[] files = dir.listFiles();
+
+      if (files != null) {
+         for (File file : files) {
+            file.delete();
+         }
+      }
+   }
+
+   private File getCacheFile(Path path) {
+      String name = path.getFullPath();
+
+      long hash = Crc64.generate(name);
+
+      int p = name.lastIndexOf('/');
+
+      if (p >= 0) {
+         name = name.substring(p + 1);
+      }
+
+      StringBuilder sb = new StringBuilder();
+
+      for (int i = 0; i < name.length() && sb.length() < 32; i++) {
+         char ch = name.charAt(i);
+
+         if (Character.isLetterOrDigit(ch) || ch == '.' || ch == '_') {
+            sb.append(ch);
+         } else {
+            sb.append('_');
+         }
+      }
+
+      sb.append('-').append(Long.toHexString(hash)).append(".ast");
+
+      return new File(_dir.getNativePath(), sb.toString());
+   }
+
+   private void write(Path path, BiancaProgram program, File file)
+      throws IOException {
+      OutputStream os = new BufferedOutputStream(new FileOutputStream(file));
+
+      try {
+         DataOutputStream dOut = new DataOutputStream(os);
+
+         dOut.writeInt(MAGIC);
+         dOut.writeUTF(_version);
+         dOut.writeUTF(path.getFullPath());
+         dOut.writeLong(path.getLastModified());
+         dOut.writeLong(path.getLength());
+         dOut.writeLong(path.getCrc64());
+         dOut.flush();
+
+         ObjectOutputStream out = new ProgramOutputStream(os);
+
+         out.writeObject(program.getFunctionInfo());
+         out.writeObject(program.getStatement());
+         out.writeObject(program.getFunctionMap());
+         out.writeObject(program.getFunctionList());
+         out.writeObject(program.getClassMap());
+         out.writeObject(program.getClassList());
+         out.writeObject(program.getIncludeList());
+
+         out.close();
+      } finally {
+         os.close();
+      }
+   }
+
+   @SuppressWarnings("unchecked")
+   private BiancaProgram read(Path path, File file)
+      throws IOException, ClassNotFoundException {
+      ByteBuffer buffer = map(file);
+
+      InputStream is = new ByteBufferInputStream(buffer);
+
+      DataInputStream dIn = new DataInputStream(is);
+
+      if (dIn.readInt() != MAGIC
+         || !_version.equals(dIn.readUTF())
+         || !path.getFullPath().equals(dIn.readUTF())) {
+         return null;
+      }
+
+      long lastModified = dIn.readLong();
+      long length = dIn.readLong();
+      long digest = dIn.readLong();
+
+      Depend depend = new Depend(path, lastModified, length);
+
+      // a touched file with unchanged contents keeps its entry
+      if (depend.isModified() && path.getCrc64() != digest) {
+         return null;
+      }
+
+      ObjectInputStream in = new ProgramInputStream(is);
+
+      FunctionInfo info = (FunctionInfo) in.readObject();
+      Statement statement = (Statement) in.readObject();
+      HashMap<String, Function> functionMap
+         = (HashMap<String, Function>) in.readObject();
+      ArrayList<Function> functionList
+         = (ArrayList<Function>) in.readObject();
+      HashMap<String, InterpretedClassDef> classMap
+         = (HashMap<String, InterpretedClassDef>) in.readObject();
+      ArrayList<InterpretedClassDef> classList
+         = (ArrayList<InterpretedClassDef>) in.readObject();
+      ArrayList<Expr> includeList = (ArrayList<Expr>) in.readObject();
+
+      BiancaProgram program = new BiancaProgram(_bianca, path,
+         functionMap, functionList,
+         classMap, classList,
+         info, statement);
+
+      program.setIncludeList(includeList);
+
+      return program;
+   }
+
+   private static ByteBuffer map(File file)
+      throws IOException {
+      RandomAccessFile raf = new RandomAccessFile(file, "r");
+
+      try {
+         FileChannel channel = raf.getChannel();
+
+         return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+      } finally {
+         raf.close();
+      }
+   }
+
+   @Override
+   public String toString() {
+      return getClass().getSimpleName() + "[" + _dir + "]";
+   }
+
+   /**
+    * Writes the engine and source paths as placeholders.
+    */
+   class ProgramOutputStream extends ObjectOutputStream {
+
+      ProgramOutputStream(OutputStream os)
+         throws IOException {
+         super(os);
+
+         enableReplaceObject(true);
+      }
+
+      @Override
+      protected Object replaceObject(Object obj) {
+         if (obj instanceof BiancaContext) {
+            return new ContextRef();
+         } else if (obj instanceof Path) {
+            return new PathRef(((Path) obj).getURL());
+         } else {
+            return obj;
+         }
+      }
+   }
+
+   /**
+    * Restores the placeholders for the current engine.
+    */
+   class ProgramInputStream extends ObjectInputStream {
+
+      ProgramInputStream(InputStream is)
+         throws IOException {
+         super(is);
+
+         enableResolveObject(true);
+      }
+
+      @Override
+      protected Object resolveObject(Object obj) {
+         if (obj instanceof ContextRef) {
+            return _bianca;
+         } else if (obj instanceof PathRef) {
+            return Vfs.lookup(((PathRef) obj).getURL());
+         } else {
+            return obj;
+         }
+      }
+   }
+
+   static class ContextRef implements Serializable {
+   }
+
+   static class PathRef implements Serializable {
+
+      private final String _url;
+
+      PathRef(String url) {
+         _url = url;
+      }
+
+      String getURL() {
+         return _url;
+      }
+   }
+
+   static class ByteBufferInputStream extends InputStream {
+
+      private final ByteBuffer _buffer;
+
+      ByteBufferInputStream(ByteBuffer buffer) {
+         _buffer = buffer;
+      }
+
+      @Override
+      public int read() {
+         if (_buffer.hasRemaining()) {
+            return _buffer.get() & 0xff;
+         } else {
+            return -1;
+         }
+      }
+
+      @Override
+      public int read(byte[] buffer, int offset, int length) {
+         int remaining = _buffer.remaining();
+
+         if (remaining <= 0) {
+            return -1;
+         }
+
+         if (remaining < length) {
+            length = remaining;
+         }
+
+         _buffer.get(buffer, offset, length);
+
+         return length;
+      }
+
+      @Override
+      public int available() {
+         return _buffer.remaining();
+      }
+   }
+}
@@ -80,6 +80,8 @@ public class BiancaParser {
    private int _functionsParsed;
    private ArrayList<String> _loopLabelList = new ArrayList<String>();
    private int _labelsCreated;
+   // include expressions, for preloading the include chain
+   private ArrayList<Expr> _includeList = new ArrayList<Expr>();
 
    private BiancaParser(BiancaContext bianca) {
       _bianca = bianca;
@@ -320,6 +322,9 @@ public class BiancaParser {
          _globalScope.getClassList(),
          _function,
          stmt);
+
+      program.setIncludeList(_includeList);
+
       return program;
 
       /*
@@ -1549,6 +1554,8 @@ public class BiancaParser {
 
             _lexer.expect(BiancaLexer.Token.RIGHT_BRACE);
 
+            _function.assignSlots();
+
             if (_classDef != null) {
                function = _factory.createObjectMethod(location,
                   _classDef,
@@ -1667,6 +1674,8 @@ public class BiancaParser {
 
          _lexer.expect(BiancaLexer.Token.RIGHT_BRACE);
 
+         _function.assignSlots();
+
          Function function = _factory.createFunction(location, name,
             _function, args,
             statements);
@@ -3279,15 +3288,21 @@ public class BiancaParser {
             return parseClosure();
 
          case INCLUDE:
-            return _factory.createInclude(getLocation(), _sourceFile, parseExpr());
+            _function.setUsesSymbolTable(true);
+            return addInclude(_factory.createInclude(getLocation(),
+               _sourceFile, parseExpr()));
          case REQUIRE:
-            return _factory.createRequire(getLocation(), _sourceFile, parseExpr());
+            _function.setUsesSymbolTable(true);
+            return addInclude(_factory.createRequire(getLocation(),
+               _sourceFile, parseExpr()));
          case INCLUDE_ONCE:
-            return _factory.createIncludeOnce(getLocation(),
-               _sourceFile, parseExpr());
+            _function.setUsesSymbolTable(true);
+            return addInclude(_factory.createIncludeOnce(getLocation(),
+               _sourceFile, parseExpr()));
          case REQUIRE_ONCE:
-            return _factory.createRequireOnce(getLocation(),
-               _sourceFile, parseExpr());
+            _function.setUsesSymbolTable(true);
+            return addInclude(_factory.createRequireOnce(getLocation(),
+               _sourceFile, parseExpr()));
 
          case LIST:
             return parseList();
@@ -3486,9 +3501,13 @@ public class BiancaParser {
       } else if (token == BiancaLexer.Token.DOLLAR) {
          _lexer.saveToken(token);
 
+         _function.setVariableVar(true);
+
          // php/0d6c, php/0d6f
          return _factory.createVarVar(parseTermArray());
       } else if (token == BiancaLexer.Token.LEFT_BRACE) {
+         _function.setVariableVar(true);
+
          AbstractVarExpr expr = _factory.createVarVar(parseExpr());
 
          _lexer.expect(BiancaLexer.Token.RIGHT_BRACE);
@@ -3522,6 +3541,8 @@ public class BiancaParser {
 
       name = _lexer.resolveIdentifier(name);
 
+      checkSymbolTableCall(name);
+
       return _factory.createCall(this, name, args);
 
       /*
@@ -3536,6 +3557,28 @@ public class BiancaParser {
        */
    }
 
+   /**
+    * Marks the current function as using its symbol table when the call
+    * reaches it by name, e.g. extract(), compact() or get_defined_vars().
+    */
+   private void checkSymbolTableCall(String name) {
+      if (_bianca == null) {
+         return;
+      }
+
+      int p = name.lastIndexOf('\\');
+
+      if (p >= 0) {
+         name = name.substring(p + 1);
+      }
+
+      AbstractFunction fun = _bianca.findFunction(name);
+
+      if (fun != null && fun.isCallUsesSymbolTable()) {
+         _function.setUsesSymbolTable(true);
+      }
+   }
+
    /**
     * Parses the next constant
     */
@@ -3705,7 +3748,18 @@ public class BiancaParser {
       throws IOException {
       Expr name = parseExpr();
 
-      return _factory.createInclude(getLocation(), _sourceFile, name);
+      _function.setUsesSymbolTable(true);
+
+      return addInclude(_factory.createInclude(getLocation(), _sourceFile, name));
+   }
+
+   /**
+    * Records an include expression.
+    */
+   private Expr addInclude(Expr expr) {
+      _includeList.add(expr);
+
+      return expr;
    }
 
    /**
@@ -46,6 +46,7 @@ public class ProfileReport {
    private long _timestamp;
    private ArrayList<ProfileItem> _itemList = new ArrayList<ProfileItem>();
    private HashMap<String, ProfileMethod> _methodMap = new HashMap<String, ProfileMethod>();
+   private LinkedHashMap<String, Long> _stackMap = new LinkedHashMap<String, Long>();
    private long _totalMicros;
 
    public ProfileReport(long id, String url, long timestamp) {
@@ -127,6 +128,27 @@ public class ProfileReport {
       }
    }
 
+   /**
+    * Adds self time to a call stack, given as ';'-separated names
+    * starting from __top__.
+    */
+   public void addStack(String stack, long micros) {
+      Long oldMicros = _stackMap.get(stack);
+
+      if (oldMicros != null) {
+         micros += oldMicros;
+      }
+
+      _stackMap.put(stack, micros);
+   }
+
+   /**
+    * Returns the self time of each call stack.
+    */
+   public Map<String, Long> getStacks() {
+      return _stackMap;
+   }
+
    /**
     * Returns the method by its id.
     */
@@ -288,6 +310,24 @@ public class ProfileReport {
       out.close();
    }
 
+   /**
+    * Collapsed stack report, one "stack micros" line per call path, as
+    * read by flame graph tools.
+    */
+   public void printCollapsedReport(OutputStream os)
+      throws IOException {
+      WriteStream out = Vfs.openWrite(os);
+
+      for (Map.Entry<String, Long> entry : _stackMap.entrySet()) {
+         out.print(entry.getKey());
+         out.print(' ');
+         out.print(entry.getValue().longValue());
+         out.println();
+      }
+
+      out.close();
+   }
+
    @Override
    public String toString() {
       return getClass().getSimpleName() + "[]";
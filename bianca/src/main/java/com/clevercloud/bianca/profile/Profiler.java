@@ -0,0 +1,220 @@
+/*
+ * Copyright (c) 2012 Clever Cloud SAS -- all rights reserved
+ *
+ * This file is part of Bianca(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Bianca Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Bianca Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Bianca Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ * @author Marc-Antoine Perennou <Marc-Antoine@Perennou.com>
+ */
+package com.clevercloud.bianca.profile;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Records the call tree of a single request.
+ *
+ * Each distinct call path gets its own node holding the call count and
+ * the inclusive time, so exclusive times, the caller/callee edges and the
+ * collapsed stacks can all be derived when the request completes. A
+ * profiler belongs to one Env and is not thread-safe.
+ */
+public class Profiler {
+
+   public static final String TOP = "__top__";
+   private static final int MAX_DEPTH = 512;
+   private final Node _root = new Node(null, TOP);
+   private Node _current = _root;
+   private int _depth;
+   private int _overflow;
+
+   public Profiler() {
+      _root._startNanos = System.nanoTime();
+   }
+
+   /**
+    * Enters the named function.
+    */
+   public void enter(String name) {
+      if (_depth >= MAX_DEPTH) {
+         // very deep recursion is charged to the deepest recorded call
+         _overflow++;
+         return;
+      }
+
+      Node node = _current.getChild(name);
+      node._startNanos = System.nanoTime();
+
+      _current = node;
+      _depth++;
+   }
+
+   /**
+    * Leaves the function entered by the matching enter().
+    */
+   public void exit() {
+      if (_overflow > 0) {
+         _overflow--;
+         return;
+      }
+
+      Node node = _current;
+
+      if (node == _root) {
+         return;
+      }
+
+      node._nanos += System.nanoTime() - node._startNanos;
+      node._count++;
+
+      _current = node._parent;
+      _depth--;
+   }
+
+   /**
+    * Closes any open calls and builds the report.
+    */
+   public ProfileReport createReport(long id, String url, long timestamp) {
+      while (_current != _root) {
+         exit();
+      }
+
+      _root._nanos = System.nanoTime() - _root._startNanos;
+      _root._count = 1;
+
+      ProfileReport report = new ProfileReport(id, url, timestamp);
+
+      report.addItem(TOP, null, 1, _root._nanos / 1000);
+
+      LinkedHashMap<String, Edge> edgeMap = new LinkedHashMap<String, Edge>();
+
+      addEdges(edgeMap, _root);
+
+      for (Edge edge : edgeMap.values()) {
+         report.addItem(edge._name, edge._parent, edge._count, edge._nanos / 1000);
+      }
+
+      addStacks(report, _root, TOP);
+
+      return report;
+   }
+
+   private void addEdges(Map<String, Edge> edgeMap, Node node) {
+      for (Node child : node.getChildren()) {
+         String key = node._name + ' ' + child._name;
+
+         Edge edge = edgeMap.get(key);
+
+         if (edge == null) {
+            edge = new Edge(node._name, child._name);
+            edgeMap.put(key, edge);
+         }
+
+         edge._count += child._count;
+         edge._nanos += child._nanos;
+
+         addEdges(edgeMap, child);
+      }
+   }
+
+   private void addStacks(ProfileReport report, Node node, String stack) {
+      long selfNanos = node._nanos;
+
+      for (Node child : node.getChildren()) {
+         selfNanos -= child._nanos;
+
+         addStacks(report, child, stack + ';' + child._name);
+      }
+
+      if (selfNanos > 0) {
+         report.addStack(stack, selfNanos / 1000);
+      }
+   }
+
+   @Override
+   public String toString() {
+      return getClass().getSimpleName() + "[" + _current._name + "]";
+   }
+
+   static class Node {
+
+      private final Node _parent;
+      private final String _name;
+      private Node _lastChild;
+      private HashMap<String, Node> _childMap;
+      private long _count;
+      private long _nanos;
+      private long _startNanos;
+
+      Node(Node parent, String name) {
+         _parent = parent;
+         _name = name;
+      }
+
+      Node getChild(String name) {
+         Node child = _lastChild;
+
+         if (child != null && (child._name == name || child._name.equals(name))) {
+            return child;
+         }
+
+         if (_childMap == null) {
+            _childMap = new HashMap<String, Node>();
+         }
+
+         child = _childMap.get(name);
+
+         if (child == null) {
+            child = new Node(this, name);
+            _childMap.put(name, child);
+         }
+
+         _lastChild = child;
+
+         return child;
+      }
+
+      ArrayList<Node> getChildren() {
+         if (_childMap == null) {
+            return new ArrayList<Node>();
+         } else {
+            return new ArrayList<Node>(_childMap.values());
+         }
+      }
+   }
+
+   static class Edge {
+
+      private final String _parent;
+      private final String _name;
+      private long _count;
+      private long _nanos;
+
+      Edge(String parent, String name) {
+         _parent = parent;
+         _name = name;
+      }
+   }
+}
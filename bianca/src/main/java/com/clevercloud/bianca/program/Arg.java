@@ -33,10 +33,12 @@ import com.clevercloud.bianca.env.MethodIntern;
 import com.clevercloud.bianca.env.StringValue;
 import com.clevercloud.bianca.expr.Expr;
 
+import java.io.Serializable;
+
 /**
  * Represents a formal argument.
  */
-public class Arg {
+public class Arg implements Serializable {
 
    private final StringValue _name;
    private final Expr _default;
@@ -34,6 +34,7 @@ import com.clevercloud.bianca.BiancaContext;
 import com.clevercloud.bianca.BiancaException;
 import com.clevercloud.bianca.env.Env;
 import com.clevercloud.bianca.env.Value;
+import com.clevercloud.bianca.expr.Expr;
 import com.clevercloud.bianca.function.AbstractFunction;
 import com.clevercloud.bianca.page.BiancaPage;
 import com.clevercloud.bianca.statement.BlockStatement;
@@ -50,6 +51,7 @@ import java.util.Collection;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -73,10 +75,17 @@ public class BiancaProgram {
    private ArrayList<InterpretedClassDef> _classList;
    private FunctionInfo _functionInfo;
    private Statement _statement;
+   // compiled replacement for _statement, swapped in by the compiler
+   private volatile Statement _compiledStatement;
+   private final AtomicInteger _executeCount = new AtomicInteger();
    private ArrayList<PersistentDependency> _dependList = new ArrayList<PersistentDependency>();
+   private ArrayList<Expr> _includeList = new ArrayList<Expr>();
    // runtime function list for compilation
    private AbstractFunction[] _runtimeFunList;
    private final PageDependency _topDepend;
+   // set once a dependency change is seen, the program is then stale
+   private volatile boolean _isModified;
+   private volatile long _dependencyCheckTime;
 
    /**
     * Creates a new bianca program
@@ -155,6 +164,27 @@ public class BiancaProgram {
       return _statement;
    }
 
+   /**
+    * Returns true if the program has been compiled.
+    */
+   public boolean isCompiled() {
+      return _compiledStatement != null;
+   }
+
+   /**
+    * Replaces the top-level statement by its compiled form.
+    */
+   public void setCompiledStatement(Statement statement) {
+      _compiledStatement = statement;
+   }
+
+   /**
+    * Counts an execution, returning the new count.
+    */
+   public int addExecuteCount() {
+      return _executeCount.incrementAndGet();
+   }
+
    /*
     * Start compiling
     */
@@ -230,10 +260,51 @@ public class BiancaProgram {
    }
 
    /**
-    * Returns true if the function is modified.
+    * Returns true if the function is modified. The sources are only
+    * checked once per dependency-check-interval, and not at all when a
+    * watcher thread checks them in the background.
     */
    public boolean isModified() {
-      return _topDepend.isModified();
+      if (_isModified) {
+         return true;
+      }
+
+      if (_bianca != null) {
+         if (_bianca.isDependencyWatch()) {
+            return false;
+         }
+
+         long interval = _bianca.getDependencyCheckInterval();
+
+         if (interval > 0) {
+            long now = System.currentTimeMillis();
+
+            if (now < _dependencyCheckTime + interval) {
+               return false;
+            }
+
+            _dependencyCheckTime = now;
+         }
+      }
+
+      return checkModified();
+   }
+
+   /**
+    * Checks the dependencies now, remembering a modification.
+    */
+   public boolean checkModified() {
+      if (_isModified) {
+         return true;
+      }
+
+      if (_topDepend.isModified()) {
+         _isModified = true;
+
+         return true;
+      }
+
+      return false;
    }
 
    /**
@@ -281,6 +352,34 @@ public class BiancaProgram {
       return fun;
    }
 
+   /**
+    * Returns the include expressions of the program.
+    */
+   public ArrayList<Expr> getIncludeList() {
+      return _includeList;
+   }
+
+   /**
+    * Sets the include expressions of the program.
+    */
+   public void setIncludeList(ArrayList<Expr> includeList) {
+      _includeList = includeList;
+   }
+
+   /**
+    * Returns the functions by name.
+    */
+   public HashMap<String, Function> getFunctionMap() {
+      return _functionMap;
+   }
+
+   /**
+    * Returns the classes by name.
+    */
+   public HashMap<String, InterpretedClassDef> getClassMap() {
+      return _classMap;
+   }
+
    /**
     * Returns the functions.
     */
@@ -315,6 +414,8 @@ public class BiancaProgram {
    public BiancaProgram createExprReturn() {
       // bianca/1515 - used to convert an call string to return a value
 
+      _compiledStatement = null;
+
       if (_statement instanceof ExprStatement) {
          ExprStatement exprStmt = (ExprStatement) _statement;
 
@@ -342,6 +443,12 @@ public class BiancaProgram {
     * @return null if there is no return value
     */
    public Value execute(Env env) {
+      Statement statement = _compiledStatement;
+
+      if (statement != null) {
+         return statement.execute(env);
+      }
+
       return _statement.execute(env);
    }
 
@@ -35,6 +35,7 @@ import com.clevercloud.bianca.expr.Expr;
 import com.clevercloud.bianca.function.AbstractFunction;
 import com.clevercloud.util.L10N;
 
+import java.io.Serializable;
 import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
@@ -42,7 +43,7 @@ import java.util.Set;
 /**
  * Represents a Bianca class definition
  */
-abstract public class ClassDef {
+abstract public class ClassDef implements Serializable {
 
    private final static L10N L = new L10N(ClassDef.class);
    private final Location _location;
@@ -287,7 +288,7 @@ abstract public class ClassDef {
       return null;
    }
 
-   public static class FieldEntry {
+   public static class FieldEntry implements Serializable {
 
       private final Expr _value;
       private final FieldVisibility _visibility;
@@ -318,7 +319,7 @@ abstract public class ClassDef {
       }
    }
 
-   public static class StaticFieldEntry {
+   public static class StaticFieldEntry implements Serializable {
 
       private final Expr _value;
       private final String _comment;
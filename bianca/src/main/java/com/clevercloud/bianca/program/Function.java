@@ -36,6 +36,7 @@ import com.clevercloud.bianca.expr.Expr;
 import com.clevercloud.bianca.expr.ExprFactory;
 import com.clevercloud.bianca.expr.ParamRequiredExpr;
 import com.clevercloud.bianca.function.AbstractFunction;
+import com.clevercloud.bianca.profile.Profiler;
 import com.clevercloud.bianca.statement.BlockStatement;
 import com.clevercloud.bianca.statement.Statement;
 
@@ -52,9 +53,14 @@ public class Function extends AbstractFunction {
    protected final String _name;
    protected final Arg[] _args;
    protected final Statement _statement;
+   // compiled replacement for _statement, swapped in by the compiler
+   private transient volatile Statement _compiledStatement;
    protected boolean _hasReturn;
    protected String _comment;
    protected Arg[] _closureUseArgs;
+   // frame slots of the args, or null for a map environment
+   private final int[] _argSlots;
+   private int[] _closureUseSlots;
 
    Function(Location location,
             String name,
@@ -68,6 +74,7 @@ public class Function extends AbstractFunction {
       _info.setFunction(this);
       _isReturnsReference = info.isReturnsReference();
       _args = args;
+      _argSlots = createSlots(info, args);
       _statement = new BlockStatement(location, statements);
 
       setGlobal(info.isPageStatic());
@@ -93,6 +100,8 @@ public class Function extends AbstractFunction {
 
       System.arraycopy(args, 0, _args, 0, args.length);
 
+      _argSlots = createSlots(info, _args);
+
       _statement = exprFactory.createBlock(location, statements);
 
       setGlobal(info.isPageStatic());
@@ -159,6 +168,50 @@ public class Function extends AbstractFunction {
     */
    public void setClosureUseArgs(Arg[] useArgs) {
       _closureUseArgs = useArgs;
+      _closureUseSlots = createSlots(_info, useArgs);
+   }
+
+   /**
+    * Returns the frame slots for the args, or null if the function uses
+    * a map environment.
+    */
+   private static int[] createSlots(FunctionInfo info, Arg[] args) {
+      if (!info.isSlotLocals() || args == null) {
+         return null;
+      }
+
+      int[] slots = new int[args.length];
+
+      for (int i = 0; i < args.length; i++) {
+         slots[i] = info.getSlot(args[i].getName());
+      }
+
+      return slots;
+   }
+
+   /**
+    * Binds an argument to its frame slot, or to the map if it has none.
+    */
+   private static HashMap<StringValue, EnvVar> bindArg(
+      HashMap<StringValue, EnvVar> map,
+      Var[] frame,
+      int[] slots,
+      int i,
+      StringValue name,
+      Var var) {
+      if (slots != null && slots[i] >= 0) {
+         frame[slots[i]] = var;
+
+         return map;
+      }
+
+      if (map == null) {
+         map = new HashMap<StringValue, EnvVar>(8);
+      }
+
+      map.put(name, new EnvVarImpl(var));
+
+      return map;
    }
 
    public boolean isObjectMethod() {
@@ -192,6 +245,40 @@ public class Function extends AbstractFunction {
       return null;
    }
 
+   /**
+    * Returns the interpreted function body.
+    */
+   public Statement getStatement() {
+      return _statement;
+   }
+
+   /**
+    * Returns the compiled function body, or null if interpreted.
+    */
+   public Statement getCompiledStatement() {
+      return _compiledStatement;
+   }
+
+   /**
+    * Replaces the body by its compiled form.
+    */
+   public void setCompiledStatement(Statement statement) {
+      _compiledStatement = statement;
+   }
+
+   /**
+    * Returns the body to execute.
+    */
+   private Statement getBody() {
+      Statement statement = _compiledStatement;
+
+      if (statement != null) {
+         return statement;
+      } else {
+         return _statement;
+      }
+   }
+
    /**
     * Evaluates a function's argument, handling ref vs non-ref
     */
@@ -232,7 +319,16 @@ public class Function extends AbstractFunction {
    }
 
    private Value callImpl(Env env, Expr[] args, boolean isRef) {
-      HashMap<StringValue, EnvVar> map = new HashMap<StringValue, EnvVar>();
+      StringValue[] slotNames = _info.getSlotNames();
+      int[] slots = _argSlots;
+      HashMap<StringValue, EnvVar> map = null;
+      Var[] frame = null;
+
+      if (slotNames != null) {
+         frame = new Var[slotNames.length];
+      } else {
+         map = new HashMap<StringValue, EnvVar>();
+      }
 
       Value[] values = new Value[args.length];
 
@@ -248,14 +344,15 @@ public class Function extends AbstractFunction {
          } else if (arg.isReference()) {
             values[i] = args[i].evalVar(env);
 
-            map.put(arg.getName(), new EnvVarImpl(values[i].toLocalVarDeclAsRef()));
+            map = bindArg(map, frame, slots, i,
+               arg.getName(), values[i].toLocalVarDeclAsRef());
          } else {
             // php/0d04
             values[i] = args[i].eval(env);
 
             Var var = values[i].toVar();
 
-            map.put(arg.getName(), new EnvVarImpl(var));
+            map = bindArg(map, frame, slots, i, arg.getName(), var);
 
             values[i] = var.toValue();
          }
@@ -269,15 +366,24 @@ public class Function extends AbstractFunction {
          if (defaultExpr == null) {
             return env.error("expected default expression");
          } else if (arg.isReference()) {
-            map.put(arg.getName(),
-               new EnvVarImpl(defaultExpr.evalVar(env).toVar()));
+            map = bindArg(map, frame, slots, i,
+               arg.getName(), defaultExpr.evalVar(env).toVar());
          } else {
-            map.put(arg.getName(),
-               new EnvVarImpl(defaultExpr.eval(env).copy().toVar()));
+            map = bindArg(map, frame, slots, i,
+               arg.getName(), defaultExpr.eval(env).copy().toVar());
          }
       }
 
-      Map<StringValue, EnvVar> oldMap = env.pushEnv(map);
+      Var[] oldFrame = env.getFrame();
+      StringValue[] oldFrameNames = env.getFrameNames();
+      Map<StringValue, EnvVar> oldMap;
+
+      if (frame != null) {
+         oldMap = env.pushFrame(frame, slotNames, map);
+      } else {
+         oldMap = env.pushEnv(map);
+      }
+
       Value[] oldArgs = env.setFunctionArgs(values); // php/0476
       Value oldThis;
 
@@ -288,8 +394,14 @@ public class Function extends AbstractFunction {
          oldThis = env.getThis();
       }
 
+      Profiler profiler = env.getProfiler();
+
+      if (profiler != null) {
+         profiler.enter(getProfileName());
+      }
+
       try {
-         Value value = _statement.execute(env);
+         Value value = getBody().execute(env);
 
          if (value != null) {
             return value;
@@ -305,8 +417,12 @@ public class Function extends AbstractFunction {
          return value.copyReturn();
           */
       } finally {
+         if (profiler != null) {
+            profiler.exit();
+         }
+
          env.restoreFunctionArgs(oldArgs);
-         env.popEnv(oldMap);
+         env.popFrame(oldMap, oldFrame, oldFrameNames);
          env.setThis(oldThis);
       }
    }
@@ -328,11 +444,23 @@ public class Function extends AbstractFunction {
 
    public Value callImpl(Env env, Value[] args, boolean isRef,
                          Arg[] useParams, Value[] useArgs) {
-      HashMap<StringValue, EnvVar> map = new HashMap<StringValue, EnvVar>(8);
+      StringValue[] slotNames = _info.getSlotNames();
+      int[] slots = _argSlots;
+      HashMap<StringValue, EnvVar> map = null;
+      Var[] frame = null;
+
+      if (slotNames != null) {
+         frame = new Var[slotNames.length];
+      } else {
+         map = new HashMap<StringValue, EnvVar>(8);
+      }
 
       if (useParams != null) {
+         int[] useSlots = useParams == _closureUseArgs ? _closureUseSlots : null;
+
          for (int i = 0; i < useParams.length; i++) {
-            map.put(useParams[i].getName(), new EnvVarImpl(useArgs[i].toVar()));
+            map = bindArg(map, frame, useSlots, i,
+               useParams[i].getName(), useArgs[i].toVar());
          }
       }
 
@@ -345,7 +473,8 @@ public class Function extends AbstractFunction {
 
          if (arg == null) {
          } else if (arg.isReference()) {
-            map.put(arg.getName(), new EnvVarImpl(args[i].toLocalVarDeclAsRef()));
+            map = bindArg(map, frame, slots, i,
+               arg.getName(), args[i].toLocalVarDeclAsRef());
          } else {
             // TODO: php/1708, toVar() may be doing another copy()
             Var var = args[i].toLocalVar();
@@ -359,7 +488,7 @@ public class Function extends AbstractFunction {
             }
 
             // bianca/0d04
-            map.put(arg.getName(), new EnvVarImpl(var));
+            map = bindArg(map, frame, slots, i, arg.getName(), var);
          }
       }
 
@@ -371,15 +500,24 @@ public class Function extends AbstractFunction {
          if (defaultExpr == null) {
             return env.error("expected default expression");
          } else if (arg.isReference()) {
-            map.put(
-               arg.getName(), new EnvVarImpl(defaultExpr.evalVar(env).toVar()));
+            map = bindArg(map, frame, slots, i,
+               arg.getName(), defaultExpr.evalVar(env).toVar());
          } else {
-            map.put(
-               arg.getName(), new EnvVarImpl(defaultExpr.eval(env).toLocalVar()));
+            map = bindArg(map, frame, slots, i,
+               arg.getName(), defaultExpr.eval(env).toLocalVar());
          }
       }
 
-      Map<StringValue, EnvVar> oldMap = env.pushEnv(map);
+      Var[] oldFrame = env.getFrame();
+      StringValue[] oldFrameNames = env.getFrameNames();
+      Map<StringValue, EnvVar> oldMap;
+
+      if (frame != null) {
+         oldMap = env.pushFrame(frame, slotNames, map);
+      } else {
+         oldMap = env.pushEnv(map);
+      }
+
       Value[] oldArgs = env.setFunctionArgs(args);
       Value oldThis;
 
@@ -390,8 +528,14 @@ public class Function extends AbstractFunction {
          oldThis = env.setThis(NullThisValue.NULLTHIS);
       }
 
+      Profiler profiler = env.getProfiler();
+
+      if (profiler != null) {
+         profiler.enter(getProfileName());
+      }
+
       try {
-         Value value = _statement.execute(env);
+         Value value = getBody().execute(env);
 
          if (value == null) {
             if (_isReturnsReference) {
@@ -405,8 +549,12 @@ public class Function extends AbstractFunction {
             return value.toValue().copy();
          }
       } finally {
+         if (profiler != null) {
+            profiler.exit();
+         }
+
          env.restoreFunctionArgs(oldArgs);
-         env.popEnv(oldMap);
+         env.popFrame(oldMap, oldFrame, oldFrameNames);
          env.setThis(oldThis);
       }
    }
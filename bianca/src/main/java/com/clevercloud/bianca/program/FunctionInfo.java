@@ -34,6 +34,7 @@ import com.clevercloud.bianca.env.MethodIntern;
 import com.clevercloud.bianca.env.StringValue;
 import com.clevercloud.bianca.expr.VarInfo;
 
+import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
@@ -41,7 +42,7 @@ import java.util.HashMap;
 /**
  * Information about a function.
  */
-public class FunctionInfo {
+public class FunctionInfo implements Serializable {
 
    private final BiancaContext _bianca;
    private final ClassDef _classDef;
@@ -62,6 +63,7 @@ public class FunctionInfo {
    private boolean _isUsesSymbolTable;
    private boolean _isUsesGlobal;
    private boolean _isReadOnly = true;
+   private StringValue[] _slotNames;
 
    public FunctionInfo(BiancaContext bianca, ClassDef classDef, String name) {
       _bianca = bianca;
@@ -87,6 +89,7 @@ public class FunctionInfo {
       copy._isVariableArgs = _isVariableArgs;
       copy._isUsesSymbolTable = _isUsesSymbolTable;
       copy._isReadOnly = _isReadOnly;
+      copy._slotNames = _slotNames;
 
       return copy;
    }
@@ -352,6 +355,63 @@ public class FunctionInfo {
       return _varMap.values();
    }
 
+   /**
+    * Assigns fixed frame slots to the function's locals.  Functions which
+    * reach their symbol table by name, i.e. variable-variables, include
+    * or calls like extract() and compact(), keep the map environment.
+    */
+   public void assignSlots() {
+      if (_isPageMain || _isVariableVar || _isUsesSymbolTable) {
+         return;
+      }
+
+      ArrayList<StringValue> names = new ArrayList<StringValue>();
+
+      for (VarInfo var : _varMap.values()) {
+         StringValue name = var.getName();
+
+         // superglobals and $this are always resolved by the Env
+         if (BiancaContext.isSuperGlobal(name)
+            || "this".equals(name.toString())) {
+            continue;
+         }
+
+         var.setIndex(names.size());
+         names.add(name);
+      }
+
+      _slotNames = new StringValue[names.size()];
+      names.toArray(_slotNames);
+   }
+
+   /**
+    * True if the locals live in a slot-indexed frame.
+    */
+   public boolean isSlotLocals() {
+      return _slotNames != null;
+   }
+
+   /**
+    * Returns the local names indexed by slot, or null for a map
+    * environment.
+    */
+   public StringValue[] getSlotNames() {
+      return _slotNames;
+   }
+
+   /**
+    * Returns the frame slot for the named local, or -1.
+    */
+   public int getSlot(StringValue name) {
+      VarInfo var = _varMap.get(name);
+
+      if (var != null) {
+         return var.getIndex();
+      } else {
+         return -1;
+      }
+   }
+
    /**
     * Adds a temp variable.
     */
@@ -35,6 +35,7 @@ import com.clevercloud.bianca.BiancaRuntimeException;
 import com.clevercloud.bianca.module.BiancaModule;
 import com.clevercloud.config.ConfigException;
 import com.clevercloud.util.L10N;
+import com.clevercloud.vfs.Path;
 
 import javax.naming.Context;
 import javax.naming.InitialContext;
@@ -73,8 +74,23 @@ public class BiancaServlet
    private boolean _isStrict;
    private boolean _isLooseParse = true;
    private int _pageCacheSize = -1;
+   private long _dependencyCheckInterval = -1;
+   private boolean _isDependencyWatch;
+   private boolean _isParseCache;
+   private String _parseCacheDir;
+   private ArrayList<String> _preloadDirList = new ArrayList<String>();
+   private String _preloadList;
+   private int _preloadThreadMax = -1;
    private int _regexpCacheSize = -1;
+   private long _unserializeCacheSize = -1;
+   private String _sessionStore;
+   private String _sessionStoreDir;
+   private long _sessionFlushInterval = 1000L;
    private boolean _isConnectionPool = true;
+   private int _connectionPoolMax = -1;
+   private long _connectionPoolIdleTimeout = -1;
+   private long _connectionPoolMaxWait = -1;
+   private int _preparedStatementCacheSize = -1;
    private String _iniPath;
    private String _scriptEncoding;
    private String _mysqlVersion;
@@ -259,6 +275,41 @@ public class BiancaServlet
       _pageCacheSize = size;
    }
 
+   /*
+    * Turns the on-disk parse cache on or off.
+    */
+   public void setParseCache(boolean isEnable) {
+      _isParseCache = isEnable;
+   }
+
+   /*
+    * Sets the directory of the on-disk parse cache.
+    */
+   public void setParseCacheDir(String dir) {
+      _parseCacheDir = dir;
+   }
+
+   /*
+    * Adds a directory to preload at startup.
+    */
+   public void addPreloadDir(String dir) {
+      _preloadDirList.add(dir);
+   }
+
+   /*
+    * Sets the list of pages to preload, recorded at shutdown.
+    */
+   public void setPreloadList(String path) {
+      _preloadList = path;
+   }
+
+   /*
+    * Sets the number of preload threads.
+    */
+   public void setPreloadThreadMax(int threadMax) {
+      _preloadThreadMax = threadMax;
+   }
+
    /*
     * Sets the max size of the regexp cache.
     */
@@ -266,6 +317,51 @@ public class BiancaServlet
       _regexpCacheSize = size;
    }
 
+   /*
+    * Sets the memory budget of the shared unserialize cache, 0 to disable.
+    */
+   public void setUnserializeCacheSize(long size) {
+      _unserializeCacheSize = size;
+   }
+
+   /*
+    * Sets the interval between checks of a page's sources in milliseconds,
+    * 0 to check them on every request.
+    */
+   public void setDependencyCheckInterval(long interval) {
+      _dependencyCheckInterval = interval;
+   }
+
+   /*
+    * If true, a background thread checks the page sources instead of
+    * the requests.
+    */
+   public void setDependencyWatch(boolean isWatch) {
+      _isDependencyWatch = isWatch;
+   }
+
+   /*
+    * Sets the persistent session store: file, memory or a class name.
+    */
+   public void setSessionStore(String type) {
+      _sessionStore = type;
+   }
+
+   /*
+    * Sets the directory of the file session store.
+    */
+   public void setSessionStoreDir(String dir) {
+      _sessionStoreDir = dir;
+   }
+
+   /*
+    * Sets the session write-behind interval in milliseconds, 0 to write
+    * sessions at the end of each request.
+    */
+   public void setSessionFlushInterval(long interval) {
+      _sessionFlushInterval = interval;
+   }
+
    /*
     * Turns connection pooling on or off.
     */
@@ -273,6 +369,35 @@ public class BiancaServlet
       _isConnectionPool = isEnable;
    }
 
+   /*
+    * Sets the maximum number of pooled connections per database and user.
+    */
+   public void setConnectionPoolMax(int max) {
+      _connectionPoolMax = max;
+   }
+
+   /*
+    * Sets the time in milliseconds before an idle pooled connection is
+    * closed.
+    */
+   public void setConnectionPoolIdleTimeout(long timeout) {
+      _connectionPoolIdleTimeout = timeout;
+   }
+
+   /*
+    * Sets the time in milliseconds to wait for a free pooled connection.
+    */
+   public void setConnectionPoolMaxWait(long maxWait) {
+      _connectionPoolMaxWait = maxWait;
+   }
+
+   /*
+    * Sets the number of prepared statements cached per connection.
+    */
+   public void setPreparedStatementCacheSize(int size) {
+      _preparedStatementCacheSize = size;
+   }
+
    /**
     * Adds a bianca module.
     */
@@ -455,10 +580,46 @@ public class BiancaServlet
       } else if ("page-cache-entries".equals(paramName)
          || "page-cache-size".equals(paramName)) {
          setPageCacheSize(Integer.parseInt(paramValue));
+      } else if ("dependency-check-interval".equals(paramName)) {
+         setDependencyCheckInterval(Long.parseLong(paramValue));
+      } else if ("dependency-watch".equals(paramName)) {
+         setDependencyWatch("true".equals(paramValue));
+      } else if ("parse-cache".equals(paramName)) {
+         setParseCache("true".equals(paramValue));
+      } else if ("parse-cache-dir".equals(paramName)) {
+         setParseCacheDir(paramValue);
+      } else if ("preload-dir".equals(paramName)) {
+         for (String dir : paramValue.split("[,;]")) {
+            if (dir.trim().length() > 0) {
+               addPreloadDir(dir.trim());
+            }
+         }
+      } else if ("preload-list".equals(paramName)) {
+         setPreloadList(paramValue);
+      } else if ("preload-threads".equals(paramName)) {
+         setPreloadThreadMax(Integer.parseInt(paramValue));
       } else if ("regexp-cache-size".equals(paramName)) {
          setRegexpCacheSize(Integer.parseInt(paramValue));
+      } else if ("profile-probability".equals(paramName)) {
+         setProfileProbability(Double.parseDouble(paramValue));
+      } else if ("unserialize-cache-size".equals(paramName)) {
+         setUnserializeCacheSize(Long.parseLong(paramValue));
+      } else if ("session-store".equals(paramName)) {
+         setSessionStore(paramValue);
+      } else if ("session-store-dir".equals(paramName)) {
+         setSessionStoreDir(paramValue);
+      } else if ("session-flush-interval".equals(paramName)) {
+         setSessionFlushInterval(Long.parseLong(paramValue));
       } else if ("connection-pool".equals(paramName)) {
          setConnectionPool("true".equals(paramValue));
+      } else if ("connection-pool-max".equals(paramName)) {
+         setConnectionPoolMax(Integer.parseInt(paramValue));
+      } else if ("connection-pool-idle-timeout".equals(paramName)) {
+         setConnectionPoolIdleTimeout(Long.parseLong(paramValue));
+      } else if ("connection-pool-max-wait".equals(paramName)) {
+         setConnectionPoolMaxWait(Long.parseLong(paramValue));
+      } else if ("prepared-statement-cache-size".equals(paramName)) {
+         setPreparedStatementCacheSize(Integer.parseInt(paramValue));
       } else if ("require-source".equals(paramName)) {
          setRequireSource("true".equals(paramValue));
       } else if ("license-directory".equals(paramName)) {
@@ -488,9 +649,53 @@ public class BiancaServlet
       bianca.setStrict(_isStrict);
       bianca.setLooseParse(_isLooseParse);
       bianca.setPageCacheSize(_pageCacheSize);
+
+      if (_dependencyCheckInterval >= 0) {
+         bianca.setDependencyCheckInterval(_dependencyCheckInterval);
+      }
+
+      bianca.setDependencyWatch(_isDependencyWatch);
+      bianca.setParseCache(_isParseCache);
+
+      if (_parseCacheDir != null) {
+         bianca.setParseCacheDir(bianca.getPwd().lookup(_parseCacheDir));
+      }
       bianca.setRegexpCacheSize(_regexpCacheSize);
+      bianca.setUnserializeCacheSize(_unserializeCacheSize);
+
+      if (_sessionStore != null) {
+         Path sessionStoreDir = null;
+
+         if (_sessionStoreDir != null) {
+            sessionStoreDir = bianca.getPwd().lookup(_sessionStoreDir);
+         }
+
+         try {
+            bianca.setSessionStore(_sessionStore, sessionStoreDir,
+               _sessionFlushInterval);
+         } catch (ConfigException e) {
+            throw new ServletException(e);
+         }
+      }
+
       bianca.setConnectionPool(_isConnectionPool);
 
+      if (_connectionPoolMax >= 0) {
+         bianca.setConnectionPoolMax(_connectionPoolMax);
+      }
+
+      if (_connectionPoolIdleTimeout >= 0) {
+         bianca.setConnectionPoolIdleTimeout(_connectionPoolIdleTimeout);
+      }
+
+      if (_connectionPoolMaxWait >= 0) {
+         bianca.setConnectionPoolMaxWait(_connectionPoolMaxWait);
+      }
+
+      if (_preparedStatementCacheSize >= 0) {
+         bianca.setPreparedStatementCacheSize(_preparedStatementCacheSize);
+      }
+
       if (_iniPath != null) {
          String realPath = getServletContext().getRealPath(_iniPath);
          bianca.setIniFile(getBianca().getPwd().lookup(realPath));
@@ -535,6 +740,21 @@ public class BiancaServlet
             bianca.setServerEnv(entry.getKey(), entry.getValue());
          }
       }
+
+      for (String dir : _preloadDirList) {
+         bianca.addPreloadDir(bianca.getPwd().lookup(dir));
+      }
+
+      if (_preloadList != null) {
+         bianca.setPreloadList(bianca.getPwd().lookup(_preloadList));
+      }
+
+      if (_preloadThreadMax > 0) {
+         bianca.setPreloadThreadMax(_preloadThreadMax);
+      }
+
+      // parse before the servlet accepts requests
+      bianca.preload();
    }
 
    /**
@@ -121,6 +121,7 @@ public class BiancaServletImpl extends HttpServlet {
       throws ServletException, IOException {
       Env env = null;
       WriteStream ws = null;
+      CompressedResponse compressed = null;
 
       try {
          Path path = getPath(request);
@@ -139,7 +140,10 @@ public class BiancaServletImpl extends HttpServlet {
          }
 
 
-         ws = openWrite(response);
+         compressed = openCompressed(request, response);
+         response = compressed;
+
+         ws = Vfs.openWrite(compressed.getBodyStream());
 
          // php/6006
          ws.setNewlineString("\n");
@@ -149,6 +153,8 @@ public class BiancaServletImpl extends HttpServlet {
          env = bianca.createEnv(page, ws, request, response);
          bianca.setServletContext(_servletContext);
 
+         compressed.setEnv(env);
+
          try {
             env.start();
 
@@ -214,9 +220,13 @@ public class BiancaServletImpl extends HttpServlet {
                env.close();
             }
 
-            // don't want a flush for an exception
-            if (ws != null && env.getDuplex() == null) {
-               ws.close();
+            try {
+               // don't want a flush for an exception
+               if (ws != null && env.getDuplex() == null) {
+                  ws.close();
+               }
+            } finally {
+               compressed.release();
             }
          }
       } catch (BiancaDieException e) {
@@ -235,6 +245,80 @@ public class BiancaServletImpl extends HttpServlet {
       }
    }
 
+   /**
+    * Returns a response which compresses its body when the client accepts
+    * gzip or deflate.  zlib.output_compression is checked when the body
+    * starts, so the script can change it.
+    */
+   private CompressedResponse openCompressed(HttpServletRequest request,
+                                             HttpServletResponse response) {
+      String contentEncoding =
+         selectContentEncoding(request.getHeader("Accept-Encoding"));
+
+      return new CompressedResponse(response, contentEncoding);
+   }
+
+   /**
+    * Selects gzip or deflate from an Accept-Encoding header by quality,
+    * preferring gzip.  Returns null if neither is acceptable.
+    */
+   static String selectContentEncoding(String acceptEncoding) {
+      if (acceptEncoding == null) {
+         return null;
+      }
+
+      double gzip = -1;
+      double deflate = -1;
+      double any = -1;
+
+      for (String coding : acceptEncoding.split(",")) {
+         double q = 1;
+
+         int p = coding.indexOf(';');
+
+         if (p >= 0) {
+            String param = coding.substring(p + 1).trim();
+
+            if (param.startsWith("q=")) {
+               try {
+                  q = Double.parseDouble(param.substring(2).trim());
+               } catch (NumberFormatException e) {
+                  q = 0;
+               }
+            }
+
+            coding = coding.substring(0, p);
+         }
+
+         coding = coding.trim();
+
+         if (coding.equalsIgnoreCase("gzip")
+            || coding.equalsIgnoreCase("x-gzip")) {
+            gzip = q;
+         } else if (coding.equalsIgnoreCase("deflate")) {
+            deflate = q;
+         } else if (coding.equals("*")) {
+            any = q;
+         }
+      }
+
+      if (gzip < 0) {
+         gzip = any;
+      }
+
+      if (deflate < 0) {
+         deflate = any;
+      }
+
+      if (gzip > 0 && gzip >= deflate) {
+         return "gzip";
+      } else if (deflate > 0) {
+         return "deflate";
+      } else {
+         return null;
+      }
+   }
+
    protected WriteStream openWrite(HttpServletResponse response)
       throws IOException {
       WriteStream ws;
@@ -0,0 +1,238 @@
+/*
+ * Copyright (c) 2012 Clever Cloud SAS -- all rights reserved
+ *
+ * This file is part of Bianca(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Bianca Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Bianca Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Bianca Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ * @author Marc-Antoine Perennou <Marc-Antoine@Perennou.com>
+ */
+package com.clevercloud.bianca.servlet;
+
+import com.clevercloud.bianca.env.Env;
+import com.clevercloud.bianca.lib.zlib.ZlibResponseStream;
+
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Response whose body may be compressed.  Whether the body is compressed
+ * is decided on its first write, so zlib.output_compression can be
+ * changed by the script and a script-set Content-Encoding turns
+ * compression off.
+ */
+class CompressedResponse extends HttpServletResponseWrapper {
+
+   private final String _contentEncoding;
+   private final BodyStream _bodyStream = new BodyStream();
+   private Env _env;
+   private String _contentLength;
+   private OutputStream _os;
+   private ZlibResponseStream _zlibOut;
+
+   /**
+    * @param response        the servlet response
+    * @param contentEncoding gzip or deflate, or null if the client
+    *                        accepts neither
+    */
+   CompressedResponse(HttpServletResponse response, String contentEncoding) {
+      super(response);
+
+      _contentEncoding = contentEncoding;
+   }
+
+   /**
+    * Sets the env whose ini values are used.
+    */
+   void setEnv(Env env) {
+      _env = env;
+   }
+
+   /**
+    * Returns the stream for the body.
+    */
+   OutputStream getBodyStream() {
+      return _bodyStream;
+   }
+
+   /**
+    * Returns the deflater to the pool once the response is finished.
+    * An unfinished body is abandoned.
+    */
+   void release() {
+      if (_zlibOut != null) {
+         _zlibOut.release();
+      }
+   }
+
+   @Override
+   public void setContentLength(int length) {
+      setContentLengthHeader(String.valueOf(length));
+   }
+
+   @Override
+   public void setHeader(String name, String value) {
+      if (isContentLength(name)) {
+         setContentLengthHeader(value);
+      } else {
+         super.setHeader(name, value);
+      }
+   }
+
+   @Override
+   public void addHeader(String name, String value) {
+      if (isContentLength(name)) {
+         setContentLengthHeader(value);
+      } else {
+         super.addHeader(name, value);
+      }
+   }
+
+   @Override
+   public void setIntHeader(String name, int value) {
+      if (isContentLength(name)) {
+         setContentLengthHeader(String.valueOf(value));
+      } else {
+         super.setIntHeader(name, value);
+      }
+   }
+
+   @Override
+   public void addIntHeader(String name, int value) {
+      if (isContentLength(name)) {
+         setContentLengthHeader(String.valueOf(value));
+      } else {
+         super.addIntHeader(name, value);
+      }
+   }
+
+   private static boolean isContentLength(String name) {
+      return "Content-Length".equalsIgnoreCase(name);
+   }
+
+   /**
+    * The script's Content-Length is held until the body starts, and is
+    * dropped if the body is compressed.
+    */
+   private void setContentLengthHeader(String value) {
+      if (_os == null) {
+         _contentLength = value;
+      } else if (_zlibOut == null) {
+         super.setHeader("Content-Length", value);
+      }
+   }
+
+   /**
+    * Chooses between the compressed and the plain stream on the first
+    * write of the body.
+    */
+   private OutputStream start()
+      throws IOException {
+      if (_os != null) {
+         return _os;
+      }
+
+      HttpServletResponse response = (HttpServletResponse) getResponse();
+
+      // the body depends on Accept-Encoding even for clients without gzip
+      boolean isNegotiable = _env != null
+         && _env.getIniBoolean("zlib.output_compression")
+         && !response.containsHeader("Content-Encoding");
+
+      if (isNegotiable) {
+         response.addHeader("Vary", "Accept-Encoding");
+      }
+
+      if (isNegotiable && _contentEncoding != null) {
+         int level = (int) _env.getIniLong("zlib.output_compression_level");
+
+         if (level < -1 || level > 9) {
+            level = -1;
+         }
+
+         response.setHeader("Content-Encoding", _contentEncoding);
+
+         _zlibOut = new ZlibResponseStream(response.getOutputStream(),
+            "gzip".equals(_contentEncoding), level);
+         _os = _zlibOut;
+      } else {
+         if (_contentLength != null) {
+            response.setHeader("Content-Length", _contentLength);
+         }
+
+         _os = response.getOutputStream();
+      }
+
+      return _os;
+   }
+
+   class BodyStream extends OutputStream {
+
+      @Override
+      public void write(int v)
+         throws IOException {
+         start().write(v);
+      }
+
+      @Override
+      public void write(byte[] buffer, int offset, int length)
+         throws IOException {
+         if (length > 0) {
+            start().write(buffer, offset, length);
+         }
+      }
+
+      /**
+       * Flushes the body once it has started, leaving the headers open
+       * before the first write.
+       */
+      @Override
+      public void flush()
+         throws IOException {
+         if (_os != null) {
+            _os.flush();
+         }
+      }
+
+      /**
+       * Closes the body.  An empty body is sent uncompressed without a
+       * Content-Encoding.
+       */
+      @Override
+      public void close()
+         throws IOException {
+         if (_os == null) {
+            HttpServletResponse response = (HttpServletResponse) getResponse();
+
+            if (_contentLength != null) {
+               response.setHeader("Content-Length", _contentLength);
+            }
+
+            _os = response.getOutputStream();
+         }
+
+         _os.close();
+      }
+   }
+}
@@ -80,7 +80,7 @@ public class ClassStaticStatement
          Var var = env.getStaticVar(env.createString(className
             + "::" + staticName));
 
-         env.setVar(_var.getName(), var);
+         _var.evalAssignRef(env, var);
 
          if (!var.isset() && _initValue != null) {
             var.set(_initValue.eval(env));
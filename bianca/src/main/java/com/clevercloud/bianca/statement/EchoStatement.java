@@ -51,6 +51,13 @@ public class EchoStatement extends Statement {
       _expr = expr;
    }
 
+   /**
+    * Returns the echoed expression.
+    */
+   public Expr getExpr() {
+      return _expr;
+   }
+
    @Override
    public Value execute(Env env) {
       Value value = _expr.eval(env);
@@ -53,7 +53,7 @@ public class GlobalStatement extends Statement {
    @Override
    public Value execute(Env env) {
       try {
-         env.setRef(_var.getName(), env.getGlobalVar(_var.getName()));
+         _var.evalAssignRef(env, env.getGlobalVar(_var.getName()));
       } catch (RuntimeException e) {
          rethrow(e, RuntimeException.class);
       }
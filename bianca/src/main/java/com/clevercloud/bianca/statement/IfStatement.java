@@ -62,15 +62,15 @@ public class IfStatement extends Statement {
       }
    }
 
-   protected Expr getTest() {
+   public Expr getTest() {
       return _test;
    }
 
-   protected Statement getTrueBlock() {
+   public Statement getTrueBlock() {
       return _trueBlock;
    }
 
-   protected Statement getFalseBlock() {
+   public Statement getFalseBlock() {
       return _falseBlock;
    }
 
@@ -58,6 +58,13 @@ public class ReturnStatement extends Statement {
       _expr = expr;
    }
 
+   /**
+    * Returns the returned expression, or null.
+    */
+   public Expr getExpr() {
+      return _expr;
+   }
+
    /**
     * Executes the statement, returning the expression value.
     */
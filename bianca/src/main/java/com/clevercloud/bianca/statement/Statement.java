@@ -34,6 +34,7 @@ import com.clevercloud.bianca.Location;
 import com.clevercloud.bianca.env.Env;
 import com.clevercloud.bianca.env.Value;
 
+import java.io.Serializable;
 import java.util.IdentityHashMap;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -41,7 +42,7 @@ import java.util.logging.Logger;
 /**
  * Represents a PHP statement
  */
-abstract public class Statement {
+abstract public class Statement implements Serializable {
 
    private static final Logger log = Logger.getLogger(Statement.class.getName());
    public static final int FALL_THROUGH = 0;
@@ -91,6 +92,16 @@ abstract public class Statement {
 
    final protected <E extends Throwable> void rethrow(Throwable t, Class<E> cl)
       throws E {
+      rethrow(t, cl, _location);
+   }
+
+   /**
+    * Rethrows the exception, adding the PHP location to its stack trace.
+    */
+   final protected <E extends Throwable> void rethrow(Throwable t,
+                                                     Class<E> cl,
+                                                     Location location)
+      throws E {
       E typedT;
 
       if (!cl.isAssignableFrom(t.getClass())) {
@@ -175,10 +186,10 @@ abstract public class Statement {
          }
       }
 
-      String className = _location.getClassName();
-      String functionName = _location.getFunctionName();
-      String fileName = _location.getFileName();
-      int lineNumber = _location.getLineNumber();
+      String className = location.getClassName();
+      String functionName = location.getFunctionName();
+      String fileName = location.getFileName();
+      int lineNumber = location.getLineNumber();
 
       if (className == null) {
          className = "";
@@ -29,10 +29,12 @@
  */
 package com.clevercloud.bianca.statement;
 
+import java.io.Serializable;
+
 /**
  * A handle to a statement
  */
-public class StatementHandle {
+public class StatementHandle implements Serializable {
 
    public static final StatementHandle NULL = new StatementHandle(NullStatement.NULL);
    private final StatementHandle _parent;
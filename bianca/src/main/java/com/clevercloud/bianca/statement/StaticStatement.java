@@ -67,7 +67,7 @@ public class StaticStatement extends Statement {
 
          Var var = env.getStaticVar(staticName);
 
-         env.setRef(_var.getName(), var);
+         _var.evalAssignRef(env, var);
 
          if (!var.isset() && _initValue != null) {
             var.set(_initValue.eval(env));
@@ -34,6 +34,11 @@ import com.clevercloud.bianca.Location;
 import com.clevercloud.bianca.env.Env;
 import com.clevercloud.bianca.env.Value;
 
+import com.clevercloud.vfs.ReaderWriterStream;
+import com.clevercloud.vfs.Vfs;
+import com.clevercloud.vfs.WriteStream;
+
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 
 /**
@@ -42,6 +47,8 @@ import java.io.IOException;
 public class TextStatement extends Statement {
 
    private String _value;
+   // the text encoded for the last output encoding, rebuilt after loading
+   private transient volatile EncodedText _encoded;
 
    /**
     * Creates the text statement with its string.
@@ -59,7 +66,15 @@ public class TextStatement extends Statement {
    @Override
    public Value execute(Env env) {
       try {
-         env.getOut().print(_value);
+         WriteStream out = env.getOut();
+
+         byte[] bytes = getBytes(out);
+
+         if (bytes != null) {
+            out.write(bytes, 0, bytes.length);
+         } else {
+            out.print(_value);
+         }
       } catch (RuntimeException e) {
          throw e;
       } catch (IOException e) {
@@ -68,4 +83,63 @@ public class TextStatement extends Statement {
 
       return null;
    }
+
+   /**
+    * Returns the text encoded for the stream, encoding it once for each
+    * change of the output encoding.
+    */
+   private byte[] getBytes(WriteStream out)
+      throws IOException {
+      if (out.getSource() instanceof ReaderWriterStream) {
+         return null;
+      }
+
+      String encoding = out.getEncoding();
+
+      EncodedText encoded = _encoded;
+
+      if (encoded != null && encoded.isEncoding(encoding)) {
+         return encoded.getBytes();
+      }
+
+      // encode with the same writer the stream uses
+      ByteArrayOutputStream bos = new ByteArrayOutputStream(_value.length());
+      WriteStream ws = Vfs.openWrite(bos);
+
+      if (encoding != null) {
+         ws.setEncoding(encoding);
+      }
+
+      ws.print(_value);
+      ws.close();
+
+      encoded = new EncodedText(encoding, bos.toByteArray());
+
+      _encoded = encoded;
+
+      return encoded.getBytes();
+   }
+
+   static class EncodedText {
+
+      private final String _encoding;
+      private final byte[] _bytes;
+
+      EncodedText(String encoding, byte[] bytes) {
+         _encoding = encoding;
+         _bytes = bytes;
+      }
+
+      boolean isEncoding(String encoding) {
+         if (_encoding == null) {
+            return encoding == null;
+         } else {
+            return _encoding.equals(encoding);
+         }
+      }
+
+      byte[] getBytes() {
+         return _bytes;
+      }
+   }
 }
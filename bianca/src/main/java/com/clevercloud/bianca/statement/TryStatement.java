@@ -36,6 +36,7 @@ import com.clevercloud.bianca.env.NullValue;
 import com.clevercloud.bianca.env.Value;
 import com.clevercloud.bianca.expr.AbstractVarExpr;
 
+import java.io.Serializable;
 import java.util.ArrayList;
 
 /**
@@ -140,7 +141,7 @@ public class TryStatement extends Statement {
       }
    }
 
-   public static class Catch {
+   public static class Catch implements Serializable {
 
       private final String _id;
       private final AbstractVarExpr _lhs;
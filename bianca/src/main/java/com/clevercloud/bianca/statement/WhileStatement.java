@@ -58,6 +58,20 @@ public class WhileStatement extends Statement {
       block.setParent(this);
    }
 
+   /**
+    * Returns the loop test.
+    */
+   public Expr getTest() {
+      return _test;
+   }
+
+   /**
+    * Returns the loop body.
+    */
+   public Statement getBlock() {
+      return _block;
+   }
+
    @Override
    public boolean isLoop() {
       return true;
@@ -0,0 +1,466 @@
+/*
+ * Copyright (c) 2012 Clever Cloud SAS -- all rights reserved
+ *
+ * This file is part of Bianca(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Bianca Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Bianca Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Bianca Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ * @author Marc-Antoine Perennou <Marc-Antoine@Perennou.com>
+ */
+package com.clevercloud.util;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Fixed size cache for values shared by all request threads.
+ * <p/>
+ * The cache is split into segments by key hash.  Lookups read a
+ * ConcurrentHashMap and mark the entry as referenced without taking a
+ * lock.  Writes lock their segment only, and evict with the CLOCK
+ * approximation of LRU: the hand clears the mark of referenced entries
+ * and removes the first unmarked one.  Values implementing CacheListener
+ * are informed when they're removed or evicted.
+ * <p/>
+ * <p>Null keys are not allowed.  The capacity is split evenly between the
+ * segments, rounded up.  The hit, miss and eviction counts are
+ * kept per segment without synchronization, so they're approximate under
+ * heavy contention.
+ */
+public final class ConcurrentLruCache<K, V> {
+
+   private static final int SEGMENT_MAX = 16;
+   private final Segment<K, V>[] _segments;
+   private final int _segmentMask;
+   private final int _capacity;
+
+   /**
+    * Create the cache with a specific capacity.
+    *
+    * @param capacity maximum number of entries
+    */
+   @SuppressWarnings("unchecked")
+   public ConcurrentLruCache(int capacity) {
+      capacity = Math.max(1, capacity);
+
+      int segmentCount = 1;
+
+      // at least 8 entries per segment so the eviction stays close to LRU
+      while (segmentCount < SEGMENT_MAX && 16 * segmentCount <= capacity) {
+         segmentCount *= 2;
+      }
+
+      _capacity = capacity;
+      _segmentMask = segmentCount - 1;
+      _segments = (Segment<K, V>[]) new Segment<?, ?>[segmentCount];
+
+      int segmentCapacity = (capacity + segmentCount - 1) / segmentCount;
+
+      for (int i = 0; i < segmentCount; i++) {
+         _segments[i] = new Segment<K, V>(segmentCapacity);
+      }
+   }
+
+   /**
+    * Returns the maximum number of entries.
+    */
+   public int getCapacity() {
+      return _capacity;
+   }
+
+   /**
+    * Returns the current number of entries.
+    */
+   public int size() {
+      int size = 0;
+
+      for (Segment<K, V> segment : _segments) {
+         size += segment._map.size();
+      }
+
+      return size;
+   }
+
+   /**
+    * Returns the cached value, marking it as recently used.
+    */
+   public V get(K key) {
+      Segment<K, V> segment = getSegment(key);
+
+      Node<K, V> node = segment._map.get(key);
+
+      if (node == null) {
+         segment._missCount++;
+
+         return null;
+      }
+
+      if (!node._isReferenced) {
+         node._isReferenced = true;
+      }
+
+      segment._hitCount++;
+
+      return node._value;
+   }
+
+   /**
+    * Puts a value in the cache, evicting an old entry if the cache is full.
+    *
+    * @return the old value stored under the key
+    */
+   public V put(K key, V value) {
+      Segment<K, V> segment = getSegment(key);
+
+      V oldValue;
+      Node<K, V> evicted = null;
+
+      synchronized (segment) {
+         Node<K, V> node = segment._map.get(key);
+
+         if (node != null) {
+            oldValue = node._value;
+
+            node._value = value;
+            node._isReferenced = true;
+         } else {
+            oldValue = null;
+
+            evicted = segment.insert(key, value);
+         }
+      }
+
+      if (evicted != null) {
+         removeEvent(evicted._value);
+      }
+
+      if (oldValue != value) {
+         removeEvent(oldValue);
+
+         return oldValue;
+      } else {
+         return null;
+      }
+   }
+
+   /**
+    * Puts a value in the cache unless the key is already cached.
+    *
+    * @return the value actually stored
+    */
+   public V putIfNew(K key, V value) {
+      Segment<K, V> segment = getSegment(key);
+
+      Node<K, V> evicted;
+
+      synchronized (segment) {
+         Node<K, V> node = segment._map.get(key);
+
+         if (node != null) {
+            node._isReferenced = true;
+
+            return node._value;
+         }
+
+         evicted = segment.insert(key, value);
+      }
+
+      if (evicted != null) {
+         removeEvent(evicted._value);
+      }
+
+      return value;
+   }
+
+   /**
+    * Removes an entry from the cache.
+    *
+    * @return the removed value
+    */
+   public V remove(K key) {
+      Segment<K, V> segment = getSegment(key);
+
+      Node<K, V> node;
+
+      synchronized (segment) {
+         node = segment._map.remove(key);
+
+         if (node == null) {
+            return null;
+         }
+
+         segment.removeSlot(node);
+      }
+
+      removeEvent(node._value);
+
+      return node._value;
+   }
+
+   /**
+    * Removes all entries.
+    */
+   public void clear() {
+      ArrayList<V> removed = new ArrayList<V>();
+
+      for (Segment<K, V> segment : _segments) {
+         synchronized (segment) {
+            for (int i = 0; i < segment._count; i++) {
+               removed.add(segment._ring[i]._value);
+               segment._ring[i] = null;
+            }
+
+            segment._map.clear();
+            segment._count = 0;
+            segment._hand = 0;
+         }
+      }
+
+      for (V value : removed) {
+         removeEvent(value);
+      }
+   }
+
+   /**
+    * Returns the keys stored in the cache.
+    */
+   public Iterator<K> keys() {
+      return new NodeIterator<K>() {
+         @Override
+         protected K get(Node<K, V> node) {
+            return node._key;
+         }
+      };
+   }
+
+   /**
+    * Returns the values stored in the cache.
+    */
+   public Iterator<V> values() {
+      return new NodeIterator<V>() {
+         @Override
+         protected V get(Node<K, V> node) {
+            return node._value;
+         }
+      };
+   }
+
+   /**
+    * Returns the hit count.
+    */
+   public long getHitCount() {
+      long count = 0;
+
+      for (Segment<K, V> segment : _segments) {
+         count += segment._hitCount;
+      }
+
+      return count;
+   }
+
+   /**
+    * Returns the miss count.
+    */
+   public long getMissCount() {
+      long count = 0;
+
+      for (Segment<K, V> segment : _segments) {
+         count += segment._missCount;
+      }
+
+      return count;
+   }
+
+   /**
+    * Returns the number of entries evicted to make room for new ones.
+    */
+   public long getEvictCount() {
+      long count = 0;
+
+      for (Segment<K, V> segment : _segments) {
+         count += segment._evictCount;
+      }
+
+      return count;
+   }
+
+   private Segment<K, V> getSegment(Object key) {
+      int hash = key.hashCode();
+
+      hash ^= (hash >>> 16);
+      hash ^= (hash >>> 7);
+
+      return _segments[hash & _segmentMask];
+   }
+
+   private void removeEvent(V value) {
+      if (value instanceof CacheListener) {
+         ((CacheListener) value).removeEvent();
+      }
+   }
+
+   @Override
+   public String toString() {
+      return (getClass().getSimpleName() + "[" + size() + "/" + _capacity
+         + ",segments=" + _segments.length + "]");
+   }
+
+   static final class Node<K, V> {
+
+      final K _key;
+      volatile V _value;
+      // set by lookups, cleared by the clock hand
+      volatile boolean _isReferenced;
+      // index in the clock ring, guarded by the segment
+      int _slot;
+
+      Node(K key, V value) {
+         _key = key;
+         _value = value;
+      }
+   }
+
+   static final class Segment<K, V> {
+
+      final ConcurrentHashMap<K, Node<K, V>> _map;
+      // guarded by this
+      final Node<K, V>[] _ring;
+      int _count;
+      int _hand;
+      // racy statistics
+      volatile long _hitCount;
+      volatile long _missCount;
+      volatile long _evictCount;
+
+      @SuppressWarnings("unchecked")
+      Segment(int capacity) {
+         _map = new ConcurrentHashMap<K, Node<K, V>>(2 * capacity);
+         _ring = (Node<K, V>[]) new Node<?, ?>[capacity];
+      }
+
+      /**
+       * Adds a new entry, returning the evicted one if the segment was full.
+       */
+      Node<K, V> insert(K key, V value) {
+         Node<K, V> node = new Node<K, V>(key, value);
+         Node<K, V> evicted = null;
+
+         int slot;
+
+         if (_count < _ring.length) {
+            slot = _count++;
+         } else {
+            evicted = evict();
+            slot = evicted._slot;
+         }
+
+         node._slot = slot;
+         _ring[slot] = node;
+
+         _map.put(key, node);
+
+         return evicted;
+      }
+
+      /**
+       * Advances the clock hand to the first entry not referenced since
+       * the last sweep and removes it.
+       */
+      private Node<K, V> evict() {
+         Node<K, V>[] ring = _ring;
+
+         while (true) {
+            Node<K, V> node = ring[_hand];
+
+            _hand = (_hand + 1) % _count;
+
+            if (node._isReferenced) {
+               node._isReferenced = false;
+            } else {
+               _map.remove(node._key);
+               _evictCount++;
+
+               return node;
+            }
+         }
+      }
+
+      /**
+       * Fills the slot of a removed entry with the last entry.
+       */
+      void removeSlot(Node<K, V> node) {
+         int last = --_count;
+
+         Node<K, V> lastNode = _ring[last];
+         _ring[last] = null;
+
+         if (lastNode != node) {
+            _ring[node._slot] = lastNode;
+            lastNode._slot = node._slot;
+         }
+
+         if (_count <= _hand) {
+            _hand = 0;
+         }
+      }
+   }
+
+   /**
+    * Weakly consistent iterator over the segments.
+    */
+   abstract class NodeIterator<T> implements Iterator<T> {
+
+      private int _segment;
+      private Iterator<Node<K, V>> _iter;
+
+      @Override
+      public boolean hasNext() {
+         while (_iter == null || !_iter.hasNext()) {
+            if (_segments.length <= _segment) {
+               return false;
+            }
+
+            _iter = _segments[_segment++]._map.values().iterator();
+         }
+
+         return true;
+      }
+
+      @Override
+      public T next() {
+         if (!hasNext()) {
+            throw new NoSuchElementException();
+         }
+
+         return get(_iter.next());
+      }
+
+      @Override
+      public void remove() {
+         throw new UnsupportedOperationException();
+      }
+
+      protected abstract T get(Node<K, V> node);
+   }
+}
@@ -0,0 +1,59 @@
+/*
+ * Copyright (c) 2012 Clever Cloud SAS -- all rights reserved
+ *
+ * This file is part of Bianca(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Bianca Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Bianca Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Bianca Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ * @author Marc-Antoine Perennou <Marc-Antoine@Perennou.com>
+ */
+package com.clevercloud.util;
+
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Creates named daemon threads for background work.
+ */
+public class DaemonThreadFactory implements ThreadFactory {
+
+   private final String _name;
+   private final AtomicInteger _count = new AtomicInteger();
+
+   public DaemonThreadFactory(String name) {
+      _name = name;
+   }
+
+   @Override
+   public Thread newThread(Runnable task) {
+      Thread thread = new Thread(task, _name + "-" + _count.incrementAndGet());
+
+      thread.setDaemon(true);
+
+      return thread;
+   }
+
+   @Override
+   public String toString() {
+      return getClass().getSimpleName() + "[" + _name + "]";
+   }
+}
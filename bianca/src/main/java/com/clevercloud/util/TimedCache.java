@@ -94,6 +94,13 @@ public class TimedCache<K, V> {
       }
    }
 
+   /**
+    * Removes all the items from the cache.
+    */
+   public void clear() {
+      _cache.clear();
+   }
+
    /**
     * Class representing a cached entry.
     */
@@ -0,0 +1,63 @@
+<?php
+// Writes to a copied array literal keep its internal pointer.
+// Run with bin/bianca-php; prints "ok" or the failed checks.
+
+$failed = 0;
+
+function check($name, $actual, $expected) {
+   global $failed;
+
+   if ($actual !== $expected) {
+      echo "FAIL $name: ", var_export($actual, true),
+         " expected ", var_export($expected, true), "\n";
+
+      $failed++;
+   }
+}
+
+$a = array(1, 2, 3);
+next($a);
+$a[] = 4;
+check("next, append", key($a), 1);
+check("next, append current", current($a), 2);
+
+$a = array(1, 2, 3);
+end($a);
+$a[] = 4;
+check("end, append", key($a), 2);
+
+$a = array(1, 2, 3);
+end($a);
+$a[5] = 4;
+check("end, keyed write", key($a), 2);
+
+$a = array(1, 2, 3);
+next($a);
+$a[0] = 'z';
+check("next, overwrite", key($a), 1);
+check("next, overwrite value", $a[0], 'z');
+
+$a = array('x' => 1, 'y' => 2, 'z' => 3);
+next($a);
+$a['w'] = 4;
+check("string keys, next, keyed write", key($a), 'y');
+
+$a = array('x' => 1, 'y' => 2);
+end($a);
+next($a);
+$a['q'] = 3;
+check("past end, keyed write", key($a), null);
+
+$a = array(1, 2, 3);
+$sum = 0;
+while (($v = current($a)) !== false) {
+   $sum += $v;
+   $a[key($a)] = $v * 2;
+   next($a);
+}
+check("walk while writing", $sum, 6);
+check("walk while writing values", $a, array(2, 4, 6));
+
+if ($failed == 0) {
+   echo "ok\n";
+}